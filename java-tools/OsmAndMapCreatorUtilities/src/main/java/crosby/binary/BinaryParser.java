@@ -39,17 +39,8 @@ public abstract class BinaryParser implements BlockReaderAdapter {
 
     @Override
     public void handleBlock(FileBlock message) {
-        // TODO Auto-generated method stub
         try {
-            if (message.getType().equals("OSMHeader")) {
-                Osmformat.HeaderBlock headerblock = Osmformat.HeaderBlock
-                        .parseFrom(message.getData());
-                parse(headerblock);
-            } else if (message.getType().equals("OSMData")) {
-                Osmformat.PrimitiveBlock primblock = Osmformat.PrimitiveBlock
-                        .parseFrom(message.getData());
-                parse(primblock);
-            }
+            handleDecodedBlock(decodeBlock(message));
         } catch (InvalidProtocolBufferException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -58,6 +49,30 @@ public abstract class BinaryParser implements BlockReaderAdapter {
 
     }
 
+    /**
+     * Parse the payload of a block into its protocol buffer message. Doesn't touch the
+     * parser state (string table, granularity), so it is safe to call from worker threads.
+     *
+     * @return HeaderBlock, PrimitiveBlock or null for unknown block types
+     */
+    public Object decodeBlock(FileBlock message) throws InvalidProtocolBufferException {
+        if (message.getType().equals("OSMHeader")) {
+            return Osmformat.HeaderBlock.parseFrom(message.getData());
+        } else if (message.getType().equals("OSMData")) {
+            return Osmformat.PrimitiveBlock.parseFrom(message.getData());
+        }
+        return null;
+    }
+
+    /** Send a block decoded by {@link #decodeBlock(FileBlock)} to the sink. Must be called in file order. */
+    public void handleDecodedBlock(Object block) {
+        if (block instanceof Osmformat.HeaderBlock) {
+            parse((Osmformat.HeaderBlock) block);
+        } else if (block instanceof Osmformat.PrimitiveBlock) {
+            parse((Osmformat.PrimitiveBlock) block);
+        }
+    }
+
 
     @Override
     public boolean skipBlock(FileBlockPosition block) {
@@ -0,0 +1,313 @@
+package crosby.binary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import com.google.protobuf.ByteString;
+
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+import crosby.binary.file.SeekableBlockInputStream;
+
+/**
+ * Index of the blocks of a pbf file: offset, type, entity kind, id range and
+ * bbox of every block. Lets readers seek directly to the blocks they need
+ * instead of decompressing the whole file.
+ *
+ * The index is built with one pass over the file and can be stored next to it
+ * (see {@link #loadOrBuild(File)}) so following runs only read the small
+ * index file.
+ */
+public class PbfBlockIndex {
+
+    public static final String INDEX_EXT = ".blockidx";
+    private static final int VERSION = 1;
+
+    public enum BlockKind {
+        HEADER, NODES, WAYS, RELATIONS, MIXED, OTHER
+    }
+
+    public interface BlockFilter {
+        boolean accept(BlockEntry block);
+    }
+
+    public static class BlockEntry {
+        private final FileBlockPosition position;
+        private BlockKind kind = BlockKind.OTHER;
+        private long minId = Long.MAX_VALUE;
+        private long maxId = Long.MIN_VALUE;
+        // bbox is only known for blocks with nodes
+        private double top = Double.NaN;
+        private double bottom = Double.NaN;
+        private double left = Double.NaN;
+        private double right = Double.NaN;
+
+        BlockEntry(FileBlockPosition position) {
+            this.position = position;
+        }
+
+        public FileBlockPosition getPosition() {
+            return position;
+        }
+
+        public BlockKind getKind() {
+            return kind;
+        }
+
+        public long getMinId() {
+            return minId;
+        }
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        public boolean hasBBox() {
+            return !Double.isNaN(top);
+        }
+
+        public double getTop() {
+            return top;
+        }
+
+        public double getBottom() {
+            return bottom;
+        }
+
+        public double getLeft() {
+            return left;
+        }
+
+        public double getRight() {
+            return right;
+        }
+
+        public boolean containsId(long id) {
+            return id >= minId && id <= maxId;
+        }
+
+        public boolean intersects(double top, double left, double bottom, double right) {
+            if (!hasBBox()) {
+                return false;
+            }
+            return this.left <= right && this.right >= left && this.bottom <= top && this.top >= bottom;
+        }
+
+        private void addKind(BlockKind k) {
+            if (kind == BlockKind.OTHER) {
+                kind = k;
+            } else if (kind != k) {
+                kind = BlockKind.MIXED;
+            }
+        }
+
+        private void addId(long id) {
+            minId = Math.min(minId, id);
+            maxId = Math.max(maxId, id);
+        }
+
+        private void addPoint(double lat, double lon) {
+            if (!hasBBox()) {
+                top = bottom = lat;
+                left = right = lon;
+            } else {
+                top = Math.max(top, lat);
+                bottom = Math.min(bottom, lat);
+                left = Math.min(left, lon);
+                right = Math.max(right, lon);
+            }
+        }
+    }
+
+    private final List<BlockEntry> blocks;
+
+    private PbfBlockIndex(List<BlockEntry> blocks) {
+        this.blocks = blocks;
+    }
+
+    public List<BlockEntry> getBlocks() {
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Select blocks accepted by filter, the header block is always selected.
+     */
+    public List<FileBlockPosition> select(BlockFilter filter) {
+        List<FileBlockPosition> res = new ArrayList<FileBlockPosition>();
+        for (BlockEntry b : blocks) {
+            if (b.kind == BlockKind.HEADER || filter == null || filter.accept(b)) {
+                res.add(b.position);
+            }
+        }
+        return res;
+    }
+
+    public static BlockFilter kinds(final EnumSet<BlockKind> kinds) {
+        return new BlockFilter() {
+            @Override
+            public boolean accept(BlockEntry block) {
+                return block.kind == BlockKind.MIXED || kinds.contains(block.kind);
+            }
+        };
+    }
+
+    /**
+     * Accepts node blocks intersecting bbox and all blocks without nodes
+     * (ways and relations don't have coordinates in pbf).
+     */
+    public static BlockFilter nodesInside(final double top, final double left, final double bottom, final double right) {
+        return new BlockFilter() {
+            @Override
+            public boolean accept(BlockEntry block) {
+                if (block.kind == BlockKind.NODES) {
+                    return block.intersects(top, left, bottom, right);
+                }
+                return true;
+            }
+        };
+    }
+
+    public static PbfBlockIndex build(FileChannel channel) throws IOException {
+        SeekableBlockInputStream sis = new SeekableBlockInputStream(channel);
+        List<BlockEntry> blocks = new ArrayList<BlockEntry>();
+        for (FileBlockPosition p : sis.readBlockPositions()) {
+            BlockEntry entry = new BlockEntry(p);
+            if (p.getType().equals("OSMHeader")) {
+                entry.kind = BlockKind.HEADER;
+            } else if (p.getType().equals("OSMData")) {
+                FileBlock block = sis.read(p);
+                summarize(entry, Osmformat.PrimitiveBlock.parseFrom(block.getData()));
+            }
+            blocks.add(entry);
+        }
+        return new PbfBlockIndex(blocks);
+    }
+
+    /**
+     * Read index stored next to the pbf file or build and store it if it is
+     * missing or older than the pbf file.
+     */
+    public static PbfBlockIndex loadOrBuild(File pbf) throws IOException {
+        File indexFile = new File(pbf.getParentFile(), pbf.getName() + INDEX_EXT);
+        if (indexFile.exists() && indexFile.lastModified() >= pbf.lastModified()) {
+            PbfBlockIndex index = read(indexFile, pbf.length());
+            if (index != null) {
+                return index;
+            }
+        }
+        FileInputStream fis = new FileInputStream(pbf);
+        try {
+            PbfBlockIndex index = build(fis.getChannel());
+            index.write(indexFile, pbf.length());
+            return index;
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static void summarize(BlockEntry entry, Osmformat.PrimitiveBlock block) {
+        long granularity = block.getGranularity();
+        long latOffset = block.getLatOffset();
+        long lonOffset = block.getLonOffset();
+        for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+            for (Osmformat.Node n : group.getNodesList()) {
+                entry.addKind(BlockKind.NODES);
+                entry.addId(n.getId());
+                entry.addPoint((granularity * n.getLat() + latOffset) * 0.000000001,
+                        (granularity * n.getLon() + lonOffset) * 0.000000001);
+            }
+            if (group.hasDense()) {
+                Osmformat.DenseNodes dense = group.getDense();
+                long id = 0;
+                long lat = 0;
+                long lon = 0;
+                for (int i = 0; i < dense.getIdCount(); i++) {
+                    id += dense.getId(i);
+                    lat += dense.getLat(i);
+                    lon += dense.getLon(i);
+                    entry.addKind(BlockKind.NODES);
+                    entry.addId(id);
+                    entry.addPoint((granularity * lat + latOffset) * 0.000000001,
+                            (granularity * lon + lonOffset) * 0.000000001);
+                }
+            }
+            for (Osmformat.Way w : group.getWaysList()) {
+                entry.addKind(BlockKind.WAYS);
+                entry.addId(w.getId());
+            }
+            for (Osmformat.Relation r : group.getRelationsList()) {
+                entry.addKind(BlockKind.RELATIONS);
+                entry.addId(r.getId());
+            }
+        }
+    }
+
+    private void write(File indexFile, long pbfLength) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeLong(pbfLength);
+            out.writeInt(blocks.size());
+            for (BlockEntry b : blocks) {
+                FileBlockPosition p = b.position;
+                out.writeUTF(p.getType());
+                byte[] indexData = p.getIndexData() == null ? new byte[0] : p.getIndexData().toByteArray();
+                out.writeInt(indexData.length);
+                out.write(indexData);
+                out.writeLong(p.getDataOffset());
+                out.writeInt(p.getDatasize());
+                out.writeByte(b.kind.ordinal());
+                out.writeLong(b.minId);
+                out.writeLong(b.maxId);
+                out.writeDouble(b.top);
+                out.writeDouble(b.left);
+                out.writeDouble(b.bottom);
+                out.writeDouble(b.right);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static PbfBlockIndex read(File indexFile, long pbfLength) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != VERSION || in.readLong() != pbfLength) {
+                return null;
+            }
+            int size = in.readInt();
+            List<BlockEntry> blocks = new ArrayList<BlockEntry>(size);
+            for (int i = 0; i < size; i++) {
+                String type = in.readUTF();
+                byte[] indexData = new byte[in.readInt()];
+                in.readFully(indexData);
+                long offset = in.readLong();
+                int datasize = in.readInt();
+                BlockEntry b = new BlockEntry(FileBlockPosition.newInstance(type,
+                        indexData.length == 0 ? null : ByteString.copyFrom(indexData), offset, datasize));
+                b.kind = BlockKind.values()[in.readByte()];
+                b.minId = in.readLong();
+                b.maxId = in.readLong();
+                b.top = in.readDouble();
+                b.left = in.readDouble();
+                b.bottom = in.readDouble();
+                b.right = in.readDouble();
+                blocks.add(b);
+            }
+            return new PbfBlockIndex(blocks);
+        } finally {
+            in.close();
+        }
+    }
+}
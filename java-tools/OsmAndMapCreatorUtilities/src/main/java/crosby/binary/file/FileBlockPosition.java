@@ -1,9 +1,12 @@
 package crosby.binary.file;
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -65,6 +68,35 @@ public class FileBlockPosition extends FileBlockBase {
         return out;
     }
 
+    /** Restore a position that was stored outside of the file (block index) */
+    public static FileBlockPosition newInstance(String type, ByteString indexdata, long offset, int length) {
+        FileBlockPosition out = new FileBlockPosition(type, indexdata);
+        out.datasize = length;
+        out.data_offset = offset;
+        return out;
+    }
+
+    public long getDataOffset() {
+        return data_offset;
+    }
+
+    /**
+     * Read the block with a positional read, the channel position is not
+     * changed so several threads may read blocks from the same channel.
+     */
+    public FileBlock read(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(getDatasize());
+        long pos = data_offset;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, pos);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file reading block at " + data_offset);
+            }
+            pos += read;
+        }
+        return parseData(buf.array());
+    }
+
     public FileBlock read(InputStream input) throws IOException {
         if (input instanceof FileInputStream) {
             ((FileInputStream) input).getChannel().position(data_offset);
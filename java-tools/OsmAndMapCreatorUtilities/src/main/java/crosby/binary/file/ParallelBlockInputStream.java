@@ -0,0 +1,122 @@
+package crosby.binary.file;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import crosby.binary.BinaryParser;
+
+/**
+ * Variant of {@link BlockInputStream} that decodes blocks on several threads.
+ *
+ * A reader thread splits the stream into raw blobs, a pool of workers inflates
+ * them and parses the protocol buffer messages, and the calling thread hands the
+ * decoded blocks to the parser in the original file order. The parser sink
+ * (entity creation, registerEntity) therefore stays single threaded.
+ */
+public class ParallelBlockInputStream {
+    /** Decoded blocks waiting for the sink per worker thread */
+    private static final int BLOCKS_AHEAD_PER_THREAD = 4;
+
+    private static final Future<Object> END_OF_STREAM = CompletableFuture.completedFuture(null);
+
+    public ParallelBlockInputStream(InputStream input, BinaryParser parser, int threads) {
+        this.input = input;
+        this.parser = parser;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void process() throws IOException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads, new DecoderThreadFactory());
+        final BlockingQueue<Future<Object>> decoded = new ArrayBlockingQueue<Future<Object>>(
+                threads * BLOCKS_AHEAD_PER_THREAD);
+        Thread reader = new Thread("PbfBlockReader") {
+            @Override
+            public void run() {
+                try {
+                    readBlocks(workers, decoded);
+                } catch (IOException e) {
+                    readError = e;
+                } catch (InterruptedException e) {
+                    readError = new InterruptedIOException();
+                } finally {
+                    try {
+                        decoded.put(END_OF_STREAM);
+                    } catch (InterruptedException e) {
+                        // consumer is gone as well
+                    }
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            Future<Object> next;
+            while ((next = decoded.take()) != END_OF_STREAM) {
+                parser.handleDecodedBlock(next.get());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Error decoding pbf block", e.getCause());
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+        if (readError != null) {
+            throw readError;
+        }
+        parser.complete();
+    }
+
+    private void readBlocks(ExecutorService workers, BlockingQueue<Future<Object>> decoded)
+            throws IOException, InterruptedException {
+        DataInputStream datinput = new DataInputStream(input);
+        while (input.available() > 0) {
+            final FileBlockHead head = FileBlockHead.readHead(input);
+            if (parser.skipBlock(head)) {
+                head.skipContents(input);
+                continue;
+            }
+            final byte[] buf = new byte[head.getDatasize()];
+            datinput.readFully(buf);
+            decoded.put(workers.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return parser.decodeBlock(head.parseData(buf));
+                }
+            }));
+        }
+    }
+
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private static class DecoderThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "PbfBlockDecoder-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    private final InputStream input;
+    private final BinaryParser parser;
+    private final int threads;
+    private volatile IOException readError;
+}
@@ -0,0 +1,62 @@
+package crosby.binary.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Random access counterpart of {@link BlockInputStream} backed by a
+ * {@link FileChannel}. Block headers can be scanned without reading the block
+ * data, and afterwards only the selected blocks are read and decompressed.
+ */
+public class SeekableBlockInputStream {
+
+    public SeekableBlockInputStream(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Scan the headers of all blocks in the file, the data of the blocks is
+     * skipped by seeking over it.
+     */
+    public List<FileBlockPosition> readBlockPositions() throws IOException {
+        List<FileBlockPosition> positions = new ArrayList<FileBlockPosition>();
+        // do not close: it would close the channel
+        InputStream input = Channels.newInputStream(channel);
+        channel.position(0);
+        long size = channel.size();
+        while (channel.position() < size) {
+            FileBlockHead head = FileBlockHead.readHead(input);
+            long offset = channel.position();
+            positions.add(FileBlockPosition.newInstance(head, offset, head.getDatasize()));
+            channel.position(offset + head.getDatasize());
+        }
+        return positions;
+    }
+
+    public FileBlock read(FileBlockPosition position) throws IOException {
+        return position.read(channel);
+    }
+
+    /**
+     * Pass the given blocks to the adaptor in the list order, blocks that
+     * the adaptor skips are never read.
+     */
+    public void process(List<? extends FileBlockPosition> blocks, BlockReaderAdapter adaptor) throws IOException {
+        for (FileBlockPosition block : blocks) {
+            if (!adaptor.skipBlock(block)) {
+                adaptor.handleBlock(block.read(channel));
+            }
+        }
+        adaptor.complete();
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private final FileChannel channel;
+}
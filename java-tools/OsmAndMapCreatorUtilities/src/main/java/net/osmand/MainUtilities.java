@@ -31,9 +31,11 @@ import net.osmand.obf.diff.ObfRegionSplitter;
 import net.osmand.obf.diff.RelationDiffGenerator;
 import net.osmand.obf.preparation.BasemapProcessor;
 import net.osmand.obf.preparation.DBDialect;
+import net.osmand.obf.preparation.IncrementalIndexUpdater;
 import net.osmand.obf.preparation.IndexCreator;
 import net.osmand.obf.preparation.IndexCreatorSettings;
 import net.osmand.obf.preparation.IndexHeightData;
+import net.osmand.obf.preparation.MultiRegionIndexCreator;
 import net.osmand.obf.preparation.OceanTilesCreator;
 import net.osmand.osm.FilterOsmByTags;
 import net.osmand.osm.MapPoiTypes;
@@ -160,6 +162,17 @@ public class MainUtilities {
 				settings.indexRouting = true;
 				parseIndexCreatorArgs(subArgs, settings);
 				generateObf(subArgs, settings);
+			} else if (utl.equals("update-obf-from-osc")) {
+				IncrementalIndexUpdater.main(subArgsArray);
+			} else if (utl.equals("generate-obf-regions")) {
+				IndexCreatorSettings settings = new IndexCreatorSettings();
+				settings.indexMap = true;
+				settings.indexAddress = true;
+				settings.indexPOI = true;
+				settings.indexTransport = true;
+				settings.indexRouting = true;
+				parseIndexCreatorArgs(subArgs, settings);
+				MultiRegionIndexCreator.generate(subArgs.toArray(new String[0]), settings);
 			} else if (utl.equals("generate-obf-no-address")) {
 				IndexCreatorSettings settings = new IndexCreatorSettings();
 				settings.indexMap = true;
@@ -229,6 +242,9 @@ public class MainUtilities {
 				IndexUploader.main(subArgsArray);
 			} else if (utl.equals("combine-srtm-into-file")) {
 				CombineSRTMIntoFile.main(subArgsArray);
+			} else if (utl.equals("convert-srtm-tif-to-raw")) {
+				File tifDir = new File(subArgsArray[0]);
+				IndexHeightData.convertTiffTilesToRaw(tifDir, subArgsArray.length > 1 ? new File(subArgsArray[1]) : tifDir);
 			} else if (utl.equals("collect-sqlitedb-into-regions")) {
 				ConvertLargeRasterSqliteIntoRegions.main(subArgsArray);
 			} else if (utl.equals("list-tiles-for-regions")) {
@@ -274,9 +290,66 @@ public class MainUtilities {
 			} else if (s.startsWith("--max-height-tiles-in-ram=")) {
 				settings.maxHeightTilesInRam = Integer.parseInt(s.substring(s.indexOf('=') + 1));
 				it.remove();
+			} else if (s.equals("--node-coordinates-store")) {
+				settings.nodeCoordinatesStore = true;
+				it.remove();
+			} else if (s.equals("--node-coordinates-store-dense")) {
+				settings.nodeCoordinatesStore = true;
+				settings.nodeCoordinatesStoreDense = true;
+				it.remove();
+			} else if (s.equals("--packed-ways")) {
+				settings.nodeCoordinatesStore = true;
+				settings.packedWays = true;
+				it.remove();
+			} else if (s.equals("--parallel-main-iteration")) {
+				settings.parallelMainIteration = true;
+				it.remove();
+			} else if (s.startsWith("--relation-way-cache=")) {
+				settings.relationWayCacheSize = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.startsWith("--multipolygon-threads=")) {
+				settings.multipolygonThreads = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.equals("--parallel-binary-write")) {
+				settings.parallelBinaryWrite = true;
+				it.remove();
+			} else if (s.startsWith("--obf-write-buffer-mb=")) {
+				settings.obfWriteBufferMb = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.startsWith("--low-level-ways-threads=")) {
+				settings.lowLevelWaysThreads = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.startsWith("--low-level-ways-tile-zoom=")) {
+				settings.lowLevelWaysTileZoom = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				if (settings.lowLevelWaysTileZoom > 0) {
+					log.warn("Low level ways are not combined across tiles of zoom " + settings.lowLevelWaysTileZoom
+							+ ", map differs from sequential generation");
+				}
+				it.remove();
+			} else if (s.startsWith("--encode-types-cache=")) {
+				settings.encodeTypesCacheSize = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.equals("--report")) {
+				settings.generateReport = true;
+				it.remove();
+			} else if (s.startsWith("--keep-nodes-db=")) {
+				settings.nodesDbFile = s.substring(s.indexOf('=') + 1);
+				it.remove();
+			} else if (s.startsWith("--pbf-decode-threads=")) {
+				settings.pbfDecodeThreads = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
 			} else if (s.startsWith("--srtm=")) {
 				settings.srtmDataFolderUrl = s.substring(s.indexOf('=') + 1);
 				it.remove();
+			} else if (s.startsWith("--srtm-raw=")) {
+				settings.srtmRawTilesDir = s.substring(s.indexOf('=') + 1);
+				it.remove();
+			} else if (s.startsWith("--srtm-cache-mb=")) {
+				settings.srtmCacheMb = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
+			} else if (s.startsWith("--srtm-prefetch-threads=")) {
+				settings.srtmPrefetchThreads = Integer.parseInt(s.substring(s.indexOf('=') + 1));
+				it.remove();
 			} else if (s.startsWith("--rendering-types=")) {
 				settings.renderingTypesFile = s.substring(s.indexOf('=') + 1);
 				it.remove();
@@ -327,6 +400,10 @@ public class MainUtilities {
 		ic.setDialects(settings.processInRam ? DBDialect.SQLITE_IN_MEMORY : DBDialect.SQLITE,
 				settings.processInRam ? DBDialect.SQLITE_IN_MEMORY : DBDialect.SQLITE);
 		ic.setLastModifiedDate(fileToGen.lastModified());
+		if (settings.nodesDbFile != null) {
+			ic.setNodesDBFile(new File(settings.nodesDbFile));
+			ic.setDeleteOsmDB(false);
+		}
 		String regionName = fileToGen.getName();
 		MapRenderingTypesEncoder types = new MapRenderingTypesEncoder(settings.renderingTypesFile, regionName);
 		File res = ic.generateIndexes(fileToGen, new ConsoleProgressImplementation(), null, MapZooms.getDefault(), types, log);
@@ -385,6 +462,10 @@ public class MainUtilities {
 		System.out.println("each utility has own argument list and own synopsys. Here is the list:");
 		System.out.println("\t\t generate-obf <path to osm file> <--srtm=opt-folder-with-srtm-data>: simple way to generate obf file in place. "
 				+ "\t\t\t	Another supported options generate-map, generate-address, generate-poi, generate-roads (generate obf partially)");
+		System.out.println("\t\t\t --low-level-ways-threads=N --low-level-ways-tile-zoom=Z: combines low level map ways in N threads by levels, "
+				+ "with Z > 0 also by tiles of zoom Z (faster, but ways are not combined across tile borders and map differs from sequential generation)");
+		System.out.println("\t\t update-obf-from-osc <path to obf> <nodes db kept by generate-obf --keep-nodes-db=file> <osc files or folders>: applies osm changes to nodes db and regenerates changed tiles of obf");
+		System.out.println("\t\t generate-obf-regions <path to planet or continent osm file> <comma separated download names of regions> <--region-threads=N>: imports osm file once and generates obf files of regions (boundaries from regions.ocbf)");
 		System.out.println("\t\t inspector <params>: powerful tool to inspect obf files and convert them to osm");
 		System.out.println("\t\t check-ocean-tile <lat> <lon> <zoom=11>: checks ocean or land tile is in bz2 list");
 		System.out.println("\t\t generate-ocean-tile <coastline osm file> <optional output file>: creates ocean tiles 12 zoom");
@@ -402,6 +483,7 @@ public class MainUtilities {
 		System.out.println("\t\t generate-region-tags <path to input osm file (osm, bz2, gz)> <path to output osm file>: process osm file and assign tag osmand_region_name to every entity.");
 		System.out.println("\t\t generate-ocean-tile-osm <optional path to osm file to write> <optional path to oceantiles_12.dat file>: generates ocean tiles osm file to check in JOSM ");
 		System.out.println("\t\t generate-obf-files-in-batch <path to batch.xml> <optional path to the file with regions list>: generates multiple obf files with different options");
+		System.out.println("\t\t convert-srtm-tif-to-raw <folder with tif tiles> <optional output folder>: converts srtm tif tiles into memory mapped raw tiles (used by --srtm-raw=folder or when placed next to tif)");
 		System.out.println("\t\t generate-basemap <folder-with-osm-base-files> <optional mini>: generates basemap from prepared osm files");
 		System.out.println("\t\t fix-basemap-roads <input-osm-file> <output-osm-file>: merges and simplifies basemap roads");
 		System.out.println("\t\t merge-index " + BinaryMerger.helpMessage);
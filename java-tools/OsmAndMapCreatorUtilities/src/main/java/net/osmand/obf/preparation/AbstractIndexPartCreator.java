@@ -22,6 +22,18 @@ public class AbstractIndexPartCreator {
 	protected int BATCH_SIZE = 1000;
 
 	protected Map<PreparedStatement, Integer> pStatements = new LinkedHashMap<PreparedStatement, Integer>();
+	// time spent in batch execution and commits (profiling)
+	private long sqlBatchNanos;
+
+	public long getSqlBatchNanos() {
+		return sqlBatchNanos;
+	}
+
+	private void executeBatch(PreparedStatement p) throws SQLException {
+		long start = System.nanoTime();
+		p.executeBatch();
+		sqlBatchNanos += System.nanoTime() - start;
+	}
 
 	public PreparedStatement createPrepareStatement(Connection mapConnection,
 			String string) throws SQLException {
@@ -33,7 +45,7 @@ public class AbstractIndexPartCreator {
 	protected void closePreparedStatements(PreparedStatement... preparedStatements) throws SQLException {
 		for (PreparedStatement p : preparedStatements) {
 			if (p != null) {
-				p.executeBatch();
+				executeBatch(p);
 				p.close();
 				pStatements.remove(p);
 			}
@@ -43,7 +55,7 @@ public class AbstractIndexPartCreator {
 	protected void closeAllPreparedStatements() throws SQLException {
 		for (PreparedStatement p : pStatements.keySet()) {
 			if (pStatements.get(p) > 0) {
-				p.executeBatch();
+				executeBatch(p);
 			}
 			p.close();
 		}
@@ -53,7 +65,7 @@ public class AbstractIndexPartCreator {
 		boolean exec = false;
 		for (PreparedStatement p : pStatements.keySet()) {
 			if (pStatements.get(p) > 0) {
-				p.executeBatch();
+				executeBatch(p);
 				pStatements.put(p, 0);
 				exec = true;
 			}
@@ -72,9 +84,11 @@ public class AbstractIndexPartCreator {
 	protected void addBatch(PreparedStatement p, int batchSize, boolean commit) throws SQLException {
 		p.addBatch();
 		if (pStatements.get(p) >= batchSize) {
-			p.executeBatch();
+			executeBatch(p);
 			if (commit) {
+				long start = System.nanoTime();
 				p.getConnection().commit();
+				sqlBatchNanos += System.nanoTime() - start;
 			}
 			pStatements.put(p, 0);
 		} else {
@@ -106,7 +120,7 @@ public class AbstractIndexPartCreator {
 			if (!nodeIsLastSubTree(tree, rootIndex)) {
 				// there is a bug for small files in packing method
 				new Pack().packTree(tree, packFileName);
-				tree.getFileHdr().getFile().close();
+				tree.close();
 				file = new File(nonPackFileName);
 				file.delete();
 
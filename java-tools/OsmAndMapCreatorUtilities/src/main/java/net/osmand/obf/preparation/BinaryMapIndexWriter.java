@@ -110,6 +110,8 @@ public class BinaryMapIndexWriter {
 
 	private RandomAccessFile raf;
 	private CodedOutputStream codedOutStream;
+	// not null when file is written through write-behind buffer
+	private BufferedRandomAccessOutput bufferedOut;
 
 	protected static final int SHIFT_COORDINATES = BinaryMapIndexReader.SHIFT_COORDINATES;
 	public int MASK_TO_READ = ~((1 << SHIFT_COORDINATES) - 1);
@@ -165,6 +167,18 @@ public class BinaryMapIndexWriter {
 	private final static int HH_BLOCK_SEGMENTS =18;
 
 
+	/**
+	 * Writer with write-behind buffer of bufferSize bytes, file should be used only through writer or after flush()
+	 */
+	public BinaryMapIndexWriter(final RandomAccessFile raf, long timestamp, int bufferSize) throws IOException {
+		this.raf = raf;
+		bufferedOut = new BufferedRandomAccessOutput(raf, bufferSize);
+		codedOutStream = CodedOutputStream.newInstance(bufferedOut);
+		codedOutStream.writeUInt32(OsmandOdb.OsmAndStructure.VERSION_FIELD_NUMBER, IndexConstants.BINARY_MAP_VERSION);
+		codedOutStream.writeInt64(OsmandOdb.OsmAndStructure.DATECREATED_FIELD_NUMBER, timestamp);
+		state.push(OSMAND_STRUCTURE_INIT);
+	}
+
 	public BinaryMapIndexWriter(final RandomAccessFile raf, long timestamp) throws IOException {
 		this.raf = raf;
 		codedOutStream = CodedOutputStream.newInstance(new OutputStream() {
@@ -206,10 +220,20 @@ public class BinaryMapIndexWriter {
 
 	public long getFilePointer() throws IOException {
 		codedOutStream.flush();
+		if (bufferedOut != null) {
+			return bufferedOut.getPosition();
+		}
 		return raf.getFilePointer();
 		// return codedOutStream.getWrittenBytes(); // doesn't work with route section rewrite (should not take into account)
 	}
 
+	private int writeReference(BinaryFileReference ref, long pointerToCalculateShiftTo) throws IOException {
+		if (bufferedOut != null) {
+			return ref.writeReference(bufferedOut, pointerToCalculateShiftTo);
+		}
+		return ref.writeReference(raf, pointerToCalculateShiftTo);
+	}
+
 	public CodedOutputStream getCodedOutStream() {
 		return codedOutStream;
 	}
@@ -218,7 +242,7 @@ public class BinaryMapIndexWriter {
 		long filePointer = getFilePointer();
 		BinaryFileReference ref = stackSizes.pop();
 		codedOutStream.flush();
-		int length = ref.writeReference(raf, filePointer);
+		int length = writeReference(ref, filePointer);
 		return length;
 	}
 
@@ -226,7 +250,7 @@ public class BinaryMapIndexWriter {
 		long filePointer = getFilePointer();
 		BinaryFileReference ref = stackSizes.peek();
 		codedOutStream.flush();
-		int length = ref.writeReference(raf, filePointer);
+		int length = writeReference(ref, filePointer);
 		return length;
 	}
 
@@ -631,7 +655,7 @@ public class BinaryMapIndexWriter {
 		}
 		codedOutStream.writeTag(OsmAndMapIndex.MapRootLevel.BLOCKS_FIELD_NUMBER, FieldType.MESSAGE.getWireType());
 		codedOutStream.flush();
-		ref.writeReference(raf, getFilePointer());
+		writeReference(ref, getFilePointer());
 		RouteDataBlock block = builder.build();
 		ROUTE_DATA_SIZE += block.getSerializedSize();
 		codedOutStream.writeMessageNoTag(block);
@@ -759,7 +783,7 @@ public class BinaryMapIndexWriter {
 		codedOutStream.writeTag(OsmAndMapIndex.MapRootLevel.BLOCKS_FIELD_NUMBER, FieldType.MESSAGE.getWireType());
 
 		codedOutStream.flush();
-		ref.writeReference(raf, getFilePointer());
+		writeReference(ref, getFilePointer());
 		MapDataBlock block = builder.build();
 		MAP_DATA_SIZE += block.getSerializedSize();
 		codedOutStream.writeMessageNoTag(block);
@@ -979,7 +1003,7 @@ public class BinaryMapIndexWriter {
 			codedOutStream.flush();
 			long pointer = getFilePointer();
 			if (ref != null) {
-				ref.writeReference(raf, getFilePointer());
+				writeReference(ref, getFilePointer());
 			}
 			AddressNameIndexData.Builder builder = AddressNameIndexData.newBuilder();
 			// collapse same name ?
@@ -1075,7 +1099,7 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 		long startMessage = getFilePointer();
 		long startCityBlock = ref.getStartPointer();
-		ref.writeReference(raf, startMessage);
+		writeReference(ref, startMessage);
 		CityBlockIndex.Builder cityInd = OsmandOdb.CityBlockIndex.newBuilder();
 		cityInd.setShiftToCityIndex((int) (startMessage - startCityBlock));
 		long currentPointer = startMessage + 4 + CodedOutputStream.computeTagSize(CityBlockIndex.SHIFTTOCITYINDEX_FIELD_NUMBER);
@@ -1669,7 +1693,7 @@ public class BinaryMapIndexWriter {
 			codedOutStream.writeTag(OsmandOdb.OsmAndPoiNameIndex.DATA_FIELD_NUMBER, FieldType.MESSAGE.getWireType());
 			BinaryFileReference nameTableRef = indexedTable.get(e.getKey());
 			codedOutStream.flush();
-			nameTableRef.writeReference(raf, getFilePointer());
+			writeReference(nameTableRef, getFilePointer());
 
 			OsmAndPoiNameIndex.OsmAndPoiNameIndexData.Builder builder = OsmAndPoiNameIndex.OsmAndPoiNameIndexData.newBuilder();
 			List<PoiTileBox> tileBoxes = new ArrayList<PoiTileBox>(e.getValue());
@@ -1827,7 +1851,7 @@ public class BinaryMapIndexWriter {
 		codedOutStream.flush();
 		// write shift to that data
 		for (int i = 0; i < fpPoiBox.size(); i++) {
-			fpPoiBox.get(i).writeReference(raf, pointer);
+			writeReference(fpPoiBox.get(i), pointer);
 		}
 
 		codedOutStream.writeUInt32(OsmandOdb.OsmAndPoiBoxData.ZOOM_FIELD_NUMBER, zoom);
@@ -1904,17 +1928,20 @@ public class BinaryMapIndexWriter {
 
 	public void flush() throws IOException {
 		codedOutStream.flush();
+		if (bufferedOut != null) {
+			bufferedOut.flush();
+		}
 	}
 
 	public void close() throws IOException {
 		checkPeekState(OSMAND_STRUCTURE_INIT);
 		codedOutStream.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, IndexConstants.BINARY_MAP_VERSION);
-		codedOutStream.flush();
+		flush();
 	}
 
 	public void preclose() throws IOException {
 		codedOutStream.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, IndexConstants.BINARY_MAP_VERSION);
-		codedOutStream.flush();
+		flush();
 	}
 
 	public void writeOsmAndOwner(BinaryMapIndexReader.OsmAndOwner owner) throws IOException {
@@ -0,0 +1,95 @@
+package net.osmand.obf.preparation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Write-behind buffer for RandomAccessFile. Sizes and shifts of nested messages (map / route tree, poi boxes) are
+ * written when message is finished, while message is still in buffer they are patched in memory, so the file is
+ * written sequentially by big chunks and seeks are needed only for big outer messages.
+ *
+ * Position is taken from file when buffer is empty, so file could be seeked / truncated after flush().
+ */
+class BufferedRandomAccessOutput extends OutputStream {
+
+	private final RandomAccessFile raf;
+	private final byte[] buffer;
+	private long bufferStart;
+	private int count;
+
+	public BufferedRandomAccessOutput(RandomAccessFile raf, int bufferSize) {
+		this.raf = raf;
+		this.buffer = new byte[bufferSize];
+	}
+
+	public long getPosition() throws IOException {
+		return count == 0 ? raf.getFilePointer() : bufferStart + count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		startBuffer();
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (len >= buffer.length) {
+			flushBuffer();
+			raf.write(b, off, len);
+			return;
+		}
+		if (len > buffer.length - count) {
+			flushBuffer();
+		}
+		startBuffer();
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	/**
+	 * Writes big endian int at absolute position (same as RandomAccessFile.writeInt)
+	 */
+	public void writeInt(long position, int v) throws IOException {
+		if (count > 0 && position >= bufferStart && position + 4 <= bufferStart + count) {
+			int p = (int) (position - bufferStart);
+			buffer[p] = (byte) (v >>> 24);
+			buffer[p + 1] = (byte) (v >>> 16);
+			buffer[p + 2] = (byte) (v >>> 8);
+			buffer[p + 3] = (byte) v;
+			return;
+		}
+		flushBuffer();
+		long currentPosition = raf.getFilePointer();
+		raf.seek(position);
+		raf.writeInt(v);
+		raf.seek(currentPosition);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+	}
+
+	private void startBuffer() throws IOException {
+		if (count == 0) {
+			bufferStart = raf.getFilePointer();
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			raf.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+}
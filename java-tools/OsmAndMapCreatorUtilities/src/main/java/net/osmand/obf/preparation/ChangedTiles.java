@@ -0,0 +1,118 @@
+package net.osmand.obf.preparation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.set.hash.TLongHashSet;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.util.MapUtils;
+
+/**
+ * Set of tiles (of fixed zoom) touched by applied osm changes. Old and new positions of changed entities are added,
+ * so everything that has a point inside of these tiles should be regenerated.
+ */
+public class ChangedTiles {
+
+	public static final int DEFAULT_ZOOM = 14;
+
+	private final int zoom;
+	private final int shift;
+	private final TLongHashSet tiles = new TLongHashSet();
+
+	public ChangedTiles(int zoom) {
+		this.zoom = zoom;
+		this.shift = 31 - zoom;
+	}
+
+	public int getZoom() {
+		return zoom;
+	}
+
+	public int size() {
+		return tiles.size();
+	}
+
+	public boolean isEmpty() {
+		return tiles.isEmpty();
+	}
+
+	public void addPoint(double lat, double lon) {
+		add31(MapUtils.get31TileNumberX(lon), MapUtils.get31TileNumberY(lat));
+	}
+
+	public void add31(int x31, int y31) {
+		tiles.add(key(x31 >> shift, y31 >> shift));
+	}
+
+	public boolean contains31(int x31, int y31) {
+		return tiles.contains(key(x31 >> shift, y31 >> shift));
+	}
+
+	public boolean containsPoint(double lat, double lon) {
+		return contains31(MapUtils.get31TileNumberX(lon), MapUtils.get31TileNumberY(lat));
+	}
+
+	/**
+	 * Node inside of changed tile or way with at least one point inside
+	 */
+	public boolean intersects(Entity e) {
+		if (e instanceof Node) {
+			return containsPoint(((Node) e).getLatitude(), ((Node) e).getLongitude());
+		} else if (e instanceof Way) {
+			for (Node n : ((Way) e).getNodes()) {
+				if (n != null && containsPoint(n.getLatitude(), n.getLongitude())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public void addAll(ChangedTiles other) {
+		if (other.zoom != zoom) {
+			throw new IllegalArgumentException("Different zoom " + other.zoom + " != " + zoom);
+		}
+		tiles.addAll(other.tiles);
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(zoom);
+			out.writeInt(tiles.size());
+			TLongIterator it = tiles.iterator();
+			while (it.hasNext()) {
+				out.writeLong(it.next());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static ChangedTiles load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			ChangedTiles res = new ChangedTiles(in.readInt());
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				res.tiles.add(in.readLong());
+			}
+			return res;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long key(int x, int y) {
+		return (((long) x) << 32) | (y & 0xffffffffL);
+	}
+}
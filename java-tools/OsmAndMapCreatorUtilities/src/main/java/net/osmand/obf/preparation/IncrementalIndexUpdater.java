@@ -0,0 +1,346 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParserException;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import net.osmand.IProgress;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryIndexPart;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.MapZooms;
+import net.osmand.binary.MapZooms.MapZoomPair;
+import net.osmand.binary.OsmandOdb;
+import net.osmand.binary.RouteDataObject;
+import net.osmand.data.Amenity;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.obf.BinaryMerger;
+import net.osmand.obf.diff.ObfFileInMemory;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.osm.io.OsmChangeParser;
+import rtree.RTreeException;
+
+/**
+ * Updates obf file with osm changes instead of full regeneration.
+ *
+ * 1. Nodes db kept by previous generation (generate-obf --keep-nodes-db=file) is updated with .osc / osmand live .osm
+ * files, tiles touched by changed entities are collected (and kept in db.tiles till obf is updated).
+ * 2. Map, routing and poi sections are generated from nodes db only for nodes and ways inside of changed tiles.
+ * 3. Objects with points inside of changed tiles are replaced in original obf by generated ones, address and other
+ * sections are copied as is. Generalized low zoom map levels are kept and refreshed by full generation.
+ */
+public class IncrementalIndexUpdater {
+	private static final Log log = PlatformUtil.getLog(IncrementalIndexUpdater.class);
+
+	public static final String TILES_EXT = ".tiles";
+	// map levels below are combined from many ways and can't be patched by tiles
+	private static final int MIN_PATCH_MAP_ZOOM = 13;
+
+	private final IndexCreatorSettings settings;
+	private final File nodesDb;
+	private final int tilesZoom;
+
+	public IncrementalIndexUpdater(IndexCreatorSettings settings, File nodesDb, int tilesZoom) {
+		this.settings = settings;
+		this.nodesDb = nodesDb;
+		this.tilesZoom = tilesZoom;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("Usage: <obf file> <nodes db> <osc files or folders> [--tiles-zoom=14]");
+			return;
+		}
+		int zoom = ChangedTiles.DEFAULT_ZOOM;
+		List<File> changes = new ArrayList<File>();
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith("--tiles-zoom=")) {
+				zoom = Integer.parseInt(args[i].substring("--tiles-zoom=".length()));
+			} else {
+				changes.add(new File(args[i]));
+			}
+		}
+		IndexCreatorSettings settings = new IndexCreatorSettings();
+		settings.indexMap = true;
+		settings.indexPOI = true;
+		settings.indexRouting = true;
+		IncrementalIndexUpdater updater = new IncrementalIndexUpdater(settings, new File(args[1]), zoom);
+		ChangedTiles tiles = updater.applyChanges(changes);
+		updater.updateObf(new File(args[0]), tiles);
+	}
+
+	/**
+	 * Applies change files (sorted by name) to nodes db
+	 * @return tiles changed by these changes and not yet applied to obf
+	 */
+	public ChangedTiles applyChanges(List<File> changeFiles)
+			throws IOException, SQLException, XmlPullParserException {
+		if (new File(nodesDb.getParentFile(), nodesDb.getName() + NodeCoordinatesStore.EXT).exists()) {
+			throw new UnsupportedOperationException("Nodes db with node coordinates store can't be updated");
+		}
+		List<File> files = new ArrayList<File>();
+		for (File f : changeFiles) {
+			File[] lf = f.isDirectory() ? f.listFiles() : new File[] { f };
+			if (lf != null) {
+				files.addAll(Arrays.asList(lf));
+			}
+		}
+		Collections.sort(files);
+		File tilesFile = new File(nodesDb.getParentFile(), nodesDb.getName() + TILES_EXT);
+		ChangedTiles tiles = new ChangedTiles(tilesZoom);
+		if (tilesFile.exists()) {
+			// previous update of obf failed
+			tiles.addAll(ChangedTiles.load(tilesFile));
+		}
+		DBDialect dialect = DBDialect.SQLITE;
+		Connection conn = dialect.getDatabaseConnection(nodesDb.getAbsolutePath(), log);
+		try {
+			OsmDbCreator dbCreator = new OsmDbCreator();
+			dbCreator.setApplyChanges(tiles);
+			dbCreator.initDatabase(dialect, conn, false, null);
+			for (File f : files) {
+				long time = System.currentTimeMillis();
+				InputStream is = new FileInputStream(f);
+				if (f.getName().endsWith(".gz")) {
+					is = new GZIPInputStream(is);
+				}
+				try {
+					if (f.getName().endsWith(".osc") || f.getName().endsWith(".osc.gz")) {
+						new OsmChangeParser().parse(is, dbCreator);
+					} else {
+						OsmBaseStorage storage = new OsmBaseStorage();
+						storage.getFilters().add(dbCreator);
+						storage.parseOSM(is, IProgress.EMPTY_PROGRESS);
+					}
+				} finally {
+					is.close();
+				}
+				log.info(String.format("Changes %s applied in %d ms", f.getName(), System.currentTimeMillis() - time));
+			}
+			dbCreator.finishLoading();
+			dialect.commitDatabase(conn);
+		} finally {
+			dialect.closeDatabase(conn);
+		}
+		tiles.save(tilesFile);
+		log.info("Changed tiles: " + tiles.size());
+		return tiles;
+	}
+
+	public void updateObf(File obf, ChangedTiles tiles)
+			throws IOException, SQLException, InterruptedException, XmlPullParserException, RTreeException {
+		if (tiles.isEmpty()) {
+			return;
+		}
+		File workDir = new File(obf.getParentFile(), obf.getName() + ".update");
+		workDir.mkdirs();
+		File patch = generatePatch(obf, tiles, workDir);
+
+		ObfFileInMemory result = new ObfFileInMemory();
+		result.readObfFiles(Collections.singletonList(obf));
+		ObfFileInMemory patchData = new ObfFileInMemory();
+		patchData.readObfFiles(Collections.singletonList(patch));
+		for (MapZoomPair zoom : new ArrayList<MapZoomPair>(result.getZooms())) {
+			if (zoom.getMinZoom() >= MIN_PATCH_MAP_ZOOM) {
+				removeMapObjects(result.get(zoom), tiles);
+				result.putMapObjects(zoom, selectMapObjects(patchData.get(zoom), tiles), true);
+			}
+		}
+		removeRouteObjects(result.getRoutingData(), tiles);
+		result.putRoutingData(selectRouteObjects(patchData.getRoutingData(), tiles), true);
+		removePoiObjects(result.getPoiObjects(), tiles);
+		result.putPoiData(selectPoiObjects(patchData.getPoiObjects(), tiles), true);
+		File merged = new File(workDir, obf.getName());
+		result.writeFile(merged, true);
+
+		File updated = new File(obf.getParentFile(), obf.getName() + ".tmp");
+		copyNotMergedParts(merged, obf, updated);
+		if (!obf.delete() || !updated.renameTo(obf)) {
+			throw new IOException("Can't replace " + obf);
+		}
+		patch.delete();
+		merged.delete();
+		workDir.delete();
+		new File(nodesDb.getParentFile(), nodesDb.getName() + TILES_EXT).delete();
+	}
+
+	private File generatePatch(File obf, ChangedTiles tiles, File workDir)
+			throws IOException, SQLException, InterruptedException, XmlPullParserException {
+		IndexCreatorSettings patchSettings = new IndexCreatorSettings();
+		patchSettings.indexMap = settings.indexMap;
+		patchSettings.indexPOI = settings.indexPOI;
+		patchSettings.indexRouting = settings.indexRouting;
+		patchSettings.indexAddress = false;
+		patchSettings.indexTransport = false;
+		patchSettings.srtmDataFolderUrl = settings.srtmDataFolderUrl;
+		patchSettings.renderingTypesFile = settings.renderingTypesFile;
+		IndexCreator ic = new IndexCreator(workDir, patchSettings);
+		String regionName = obf.getName().substring(0, obf.getName().indexOf('.'));
+		ic.setRegionName(regionName);
+		ic.setMapFileName(regionName + ".patch.obf");
+		ic.setNodesDBFile(nodesDb);
+		ic.setReuseNodesDB(true);
+		ic.setDeleteOsmDB(false);
+		ic.setChangedTiles(tiles);
+		MapRenderingTypesEncoder types = new MapRenderingTypesEncoder(settings.renderingTypesFile, regionName);
+		return ic.generateIndexes(new File[0], new ConsoleProgressImplementation(), null, MapZooms.getDefault(), types,
+				log, false);
+	}
+
+	private void removeMapObjects(TLongObjectHashMap<BinaryMapDataObject> objects, ChangedTiles tiles) {
+		TLongObjectIterator<BinaryMapDataObject> it = objects.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (intersects(it.value(), tiles)) {
+				it.remove();
+			}
+		}
+	}
+
+	private List<BinaryMapDataObject> selectMapObjects(TLongObjectHashMap<BinaryMapDataObject> objects, ChangedTiles tiles) {
+		List<BinaryMapDataObject> res = new ArrayList<BinaryMapDataObject>();
+		for (BinaryMapDataObject o : objects.valueCollection()) {
+			if (intersects(o, tiles)) {
+				res.add(o);
+			}
+		}
+		return res;
+	}
+
+	private boolean intersects(BinaryMapDataObject o, ChangedTiles tiles) {
+		for (int i = 0; i < o.getPointsLength(); i++) {
+			if (tiles.contains31(o.getPoint31XTile(i), o.getPoint31YTile(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void removeRouteObjects(TLongObjectHashMap<RouteDataObject> objects, ChangedTiles tiles) {
+		TLongObjectIterator<RouteDataObject> it = objects.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (intersects(it.value(), tiles)) {
+				it.remove();
+			}
+		}
+	}
+
+	private TLongObjectHashMap<RouteDataObject> selectRouteObjects(TLongObjectHashMap<RouteDataObject> objects,
+			ChangedTiles tiles) {
+		TLongObjectHashMap<RouteDataObject> res = new TLongObjectHashMap<RouteDataObject>();
+		TLongObjectIterator<RouteDataObject> it = objects.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (intersects(it.value(), tiles)) {
+				res.put(it.key(), it.value());
+			}
+		}
+		return res;
+	}
+
+	private boolean intersects(RouteDataObject o, ChangedTiles tiles) {
+		for (int i = 0; i < o.getPointsLength(); i++) {
+			if (tiles.contains31(o.getPoint31XTile(i), o.getPoint31YTile(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void removePoiObjects(TLongObjectHashMap<Map<String, Amenity>> objects, ChangedTiles tiles) {
+		TLongObjectIterator<Map<String, Amenity>> it = objects.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (intersects(it.value(), tiles)) {
+				it.remove();
+			}
+		}
+	}
+
+	private TLongObjectHashMap<Map<String, Amenity>> selectPoiObjects(TLongObjectHashMap<Map<String, Amenity>> objects,
+			ChangedTiles tiles) {
+		TLongObjectHashMap<Map<String, Amenity>> res = new TLongObjectHashMap<Map<String, Amenity>>();
+		TLongObjectIterator<Map<String, Amenity>> it = objects.iterator();
+		while (it.hasNext()) {
+			it.advance();
+			if (intersects(it.value(), tiles)) {
+				res.put(it.key(), it.value());
+			}
+		}
+		return res;
+	}
+
+	private boolean intersects(Map<String, Amenity> amenities, ChangedTiles tiles) {
+		for (Amenity a : amenities.values()) {
+			if (a.getLocation() != null && tiles.containsPoint(a.getLocation().getLatitude(), a.getLocation().getLongitude())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copies all parts of merged file and parts of original which are not rewritten by ObfFileInMemory (address...)
+	 */
+	private void copyNotMergedParts(File merged, File original, File target) throws IOException {
+		RandomAccessFile mergedRaf = new RandomAccessFile(merged, "r");
+		RandomAccessFile originalRaf = new RandomAccessFile(original, "r");
+		RandomAccessFile targetRaf = new RandomAccessFile(target, "rw");
+		try {
+			BinaryMapIndexReader mergedIndex = new BinaryMapIndexReader(mergedRaf, merged);
+			BinaryMapIndexReader originalIndex = new BinaryMapIndexReader(originalRaf, original);
+			BinaryMapIndexWriter writer = new BinaryMapIndexWriter(targetRaf, originalIndex.getDateCreated());
+			CodedOutputStream ous = writer.getCodedOutStream();
+			byte[] buffer = new byte[BinaryMerger.BUFFER_SIZE];
+			for (BinaryIndexPart part : mergedIndex.getIndexes()) {
+				copyPart(ous, buffer, mergedRaf, part);
+			}
+			for (BinaryIndexPart part : originalIndex.getIndexes()) {
+				int field = part.getFieldNumber();
+				if (field != OsmandOdb.OsmAndStructure.MAPINDEX_FIELD_NUMBER
+						&& field != OsmandOdb.OsmAndStructure.ROUTINGINDEX_FIELD_NUMBER
+						&& field != OsmandOdb.OsmAndStructure.POIINDEX_FIELD_NUMBER
+						&& field != OsmandOdb.OsmAndStructure.TRANSPORTINDEX_FIELD_NUMBER) {
+					copyPart(ous, buffer, originalRaf, part);
+				}
+			}
+			if (originalIndex.getOwner() != null) {
+				writer.writeOsmAndOwner(originalIndex.getOwner());
+			}
+			ous.writeInt32(OsmandOdb.OsmAndStructure.VERSIONCONFIRM_FIELD_NUMBER, originalIndex.getVersion());
+			ous.flush();
+		} finally {
+			mergedRaf.close();
+			originalRaf.close();
+			targetRaf.close();
+		}
+	}
+
+	private void copyPart(CodedOutputStream ous, byte[] buffer, RandomAccessFile raf, BinaryIndexPart part)
+			throws IOException {
+		ous.writeTag(part.getFieldNumber(), WireFormat.WIRETYPE_FIXED32_LENGTH_DELIMITED);
+		BinaryMerger.writeInt(ous, part.getLength());
+		BinaryMerger.copyBinaryPart(ous, buffer, raf, part.getFilePointer(), part.getLength());
+	}
+}
@@ -185,7 +185,11 @@ public class IndexCreationContext {
 				int rx = MapUtils.get31TileNumberX(qr.right);
 				int by = MapUtils.get31TileNumberY(qr.bottom);
 				int ty = MapUtils.get31TileNumberY(qr.top);
-				List<BinaryMapDataObject> bbox = or.query(lx, rx, ty, by);
+				List<BinaryMapDataObject> bbox;
+				// index creators could run in parallel threads
+				synchronized (or) {
+					bbox = or.query(lx, rx, ty, by);
+				}
 				TreeSet<String> lst = new TreeSet<String>();
 				for (BinaryMapDataObject bo : bbox) {
 					String dw = or.getDownloadName(bo);
@@ -0,0 +1,421 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Collects time and resources spent by every phase of IndexCreator.generateIndexes and by every index part during main
+ * iteration. Report is written as json next to obf file (settings.generateReport) and aggregated by IndexBatchCreator.
+ *
+ * Cpu time and peak heap are measured for the whole process (JVM). While several generations run in one JVM (see
+ * RunReport.concurrentRuns) peak heap is not recorded (-1) and cpu time is summed only for threads of the generation,
+ * i.e. of the thread group of the thread that created profiler (see newRunThreadGroup). Allocated bytes are always
+ * counted for threads of the generation.
+ */
+public class IndexCreationProfiler {
+
+	public static final String REPORT_EXT = ".report.json";
+	private static final long MB = 1 << 20;
+
+	public static class PhaseReport {
+		public String name;
+		public long wallMs;
+		// process-wide or of generation threads if other generations were running in the same process
+		public long cpuMs;
+		// allocated by generation threads
+		public long allocatedMb;
+		public long entities;
+		public long entitiesPerSec;
+		// time of batch inserts and commits of index part creators
+		public long sqlMs;
+		public long bytesWritten;
+		// process-wide, -1 if other generations were running in the same process
+		public long peakHeapMb;
+		public long tempDiskMb;
+	}
+
+	public static class PartReport {
+		public String name;
+		public long timeMs;
+		public long entities;
+	}
+
+	public static class RunReport {
+		public String region;
+		public String file;
+		// size of source osm files
+		public long sourceSize;
+		public long started;
+		public long wallMs;
+		// process-wide cpu time or of generation threads if other generations were running in the same process
+		public long cpuMs;
+		// allocated by generation threads
+		public long allocatedMb;
+		public long fileSize;
+		// process-wide, -1 if other generations were running in the same process
+		public long peakHeapMb;
+		public long peakTempDiskMb;
+		// maximum number of generations running in the process at the same time
+		public int concurrentRuns;
+		public List<PhaseReport> phases = new ArrayList<PhaseReport>();
+		public List<PartReport> parts = new ArrayList<PartReport>();
+	}
+
+	public static class BatchReport {
+		public long generated;
+		public int regions;
+		public long wallMs;
+		public long cpuMs;
+		public long allocatedMb;
+		public long fileSize;
+		public long maxPeakHeapMb;
+		public long maxPeakTempDiskMb;
+		public Map<String, Long> phasesWallMs = new LinkedHashMap<String, Long>();
+		public List<RunReport> runs = new ArrayList<RunReport>();
+	}
+
+	/**
+	 * Time spent by index part in main iteration, part is called only from one thread at a time
+	 */
+	public static class PartTimer {
+		private final String name;
+		private final boolean enabled;
+		private long nanos;
+		private long entities;
+
+		private PartTimer(String name, boolean enabled) {
+			this.name = name;
+			this.enabled = enabled;
+		}
+
+		public long start() {
+			return enabled ? System.nanoTime() : 0;
+		}
+
+		public void finish(long start) {
+			if (enabled) {
+				nanos += System.nanoTime() - start;
+				entities++;
+			}
+		}
+	}
+
+	private static final AtomicInteger RUNNING = new AtomicInteger();
+	private static final long SAMPLE_INTERVAL_MS = 1000;
+
+	private final boolean enabled;
+	private boolean running;
+	private final RunReport report = new RunReport();
+	private final List<PartTimer> timers = new ArrayList<PartTimer>();
+	private final List<AbstractIndexPartCreator> creators = new ArrayList<AbstractIndexPartCreator>();
+	private final List<File> tempFiles = new ArrayList<File>();
+	private final long startCpu;
+	private final long startNanos;
+	// cpu nanos and allocated bytes by thread id of generation threads (last sampled and at start of run)
+	private final ThreadGroup group;
+	private final Map<Long, long[]> threadStats = new HashMap<Long, long[]>();
+	private final Map<Long, long[]> threadStartStats = new HashMap<Long, long[]>();
+	private Thread sampler;
+
+	private PhaseReport phase;
+	private long phaseNanos;
+	private long phaseCpu;
+	private long phaseRunCpu;
+	private long phaseAllocated;
+	private long phaseSqlNanos;
+	private boolean phaseConcurrent;
+
+	public IndexCreationProfiler(boolean enabled, String region) {
+		this.enabled = enabled;
+		report.region = region;
+		report.started = System.currentTimeMillis();
+		startNanos = System.nanoTime();
+		startCpu = getProcessCpuTime();
+		group = Thread.currentThread().getThreadGroup();
+		if (enabled) {
+			running = true;
+			RUNNING.incrementAndGet();
+			checkConcurrentRuns();
+			sampleThreads();
+			threadStartStats.putAll(threadStats);
+			startSampler();
+		}
+	}
+
+	/**
+	 * Group for thread of generation which runs concurrently with others, threads created by generation inherit
+	 * the group, so profiler counts cpu time and allocations of the generation only.
+	 */
+	public static ThreadGroup newRunThreadGroup(String name) {
+		return new ThreadGroup(name);
+	}
+
+	// threads finished between samples are counted till the last sample
+	private void startSampler() {
+		sampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						Thread.sleep(SAMPLE_INTERVAL_MS);
+						sampleThreads();
+					}
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+		}, "IndexCreationProfiler-" + report.region);
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	private synchronized void sampleThreads() {
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean smx = mx instanceof com.sun.management.ThreadMXBean
+				? (com.sun.management.ThreadMXBean) mx : null;
+		Thread[] threads = new Thread[group.activeCount() * 2 + 4];
+		int cnt = group.enumerate(threads, true);
+		for (int i = 0; i < cnt; i++) {
+			long id = threads[i].getId();
+			long cpu = mx.isThreadCpuTimeSupported() ? mx.getThreadCpuTime(id) : -1;
+			long allocated = smx != null && smx.isThreadAllocatedMemorySupported() ? smx.getThreadAllocatedBytes(id) : -1;
+			if (cpu >= 0 || allocated >= 0) {
+				threadStats.put(id, new long[] { Math.max(0, cpu), Math.max(0, allocated) });
+			}
+		}
+	}
+
+	// ind 0 - cpu nanos, 1 - allocated bytes
+	private synchronized long getRunThreadsStat(int ind) {
+		sampleThreads();
+		long s = 0;
+		for (Map.Entry<Long, long[]> e : threadStats.entrySet()) {
+			long[] start = threadStartStats.get(e.getKey());
+			s += e.getValue()[ind] - (start == null ? 0 : start[ind]);
+		}
+		return s;
+	}
+
+	/**
+	 * Should be called after generation (also failed), otherwise other profilers of process treat it as running
+	 */
+	public void close() {
+		if (running) {
+			running = false;
+			RUNNING.decrementAndGet();
+		}
+		if (sampler != null) {
+			sampler.interrupt();
+			sampler = null;
+		}
+	}
+
+	private boolean checkConcurrentRuns() {
+		int r = RUNNING.get();
+		report.concurrentRuns = Math.max(report.concurrentRuns, r);
+		return r > 1;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setSourceSize(long sourceSize) {
+		report.sourceSize = sourceSize;
+	}
+
+	public PartTimer createPartTimer(String name) {
+		PartTimer t = new PartTimer(name, enabled);
+		timers.add(t);
+		return t;
+	}
+
+	public void addIndexPartCreator(AbstractIndexPartCreator creator) {
+		creators.add(creator);
+	}
+
+	/**
+	 * Files (or prefixes of files) which size is summed as temporary disk usage
+	 */
+	public void addTempFile(File file) {
+		tempFiles.add(file);
+	}
+
+	public void startPhase(String name) {
+		if (!enabled) {
+			return;
+		}
+		if (phase != null) {
+			finishPhase();
+		}
+		phase = new PhaseReport();
+		phase.name = name;
+		phaseConcurrent = checkConcurrentRuns();
+		// peak usage is shared by process, it is not reset under other running generations
+		if (!phaseConcurrent) {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					pool.resetPeakUsage();
+				}
+			}
+		}
+		phaseSqlNanos = getSqlNanos();
+		phaseCpu = getProcessCpuTime();
+		phaseRunCpu = getRunThreadsStat(0);
+		phaseAllocated = getRunThreadsStat(1);
+		phaseNanos = System.nanoTime();
+	}
+
+	public void setPhaseEntities(long entities) {
+		if (phase != null) {
+			phase.entities = entities;
+		}
+	}
+
+	public void addPhaseBytesWritten(long bytes) {
+		if (phase != null) {
+			phase.bytesWritten += bytes;
+		}
+	}
+
+	public void finishPhase() {
+		if (phase == null) {
+			return;
+		}
+		phase.wallMs = (System.nanoTime() - phaseNanos) / 1000000;
+		phase.sqlMs = (getSqlNanos() - phaseSqlNanos) / 1000000;
+		phase.entitiesPerSec = phase.wallMs > 0 ? phase.entities * 1000 / phase.wallMs : phase.entities;
+		phase.allocatedMb = (getRunThreadsStat(1) - phaseAllocated) / MB;
+		if (checkConcurrentRuns() || phaseConcurrent) {
+			phase.cpuMs = (getRunThreadsStat(0) - phaseRunCpu) / 1000000;
+			phase.peakHeapMb = -1;
+		} else {
+			phase.cpuMs = (getProcessCpuTime() - phaseCpu) / 1000000;
+			long heap = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+					heap += pool.getPeakUsage().getUsed();
+				}
+			}
+			phase.peakHeapMb = heap / MB;
+		}
+		phase.tempDiskMb = getTempDiskUsage() / MB;
+		report.peakHeapMb = Math.max(report.peakHeapMb, phase.peakHeapMb);
+		report.peakTempDiskMb = Math.max(report.peakTempDiskMb, phase.tempDiskMb);
+		report.phases.add(phase);
+		phase = null;
+	}
+
+	public RunReport finish(File obf) {
+		finishPhase();
+		report.wallMs = (System.nanoTime() - startNanos) / 1000000;
+		report.cpuMs = (getProcessCpuTime() - startCpu) / 1000000;
+		report.allocatedMb = getRunThreadsStat(1) / MB;
+		checkConcurrentRuns();
+		if (report.concurrentRuns > 1) {
+			report.cpuMs = getRunThreadsStat(0) / 1000000;
+			report.peakHeapMb = -1;
+		}
+		if (obf != null) {
+			report.file = obf.getName();
+			report.fileSize = obf.length();
+		}
+		report.parts.clear();
+		for (PartTimer t : timers) {
+			PartReport p = new PartReport();
+			p.name = t.name;
+			p.timeMs = t.nanos / 1000000;
+			p.entities = t.entities;
+			report.parts.add(p);
+		}
+		return report;
+	}
+
+	private long getSqlNanos() {
+		long s = 0;
+		for (AbstractIndexPartCreator c : creators) {
+			s += c.getSqlBatchNanos();
+		}
+		return s;
+	}
+
+	private long getTempDiskUsage() {
+		long s = 0;
+		for (File f : tempFiles) {
+			File[] lf = f.getParentFile() == null ? null : f.getParentFile().listFiles();
+			if (lf != null) {
+				for (File c : lf) {
+					if (c.isFile() && c.getName().startsWith(f.getName())) {
+						s += c.length();
+					}
+				}
+			}
+		}
+		return s;
+	}
+
+	private static long getProcessCpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return 0;
+	}
+
+	public static void writeReport(Object report, File file) throws IOException {
+		Gson gson = new GsonBuilder().setPrettyPrinting().create();
+		Writer w = new FileWriter(file);
+		try {
+			gson.toJson(report, w);
+		} finally {
+			w.close();
+		}
+	}
+
+	public static RunReport readReport(File file) throws IOException {
+		Reader r = new FileReader(file);
+		try {
+			return new Gson().fromJson(r, RunReport.class);
+		} finally {
+			r.close();
+		}
+	}
+
+	public static BatchReport aggregate(List<RunReport> runs) {
+		BatchReport b = new BatchReport();
+		b.generated = System.currentTimeMillis();
+		for (RunReport r : runs) {
+			b.regions++;
+			b.wallMs += r.wallMs;
+			b.cpuMs += Math.max(0, r.cpuMs);
+			b.allocatedMb += Math.max(0, r.allocatedMb);
+			b.fileSize += r.fileSize;
+			b.maxPeakHeapMb = Math.max(b.maxPeakHeapMb, r.peakHeapMb);
+			b.maxPeakTempDiskMb = Math.max(b.maxPeakTempDiskMb, r.peakTempDiskMb);
+			for (PhaseReport p : r.phases) {
+				Long l = b.phasesWallMs.get(p.name);
+				b.phasesWallMs.put(p.name, (l == null ? 0 : l.longValue()) + p.wallMs);
+			}
+			b.runs.add(r);
+		}
+		return b;
+	}
+}
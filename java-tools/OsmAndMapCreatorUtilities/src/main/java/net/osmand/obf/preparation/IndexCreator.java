@@ -6,9 +6,17 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
 import javax.imageio.ImageIO;
@@ -23,6 +31,7 @@ import net.osmand.IProgress;
 import net.osmand.IndexConstants;
 import net.osmand.binary.MapZooms;
 import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.obf.preparation.IndexCreationProfiler.PartTimer;
 import net.osmand.obf.preparation.OsmDbAccessor.OsmDbVisitor;
 import net.osmand.osm.MapPoiTypes;
 import net.osmand.osm.MapRenderingTypesEncoder;
@@ -36,6 +45,7 @@ import net.osmand.osm.io.IOsmStorageFilter;
 import net.osmand.osm.io.OsmBaseStorage;
 import net.osmand.osm.io.OsmBaseStoragePbf;
 import net.osmand.util.Algorithms;
+import rtree.RTree;
 import rtree.RTreeException;
 
 /**
@@ -76,16 +86,31 @@ public class IndexCreator {
 	IndexRouteCreator indexRouteCreator;
 	IndexHeightData heightData = null;
 	PropagateToNodes propagateToNodes;
+	IndexCreationProfiler profiler = new IndexCreationProfiler(false, null);
+	private PartTimer poiTimer;
+	private PartTimer transportTimer;
+	private PartTimer mapTimer;
+	private PartTimer addressTimer;
+	private PartTimer routingTimer;
 
 	private File dbFile;
+	private NodeCoordinatesStore nodeStore;
 	private File mapFile;
 	private RandomAccessFile mapRAFile;
 	private Connection mapConnection;
+	// address, transport and route connections are equal to mapConnection unless they are used in parallel
+	private Connection addressConnection;
+	private Connection transportConnection;
+	private Connection routeConnection;
 
 	// constants to start process from the middle and save temporary results
 	private boolean recreateOnlyBinaryFile = false; // false;
 	private boolean deleteOsmDB = true;
 	private boolean deleteDatabaseIndexes = true;
+	// use nodes db of previous run instead of importing osm files
+	private boolean reuseNodesDB = false;
+	// process only nodes and ways inside of these tiles
+	private ChangedTiles changedTiles;
 
 	public IndexCreator(File workingDir, IndexCreatorSettings settings) {
 		this.workingDir = workingDir;
@@ -93,13 +118,36 @@ public class IndexCreator {
 		if (settings.srtmDataFolderUrl == null && new File(workingDir, "srtm").exists()) {
 			settings.srtmDataFolderUrl = new File(workingDir, "srtm").getAbsolutePath();
 		}
-		if (settings.srtmDataFolderUrl != null) {
-			Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("TIFF");
-			while (readers.hasNext()) {
-				System.out.println("Tiff reader: " + readers.next());
+	}
+
+	private void initHeightData() {
+		if (settings.srtmDataFolderUrl == null || heightData != null) {
+			return;
+		}
+		Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("TIFF");
+		while (readers.hasNext()) {
+			System.out.println("Tiff reader: " + readers.next());
+		}
+		// tiles are shared between creators of one process (regions generated in parallel)
+		heightData = IndexHeightData.getSharedInstance(settings.srtmDataFolderUrl,
+				IndexHeightData.getDefaultDownloadDir());
+		if (settings.srtmRawTilesDir != null) {
+			heightData.setRawTilesDir(new File(settings.srtmRawTilesDir));
+		}
+		if (settings.srtmCacheMb > 0) {
+			// one cache folder for all generations of process, working dirs are removed after generation
+			heightData.setDiskCache(IndexHeightData.getDefaultDiskCacheDir(), settings.srtmCacheMb * 1024l * 1024l,
+					settings.srtmPrefetchThreads);
+			if (settings.boundaryBbox != null) {
+				heightData.prefetchTiles(settings.boundaryBbox);
 			}
-			heightData = new IndexHeightData();
-			heightData.setSrtmData(settings.srtmDataFolderUrl, workingDir);
+		}
+	}
+
+	private void releaseHeightData() {
+		if (heightData != null) {
+			IndexHeightData.releaseSharedInstance(heightData);
+			heightData = null;
 		}
 	}
 
@@ -130,6 +178,14 @@ public class IndexCreator {
 		this.deleteOsmDB = deleteOsmDB;
 	}
 
+	public void setReuseNodesDB(boolean reuseNodesDB) {
+		this.reuseNodesDB = reuseNodesDB;
+	}
+
+	public void setChangedTiles(ChangedTiles changedTiles) {
+		this.changedTiles = changedTiles;
+	}
+
 	public void setMapFileName(String mapFileName) {
 		this.mapFileName = mapFileName;
 	}
@@ -145,6 +201,40 @@ public class IndexCreator {
 		return getMapFileName() + ".tmp"; //$NON-NLS-1$
 	}
 
+	public String getTempDBFileName(String part) {
+		return getMapFileName() + "." + part + ".tmp"; //$NON-NLS-1$
+	}
+
+	// route section inserts roads into its db while other sections are written in parallel
+	private boolean isSeparateTempDatabases() {
+		return settings.parallelMainIteration || settings.parallelBinaryWrite;
+	}
+
+	private Connection openTempDatabase(String part, boolean recreate) throws SQLException {
+		if (!isSeparateTempDatabases()) {
+			return mapConnection;
+		}
+		File tempDBFile = new File(workingDir, getTempDBFileName(part));
+		if (recreate) {
+			mapIndexDBDialect.removeDatabase(tempDBFile);
+		}
+		Connection conn = (Connection) getDatabaseConnection(tempDBFile.getAbsolutePath(), mapIndexDBDialect);
+		conn.setAutoCommit(false);
+		return conn;
+	}
+
+	private void closeTempDatabase(Connection conn, String part) throws SQLException {
+		if (conn == null || conn == mapConnection) {
+			return;
+		}
+		conn.commit();
+		conn.close();
+		File tempDBFile = new File(workingDir, getTempDBFileName(part));
+		if (mapIndexDBDialect.databaseFileExists(tempDBFile) && deleteDatabaseIndexes) {
+			mapIndexDBDialect.removeDatabase(tempDBFile);
+		}
+	}
+
 	public void setDialects(DBDialect osmDBdialect, DBDialect mapIndexDBDialect) {
 		if (osmDBdialect != null) {
 			this.osmDBdialect = osmDBdialect;
@@ -194,6 +284,10 @@ public class IndexCreator {
 		return mapFile.getAbsolutePath() + ".ptrans"; //$NON-NLS-1$
 	}
 
+	public String getLowLevelWaysFileName() {
+		return mapFile.getAbsolutePath() + ".llw"; //$NON-NLS-1$
+	}
+
 	public String getRTreeMapIndexPackFileName() {
 		return mapFile.getAbsolutePath() + ".prtree"; //$NON-NLS-1$
 	}
@@ -201,32 +295,50 @@ public class IndexCreator {
 	/* ***** END OF GETTERS/SETTERS ***** */
 
 	private void iterateMainEntity(Entity e, OsmDbAccessorContext ctx, IndexCreationContext icc) throws SQLException {
-		calculateRegionTagAndTransliterate(e, icc);
-		if (heightData != null && e instanceof Way) {
-			if (!settings.keepOnlyRouteRelationObjects) {// small speedup
-				heightData.proccess((Way) e);
-			}
-		}
-		if (propagateToNodes != null && e instanceof Node) {
-			propagateToNodes.propagateTagsToNode((Node) e);
-		}
+		prepareMainEntity(e, icc);
 		if (settings.indexPOI) {
+			long t = poiTimer.start();
 			indexPoiCreator.iterateEntity(e, ctx, icc);
+			poiTimer.finish(t);
 		}
 		if (settings.indexTransport) {
+			long t = transportTimer.start();
 			indexTransportCreator.iterateMainEntity(e, ctx, icc);
+			transportTimer.finish(t);
 		}
 		if (settings.indexMap) {
-			if (settings.boundary == null || checkBoundary(e)) {
-				indexMapCreator.iterateMainEntity(e, ctx, icc);
-				indexRouteRelationCreator.iterateMainEntity(e, ctx, icc);
-			}
+			long t = mapTimer.start();
+			iterateMapEntity(e, ctx, icc);
+			mapTimer.finish(t);
 		}
 		if (settings.indexAddress) {
+			long t = addressTimer.start();
 			indexAddressCreator.iterateMainEntity(e, ctx, icc);
+			addressTimer.finish(t);
 		}
 		if (settings.indexRouting) {
+			long t = routingTimer.start();
 			indexRouteCreator.iterateMainEntity(e, ctx, icc);
+			routingTimer.finish(t);
+		}
+	}
+
+	private void prepareMainEntity(Entity e, IndexCreationContext icc) {
+		calculateRegionTagAndTransliterate(e, icc);
+		if (heightData != null && e instanceof Way) {
+			if (!settings.keepOnlyRouteRelationObjects) {// small speedup
+				heightData.proccess((Way) e);
+			}
+		}
+		if (propagateToNodes != null && e instanceof Node) {
+			propagateToNodes.propagateTagsToNode((Node) e);
+		}
+	}
+
+	private void iterateMapEntity(Entity e, OsmDbAccessorContext ctx, IndexCreationContext icc) throws SQLException {
+		if (settings.boundary == null || checkBoundary(e)) {
+			indexMapCreator.iterateMainEntity(e, ctx, icc);
+			indexRouteRelationCreator.iterateMainEntity(e, ctx, icc);
 		}
 	}
 
@@ -290,6 +402,8 @@ public class IndexCreator {
 		// 1. Loading osm file
 		OsmDbCreator dbCreator = generateNewIds ? new OsmDbCreator(idSourceMapInd, idShift) : new OsmDbCreator();
 		dbCreator.setPropagateToNodes(propagateToNodes);
+		dbCreator.setNodeCoordinatesStore(nodeStore);
+		dbCreator.setPackedWays(nodeStore != null && settings.packedWays);
 		
 		try {
 			setGeneralProgress(progress, "[15 / 100]"); //$NON-NLS-1$
@@ -298,7 +412,7 @@ public class IndexCreator {
 			dbCreator.initDatabase(osmDBdialect, accessor.getDbConn(), idSourceMapInd == 0, previous);
 			storage.getFilters().add(dbCreator);
 			if (pbfFile) {
-				((OsmBaseStoragePbf) storage).parseOSMPbf(stream, progress, false);
+				((OsmBaseStoragePbf) storage).parseOSMPbf(stream, progress, false, settings.pbfDecodeThreads);
 			} else {
 				storage.parseOSM(stream, progress, streamFile, false);
 			}
@@ -320,9 +434,35 @@ public class IndexCreator {
 	private OsmDbAccessor initDbAccessor(File[] readFile, IProgress progress, IOsmStorageFilter addFilter,
 			boolean generateUniqueIdsForEachFile) throws IOException, SQLException, InterruptedException, XmlPullParserException {
 		OsmDbAccessor accessor = new OsmDbAccessor();
+		if (settings.relationWayCacheSize > 0) {
+			accessor.setWayCacheSize(settings.relationWayCacheSize);
+		}
 		if (dbFile == null) {
 			dbFile = new File(workingDir, TEMP_NODES_DB);
 		}
+		if (reuseNodesDB && osmDBdialect.databaseFileExists(dbFile)) {
+			if (settings.boundary != null) {
+				// shared nodes db of many regions (see MultiRegionIndexCreator)
+				accessor.setRegionBoundary(settings.boundary, settings.boundaryBbox);
+			}
+			Connection dbConn = (Connection) getDatabaseConnection(dbFile.getAbsolutePath(), osmDBdialect);
+			accessor.setDbConn(dbConn, osmDBdialect);
+			// format of reused db is restored from db, not from current settings
+			nodeStore = NodeCoordinatesStore.loadFromDb(osmDBdialect, dbConn, getNodeCoordinatesStoreFile());
+			accessor.setNodeCoordinatesStore(nodeStore);
+			accessor.setPackedWays(OsmDbAccessor.hasPackedWays(dbConn));
+			accessor.initDatabase();
+			if (indexAddressCreator != null && settings.indexAddress) {
+				// cities are registered while osm file is imported
+				accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
+					@Override
+					public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+						indexAddressCreator.registerCityIfNeeded(e);
+					}
+				}, false);
+			}
+			return accessor;
+		}
 		if (osmDBdialect.databaseFileExists(dbFile)) {
 			osmDBdialect.removeDatabase(dbFile);
 		}
@@ -334,6 +474,14 @@ public class IndexCreator {
 		if (readFile.length > (1 << 11)) {
 			throw new UnsupportedOperationException();
 		}
+		if (settings.nodeCoordinatesStore && readFile.length == 1) {
+			// ids are shifted by OsmDbCreator, store index is built from original id
+			int nodeIdShift = generateUniqueIdsForEachFile ? idShift : OsmDbCreator.SHIFT_ID;
+			nodeStore = new NodeCoordinatesStore(getNodeCoordinatesStoreFile(), nodeIdShift,
+					settings.nodeCoordinatesStoreDense);
+			accessor.setNodeCoordinatesStore(nodeStore);
+			accessor.setPackedWays(settings.packedWays);
+		}
 		int idSourceMapInd = 0;
 		for (File read : readFile) {
 			dbCreator = extractOsmToNodesDB(accessor, read, progress, addFilter, idSourceMapInd, idShift, generateUniqueIdsForEachFile, null);
@@ -343,11 +491,226 @@ public class IndexCreator {
 			}
 			idSourceMapInd++;
 		}
+		if (nodeStore != null) {
+			nodeStore.saveToDb(osmDBdialect, dbConn);
+		}
 		osmDBdialect.commitDatabase(dbConn);
 		accessor.initDatabase();
 		return accessor;
 	}
 
+	/**
+	 * Imports osm files into nodes db without generating obf. Db could be shared (read only) by many regions
+	 * generated later with setReuseNodesDB and settings.boundary, see MultiRegionIndexCreator.
+	 */
+	public void importNodesDB(File[] readFile, IProgress progress, MapRenderingTypesEncoder renderingTypes)
+			throws IOException, SQLException, InterruptedException, XmlPullParserException {
+		this.propagateToNodes = new PropagateToNodes(renderingTypes);
+		OsmDbAccessor accessor = initDbAccessor(readFile, progress, null, false);
+		accessor.closeReadingConnection();
+		if (osmDBdialect == DBDialect.SQLITE) {
+			log.info("Create region index of nodes db"); //$NON-NLS-1$
+			accessor.createRegionIndex();
+		}
+		osmDBdialect.commitDatabase(accessor.getDbConn());
+		osmDBdialect.closeDatabase(accessor.getDbConn());
+		closeNodeStore();
+	}
+
+	private void initProfiler() {
+		profiler.close();
+		profiler = new IndexCreationProfiler(settings.generateReport, regionName);
+		poiTimer = profiler.createPartTimer("poi");
+		transportTimer = profiler.createPartTimer("transport");
+		mapTimer = profiler.createPartTimer("map");
+		addressTimer = profiler.createPartTimer("address");
+		routingTimer = profiler.createPartTimer("routing");
+		profiler.addIndexPartCreator(indexPoiCreator);
+		profiler.addIndexPartCreator(indexTransportCreator);
+		profiler.addIndexPartCreator(indexMapCreator);
+		profiler.addIndexPartCreator(indexAddressCreator);
+		profiler.addIndexPartCreator(indexRouteCreator);
+		profiler.addTempFile(dbFile == null ? new File(workingDir, TEMP_NODES_DB) : dbFile);
+		profiler.addTempFile(new File(workingDir, getMapFileName() + "."));
+		profiler.addTempFile(getPoiFile());
+	}
+
+	private void writeReport() {
+		if (!profiler.isEnabled()) {
+			return;
+		}
+		try {
+			IndexCreationProfiler.writeReport(profiler.finish(mapFile),
+					new File(workingDir, getMapFileName() + IndexCreationProfiler.REPORT_EXT));
+		} catch (IOException e) {
+			log.error("Error writing generation report", e);
+		}
+	}
+
+	private BinaryMapIndexWriter createBinaryWriter(RandomAccessFile raf) throws IOException {
+		long timestamp = lastModifiedDate == null ? System.currentTimeMillis() : lastModifiedDate.longValue();
+		if (settings.obfWriteBufferMb > 0) {
+			return new BinaryMapIndexWriter(raf, timestamp, settings.obfWriteBufferMb << 20);
+		}
+		return new BinaryMapIndexWriter(raf, timestamp);
+	}
+
+	private abstract class BinarySection {
+		private final String name;
+		// written part of part file (without obf header)
+		private File partFile;
+		private long partStart;
+		private long partEnd;
+
+		BinarySection(String name) {
+			this.name = name;
+		}
+
+		abstract void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException;
+	}
+
+	private List<BinarySection> getBinarySections() {
+		List<BinarySection> sections = new ArrayList<BinarySection>();
+		if (settings.indexMap) {
+			sections.add(new BinarySection("map") {
+				@Override
+				void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException {
+					indexMapCreator.writeBinaryMapIndex(writer, regionName);
+				}
+			});
+		}
+		if (settings.indexRouting) {
+			sections.add(new BinarySection("route") {
+				@Override
+				void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException {
+					indexRouteCreator.writeBinaryRouteIndex(file, writer, regionName, settings.generateLowLevel);
+				}
+			});
+		}
+		if (settings.indexAddress) {
+			sections.add(new BinarySection("address") {
+				@Override
+				void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException {
+					indexAddressCreator.writeBinaryAddressIndex(writer, regionName, progress);
+				}
+			});
+		}
+		if (settings.indexPOI) {
+			sections.add(new BinarySection("poi") {
+				@Override
+				void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException {
+					indexPoiCreator.writeBinaryPoiIndex(writer, regionName, progress);
+				}
+			});
+		}
+		if (settings.indexTransport) {
+			sections.add(new BinarySection("transport") {
+				@Override
+				void write(BinaryMapIndexWriter writer, File file, IProgress progress) throws IOException, SQLException {
+					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, transportConnection);
+				}
+			});
+		}
+		return sections;
+	}
+
+	/**
+	 * Every section is written by own thread into own obf part file, then sections are appended to the main file
+	 * as is (like BinaryMerger copies parts): all pointers inside of sections are relative.
+	 */
+	private void writeBinarySectionsInParallel(BinaryMapIndexWriter writer, List<BinarySection> sections)
+			throws IOException, SQLException, InterruptedException {
+		profiler.startPhase("write-parallel");
+		long fp = writer.getFilePointer();
+		ExecutorService service = Executors.newFixedThreadPool(sections.size());
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		try {
+			for (final BinarySection section : sections) {
+				futures.add(service.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						writeBinarySectionPart(section);
+						return null;
+					}
+				}));
+			}
+			Throwable error = null;
+			for (Future<?> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (error == null) {
+						error = e.getCause();
+					}
+				}
+			}
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			} else if (error instanceof SQLException) {
+				throw (SQLException) error;
+			} else if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			} else if (error != null) {
+				throw new IOException(error);
+			}
+			writer.flush();
+			FileChannel out = mapRAFile.getChannel();
+			for (BinarySection section : sections) {
+				RandomAccessFile part = new RandomAccessFile(section.partFile, "r");
+				try {
+					FileChannel in = part.getChannel();
+					long pos = section.partStart;
+					while (pos < section.partEnd) {
+						pos += in.transferTo(pos, section.partEnd - pos, out);
+					}
+				} finally {
+					part.close();
+				}
+			}
+		} finally {
+			service.shutdown();
+			for (BinarySection section : sections) {
+				if (section.partFile != null) {
+					section.partFile.delete();
+				}
+			}
+		}
+		profiler.addPhaseBytesWritten(writer.getFilePointer() - fp);
+		profiler.finishPhase();
+	}
+
+	private void writeBinarySectionPart(BinarySection section) throws IOException, SQLException {
+		long time = System.currentTimeMillis();
+		section.partFile = new File(workingDir, getMapFileName() + ".part." + section.name);
+		RandomAccessFile raf = new RandomAccessFile(section.partFile, "rw");
+		try {
+			raf.setLength(0);
+			BinaryMapIndexWriter writer = createBinaryWriter(raf);
+			section.partStart = writer.getFilePointer();
+			section.write(writer, section.partFile, IProgress.EMPTY_PROGRESS);
+			section.partEnd = writer.getFilePointer();
+			writer.close();
+		} finally {
+			raf.close();
+		}
+		log.info(String.format("Section %s written in %d ms (%d bytes)", section.name, System.currentTimeMillis() - time,
+				section.partEnd - section.partStart));
+	}
+
+	private File getNodeCoordinatesStoreFile() {
+		return new File(dbFile.getParentFile(), dbFile.getName() + NodeCoordinatesStore.EXT);
+	}
+
+	private void closeNodeStore() throws IOException {
+		if (nodeStore != null) {
+			nodeStore.close();
+			if (deleteOsmDB) {
+				nodeStore.delete();
+			}
+			nodeStore = null;
+		}
+	}
+
 	private void createDatabaseIndexesStructure() throws SQLException, IOException {
 		// 2.1 create temporary sqlite database to put temporary results to it
 		mapFile = new File(workingDir, getMapFileName());
@@ -361,20 +724,23 @@ public class IndexCreator {
 		// 2.2 create rtree map
 		if (settings.indexMap) {
 			indexMapCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect,
-					getRTreeMapIndexNonPackFileName());
+					getRTreeMapIndexNonPackFileName(), getLowLevelWaysFileName());
 		}
 		if (settings.indexRouting) {
-			indexRouteCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect,
+			routeConnection = openTempDatabase("route", true);
+			indexRouteCreator.createDatabaseStructure(routeConnection, mapIndexDBDialect,
 					getRTreeRouteIndexNonPackFileName());
 		}
 		if (settings.indexAddress) {
-			indexAddressCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect);
+			addressConnection = openTempDatabase("address", true);
+			indexAddressCreator.createDatabaseStructure(addressConnection, mapIndexDBDialect);
 		}
 		if (settings.indexPOI) {
 			indexPoiCreator.createDatabaseStructure(getPoiFile());
 		}
 		if (settings.indexTransport) {
-			indexTransportCreator.createDatabaseStructure(mapConnection, mapIndexDBDialect,
+			transportConnection = openTempDatabase("transport", true);
+			indexTransportCreator.createDatabaseStructure(transportConnection, mapIndexDBDialect,
 					getRTreeTransportStopsFileName());
 		}
 	}
@@ -442,6 +808,7 @@ public class IndexCreator {
 				}
 			});
 			accessor.closeReadingConnection();
+			closeNodeStore();
 
 			mapFile = new File(workingDir, getMapFileName());
 			// to save space
@@ -450,8 +817,7 @@ public class IndexCreator {
 				mapFile.delete();
 			}
 			mapRAFile = new RandomAccessFile(mapFile, "rw");
-			BinaryMapIndexWriter writer = new BinaryMapIndexWriter(mapRAFile,
-					lastModifiedDate == null ? System.currentTimeMillis() : lastModifiedDate.longValue());
+			BinaryMapIndexWriter writer = createBinaryWriter(mapRAFile);
 
 			setGeneralProgress(progress, "[95 of 100]");
 			progress.startTask("Writing map index to binary file...", -1);
@@ -507,14 +873,25 @@ public class IndexCreator {
 		if (renderingTypes == null) {
 			renderingTypes = new MapRenderingTypesEncoder(null, regionName);
 		}
+		renderingTypes.setEncodeCacheSize(settings.encodeTypesCacheSize);
 
 		this.propagateToNodes = new PropagateToNodes(renderingTypes);
 		this.indexTransportCreator = new IndexTransportCreator(settings);
-		this.indexPoiCreator = new IndexPoiCreator(settings, renderingTypes);
+		// poi is iterated in own thread and registers rules while transforming tags
+		this.indexPoiCreator = new IndexPoiCreator(settings,
+				settings.parallelMainIteration ? renderingTypes.newInstance() : renderingTypes);
 		this.indexAddressCreator = new IndexAddressCreator(logMapDataWarn, settings);
 		this.indexMapCreator = new IndexVectorMapCreator(logMapDataWarn, mapZooms, renderingTypes, settings);
 		this.indexRouteCreator = new IndexRouteCreator(renderingTypes, logMapDataWarn, settings, propagateToNodes);
 		this.indexRouteRelationCreator = new IndexRouteRelationCreator(logMapDataWarn, mapZooms, renderingTypes, settings);
+		initProfiler();
+		if (readFile != null) {
+			long sourceSize = 0;
+			for (File f : readFile) {
+				sourceSize += f.length();
+			}
+			profiler.setSourceSize(sourceSize);
+		}
 
 		if (!settings.extraRelations.isEmpty()) {
 			for (File inputFile : settings.extraRelations) {
@@ -531,6 +908,7 @@ public class IndexCreator {
 			}
 		}
 
+		initHeightData();
 		// Main generation method
 		try {
 			// ////////////////////////////////////////////////////////////////////////
@@ -542,6 +920,9 @@ public class IndexCreator {
 				File tempDBMapFile = new File(workingDir, getTempMapDBFileName());
 				mapConnection = (Connection) getDatabaseConnection(tempDBMapFile.getAbsolutePath(), mapIndexDBDialect);
 				mapConnection.setAutoCommit(false);
+				if (settings.indexTransport) {
+					transportConnection = openTempDatabase("transport", false);
+				}
 				try {
 					if (settings.indexMap) {
 						indexMapCreator.createRTreeFiles(getRTreeMapIndexPackFileName());
@@ -559,15 +940,21 @@ public class IndexCreator {
 			} else {
 				// 2. Create index connections and index structure
 				createDatabaseIndexesStructure();
+				profiler.startPhase("import");
 				OsmDbAccessor accessor = initDbAccessor(readFile, progress, addFilter, generateUniqueIds);
+				profiler.setPhaseEntities((long) accessor.getAllNodes() + accessor.getAllWays() + accessor.getAllRelations());
 
 				// 3. Processing all entries
 				// 3.1 write all cities
+				profiler.startPhase("cities");
 				writeAllCities(accessor, progress);
 				// 3.2 index address relations
+				profiler.startPhase("relations");
+				profiler.setPhaseEntities(accessor.getAllRelations());
 				indexRelations(accessor, progress, icc);
 				// 3.3 MAIN iterate over all entities
 				iterateMainEntities(accessor, progress, icc);
+				profiler.finishPhase();
 				accessor.closeReadingConnection();
 				// do not delete first db connection
 				if (accessor.getDbConn() != null) {
@@ -577,14 +964,18 @@ public class IndexCreator {
 				if (deleteOsmDB) {
 					osmDBdialect.removeDatabase(dbFile);
 				}
+				closeNodeStore();
 
 				// 3.4 combine all low level ways and simplify them
 				if (settings.indexMap || settings.indexRouting) {
+					profiler.startPhase("low-level-ways");
 					setGeneralProgress(progress, "[90 / 100]");
 					if (settings.indexMap) {
 						progress.startTask(settings.getString("IndexCreator.INDEX_LO_LEVEL_WAYS"),
 								indexMapCreator.getLowLevelWays());
 						indexMapCreator.processingLowLevelWays(progress);
+						log.info(String.format("Map types encode cache: %d hits, %d misses",
+								renderingTypes.getEncodeCacheHits(), renderingTypes.getEncodeCacheMisses()));
 					}
 					if (settings.indexRouting) {
 						progress.startTask(settings.getString("IndexCreator.INDEX_LO_LEVEL_WAYS"), -1);
@@ -594,6 +985,7 @@ public class IndexCreator {
 				}
 
 				// 4. packing map rtree indexes
+				profiler.startPhase("pack-rtree");
 				if (settings.indexMap) {
 					setGeneralProgress(progress, "[90 / 100]"); //$NON-NLS-1$
 					progress.startTask(settings.getString("IndexCreator.PACK_RTREE_MAP"), -1); //$NON-NLS-1$
@@ -610,6 +1002,7 @@ public class IndexCreator {
 					indexTransportCreator.packRTree(getRTreeTransportStopsFileName(),
 							getRTreeTransportStopsPackFileName());
 				}
+				profiler.finishPhase();
 			}
 
 			// 5. Writing binary file
@@ -619,41 +1012,34 @@ public class IndexCreator {
 					mapFile.delete();
 				}
 				mapRAFile = new RandomAccessFile(mapFile, "rw");
-				BinaryMapIndexWriter writer = new BinaryMapIndexWriter(mapRAFile,
-						lastModifiedDate == null ? System.currentTimeMillis() : lastModifiedDate.longValue());
-				if (settings.indexMap) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing map index to binary file...", -1);
-					indexMapCreator.writeBinaryMapIndex(writer, regionName);
-				}
-				if (settings.indexRouting) {
+				BinaryMapIndexWriter writer = createBinaryWriter(mapRAFile);
+				List<BinarySection> sections = getBinarySections();
+				if (settings.parallelBinaryWrite && sections.size() > 1) {
 					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing route index to binary file...", -1);
-					indexRouteCreator.writeBinaryRouteIndex(mapFile, writer, regionName, settings.generateLowLevel);
-				}
-
-				if (settings.indexAddress) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing address index to binary file...", -1);
-					indexAddressCreator.writeBinaryAddressIndex(writer, regionName, progress);
-				}
-
-				if (settings.indexPOI) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing poi index to binary file...", -1);
-					indexPoiCreator.writeBinaryPoiIndex(writer, regionName, progress);
-				}
-
-				if (settings.indexTransport) {
-					setGeneralProgress(progress, "[95 of 100]");
-					progress.startTask("Writing transport index to binary file...", -1);
-					indexTransportCreator.writeBinaryTransportIndex(writer, regionName, mapConnection);
+					progress.startTask("Writing indexes to binary file...", -1);
+					writeBinarySectionsInParallel(writer, sections);
+				} else {
+					for (BinarySection section : sections) {
+						setGeneralProgress(progress, "[95 of 100]");
+						progress.startTask("Writing " + section.name + " index to binary file...", -1);
+						long fp = writer.getFilePointer();
+						profiler.startPhase("write-" + section.name);
+						section.write(writer, mapFile, progress);
+						profiler.addPhaseBytesWritten(writer.getFilePointer() - fp);
+						profiler.finishPhase();
+					}
 				}
 				progress.finishTask();
 				writer.close();
 				mapRAFile.close();
 				log.info("Finish writing binary file"); //$NON-NLS-1$
 			}
+			if (RTree.chdNodes != null) {
+				// cache is static and shared by all generations of process
+				log.info(String.format("RTree nodes cache (cumulative for process): %d hits, %d misses",
+						RTree.chdNodes.getHits(), RTree.chdNodes.getMisses()));
+			}
+			writeReport();
 		} catch (RuntimeException e) {
 			log.error("Log exception", e); //$NON-NLS-1$
 			throw e;
@@ -681,6 +1067,12 @@ public class IndexCreator {
 				indexRouteCreator.commitAndCloseFiles(getRTreeRouteIndexNonPackFileName(),
 						getRTreeRouteIndexPackFileName(), deleteDatabaseIndexes);
 
+				closeTempDatabase(addressConnection, "address");
+				closeTempDatabase(transportConnection, "transport");
+				closeTempDatabase(routeConnection, "route");
+				addressConnection = null;
+				transportConnection = null;
+				routeConnection = null;
 				if (mapConnection != null) {
 					mapConnection.commit();
 					mapConnection.close();
@@ -696,6 +1088,9 @@ public class IndexCreator {
 				e.printStackTrace();
 			} catch (RuntimeException e) {
 				e.printStackTrace();
+			} finally {
+				releaseHeightData();
+				profiler.close();
 			}
 		}
 		return mapFile;
@@ -705,22 +1100,18 @@ public class IndexCreator {
 			throws SQLException, InterruptedException {
 		setGeneralProgress(progress, "[50 / 100]");
 		progress.startTask(settings.getString("IndexCreator.PROCESS_OSM_NODES"), accessor.getAllNodes());
-		accessor.iterateOverEntities(progress, EntityType.NODE, new OsmDbVisitor() {
-			@Override
-			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-				iterateMainEntity(e, ctx, icc);
-			}
-		});
+		profiler.startPhase("main-nodes");
+		profiler.setPhaseEntities(accessor.getAllNodes());
+		iterateMainEntities(accessor, progress, EntityType.NODE, icc);
 		setGeneralProgress(progress, "[70 / 100]");
 		progress.startTask(settings.getString("IndexCreator.PROCESS_OSM_WAYS"), accessor.getAllWays());
-		accessor.iterateOverEntities(progress, EntityType.WAY, new OsmDbVisitor() {
-			@Override
-			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
-				iterateMainEntity(e, ctx, icc);
-			}
-		});
+		profiler.startPhase("main-ways");
+		profiler.setPhaseEntities(accessor.getAllWays());
+		iterateMainEntities(accessor, progress, EntityType.WAY, icc);
 		setGeneralProgress(progress, "[85 / 100]");
 		progress.startTask(settings.getString("IndexCreator.PROCESS_OSM_REL"), accessor.getAllRelations());
+		profiler.startPhase("main-relations");
+		profiler.setPhaseEntities(accessor.getAllRelations());
 		accessor.iterateOverEntities(progress, EntityType.RELATION, new OsmDbVisitor() {
 			@Override
 			public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
@@ -729,6 +1120,87 @@ public class IndexCreator {
 		});
 	}
 
+	private void iterateMainEntities(OsmDbAccessor accessor, IProgress progress, EntityType type,
+			final IndexCreationContext icc) throws SQLException, InterruptedException {
+		if (!settings.parallelMainIteration) {
+			accessor.iterateOverEntities(progress, type, new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					if (changedTiles == null || changedTiles.intersects(e)) {
+						iterateMainEntity(e, ctx, icc);
+					}
+				}
+			});
+			return;
+		}
+		// every index part gets own thread and own db connection, entity is prepared once (region, height,
+		// propagated tags). Poi has own encoder, but map and routing share one MapRenderingTypesEncoder which
+		// registers rules and counts frequencies in unsynchronized maps, so they stay sequential in one thread
+		// keeping rule ids deterministic (map and routing write into the same temp db)
+		final ParallelEntityConsumers consumers = new ParallelEntityConsumers(accessor);
+		if (settings.indexPOI) {
+			consumers.addConsumer("poi", new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					long t = poiTimer.start();
+					indexPoiCreator.iterateEntity(e, ctx, icc);
+					poiTimer.finish(t);
+				}
+			});
+		}
+		if (settings.indexMap || settings.indexRouting) {
+			consumers.addConsumer("map", new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					if (settings.indexMap) {
+						long t = mapTimer.start();
+						iterateMapEntity(e, ctx, icc);
+						mapTimer.finish(t);
+					}
+					if (settings.indexRouting) {
+						long t = routingTimer.start();
+						indexRouteCreator.iterateMainEntity(e, ctx, icc);
+						routingTimer.finish(t);
+					}
+				}
+			});
+		}
+		if (settings.indexTransport) {
+			consumers.addConsumer("transport", new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					long t = transportTimer.start();
+					indexTransportCreator.iterateMainEntity(e, ctx, icc);
+					transportTimer.finish(t);
+				}
+			});
+		}
+		if (settings.indexAddress) {
+			consumers.addConsumer("address", new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					long t = addressTimer.start();
+					indexAddressCreator.iterateMainEntity(e, ctx, icc);
+					addressTimer.finish(t);
+				}
+			});
+		}
+		consumers.start();
+		try {
+			accessor.iterateOverEntities(progress, type, new OsmDbVisitor() {
+				@Override
+				public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+					if (changedTiles == null || changedTiles.intersects(e)) {
+						prepareMainEntity(e, icc);
+						consumers.iterateEntity(e, ctx);
+					}
+				}
+			});
+		} finally {
+			consumers.finish();
+		}
+	}
+
 	private void indexRelations(OsmDbAccessor accessor, IProgress progress, IndexCreationContext icc)
 			throws SQLException, InterruptedException {
 		if (settings.indexAddress || settings.indexMap || settings.indexRouting || settings.indexPOI
@@ -766,6 +1238,7 @@ public class IndexCreator {
 				}
 			});
 			if (settings.indexMap) {
+				indexMapCreator.finishMultipolygons();
 				indexMapCreator.createMapIndexTableIndexes(mapConnection);
 			}
 			if (settings.indexAddress || settings.indexRouting) {
@@ -5,8 +5,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 import net.osmand.data.Multipolygon;
+import net.osmand.data.QuadRect;
 
-public class IndexCreatorSettings {
+public class IndexCreatorSettings implements Cloneable {
 	
 	public boolean indexMap;
 	public boolean indexPOI;
@@ -18,6 +19,41 @@ public class IndexCreatorSettings {
 	// use Sqlite in RAM instead of normal Sqlite (speeds up process but takes a lot of RAM)  
 	public boolean processInRam;
 	
+	// threads to inflate and parse pbf blocks while importing into nodes db (1 - sequential)
+	public int pbfDecodeThreads = 1;
+	
+	// keep coordinates of untagged nodes in memory mapped file instead of nodes db (only single source file)
+	public boolean nodeCoordinatesStore = false;
+	
+	// direct index by node id for node coordinates store, suits planet / continent extracts with dense ids
+	public boolean nodeCoordinatesStoreDense = false;
+	
+	// store ways as one row with packed node ids in nodes db (only with node coordinates store)
+	public boolean packedWays = false;
+	
+	// process nodes and ways by transport, address, poi and map/routing parts in own threads with own temp dbs
+	// (map and routing share rendering types encoder and stay sequential in one thread)
+	public boolean parallelMainIteration = false;
+	
+	// number of relation member ways kept in memory between relations (0 - no cache)
+	public int relationWayCacheSize = 0;
+	
+	// threads to assemble and simplify multipolygons of relations, written in order of relations (1 - sequential)
+	public int multipolygonThreads = 1;
+	
+	// write map, route, address, poi and transport sections in parallel into part files and append them to obf
+	// (address, transport and route parts use own temp dbs)
+	public boolean parallelBinaryWrite = false;
+	
+	// write-behind buffer of obf writer, sizes of nested messages are patched in memory (0 - write directly to file)
+	public int obfWriteBufferMb = 32;
+	
+	// write json report with time and resources of every generation phase next to obf file
+	public boolean generateReport = false;
+	
+	// keep nodes db at this path after generation to update obf with osm changes later (null - temporary db)
+	public String nodesDbFile;
+	
 	// maximum tiles to use in RAM
 	public int maxHeightTilesInRam = -1;
 
@@ -27,9 +63,29 @@ public class IndexCreatorSettings {
 	// zoom smoothness for low level roads
 	public int zoomWaySmoothness = 2;
 	
+	// threads to combine and simplify low level map ways partitioned by tiles of lowLevelWaysTileZoom (1 - sequential)
+	public int lowLevelWaysThreads = 1;
+	
+	// zoom of tiles partitioning low level map ways between threads (0 - by level only, same result as sequential).
+	// Ways are not combined across tile borders, so map differs from sequential generation
+	public int lowLevelWaysTileZoom = 0;
+	
+	// cached map types of entities without names by tags and zoom (0 - encode every entity by all rules)
+	public int encodeTypesCacheSize = 1 << 16;
+	
 	// srtm data folder to amend roads with height profile (could be s3://, https:// url)
 	public String srtmDataFolderUrl;
 	
+	// folder of memory mapped raw srtm tiles, missing tiles are converted from tif once (null - tif tiles are decoded on heap)
+	public String srtmRawTilesDir;
+	
+	// disk cache of downloaded (http, s3) srtm tiles in process tmp folder shared by all generations
+	// (0 - downloaded tiles are deleted after decoding)
+	public int srtmCacheMb = 0;
+	
+	// threads downloading srtm tiles of region bbox and neighbor tiles ahead (only with srtm disk cache)
+	public int srtmPrefetchThreads = 4;
+	
 	// gtfs data for public transport
 	public File gtfsData;
 	
@@ -45,6 +101,9 @@ public class IndexCreatorSettings {
 	// limit entities by multipolygon (used by srtm)  
 	public Multipolygon boundary;
 	
+	// bbox of boundary to select nodes from nodes db by index (optional)
+	public QuadRect boundaryBbox;
+	
 	// adds additional info to house name
 	public boolean houseNameAddAdditionalInfo = false;
 	
@@ -69,6 +128,14 @@ public class IndexCreatorSettings {
     public boolean indexByProximity = true;
 	
 
+	public IndexCreatorSettings copy() {
+		try {
+			return (IndexCreatorSettings) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public String getString(String key) {
 		// IndexCreator.INDEX_LO_LEVEL_WAYS
 		String k = key.substring(key.indexOf('.')+1).toLowerCase().replace(' ', ' ');
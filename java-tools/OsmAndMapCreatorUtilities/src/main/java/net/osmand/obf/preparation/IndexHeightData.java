@@ -3,22 +3,39 @@ package net.osmand.obf.preparation;
 import java.awt.Shape;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferShort;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageIO;
 
@@ -38,23 +55,39 @@ import gnu.trove.list.array.TDoubleArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import net.osmand.PlatformUtil;
 import net.osmand.data.LatLon;
+import net.osmand.data.QuadRect;
 import net.osmand.osm.edit.Node;
 import net.osmand.osm.edit.Way;
 import net.osmand.util.Algorithms;
 import net.osmand.util.MapUtils;
-import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 
 public class IndexHeightData {
 	public static int MAXIMUM_LOADED_DATA = 150; 
+	// memory mapped tiles are not on heap, limit only keeps number of mappings reasonable
+	public static int MAXIMUM_MAPPED_DATA = 2000;
+	// limit of decoded (heap) tiles in bytes (-1 - only number of tiles is limited)
+	public static long MAXIMUM_LOADED_BYTES = -1;
+	public static final String RAW_TILE_EXT = ".raw16";
+	// header: magic, width, height then width * height int16 (big endian) values row by row
+	private static final int RAW_TILE_MAGIC = 0x53524d31;
+	private static final int RAW_TILE_HEADER = 12;
 	private static final double MINIMAL_DISTANCE = 0;
 	private static final int HEIGHT_ACCURACY = 4;
 	private static boolean USE_BILINEAR_INTERPOLATION = false;
 
 	private String srtmDataUrl;
 	private File srtmWorkingDir;
+	private File rawTilesDir;
+	// downloaded tif tiles are kept in disk cache and next tiles are downloaded ahead in background
+	private File diskCacheDir;
+	private long diskCacheMaxBytes;
+	private ExecutorService prefetchExecutor;
+	private final Map<String, Future<File>> downloads = new ConcurrentHashMap<String, Future<File>>();
+	private final Set<String> missingRemoteFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private static volatile S3Client s3Client;
 	
 	public static final String ELE_ASC_START = "osmand_ele_start";
 	public static final String ELE_ASC_END = "osmand_ele_end";
@@ -80,27 +113,123 @@ public class IndexHeightData {
 	}
 
 	
-	private Map<Integer, TileData> map = new HashMap<Integer, TileData>();
+	// instances by srtm data url shared between generators and server requests (see getSharedInstance)
+	private static final Map<String, IndexHeightData> sharedInstances = new HashMap<String, IndexHeightData>();
+	private String sharedKey;
+	private int sharedRefs;
+
+	// limits of loaded tiles of this instance, static limits are used if they are not set
+	private volatile boolean ownCacheLimits;
+	private volatile int maximumLoadedData;
+	private volatile long maximumLoadedBytes;
+
+	private final Map<Integer, TileData> map = new ConcurrentHashMap<Integer, TileData>();
+	private final AtomicLong accessClock = new AtomicLong();
+	private final ThreadLocal<ProfileBuffer> profileBuffers = new ThreadLocal<ProfileBuffer>() {
+		@Override
+		protected ProfileBuffer initialValue() {
+			return new ProfileBuffer();
+		}
+	};
 
 	private static final Log log = PlatformUtil.getLog(IndexHeightData.class);
 	
+	/**
+	 * Decoded (heap) or memory mapped elevations of tile, immutable so readers could use it while tile is unloaded
+	 */
+	private static class TileRaster {
+		private final String name;
+		private final int width;
+		private final int height;
+		private final DataBufferShort data;
+		private final ShortBuffer mapped;
+
+		private TileRaster(String name, int width, int height, DataBufferShort data, ShortBuffer mapped) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+			this.mapped = mapped;
+		}
+
+		private long getSizeInBytes() {
+			return 2l * (mapped != null ? mapped.capacity() : data.getSize());
+		}
+
+		private double getElem(int px, int py) {
+			if (px <= 0) {
+				px = 1;
+			}
+			if(py <= 0) {
+				py = 1;
+			}
+			if (px >= width - 1) {
+				px = width - 2;
+			}
+			if (py >= height - 1) {
+				py = height - 2;
+			}
+			
+			int ind = px + py * width;
+			if (ind >= (mapped != null ? mapped.capacity() : data.getSize())) {
+				throw new IllegalArgumentException("Illegal access (" + px + ", " + py + ") " + ind + " - "
+						+ name);
+			}
+			int h = (mapped != null ? mapped.get(ind) : data.getElem(ind)) & 0xffff;
+			if(h > 0x7fff) {
+				return h - (0xffff);
+			}
+			return h;
+		}
+	}
+
 	private static class TileData {
-		DataBufferShort data;
-		private int id;
-		private boolean dataLoaded;
-		private int height;
-		private int width;
-		public int accessed;
-		public int loaded;
+		private final int id;
+		// tile is loaded once under tile lock, readers take raster without lock; dataLoaded is set after raster and
+		// missingFile are published
+		private volatile boolean dataLoaded;
+		private volatile TileRaster raster;
+		private volatile File missingFile;
+		private volatile long lastAccess;
 		
 		private TileData(int id) {
 			this.id = id;
 			
 		}
 		
-		public File loadData(String srtmDataUrl, File workDir) throws IOException {
-			dataLoaded = true;
-			File f = loadFile(getFileName() + ".tif", srtmDataUrl, workDir);
+		public File loadData(IndexHeightData hd) throws IOException {
+			String srtmDataUrl = hd.srtmDataUrl;
+			File rawTilesDir = hd.rawTilesDir;
+			// downloaded files are kept by disk cache
+			boolean remote = !srtmDataUrl.startsWith("/") && !srtmDataUrl.startsWith(".") && hd.diskCacheDir == null;
+			File raw = null;
+			if (!remote && new File(srtmDataUrl, getFileName() + RAW_TILE_EXT).exists()) {
+				raw = new File(srtmDataUrl, getFileName() + RAW_TILE_EXT);
+			} else if (rawTilesDir != null) {
+				raw = new File(rawTilesDir, getFileName() + RAW_TILE_EXT);
+			}
+			if (raw != null && raw.exists()) {
+				raster = mapRawData(raw);
+				return null;
+			}
+			File f = hd.getTileFile(getFileName() + ".tif");
+			if (raw != null) {
+				if (!f.exists()) {
+					return f;
+				}
+				try {
+					convertTiffToRaw(f, raw);
+				} catch (Exception e) {
+					log.error("Error converting tif file " + getFileName() + " " + e.getMessage(), e);
+					return null;
+				} finally {
+					if (remote) {
+						f.delete();
+					}
+				}
+				raster = mapRawData(raw);
+				return null;
+			}
 			BufferedImage img;
 			if (f.exists()) {
 				try {
@@ -109,17 +238,40 @@ public class IndexHeightData {
 					log.error("Error reading tif file " + getFileName() + " " + e.getMessage(), e);
 					return null;
 				}
-				width = img.getWidth();
-				height = img.getHeight();
-				data = (DataBufferShort) img.getRaster().getDataBuffer();
+				raster = new TileRaster(getFileName(), img.getWidth(), img.getHeight(),
+						(DataBufferShort) img.getRaster().getDataBuffer(), null);
 				// remove all downloaded files to save disk space
-				if (!srtmDataUrl.startsWith("/") && !srtmDataUrl.startsWith(".")) {
+				if (remote) {
 					f.delete();
 				}
 				return null;
 			}
 			return f;
 		}
+
+		private TileRaster mapRawData(File raw) throws IOException {
+			RandomAccessFile rf = new RandomAccessFile(raw, "r");
+			try {
+				FileChannel channel = rf.getChannel();
+				// mapping stays valid after channel is closed and is released with buffer
+				MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, channel.size());
+				if (channel.size() < RAW_TILE_HEADER || buf.getInt(0) != RAW_TILE_MAGIC) {
+					throw new IOException("Not a raw srtm tile " + raw.getName());
+				}
+				int width = buf.getInt(4);
+				int height = buf.getInt(8);
+				buf.position(RAW_TILE_HEADER);
+				return new TileRaster(getFileName(), width, height, null, buf.slice().asShortBuffer());
+			} finally {
+				rf.close();
+			}
+		}
+
+		private void unload() {
+			dataLoaded = false;
+			raster = null;
+			missingFile = null;
+		}
 		
 
 		private String getFileName() {
@@ -129,21 +281,9 @@ public class IndexHeightData {
 			return nd;
 		}
 		
-		public double getHeight(double x, double y, double[] array) {
-			if (data == null) {
-				return INEXISTENT_HEIGHT;
-			}
-			if(USE_BILINEAR_INTERPOLATION) {
-				return bilinearInterpolation(x, y, array);
-			} else {
-				return bicubicInterpolation(x, y, array);
-			}
-//			System.out.println(" --- " + (h1 - h2) + " " + h1 + " " + h2);
-		}
-		
-		protected double bicubicInterpolation(double ix, double iy, double[] cf) {
-			double pdx = (width - 2) * ix + 1;
-			double pdy = (height - 2) * (1 - iy) + 1;
+		protected double bicubicInterpolation(TileRaster r, double ix, double iy, double[] cf) {
+			double pdx = (r.width - 2) * ix + 1;
+			double pdy = (r.height - 2) * (1 - iy) + 1;
 			int px = (int) Math.round(pdx);
 			int py = (int) Math.round(pdy);
 			double x = pdx - px + 0.5;
@@ -168,22 +308,22 @@ public class IndexHeightData {
 			double tx = y;
 			y = x;
 			x = tx;
-			cf[0] = (x-1)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(px, py);
-			cf[1] = -(x)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * getElem(px, py + 1);
-			cf[2] = -(x-1)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(px + 1, py);
-			cf[3] = (x)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * getElem(px + 1, py + 1);
-			cf[4] = -(x)*(x-2)*(x-1)*(y-1)*(y-2)*(y+1) / 12 * getElem(px, py - 1);
-			cf[5] = -(x+1)*(x-2)*(x-1)*(y-1)*(y-2)*(y) / 12 * getElem(px - 1, py);
-			cf[6] = (x)*(x-2)*(x-1)*(y+1)*(y-2)*(y) / 12 * getElem(px + 1, py - 1);
-			cf[7] = (x)*(x-2)*(x+1)*(y-1)*(y-2)*(y) / 12 * getElem(px - 1, py + 1);
-			cf[8] = (x)*(x-1)*(x+1)*(y-1)*(y-2)*(y+1) / 12 * getElem(px, py + 2);
-			cf[9] = (x-2)*(x-1)*(x+1)*(y-1)*(y)*(y+1) / 12 * getElem(px + 2, py);
-			cf[10] = (x)*(x-1)*(x-2)*(y)*(y-1)*(y-2) / 36 * getElem(px - 1, py - 1);
-			cf[11] = -(x)*(x-1)*(x+1)*(y)*(y+1)*(y-2) / 12 * getElem(px + 1, py + 2);
-			cf[12] = -(x)*(x+1)*(x-2)*(y)*(y-1)*(y+1) / 12 * getElem(px + 2, py + 1);
-			cf[13] = -(x)*(x-1)*(x+1)*(y)*(y-1)*(y-2) / 36 * getElem(px - 1, py + 2);
-			cf[14] = -(x)*(x-1)*(x-2)*(y)*(y-1)*(y+1) / 36 * getElem(px + 2, py - 1);
-			cf[15] =  (x)*(x-1)*(x+1)*(y)*(y-1)*(y+1) / 36 * getElem(px + 2, py + 2);
+			cf[0] = (x-1)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * r.getElem(px, py);
+			cf[1] = -(x)*(x-2)*(x+1)*(y-1)*(y-2)*(y+1) / 4 * r.getElem(px, py + 1);
+			cf[2] = -(x-1)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * r.getElem(px + 1, py);
+			cf[3] = (x)*(x-2)*(x+1)*(y)*(y-2)*(y+1) / 4 * r.getElem(px + 1, py + 1);
+			cf[4] = -(x)*(x-2)*(x-1)*(y-1)*(y-2)*(y+1) / 12 * r.getElem(px, py - 1);
+			cf[5] = -(x+1)*(x-2)*(x-1)*(y-1)*(y-2)*(y) / 12 * r.getElem(px - 1, py);
+			cf[6] = (x)*(x-2)*(x-1)*(y+1)*(y-2)*(y) / 12 * r.getElem(px + 1, py - 1);
+			cf[7] = (x)*(x-2)*(x+1)*(y-1)*(y-2)*(y) / 12 * r.getElem(px - 1, py + 1);
+			cf[8] = (x)*(x-1)*(x+1)*(y-1)*(y-2)*(y+1) / 12 * r.getElem(px, py + 2);
+			cf[9] = (x-2)*(x-1)*(x+1)*(y-1)*(y)*(y+1) / 12 * r.getElem(px + 2, py);
+			cf[10] = (x)*(x-1)*(x-2)*(y)*(y-1)*(y-2) / 36 * r.getElem(px - 1, py - 1);
+			cf[11] = -(x)*(x-1)*(x+1)*(y)*(y+1)*(y-2) / 12 * r.getElem(px + 1, py + 2);
+			cf[12] = -(x)*(x+1)*(x-2)*(y)*(y-1)*(y+1) / 12 * r.getElem(px + 2, py + 1);
+			cf[13] = -(x)*(x-1)*(x+1)*(y)*(y-1)*(y-2) / 36 * r.getElem(px - 1, py + 2);
+			cf[14] = -(x)*(x-1)*(x-2)*(y)*(y-1)*(y+1) / 36 * r.getElem(px + 2, py - 1);
+			cf[15] =  (x)*(x-1)*(x+1)*(y)*(y-1)*(y+1) / 36 * r.getElem(px + 2, py + 2);
 			double h = 0;
 			for(int i = 0; i < cf.length; i++) {
 				h += cf[i];
@@ -191,18 +331,18 @@ public class IndexHeightData {
 			return h;
 		}
 
-		protected double bilinearInterpolation(double x, double y, double[] array) {
-			double pdx = (width - 2) * x + 1;
-			double pdy = (height - 2) * (1 - y) + 1;
+		protected double bilinearInterpolation(TileRaster r, double x, double y, double[] array) {
+			double pdx = (r.width - 2) * x + 1;
+			double pdy = (r.height - 2) * (1 - y) + 1;
 			int px = (int) Math.round(pdx);
 			int py = (int) Math.round(pdy);
 			if(array == null) {
 				array = new double[4]; 
 			}
-			array[0] = getElem(px - 1, py - 1);
-			array[1] = getElem(px, py - 1);
-			array[2] = getElem(px - 1, py);
-			array[3] = getElem(px, py);
+			array[0] = r.getElem(px - 1, py - 1);
+			array[1] = r.getElem(px, py - 1);
+			array[2] = r.getElem(px - 1, py);
+			array[3] = r.getElem(px, py);
 			double cx = 0.5 + pdx - px;
 			double cy = 0.5 + pdy - py;
 			// 1.3 pdx ->  px = 1, px - 1 = 0, cx = 0.8, 1 - cx = 0.2,
@@ -215,32 +355,6 @@ public class IndexHeightData {
 			return h;
 		}
 
-		private double getElem(int px, int py) {
-			if (px <= 0) {
-				px = 1;
-			}
-			if(py <= 0) {
-				py = 1;
-			}
-			if (px >= width - 1) {
-				px = width - 2;
-			}
-			if (py >= height - 1) {
-				py = height - 2;
-			}
-			
-			int ind = px + py * width;
-			if (ind >= data.getSize()) {
-				throw new IllegalArgumentException("Illegal access (" + px + ", " + py + ") " + ind + " - "
-						+ getFileName());
-			}
-			int h = data.getElem(ind) & 0xffff;
-			if(h > 0x7fff) {
-				return h - (0xffff);
-			}
-			return h;
-		}
-
 		private String getId(int ln, int lt) {
 			String id = "";
 			if(lt >= 0) {
@@ -415,41 +529,178 @@ public class IndexHeightData {
 	}
 	
 	public WayGeneralStats calculateWayGeneralStats(Way w, double DIST_STEP) {
-		Node pnode = null; 
+		ProfileBuffer buf = profileBuffers.get();
+		buf.size = 0;
+		for (Node node : w.getNodes()) {
+			if (node != null) {
+				buf.addPoint(node.getLatitude(), node.getLongitude());
+			}
+		}
+		return calculateWayGeneralStats(buf, DIST_STEP);
+	}
+
+	/**
+	 * Same as calculateWayGeneralStats(Way, double) for polyline in 31 tile coordinates
+	 */
+	public WayGeneralStats calculateWayGeneralStats31(int[] x31, int[] y31, int size, double DIST_STEP) {
+		ProfileBuffer buf = profileBuffers.get();
+		buf.size = 0;
+		for (int i = 0; i < size; i++) {
+			buf.addPoint(MapUtils.get31LatitudeY(y31[i]), MapUtils.get31LongitudeX(x31[i]));
+		}
+		return calculateWayGeneralStats(buf, DIST_STEP);
+	}
+
+	public WayGeneralStats calculateWayGeneralStats(double[] lats, double[] lons, int size, double DIST_STEP) {
+		ProfileBuffer buf = profileBuffers.get();
+		buf.size = 0;
+		for (int i = 0; i < size; i++) {
+			buf.addPoint(lats[i], lons[i]);
+		}
+		return calculateWayGeneralStats(buf, DIST_STEP);
+	}
+
+	private WayGeneralStats calculateWayGeneralStats(ProfileBuffer buf, double DIST_STEP) {
 		WayGeneralStats wg = new WayGeneralStats();
 		int I_DIST_STEP = (int) DIST_STEP;
+		int points = buf.size;
+		// samples are appended after points: way points with extra points each DIST_STEP on long segments
+		buf.samples = 0;
 		double dist = 0;
-		for (int i = 0; i < w.getNodes().size(); i++) {
-			Node node = w.getNodes().get(i);
+		for (int i = 0; i < points; i++) {
 			double step = 0;
-			if(i > 0) {
-				step = MapUtils.getDistance(pnode.getLatitude(), pnode.getLongitude(), node.getLatitude(), node.getLongitude());
-			}
-			double h = getPointHeight(node.getLatitude(), node.getLongitude());
-			if (step > I_DIST_STEP) {
-				int extraFragments = (int) (step / DIST_STEP);
-				// in case way is very long calculate alt each DIST_STEP
-				for (int st = 1; st < extraFragments; st++) {
-					double midlat = pnode.getLatitude()
-							+ (node.getLatitude() - pnode.getLatitude()) * st / ((double) extraFragments);
-					double midlon = pnode.getLongitude()
-							+ (node.getLongitude() - pnode.getLongitude()) * st / ((double) extraFragments);
-					double midh = getPointHeight(midlat, midlon);
-					double d = MapUtils.getDistance(pnode.getLatitude(), pnode.getLongitude(), midlat, midlon);
-					wg.dists.add(dist + d);
-					wg.altitudes.add(midh);
+			if (i > 0) {
+				double plat = buf.lats[i - 1];
+				double plon = buf.lons[i - 1];
+				step = MapUtils.getDistance(plat, plon, buf.lats[i], buf.lons[i]);
+				if (step > I_DIST_STEP) {
+					int extraFragments = (int) (step / DIST_STEP);
+					// in case way is very long calculate alt each DIST_STEP
+					for (int st = 1; st < extraFragments; st++) {
+						double midlat = plat + (buf.lats[i] - plat) * st / ((double) extraFragments);
+						double midlon = plon + (buf.lons[i] - plon) * st / ((double) extraFragments);
+						buf.addSample(midlat, midlon, dist + MapUtils.getDistance(plat, plon, midlat, midlon));
+					}
 				}
 			}
 			dist += step;
-			wg.dists.add(dist);
-			wg.altitudes.add(h);
-			pnode = node;
+			buf.addSample(buf.lats[i], buf.lons[i], dist);
+		}
+		if (buf.samples == 0) {
+			return wg;
 		}
+		getPointHeights(buf.lats, buf.lons, points, buf.samples, buf.heights, null, buf.ensureOrder(buf.samples), buf.cf);
+		wg.dists.ensureCapacity(buf.samples);
+		wg.altitudes.ensureCapacity(buf.samples);
+		wg.dists.add(buf.dists, 0, buf.samples);
+		wg.altitudes.add(buf.heights, points, buf.samples);
 		calculateEleStats(wg, I_DIST_STEP);
 		return wg;
 	}
 
+	/**
+	 * Heights of many points: points are grouped by tile, so every tile is looked up (loaded) once and interpolated in
+	 * one loop.
+	 * @param fileName - first missing tile file is returned (optional)
+	 */
+	public void getPointHeights(double[] lats, double[] lons, int size, double[] heights, File[] fileName) {
+		getPointHeights(lats, lons, 0, size, heights, fileName, new long[size], new double[16]);
+	}
+
+	private void getPointHeights(double[] lats, double[] lons, int offset, int size, double[] heights,
+			File[] fileName, long[] order, double[] cf) {
+		for (int i = 0; i < size; i++) {
+			int k = offset + i;
+			int lt = (int) lats[k];
+			int ln = (int) lons[k];
+			if (lons[k] - ln < 0) {
+				ln -= 1;
+			}
+			if (lats[k] - lt < 0) {
+				lt -= 1;
+			}
+			// tile id in high bits keeps order of points inside of tile
+			order[i] = (((long) getTileId(lt, ln)) << 32) | i;
+		}
+		Arrays.sort(order, 0, size);
+		int i = 0;
+		while (i < size) {
+			int k = offset + (int) order[i];
+			int lt = (int) lats[k];
+			int ln = (int) lons[k];
+			if (lons[k] - ln < 0) {
+				ln -= 1;
+			}
+			if (lats[k] - lt < 0) {
+				lt -= 1;
+			}
+			TileData tileData = getTile(lt, ln);
+			if (fileName != null && fileName.length > 0 && fileName[0] == null) {
+				fileName[0] = tileData.missingFile;
+			}
+			TileRaster r = getRaster(tileData, lt, ln);
+			long tile = order[i] >>> 32;
+			for (; i < size && (order[i] >>> 32) == tile; i++) {
+				k = offset + (int) order[i];
+				double lonDelta = lons[k] - ln;
+				double latDelta = lats[k] - lt;
+				if (r == null) {
+					heights[k] = INEXISTENT_HEIGHT;
+				} else if (USE_BILINEAR_INTERPOLATION) {
+					heights[k] = tileData.bilinearInterpolation(r, lonDelta, latDelta, cf);
+				} else {
+					heights[k] = tileData.bicubicInterpolation(r, lonDelta, latDelta, cf);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reusable primitive arrays of one thread for points, resampled points and their heights
+	 */
+	private static class ProfileBuffer {
+		private double[] lats = new double[256];
+		private double[] lons = new double[256];
+		private double[] dists = new double[256];
+		private double[] heights = new double[256];
+		private long[] order = new long[256];
+		private double[] cf = new double[16];
+		private int size;
+		private int samples;
 
+		private void addPoint(double lat, double lon) {
+			ensureCapacity(size + 1);
+			lats[size] = lat;
+			lons[size] = lon;
+			size++;
+		}
+
+		private void addSample(double lat, double lon, double dist) {
+			int k = size + samples;
+			ensureCapacity(k + 1);
+			lats[k] = lat;
+			lons[k] = lon;
+			dists[samples] = dist;
+			samples++;
+		}
+
+		private void ensureCapacity(int c) {
+			if (c > lats.length) {
+				int l = Math.max(c, lats.length * 2);
+				lats = Arrays.copyOf(lats, l);
+				lons = Arrays.copyOf(lons, l);
+				dists = Arrays.copyOf(dists, l);
+				heights = Arrays.copyOf(heights, l);
+			}
+		}
+
+		private long[] ensureOrder(int c) {
+			if (c > order.length) {
+				order = new long[Math.max(c, order.length * 2)];
+			}
+			return order;
+		}
+	}
 
 	public static void calculateEleStats(WayGeneralStats wg, int DIST_STEP) {
 		wg.step = DIST_STEP;
@@ -494,10 +745,260 @@ public class IndexHeightData {
 	
 	
 	
+	/**
+	 * Thread safe instance with warm tile cache for srtm data url, created on first access. Remote tiles are
+	 * downloaded to downloadDir which should outlive callers (not a working dir of one generation).
+	 * Every acquired instance should be released with releaseSharedInstance.
+	 */
+	public static IndexHeightData getSharedInstance(String srtmData, File downloadDir) {
+		String key = srtmData + "|" + downloadDir.getAbsolutePath();
+		synchronized (sharedInstances) {
+			IndexHeightData hd = sharedInstances.get(key);
+			if (hd == null) {
+				downloadDir.mkdirs();
+				hd = new IndexHeightData();
+				hd.setSrtmData(srtmData, downloadDir);
+				hd.sharedKey = key;
+				sharedInstances.put(key, hd);
+			}
+			hd.sharedRefs++;
+			return hd;
+		}
+	}
+
+	/**
+	 * Loaded tiles and prefetch threads are released when last user of shared instance releases it
+	 */
+	public static void releaseSharedInstance(IndexHeightData hd) {
+		synchronized (sharedInstances) {
+			if (--hd.sharedRefs > 0) {
+				return;
+			}
+			sharedInstances.remove(hd.sharedKey);
+		}
+		hd.close();
+	}
+
+	/**
+	 * Default folder to download remote tiles shared by all generations of process
+	 */
+	public static File getDefaultDownloadDir() {
+		return new File(System.getProperty("java.io.tmpdir"), "osmand-srtm");
+	}
+
+	/**
+	 * Default disk cache folder, it doesn't depend on working dir of generation (could be deleted after generation)
+	 */
+	public static File getDefaultDiskCacheDir() {
+		return new File(getDefaultDownloadDir(), "cache");
+	}
+
+	public void close() {
+		if (prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
+		}
+		for (TileData tile : map.values()) {
+			synchronized (tile) {
+				tile.unload();
+			}
+		}
+		map.clear();
+	}
+
+	/**
+	 * Limits decoded tiles of this instance only (-1 is no limit), other instances keep static limits
+	 */
+	public void setCacheLimits(int maximumLoadedData, long maximumLoadedBytes) {
+		this.maximumLoadedData = maximumLoadedData;
+		this.maximumLoadedBytes = maximumLoadedBytes;
+		this.ownCacheLimits = true;
+	}
+
+	/**
+	 * Keeps downloaded tif tiles in cache folder (least recently used files are deleted over limit) and downloads
+	 * prefetched tiles in background threads. Only remote (http, s3) srtm data is cached.
+	 */
+	public synchronized void setDiskCache(File cacheDir, long maxBytes, int prefetchThreads) {
+		if (!isRemote(srtmDataUrl)) {
+			return;
+		}
+		if (diskCacheDir != null) {
+			if (!diskCacheDir.equals(cacheDir)) {
+				log.warn(String.format("SRTM: disk cache is already set to %s, %s is ignored", diskCacheDir, cacheDir));
+			}
+			return;
+		}
+		cacheDir.mkdirs();
+		this.diskCacheDir = cacheDir;
+		this.diskCacheMaxBytes = maxBytes;
+		if (prefetchThreads > 0) {
+			prefetchExecutor = Executors.newFixedThreadPool(prefetchThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "srtm-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Downloads tiles of bbox ahead of use (no-op without disk cache)
+	 */
+	public void prefetchTiles(QuadRect bbox) {
+		for (int lt = (int) Math.floor(bbox.bottom); lt <= (int) Math.floor(bbox.top); lt++) {
+			for (int ln = (int) Math.floor(bbox.left); ln <= (int) Math.floor(bbox.right); ln++) {
+				prefetchTile(lt, ln);
+			}
+		}
+	}
+
+	public void prefetchTile(int lt, int ln) {
+		if (prefetchExecutor == null || lt < -90 || lt >= 90 || ln < -180 || ln >= 180) {
+			return;
+		}
+		TileData td = map.get(getTileId(lt, ln));
+		if (td != null && td.dataLoaded) {
+			return;
+		}
+		final String fl = new TileData(getTileId(lt, ln)).getFileName() + ".tif";
+		if (rawTilesDir != null && new File(rawTilesDir, fl.substring(0, fl.length() - 4) + RAW_TILE_EXT).exists()) {
+			return;
+		}
+		if (missingRemoteFiles.contains(fl) || new File(diskCacheDir, fl).exists() || downloads.containsKey(fl)) {
+			return;
+		}
+		FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+			@Override
+			public File call() throws Exception {
+				try {
+					return downloadToCache(fl);
+				} finally {
+					downloads.remove(fl);
+				}
+			}
+		});
+		if (downloads.putIfAbsent(fl, task) == null) {
+			try {
+				prefetchExecutor.execute(task);
+			} catch (RejectedExecutionException e) {
+				downloads.remove(fl);
+			}
+		}
+	}
+
+	private File getTileFile(String fl) {
+		if (!isRemote(srtmDataUrl)) {
+			return new File(srtmDataUrl, fl);
+		}
+		if (diskCacheDir == null) {
+			return loadFile(fl, srtmDataUrl, srtmWorkingDir);
+		}
+		Future<File> pending = downloads.get(fl);
+		if (pending != null) {
+			try {
+				return pending.get();
+			} catch (InterruptedException | ExecutionException e) {
+				log.warn(String.format("SRTM: prefetch of %s failed: %s", fl, e.getMessage()));
+			}
+		}
+		return downloadToCache(fl);
+	}
+
+	private File downloadToCache(String fl) {
+		File res = new File(diskCacheDir, fl);
+		if (res.exists()) {
+			// last modified is access time of lru cache
+			res.setLastModified(System.currentTimeMillis());
+			return res;
+		}
+		if (missingRemoteFiles.contains(fl)) {
+			return res;
+		}
+		// partially downloaded files are never visible in cache
+		File tmp = new File(diskCacheDir, fl + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			downloadFile(fl, srtmDataUrl, tmp);
+		} catch (FileNotFoundException | NoSuchKeyException e) {
+			// only confirmed absent tiles (sea) are not requested again, other errors are retried on next access
+			missingRemoteFiles.add(fl);
+			tmp.delete();
+			return res;
+		} catch (IOException | RuntimeException e) {
+			log.warn(String.format("SRTM: couldn't download %s from %s: %s", fl, srtmDataUrl, e.getMessage()), e);
+			tmp.delete();
+			return res;
+		}
+		if (!tmp.renameTo(res)) {
+			tmp.delete();
+			if (!res.exists()) {
+				log.warn(String.format("SRTM: couldn't move %s to cache %s", fl, diskCacheDir));
+			}
+			return res;
+		}
+		trimDiskCache();
+		return res;
+	}
+
+	private synchronized void trimDiskCache() {
+		File[] files = diskCacheDir.listFiles();
+		if (files == null || diskCacheMaxBytes <= 0) {
+			return;
+		}
+		long size = 0;
+		List<File> tiles = new ArrayList<File>();
+		for (File f : files) {
+			if (f.getName().endsWith(".tif")) {
+				tiles.add(f);
+				size += f.length();
+			}
+		}
+		if (size <= diskCacheMaxBytes) {
+			return;
+		}
+		Collections.sort(tiles, new Comparator<File>() {
+			@Override
+			public int compare(File o1, File o2) {
+				return Long.compare(o1.lastModified(), o2.lastModified());
+			}
+		});
+		for (int i = 0; i < tiles.size() && size > diskCacheMaxBytes; i++) {
+			size -= tiles.get(i).length();
+			tiles.get(i).delete();
+		}
+	}
+
+	private static boolean isRemote(String folderURL) {
+		return folderURL != null && (folderURL.startsWith("http://") || folderURL.startsWith("https://")
+				|| folderURL.startsWith("s3://"));
+	}
+
+	private static S3Client getS3Client() {
+		if (s3Client == null) {
+			synchronized (IndexHeightData.class) {
+				if (s3Client == null) {
+					s3Client = S3Client.builder().build();
+				}
+			}
+		}
+		return s3Client;
+	}
+
 	public void setSrtmData(String srtmData, File workingDir) {
 		this.srtmDataUrl = srtmData;
 		this.srtmWorkingDir = workingDir;
 	}
+
+	/**
+	 * Tiles are read from memory mapped raw files of this folder, missing raw tiles are converted from tif once
+	 */
+	public void setRawTilesDir(File rawTilesDir) {
+		this.rawTilesDir = rawTilesDir;
+		if (rawTilesDir != null) {
+			rawTilesDir.mkdirs();
+		}
+	}
 	
 	public double getPointHeight(double lat, double lon) {
 		return getPointHeight(lat, lon, null, null);
@@ -520,103 +1021,240 @@ public class IndexHeightData {
 			latDelta += 1;
 			lt -= 1;
 		}
+		TileData tileData = getTile(lt, ln);
+		if (fileName != null && fileName.length > 0 && tileData.missingFile != null) {
+			fileName[0] = tileData.missingFile;
+		}
+		TileRaster r = getRaster(tileData, lt, ln);
+		if (r == null) {
+			return INEXISTENT_HEIGHT;
+		} else if (USE_BILINEAR_INTERPOLATION) {
+			return tileData.bilinearInterpolation(r, lonDelta, latDelta, neighboors);
+		} else {
+			return tileData.bicubicInterpolation(r, lonDelta, latDelta, neighboors);
+		}
+	}
+
+	private TileData getTile(int lt, int ln) {
 		int id = getTileId(lt, ln);
 		TileData tileData = map.get(id);
 		if (tileData == null) {
-			tileData = new TileData(id);
-			map.put(id, tileData);
+			TileData nt = new TileData(id);
+			tileData = map.putIfAbsent(id, nt);
+			if (tileData == null) {
+				tileData = nt;
+			}
 		}
 		if (!tileData.dataLoaded) {
-			gcTiles();
-			try {
-				tileData.loaded++;
-				log.info(String.format("SRTM: Load srtm data %d: %d %d", id, (int) lt, (int) ln));
-				File missingFile = tileData.loadData(srtmDataUrl, srtmWorkingDir);
-				if (fileName != null && fileName.length > 0) {
-					fileName[0] = missingFile;
+			loadTile(tileData, lt, ln);
+		}
+		tileData.lastAccess = accessClock.incrementAndGet();
+		return tileData;
+	}
+
+	/**
+	 * Single snapshot of tile raster used for all reads, tile could be unloaded by concurrent gc right after load
+	 */
+	private TileRaster getRaster(TileData tileData, int lt, int ln) {
+		TileRaster r = tileData.raster;
+		for (int attempt = 0; r == null && attempt < 3; attempt++) {
+			if (!tileData.dataLoaded) {
+				loadTile(tileData, lt, ln);
+			}
+			// lock waits for load in progress, loaded tile without raster has no data
+			synchronized (tileData) {
+				r = tileData.raster;
+				if (r == null && tileData.dataLoaded) {
+					return null;
 				}
+			}
+		}
+		return r;
+	}
+
+	private void loadTile(TileData tileData, int lt, int ln) {
+		// gc takes tile locks, so it is not called under tile lock
+		gcTiles();
+		// single load per tile, other threads wait for it, different tiles are loaded in parallel
+		synchronized (tileData) {
+			if (tileData.dataLoaded) {
+				return;
+			}
+			try {
+				log.info(String.format("SRTM: Load srtm data %d: %d %d", tileData.id, lt, ln));
+				tileData.missingFile = tileData.loadData(this);
 			} catch (IOException e) {
 				log.error(e.getMessage(), e);
+			} finally {
+				tileData.dataLoaded = true;
+			}
+		}
+		// ways continue to neighbor tiles
+		for (int dlt = -1; dlt <= 1; dlt++) {
+			for (int dln = -1; dln <= 1; dln++) {
+				prefetchTile(lt + dlt, ln + dln);
 			}
 		}
-		tileData.accessed++;
-		
-		return tileData.getHeight(lonDelta, latDelta, neighboors);
 	}
 
-
-
-	private void gcTiles() {
-		List<TileData> lst = new ArrayList<>(map.values());
-		Iterator<TileData> it = lst.iterator();
-		while (it.hasNext()) {
-			if (it.next().data == null) {
-				it.remove();
+	private synchronized void gcTiles() {
+		List<TileData> lst = new ArrayList<>();
+		List<TileData> mappedLst = new ArrayList<>();
+		long bytes = 0;
+		for (TileData tile : map.values()) {
+			TileRaster r = tile.raster;
+			if (r != null && r.mapped == null) {
+				lst.add(tile);
+				bytes += r.getSizeInBytes();
+			} else if (r != null) {
+				mappedLst.add(tile);
 			}
 		}
-		if (MAXIMUM_LOADED_DATA != -1 && lst.size() >= MAXIMUM_LOADED_DATA) {
-			int toGC = MAXIMUM_LOADED_DATA / 2;
-			log.info(String.format("SRTM: GC srtm data %d of %d (total %d).", toGC, lst.size(), map.size()));
-			// sort that more accessed are not gc
-			Collections.sort(lst, new Comparator<TileData>() {
+		int maxLoadedData = ownCacheLimits ? maximumLoadedData : MAXIMUM_LOADED_DATA;
+		long maxLoadedBytes = ownCacheLimits ? maximumLoadedBytes : MAXIMUM_LOADED_BYTES;
+		if (maxLoadedBytes != -1 && bytes >= maxLoadedBytes) {
+			gcTiles(lst, maxLoadedData, maxLoadedBytes / 2);
+		} else if (maxLoadedData != -1 && lst.size() >= maxLoadedData) {
+			gcTiles(lst, maxLoadedData, -1);
+		}
+		if (MAXIMUM_MAPPED_DATA != -1 && mappedLst.size() >= MAXIMUM_MAPPED_DATA) {
+			gcTiles(mappedLst, MAXIMUM_MAPPED_DATA, -1);
+		}
+	}
 
-				@Override
-				public int compare(TileData o1, TileData o2) {
-					return -Integer.compare(o1.accessed + 100 * o1.loaded, o2.accessed + 100 * o2.loaded);
-				}
-			});
-			for (int i = 0; i < lst.size(); i++) {
-				TileData tile = lst.get(i);
-				if (i > toGC) {
-					// unload
-					tile.dataLoaded = false;
-					tile.data = null;
+	private void gcTiles(List<TileData> lst, int maximum, long keepBytes) {
+		// least recently used tiles are unloaded and collected by regular gc (mapped tiles are unmapped with their buffers)
+		int toGC = maximum == -1 ? lst.size() : maximum / 2;
+		log.info(String.format("SRTM: GC srtm data %d of %d (total %d).", toGC, lst.size(), map.size()));
+		Collections.sort(lst, new Comparator<TileData>() {
+
+			@Override
+			public int compare(TileData o1, TileData o2) {
+				return -Long.compare(o1.lastAccess, o2.lastAccess);
+			}
+		});
+		long bytes = 0;
+		for (int i = 0; i < lst.size(); i++) {
+			TileData tile = lst.get(i);
+			TileRaster r = tile.raster;
+			bytes += r == null ? 0 : r.getSizeInBytes();
+			if (i > toGC || (keepBytes != -1 && bytes > keepBytes)) {
+				synchronized (tile) {
+					tile.unload();
 				}
-				tile.accessed = 0;
 			}
-			System.gc();
 		}
 	}
 	
 	private static File loadFile(String fl, String folderURL, File workDir) {
-		if (folderURL.startsWith("http://") || folderURL.startsWith("https://")) {
-			File res = new File(workDir, fl);
+		return loadFile(fl, folderURL, workDir, fl);
+	}
 
-			try {
-				InputStream is = new URL(folderURL + fl).openStream();
-				FileOutputStream fous = new FileOutputStream(res);
-				Algorithms.streamCopy(is, fous);
-				is.close();
-				fous.close();
-			} catch (IOException | RuntimeException e) {
-				log.warn(String.format("Couldn't access height data %s at %s: %s", fl, folderURL, e.getMessage()), e);
-			}
-			return res;
-		} else if(folderURL.startsWith("s3://")) {
+	private static File loadFile(String fl, String folderURL, File workDir, String targetName) {
+		if (!isRemote(folderURL)) {
+			return new File(folderURL, fl);
+		}
+		File res = new File(workDir, targetName);
+		try {
+			downloadFile(fl, folderURL, res);
+		} catch (IOException | RuntimeException e) {
+			log.warn(String.format("Couldn't access height data %s at %s: %s", fl, folderURL, e.getMessage()), e);
+			res.delete();
+		}
+		return res;
+	}
+
+	/**
+	 * @throws FileNotFoundException (http) or NoSuchKeyException (s3) if tile doesn't exist
+	 */
+	private static void downloadFile(String fl, String folderURL, File res) throws IOException {
+		InputStream is;
+		if (folderURL.startsWith("s3://")) {
 			String url = folderURL.substring("s3://".length()) + fl;
-			File res = new File(workDir, fl);
 			int i = url.indexOf('/');
 			String bucket = url.substring(0, i);
 			String key = url.substring(i + 1);
+			GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key).build();
+			is = getS3Client().getObject(request);
+		} else {
+			is = new URL(folderURL + fl).openStream();
+		}
+		try {
+			FileOutputStream fous = new FileOutputStream(res);
 			try {
-				S3Client client = S3Client.builder().build();
-				GetObjectRequest request = GetObjectRequest.builder().bucket(bucket).key(key).build();
-				ResponseInputStream<GetObjectResponse> obj = client.getObject(request);
-				FileOutputStream fous = new FileOutputStream(res);
-				Algorithms.streamCopy(obj, fous);
-				obj.close();
+				Algorithms.streamCopy(is, fous);
+			} finally {
 				fous.close();
-			} catch (IOException | RuntimeException e) {
-				log.warn(String.format("Couldn't access height data %s at %s: %s", fl, folderURL, e.getMessage()), e);
 			}
-			return res;
-		} else {
-			return new File(folderURL, fl);
+		} finally {
+			is.close();
 		}
 	}
 
 
 
+	/**
+	 * Converts tif tile into raw int16 tile which is read by memory mapping (see setRawTilesDir)
+	 */
+	public static void convertTiffToRaw(File tif, File raw) throws IOException {
+		BufferedImage img = ImageIO.read(tif);
+		if (img == null) {
+			throw new IOException("Unsupported image " + tif.getName());
+		}
+		int width = img.getWidth();
+		int height = img.getHeight();
+		DataBufferShort data = (DataBufferShort) img.getRaster().getDataBuffer();
+		if (data.getSize() < width * height) {
+			throw new IOException("Unexpected raster size " + data.getSize() + " of " + tif.getName());
+		}
+		File tmp = new File(raw.getParentFile(), raw.getName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(RAW_TILE_MAGIC);
+			out.writeInt(width);
+			out.writeInt(height);
+			for (int i = 0; i < width * height; i++) {
+				out.writeShort(data.getElem(i));
+			}
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(raw)) {
+			tmp.delete();
+			throw new IOException("Couldn't rename " + tmp.getName() + " to " + raw.getName());
+		}
+	}
+
+	/**
+	 * Converts all tif tiles of folder which are not converted yet
+	 * @return number of converted tiles
+	 */
+	public static int convertTiffTilesToRaw(File tifDir, File rawDir) throws IOException {
+		rawDir.mkdirs();
+		File[] files = tifDir.listFiles();
+		int converted = 0;
+		if (files == null) {
+			return converted;
+		}
+		Arrays.sort(files);
+		for (File f : files) {
+			if (!f.getName().endsWith(".tif")) {
+				continue;
+			}
+			String name = f.getName().substring(0, f.getName().length() - ".tif".length());
+			File raw = new File(rawDir, name + RAW_TILE_EXT);
+			if (raw.exists() && raw.lastModified() >= f.lastModified()) {
+				continue;
+			}
+			convertTiffToRaw(f, raw);
+			if (++converted % 100 == 0) {
+				log.info(String.format("SRTM: converted %d tiles to raw", converted));
+			}
+		}
+		log.info(String.format("SRTM: converted %d tiles of %s into %s", converted, tifDir, rawDir));
+		return converted;
+	}
+
 	public static int getTileId(int lat, int lon) {
 		int ln = (int) (lon + 180);
 		int lt = (int) (lat  + 90);
@@ -591,8 +591,11 @@ public class IndexRouteCreator extends AbstractIndexPartCreator {
 	private void deleteRouteTreeFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName, boolean deleteDatabaseIndexes,
 			RTree rte) throws IOException {
 		if (rte != null) {
-			RandomAccessFile file = rte.getFileHdr().getFile();
-			file.close();
+			try {
+				rte.close();
+			} catch (RTreeException e) {
+				throw new IOException(e);
+			}
 		}
 		if (rTreeMapIndexNonPackFileName != null) {
 			File f = new File(rTreeMapIndexNonPackFileName);
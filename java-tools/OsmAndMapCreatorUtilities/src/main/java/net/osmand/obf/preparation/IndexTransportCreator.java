@@ -698,7 +698,11 @@ public class IndexTransportCreator extends AbstractIndexPartCreator {
 	public void commitAndCloseFiles(String rtreeStopsFileName, String rtreeStopsPackFileName, boolean deleteDatabaseIndexes) throws IOException, SQLException {
 		// delete transport rtree files
 		if (transportStopsTree != null) {
-			transportStopsTree.getFileHdr().getFile().close();
+			try {
+				transportStopsTree.close();
+			} catch (RTreeException e) {
+				throw new IOException(e);
+			}
 			File f = new File(rtreeStopsFileName);
 			if (f.exists() && deleteDatabaseIndexes) {
 				f.delete();
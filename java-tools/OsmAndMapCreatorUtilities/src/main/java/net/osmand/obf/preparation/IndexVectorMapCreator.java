@@ -3,7 +3,6 @@ package net.osmand.obf.preparation;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,14 +14,23 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 import net.osmand.data.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import gnu.trove.list.array.TFloatArrayList;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TLongObjectHashMap;
 import gnu.trove.set.hash.TLongHashSet;
@@ -32,6 +40,8 @@ import net.osmand.binary.MapZooms;
 import net.osmand.binary.MapZooms.MapZoomPair;
 import net.osmand.binary.OsmandOdb.MapData;
 import net.osmand.binary.OsmandOdb.MapDataBlock;
+import net.osmand.obf.preparation.LowLevelWaysSpill.LevelIndex;
+import net.osmand.obf.preparation.LowLevelWaysSpill.LowLevelWayRecord;
 import net.osmand.osm.MapRenderingTypes.MapRulType;
 import net.osmand.osm.MapRenderingTypesEncoder;
 import net.osmand.osm.MapRenderingTypesEncoder.EntityConvertApplyType;
@@ -63,6 +73,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     private static final int MAP_LEVELS_POWER = 3;
     private static final int MAP_LEVELS_MAX = 1 << MAP_LEVELS_POWER;
     private static final int LOW_LEVEL_COMBINE_WAY_POINS_LIMIT = 10000;
+    // low level ways are sorted in memory by chunks of that size and spilled to disk
+    private static final long LOW_LEVEL_WAYS_CHUNK_SIZE = 128 << 20;
     private static final int LOW_LEVEL_ZOOM_TO_COMBINE = 13; // 15 if use combination all the time
     private static final int LOW_LEVEL_ZOOM_COASTLINE = 1; // Don't simplify coastlines except basemap, this constant is
                                                            // not used by basemap
@@ -94,9 +106,15 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     TIntArrayList addtypeUse = new TIntArrayList(8);
 
     private PreparedStatement mapBinaryStat;
-    private PreparedStatement mapLowLevelBinaryStat;
+    private LowLevelWaysSpill lowLevelWaysSpill;
     private int lowLevelWays = -1;
     private RTree[] mapTree = null;
+    // simplifier of main iteration thread
+    private final WaySimplifier simplifier = new WaySimplifier();
+    // assembles multipolygons of relations pass (null - in relations thread)
+    private ExecutorService multipolygonPool;
+    private final LinkedList<AssembledMultipolygon> multipolygonTasks = new LinkedList<AssembledMultipolygon>();
+    private static final int MULTIPOLYGON_TASKS_PER_THREAD = 16;
     private Connection mapConnection;
 
     private static int SHIFT_MULTIPOLYGON_IDS = 43;
@@ -116,7 +134,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         lowLevelWays = -1;
     }
 
-    private long assignIdForMultipolygon(Relation orig) {
+    private long getMultipolygonIdBase(Relation orig) {
         long ll = orig.getId();
         long sum = 0;
         for (Entity d : orig.getMemberEntities(null)) {
@@ -133,7 +151,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             }
 
         }
-        return genId(SHIFT_MULTIPOLYGON_IDS, (ll << 6) + (sum % 63));
+        return (ll << 6) + (sum % 63);
     }
 
     private long assignIdBasedOnOriginalSplit(EntityId originalId) {
@@ -255,7 +273,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         }
 
         ctx.loadEntityRelation((Relation) e);
-        MultipolygonBuilder original = createMultipolygonBuilder(e);
+        // member ways are copied for pool, other index creators continue to use relation
+        final MultipolygonBuilder original = createMultipolygonBuilder(e, multipolygonPool != null);
         try {
             renderingTypes.encodeEntityWithType(false, tags, mapZooms.getLevel(0).getMaxZoom(), typeUse, addtypeUse,
                     namesUse, tempNameUse);
@@ -275,6 +294,79 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         }
 //		excludeFromMainIteration(original.getInnerWays()); // fix issue with different type of swamp inside each other (inner ring has same tag as multipolygon but has a different meaning)
 
+        // don't use the relation ids. Create new ones
+        final AssembledMultipolygon am = new AssembledMultipolygon();
+        am.relationId = e.getId();
+        am.idBase = getMultipolygonIdBase((Relation) e);
+        int splits = splitEntities == null ? 1 : splitEntities.size();
+        am.types = new MultipolygonTypes[splits][mapZooms.size()];
+        for (int i = 0; i < splits; i++) {
+            Map<String, String> stags = splitEntities == null ? tags : splitEntities.get(i);
+            am.splitTags.add(stags);
+            for (int level = 0; level < mapZooms.size(); level++) {
+                renderingTypes.encodeEntityWithType(false, stags, mapZooms.getLevel(level).getMaxZoom(), typeUse,
+                        addtypeUse, namesUse, tempNameUse);
+                if (!typeUse.isEmpty()) {
+                    am.types[i][level] = new MultipolygonTypes(typeUse, addtypeUse, namesUse);
+                }
+            }
+        }
+        if (multipolygonPool == null) {
+            assembleMultipolygon(original, am, simplifier);
+            writeMultipolygon(am);
+            return;
+        }
+        am.task = multipolygonPool.submit(new Callable<AssembledMultipolygon>() {
+            @Override
+            public AssembledMultipolygon call() {
+                return assembleMultipolygon(original, am, new WaySimplifier());
+            }
+        });
+        multipolygonTasks.add(am);
+        int queued = multipolygonTasks.size();
+        writeAssembledMultipolygons(queued > MULTIPOLYGON_TASKS_PER_THREAD * settings.multipolygonThreads);
+    }
+
+    private static class MultipolygonTypes {
+        private final TIntArrayList types;
+        private final TIntArrayList addTypes;
+        private final TreeMap<MapRulType, String> names;
+
+        private MultipolygonTypes(TIntArrayList types, TIntArrayList addTypes, TreeMap<MapRulType, String> names) {
+            this.types = new TIntArrayList(types);
+            this.addTypes = new TIntArrayList(addTypes);
+            this.names = new TreeMap<MapRulType, String>(names);
+        }
+    }
+
+    private static class MultipolygonObject {
+        private final int split;
+        private final int level;
+        private final MapObjectGeometry geometry;
+
+        private MultipolygonObject(int split, int level, MapObjectGeometry geometry) {
+            this.split = split;
+            this.level = level;
+            this.geometry = geometry;
+        }
+    }
+
+    private static class AssembledMultipolygon {
+        private long relationId;
+        private long idBase;
+        private final List<Map<String, String>> splitTags = new ArrayList<Map<String, String>>();
+        // types by split entity and level, null if entity isn't visible on level
+        private MultipolygonTypes[][] types;
+        // objects of every outer ring, ids are assigned on write in order of relations
+        private final List<List<MultipolygonObject>> rings = new ArrayList<List<MultipolygonObject>>();
+        private Future<AssembledMultipolygon> task;
+    }
+
+    /**
+     * Builds rings and simplifies them for every level, doesn't change state of map creator and could run in pool
+     */
+    private AssembledMultipolygon assembleMultipolygon(MultipolygonBuilder original, AssembledMultipolygon am,
+            WaySimplifier simplifier) {
         // Rings with different types (inner or outer) in one ring will be logged in the
         // previous case
         // The Rings are only composed by type, so if one way gets in a different Ring,
@@ -286,11 +378,11 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             // Log the fact that Rings aren't complete, but continue with the relation, try
             // to close it as well as possible
             if (!m.areRingsComplete()) {
-                logMapDataWarn.warn("In multipolygon  " + e.getId() + " there are incompleted ways");
+                logMapDataWarn.warn("In multipolygon  " + am.relationId + " there are incompleted ways");
             }
             Ring out = m.getOuterRings().get(0);
             if (out.getBorder().size() == 0) {
-                logMapDataWarn.warn("Multipolygon has an outer ring that can't be formed: " + e.getId());
+                logMapDataWarn.warn("Multipolygon has an outer ring that can't be formed: " + am.relationId);
                 // don't index this
                 continue;
             }
@@ -301,58 +393,123 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             for (Ring r : m.getInnerRings()) {
                 innerWays.add(r.getBorder());
             }
-
-            // don't use the relation ids. Create new onesgetInnerRings
-            Map<String, String> stags = splitEntities == null ? tags : splitEntities.get(0);
-            long assignId = assignIdForMultipolygon((Relation) e);
-            createMultipolygonObject(stags, out, innerWays, assignId);
-            if (splitEntities != null) {
-                for (int i = 1; i < splitEntities.size(); i++) {
-                    Map<String, String> splitTags = splitEntities.get(i);
-                    while (generatedIds.contains(assignId)) {
-                        assignId += 2;
-                    }
-                    generatedIds.add(assignId);
-                    createMultipolygonObject(splitTags, out, innerWays, assignId);
-                }
+            List<MultipolygonObject> objects = new ArrayList<MultipolygonObject>();
+            for (int i = 0; i < am.types.length; i++) {
+                createMultipolygonObjects(i, am.types[i], out, innerWays, simplifier, objects);
             }
+            am.rings.add(objects);
         }
+        return am;
     }
 
-    protected void createMultipolygonObject(Map<String, String> tags, Ring out, List<List<Node>> innerWays, long baseId)
-            throws SQLException {
+    private void createMultipolygonObjects(int split, MultipolygonTypes[] types, Ring out,
+            List<List<Node>> innerWays, WaySimplifier simplifier, List<MultipolygonObject> objects) {
         nextZoom: for (int level = 0; level < mapZooms.size(); level++) {
-            renderingTypes.encodeEntityWithType(false, tags, mapZooms.getLevel(level).getMaxZoom(), typeUse, addtypeUse,
-                    namesUse,
-                    tempNameUse);
-            if (typeUse.isEmpty()) {
+            if (types[level] == null) {
                 continue;
             }
-            long id = convertBaseIdToGeneratedId(baseId, level);
             // simplify route
             List<Node> outerWay = out.getBorder();
             int zoomToSimplify = mapZooms.getLevel(level).getMaxZoom() - 1;
             if (zoomToSimplify < 15) {
-                outerWay = simplifyCycleWay(outerWay, zoomToSimplify, settings.zoomWaySmoothness);
+                outerWay = simplifyCycleWay(outerWay, zoomToSimplify, settings.zoomWaySmoothness, simplifier);
                 if (outerWay == null) {
                     continue nextZoom;
                 }
                 List<List<Node>> newinnerWays = new ArrayList<List<Node>>();
                 for (List<Node> ls : innerWays) {
-                    ls = simplifyCycleWay(ls, zoomToSimplify, settings.zoomWaySmoothness);
+                    ls = simplifyCycleWay(ls, zoomToSimplify, settings.zoomWaySmoothness, simplifier);
                     if (ls != null) {
                         newinnerWays.add(ls);
                     }
                 }
                 innerWays = newinnerWays;
             }
-            insertBinaryMapRenderObjectIndex(mapTree[level], outerWay, innerWays, namesUse, id, true, typeUse,
-                    addtypeUse, true, true);
+            MapObjectGeometry geometry = encodeGeometry(outerWay, innerWays, true);
+            if (geometry != null) {
+                objects.add(new MultipolygonObject(split, level, geometry));
+            }
+        }
+    }
+
+    private void writeMultipolygon(AssembledMultipolygon am) throws SQLException {
+        for (int ring = 0; ring < am.rings.size(); ring++) {
+            List<MultipolygonObject> objects = am.rings.get(ring);
+            if (ring > 0) {
+                countMultipolygonTypes(am);
+            }
+            long[] ids = new long[am.types.length];
+            long assignId = genId(SHIFT_MULTIPOLYGON_IDS, am.idBase);
+            ids[0] = assignId;
+            for (int i = 1; i < ids.length; i++) {
+                while (generatedIds.contains(assignId)) {
+                    assignId += 2;
+                }
+                generatedIds.add(assignId);
+                ids[i] = assignId;
+            }
+            for (MultipolygonObject o : objects) {
+                MultipolygonTypes t = am.types[o.split][o.level];
+                long id = convertBaseIdToGeneratedId(ids[o.split], o.level);
+                insertBinaryMapObject(mapTree[o.level], id, true, o.geometry, t.types, t.addTypes, t.names, true);
+            }
+        }
+    }
+
+    /**
+     * Types are encoded once per relation (counted as first outer ring). Rule frequencies define order of rules in
+     * obf and are counted for every outer ring, so encoding is repeated for next rings.
+     */
+    private void countMultipolygonTypes(AssembledMultipolygon am) {
+        for (Map<String, String> stags : am.splitTags) {
+            for (int level = 0; level < mapZooms.size(); level++) {
+                renderingTypes.encodeEntityWithType(false, stags, mapZooms.getLevel(level).getMaxZoom(), typeUse,
+                        addtypeUse, namesUse, tempNameUse);
+            }
+        }
+    }
 
+    /**
+     * Writes assembled multipolygons in order of relations, so ids and map db don't depend on scheduling
+     * @param wait wait for first multipolygon (if too many are queued)
+     */
+    private void writeAssembledMultipolygons(boolean wait) throws SQLException {
+        while (!multipolygonTasks.isEmpty() && (wait || multipolygonTasks.getFirst().task.isDone())) {
+            AssembledMultipolygon am = multipolygonTasks.removeFirst();
+            try {
+                am.task.get();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+            writeMultipolygon(am);
+            wait = false;
+        }
+    }
+
+    /**
+     * Waits for multipolygons assembled in pool, should be called when all relations are indexed
+     */
+    public void finishMultipolygons() throws SQLException {
+        if (multipolygonPool == null) {
+            return;
+        }
+        try {
+            while (!multipolygonTasks.isEmpty()) {
+                writeAssembledMultipolygons(true);
+            }
+        } finally {
+            multipolygonPool.shutdown();
+            multipolygonPool = null;
         }
     }
 
     public static MultipolygonBuilder createMultipolygonBuilder(Entity e) {
+        return createMultipolygonBuilder(e, false);
+    }
+
+    private static MultipolygonBuilder createMultipolygonBuilder(Entity e, boolean copyWays) {
 
         // create a multipolygon object for this
         MultipolygonBuilder original = new MultipolygonBuilder();
@@ -362,10 +519,14 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         for (RelationMember es : ((Relation) e).getMembers()) {
             if (es.getEntity() instanceof Way) {
                 boolean inner = "inner".equals(es.getRole()); //$NON-NLS-1$
+                Way w = (Way) es.getEntity();
+                if (copyWays && (inner || "outer".equals(es.getRole()))) {
+                    w = OsmEntityCopy.copyWay(w);
+                }
                 if (inner) {
-                    original.addInnerWay((Way) es.getEntity());
+                    original.addInnerWay(w);
                 } else if ("outer".equals(es.getRole())) {
-                    original.addOuterWay((Way) es.getEntity());
+                    original.addOuterWay(w);
                 }
             }
         }
@@ -382,23 +543,28 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     }
 
     public static List<Node> simplifyCycleWay(List<Node> ns, int zoom, int zoomWaySmoothness) throws SQLException {
-        if (checkForSmallAreas(ns, zoom + Math.min(zoomWaySmoothness / 2, 3), 2, 4)) {
+        return simplifyCycleWay(ns, zoom, zoomWaySmoothness, new WaySimplifier());
+    }
+
+    public static List<Node> simplifyCycleWay(List<Node> ns, int zoom, int zoomWaySmoothness,
+            WaySimplifier simplifier) {
+        simplifier.clear();
+        simplifier.addNodes(ns);
+        if (simplifier.isSmallArea(zoom + Math.min(zoomWaySmoothness / 2, 3), 2, 4)) {
             return null;
         }
-        List<Node> res = new ArrayList<Node>();
         // simplification
-        OsmMapUtils.simplifyDouglasPeucker(ns, zoom + 8 + zoomWaySmoothness, 3, res, false);
-        if (res.size() < 2) {
+        if (simplifier.simplify(zoom + 8 + zoomWaySmoothness, 3) < 2) {
             return null;
         }
-        return res;
+        return simplifier.getResultNodes();
     }
 
     public int getLowLevelWays() {
         return lowLevelWays;
     }
 
-    private void loadNodes(byte[] nodes, List<Float> toPut) {
+    private void loadNodes(byte[] nodes, TFloatArrayList toPut) {
         toPut.clear();
         for (int i = 0; i < nodes.length;) {
             int lat = Algorithms.parseIntFromBytes(nodes, i);
@@ -429,85 +595,108 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 
     }
 
-    public List<LowLevelWayCandidate> readLowLevelCandidates(ResultSet fs,
-            List<LowLevelWayCandidate> l, TIntArrayList temp, TIntArrayList tempAdd, TLongHashSet visitedWays)
-            throws SQLException {
-        l.clear();
-        while (fs.next()) {
-            if (!visitedWays.contains(fs.getLong(1))) {
-                parseAndSort(temp, fs.getBytes(5));
-                parseAndSort(tempAdd, fs.getBytes(6));
-                if (temp.equals(typeUse) && tempAdd.equals(addtypeUse)) {
-                    LowLevelWayCandidate llwc = new LowLevelWayCandidate();
-                    llwc.wayId = fs.getLong(1);
-                    llwc.names = decodeNames(fs.getString(4), new HashMap<MapRulType, String>());
-                    llwc.nodes = fs.getBytes(3);
-                    llwc.otherNodeId = fs.getLong(2);
-                    for (MapRulType mr : namesUse.keySet()) {
-                        if (Algorithms.objectEquals(namesUse.get(mr), llwc.names.get(mr))) {
-                            llwc.namesCount++;
+    private static class LowLevelWay {
+        public long id;
+        public int level;
+        // x31, y31 pairs
+        public int[] coordinates;
+        // label of cycle way
+        public LatLon label;
+        public Map<MapRulType, String> names;
+        public TIntArrayList types;
+        public TIntArrayList addTypes;
+    }
+
+    /**
+     * Combines low level way with neighbour ways of the same types and simplifies it. Has own temporary state, so
+     * partitions of low level ways are processed by own combiners in parallel.
+     */
+    private class LowLevelWaysCombiner {
+        private final LevelIndex index;
+        private final List<LowLevelWayRecord> found = new ArrayList<LowLevelWayRecord>();
+        private final TLongHashSet visitedWays = new TLongHashSet();
+        // combine only with ways starting in this tile of partition (-1 - any way)
+        private final int tileZoom;
+        private final long tile;
+
+        private final TIntArrayList typeUse = new TIntArrayList(8);
+        private final TIntArrayList addtypeUse = new TIntArrayList(8);
+        private final TreeMap<MapRulType, String> namesUse = new TreeMap<MapRulType, String>(
+                IndexVectorMapCreator.this.namesUse.comparator());
+        private final TFloatArrayList list = new TFloatArrayList(100);
+        private final TFloatArrayList wayNodes = new TFloatArrayList(100);
+        private final WaySimplifier simplifier = new WaySimplifier();
+        private final TIntArrayList temp = new TIntArrayList();
+        private final TIntArrayList tempAdd = new TIntArrayList();
+        private final List<LowLevelWayCandidate> candidates = new ArrayList<LowLevelWayCandidate>();
+        private final Comparator<LowLevelWayCandidate> cmpCandidates = new Comparator<LowLevelWayCandidate>() {
+            @Override
+            public int compare(LowLevelWayCandidate o1, LowLevelWayCandidate o2) {
+                return -Integer.compare(o1.namesCount, o2.namesCount);
+            }
+        };
+
+        public LowLevelWaysCombiner(LevelIndex index, int tileZoom, long tile) {
+            this.index = index;
+            this.tileZoom = tileZoom;
+            this.tile = tile;
+        }
+
+        /**
+         * @param start candidates are ways starting at node (otherwise ending at node)
+         */
+        public List<LowLevelWayCandidate> readLowLevelCandidates(long node, boolean start) {
+            candidates.clear();
+            List<LowLevelWayRecord> fs = start ? index.withStartNode(node, found) : index.withEndNode(node, found);
+            for (LowLevelWayRecord r : fs) {
+                if (!visitedWays.contains(r.id)) {
+                    if (tile != -1 && getLowLevelWayTile(r.nodes, tileZoom) != tile) {
+                        continue;
+                    }
+                    parseAndSort(temp, r.types);
+                    parseAndSort(tempAdd, r.addTypes);
+                    if (temp.equals(typeUse) && tempAdd.equals(addtypeUse)) {
+                        LowLevelWayCandidate llwc = new LowLevelWayCandidate();
+                        llwc.wayId = r.id;
+                        llwc.names = decodeNames(r.name, new HashMap<MapRulType, String>());
+                        llwc.nodes = r.nodes;
+                        llwc.otherNodeId = start ? r.endNode : r.startNode;
+                        for (MapRulType mr : namesUse.keySet()) {
+                            if (Algorithms.objectEquals(namesUse.get(mr), llwc.names.get(mr))) {
+                                llwc.namesCount++;
+                            }
                         }
+                        candidates.add(llwc);
                     }
-                    l.add(llwc);
                 }
             }
+            return candidates;
         }
-        return l;
-    }
 
-    public void processingLowLevelWays(IProgress progress) throws SQLException {
-        mapLowLevelBinaryStat.executeBatch();
-        mapLowLevelBinaryStat.close();
-        pStatements.remove(mapLowLevelBinaryStat);
-        mapLowLevelBinaryStat = null;
-        mapConnection.commit();
-
-        PreparedStatement startStat = mapConnection
-                .prepareStatement("SELECT id, end_node, nodes, name, type, addType FROM low_level_map_objects"
-                        + " WHERE start_node = ? AND level = ?");
-        PreparedStatement endStat = mapConnection
-                .prepareStatement("SELECT id, start_node, nodes, name, type, addType FROM low_level_map_objects"
-                        + " WHERE end_node = ? AND level = ?");
-        Statement selectStatement = mapConnection.createStatement();
-        ResultSet rs = selectStatement.executeQuery(
-                "SELECT id, start_node, end_node, nodes, name, type, addType, level FROM low_level_map_objects");
-        TLongHashSet visitedWays = new TLongHashSet();
-        ArrayList<Float> list = new ArrayList<Float>(100);
-        TIntArrayList temp = new TIntArrayList();
-        TIntArrayList tempAdd = new TIntArrayList();
-        while (rs.next()) {
-            if (lowLevelWays != -1) {
-                progress.progress(1);
-            }
-            long id = rs.getLong(1);
+        /**
+         * @return combined and simplified way or null if way was already combined with another way or is too small
+         */
+        public LowLevelWay combine(LowLevelWayRecord way) {
+            long id = way.id;
+            long startNode = way.startNode;
+            long endNode = way.endNode;
+            int level = way.level;
             if (visitedWays.contains(id)) {
-                continue;
+                return null;
             }
             visitedWays.add(id);
 
-            int level = rs.getInt(8);
             int zoom = mapZooms.getLevel(level).getMaxZoom();
             int minZoom = mapZooms.getLevel(level).getMinZoom();
 
-            long startNode = rs.getLong(2);
-            long endNode = rs.getLong(3);
-
             namesUse.clear();
-            decodeNames(rs.getString(5), namesUse);
-            parseAndSort(typeUse, rs.getBytes(6));
-            parseAndSort(addtypeUse, rs.getBytes(7));
+            decodeNames(way.name, namesUse);
+            parseAndSort(typeUse, way.types);
+            parseAndSort(addtypeUse, way.addTypes);
 
-            loadNodes(rs.getBytes(4), list);
-            ArrayList<Float> wayNodes = new ArrayList<Float>(list);
+            loadNodes(way.nodes, wayNodes);
 
             // combine startPoint with EndPoint
-            List<LowLevelWayCandidate> candidates = new ArrayList<LowLevelWayCandidate>();
-            Comparator<LowLevelWayCandidate> cmpCandidates = new Comparator<LowLevelWayCandidate>() {
-                @Override
-                public int compare(LowLevelWayCandidate o1, LowLevelWayCandidate o2) {
-                    return -Integer.compare(o1.namesCount, o2.namesCount);
-                }
-            };
             boolean dontCombine = false;
             if (minZoom >= LOW_LEVEL_ZOOM_TO_COMBINE) {
                 // disable combine
@@ -522,23 +711,16 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
 
             while (combined && wayNodes.size() < LOW_LEVEL_COMBINE_WAY_POINS_LIMIT) {
                 combined = false;
-                endStat.setLong(1, startNode);
-                endStat.setShort(2, (short) level);
-                ResultSet fs = endStat.executeQuery();
-                readLowLevelCandidates(fs, candidates, temp, tempAdd, visitedWays);
-                fs.close();
-                LowLevelWayCandidate cand = getCandidate(candidates, cmpCandidates);
+                readLowLevelCandidates(startNode, false);
+                LowLevelWayCandidate cand = getCandidate();
                 if (cand != null) {
                     combined = true;
                     startNode = cand.otherNodeId;
                     visitedWays.add(cand.wayId);
                     loadNodes(cand.nodes, list);
-                    ArrayList<Float> li = new ArrayList<Float>(list);
                     // remove first lat/lon point
-                    wayNodes.remove(0);
-                    wayNodes.remove(0);
-                    li.addAll(wayNodes);
-                    wayNodes = li;
+                    wayNodes.remove(0, 2);
+                    wayNodes.insert(0, list.toArray());
                     for (MapRulType rt : new ArrayList<MapRulType>(namesUse.keySet())) {
                         if (!Algorithms.objectEquals(namesUse.get(rt), cand.names.get(rt)) &&
                                 !checkOneLocaleHasSameName(namesUse, cand.names, rt)) {
@@ -552,19 +734,15 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             combined = !dontCombine;
             while (combined && wayNodes.size() < LOW_LEVEL_COMBINE_WAY_POINS_LIMIT) {
                 combined = false;
-                startStat.setLong(1, endNode);
-                startStat.setShort(2, (short) level);
-                ResultSet fs = startStat.executeQuery();
-                readLowLevelCandidates(fs, candidates, temp, tempAdd, visitedWays);
-                fs.close();
-                LowLevelWayCandidate cand = getCandidate(candidates, cmpCandidates);
+                readLowLevelCandidates(endNode, true);
+                LowLevelWayCandidate cand = getCandidate();
                 if (cand != null) {
                     combined = true;
                     endNode = cand.otherNodeId;
                     visitedWays.add(cand.wayId);
                     loadNodes(cand.nodes, list);
-                    for (int i = 2; i < list.size(); i++) {
-                        wayNodes.add(list.get(i));
+                    if (list.size() > 2) {
+                        wayNodes.add(list.toArray(2, list.size() - 2));
                     }
                     for (MapRulType rt : new ArrayList<MapRulType>(namesUse.keySet())) {
                         if (!Algorithms.objectEquals(namesUse.get(rt), cand.names.get(rt)) &&
@@ -575,34 +753,243 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
                 }
             }
 
-            List<Node> wNodes = new ArrayList<Node>();
+            simplifier.clear();
             int wNsize = wayNodes.size();
             for (int i = 0; i < wNsize; i += 2) {
-                wNodes.add(new Node(wayNodes.get(i), wayNodes.get(i + 1), i == 0 ? startNode : endNode));
+                simplifier.add(wayNodes.get(i), wayNodes.get(i + 1), i == 0 ? startNode : endNode);
             }
             boolean skip = false;
             boolean cycle = startNode == endNode;
             if (cycle) {
-                skip = checkForSmallAreas(wNodes, zoom + Math.min(settings.zoomWaySmoothness / 2, 3), 3, 4);
+                skip = simplifier.isSmallArea(zoom + Math.min(settings.zoomWaySmoothness / 2, 3), 3, 4);
             } else {
                 // coastline
                 if (!typeUse.contains(renderingTypes.getCoastlineRuleType().getInternalId())) {
-                    skip = checkForSmallAreas(wNodes, zoom + Math.min(settings.zoomWaySmoothness / 2, 3), 2, 8);
+                    skip = simplifier.isSmallArea(zoom + Math.min(settings.zoomWaySmoothness / 2, 3), 2, 8);
+                }
+            }
+            if (skip) {
+                return null;
+            }
+            if (simplifier.simplify(zoom - 1 + 8 + settings.zoomWaySmoothness, 3) == 0) {
+                return null;
+            }
+            LowLevelWay w = new LowLevelWay();
+            w.id = id;
+            w.level = level;
+            w.coordinates = simplifier.getResultCoordinates31();
+            if (cycle) {
+                w.label = OsmMapUtils.getComplexPolyCenter(simplifier.getResultNodes(), null);
+            }
+            w.names = new TreeMap<MapRulType, String>(namesUse);
+            w.types = new TIntArrayList(typeUse);
+            w.addTypes = new TIntArrayList(addtypeUse);
+            return w;
+        }
+
+        private LowLevelWayCandidate getCandidate() {
+            if (candidates.size() > 0) {
+                Collections.sort(candidates, cmpCandidates);
+                LowLevelWayCandidate cand = candidates.get(0);
+                if (cand.namesCount > 0) {
+                    return cand;
+                }
+                if (cand.names.isEmpty() && namesUse.isEmpty()) {
+                    return cand;
+                }
+
+            }
+            return null;
+        }
+    }
+
+    public void processingLowLevelWays(IProgress progress) throws SQLException {
+        ForkJoinPool pool = settings.lowLevelWaysThreads > 1 ? new ForkJoinPool(settings.lowLevelWaysThreads) : null;
+        LowLevelWaysSpill.SortedReader reader = null;
+        try {
+            reader = lowLevelWaysSpill.openSortedReader();
+            if (pool != null) {
+                processingLowLevelWaysInParallel(progress, reader, pool);
+                return;
+            }
+            LevelIndex index;
+            while ((index = reader.nextLevel()) != null) {
+                try {
+                    LowLevelWaysCombiner combiner = new LowLevelWaysCombiner(index, 0, -1);
+                    for (int i = 0; i < index.size(); i++) {
+                        if (lowLevelWays != -1) {
+                            progress.progress(1);
+                        }
+                        LowLevelWay w = combiner.combine(index.get(i));
+                        if (w != null) {
+                            insertLowLevelWay(w);
+                        }
+                    }
+                } finally {
+                    index.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.warn("Error closing low level ways", e);
+                }
+            }
+            lowLevelWaysSpill.delete();
+        }
+    }
+
+    /**
+     * Combine tasks of one level and ways processed by every task
+     */
+    private static class LowLevelWaysLevelTasks {
+        private final LevelIndex index;
+        private final List<ForkJoinTask<List<LowLevelWay>>> tasks = new ArrayList<ForkJoinTask<List<LowLevelWay>>>();
+        private final List<TIntArrayList> taskWays = new ArrayList<TIntArrayList>();
+
+        private LowLevelWaysLevelTasks(LevelIndex index) {
+            this.index = index;
+        }
+
+        // index is closed only after its tasks stopped reading it
+        private void closeQuietly() {
+            for (ForkJoinTask<List<LowLevelWay>> t : tasks) {
+                t.cancel(false);
+                try {
+                    t.get();
+                } catch (Exception e) {
+                    // result is not used
                 }
             }
-            if (!skip) {
-                List<Node> res = new ArrayList<Node>();
-                OsmMapUtils.simplifyDouglasPeucker(wNodes, zoom - 1 + 8 + settings.zoomWaySmoothness, 3, res, false);
-                if (res.size() > 0) {
-                    insertBinaryMapRenderObjectIndex(mapTree[level], res, null, namesUse, id, false, typeUse,
-                            addtypeUse, false, cycle);
+            index.close();
+        }
+    }
+
+    /**
+     * Ways of level are partitioned by tile of their start point (settings.lowLevelWaysTileZoom), every partition is
+     * combined by own task in fork join pool. Ways are not combined across partitions and keep sorted order inside
+     * of partition, so result doesn't depend on scheduling. Partitions of all levels are submitted before waiting
+     * (levels are combined at the same time even with one partition per level) and results are inserted by batches
+     * in order of levels and partitions, same as sequential processing. Levels open at the same time share the
+     * spill memory limit.
+     */
+    private void processingLowLevelWaysInParallel(IProgress progress, LowLevelWaysSpill.SortedReader reader,
+            ForkJoinPool pool) throws SQLException, IOException {
+        long levelMemoryLimit = Math.max(1, lowLevelWaysSpill.getChunkLimit() / Math.max(1, mapZooms.size()));
+        LinkedList<LowLevelWaysLevelTasks> levels = new LinkedList<LowLevelWaysLevelTasks>();
+        try {
+            LevelIndex index;
+            while ((index = reader.nextLevel(levelMemoryLimit)) != null) {
+                LowLevelWaysLevelTasks level = new LowLevelWaysLevelTasks(index);
+                levels.add(level);
+                submitLowLevelWaysLevel(level, pool);
+            }
+            while (!levels.isEmpty()) {
+                LowLevelWaysLevelTasks level = levels.getFirst();
+                for (int i = 0; i < level.tasks.size(); i++) {
+                    List<LowLevelWay> res;
+                    try {
+                        res = level.tasks.get(i).get();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    } catch (ExecutionException e) {
+                        throw new IllegalStateException(e.getCause());
+                    }
+                    for (LowLevelWay w : res) {
+                        insertLowLevelWay(w);
+                    }
+                    if (lowLevelWays != -1) {
+                        progress.progress(level.taskWays.get(i).size());
+                    }
                 }
+                levels.removeFirst();
+                level.index.close();
+            }
+        } finally {
+            for (LowLevelWaysLevelTasks level : levels) {
+                level.closeQuietly();
             }
+        }
+    }
 
-            // end cycle
+    private void submitLowLevelWaysLevel(LowLevelWaysLevelTasks level, ForkJoinPool pool) {
+        final LevelIndex index = level.index;
+        final int tileZoom = settings.lowLevelWaysTileZoom;
+        // partitions keep positions of ways in index, ways are read by combiners
+        Map<Long, TIntArrayList> partitions = new LinkedHashMap<Long, TIntArrayList>();
+        for (int i = 0; i < index.size(); i++) {
+            long tile = tileZoom <= 0 ? 0 : getLowLevelWayTile(index.get(i).nodes, tileZoom);
+            TIntArrayList l = partitions.get(tile);
+            if (l == null) {
+                l = new TIntArrayList();
+                partitions.put(tile, l);
+            }
+            l.add(i);
+        }
+        log.info(String.format("Combine %d low level ways of level %d in %d partitions", index.size(),
+                index.getLevel(), partitions.size()));
+        for (Map.Entry<Long, TIntArrayList> e : partitions.entrySet()) {
+            final long tile = e.getKey();
+            final TIntArrayList ways = e.getValue();
+            level.taskWays.add(ways);
+            level.tasks.add(pool.submit(new Callable<List<LowLevelWay>>() {
+                @Override
+                public List<LowLevelWay> call() {
+                    List<LowLevelWay> res = new ArrayList<LowLevelWay>();
+                    LowLevelWaysCombiner combiner = new LowLevelWaysCombiner(index, tileZoom, tile);
+                    for (int i = 0; i < ways.size(); i++) {
+                        LowLevelWay w = combiner.combine(index.get(ways.get(i)));
+                        if (w != null) {
+                            res.add(w);
+                        }
+                    }
+                    return res;
+                }
+            }));
+        }
+    }
 
+    private static long getLowLevelWayTile(byte[] nodes, int tileZoom) {
+        if (tileZoom <= 0 || nodes == null || nodes.length < 8) {
+            return 0;
         }
+        float lat = Float.intBitsToFloat(Algorithms.parseIntFromBytes(nodes, 0));
+        float lon = Float.intBitsToFloat(Algorithms.parseIntFromBytes(nodes, 4));
+        long x = MapUtils.get31TileNumberX(lon) >> (31 - tileZoom);
+        long y = MapUtils.get31TileNumberY(lat) >> (31 - tileZoom);
+        return (x << tileZoom) | y;
+    }
 
+    private void insertLowLevelWay(LowLevelWay w) throws SQLException {
+        MapObjectGeometry geometry = new MapObjectGeometry();
+        ByteArrayOutputStream bcoordinates = new ByteArrayOutputStream(w.coordinates.length * 4);
+        ByteArrayOutputStream blabelCoordinates = new ByteArrayOutputStream();
+        try {
+            for (int i = 0; i < w.coordinates.length; i += 2) {
+                int x = w.coordinates[i];
+                int y = w.coordinates[i + 1];
+                geometry.addBounds(x, y);
+                Algorithms.writeInt(bcoordinates, x);
+                Algorithms.writeInt(bcoordinates, y);
+            }
+            if (w.label != null) {
+                Algorithms.writeInt(blabelCoordinates, MapUtils.get31TileNumberX(w.label.getLongitude()));
+                Algorithms.writeInt(blabelCoordinates, MapUtils.get31TileNumberY(w.label.getLatitude()));
+            }
+        } catch (IOException es) {
+            throw new IllegalStateException(es);
+        }
+        geometry.coordinates = bcoordinates.toByteArray();
+        geometry.innerPolygons = new byte[0];
+        geometry.labelCoordinates = blabelCoordinates.toByteArray();
+        insertBinaryMapObject(mapTree[w.level], w.id, false, geometry, w.types, w.addTypes, w.names, false);
     }
 
     private boolean checkOneLocaleHasSameName(TreeMap<MapRulType, String> nu1, Map<MapRulType, String> nu2,
@@ -620,22 +1007,6 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         return false;
     }
 
-    private LowLevelWayCandidate getCandidate(List<LowLevelWayCandidate> candidates,
-            Comparator<LowLevelWayCandidate> cmpCandidates) {
-        if (candidates.size() > 0) {
-            Collections.sort(candidates, cmpCandidates);
-            LowLevelWayCandidate cand = candidates.get(0);
-            if (cand.namesCount > 0) {
-                return cand;
-            }
-            if (cand.names.isEmpty() && namesUse.isEmpty()) {
-                return cand;
-            }
-
-        }
-        return null;
-    }
-
     public static boolean checkForSmallAreas(List<Node> nodes, int zoom, int minz, int maxz) {
         int minX = Integer.MAX_VALUE;
         int maxX = Integer.MIN_VALUE;
@@ -793,7 +1164,8 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
                 int zoomToSimplify = mapZooms.getLevel(level).getMaxZoom() - 1;
 
                 if (cycle) {
-                    res = simplifyCycleWay(((Way) e).getNodes(), zoomToSimplify, settings.zoomWaySmoothness);
+                    res = simplifyCycleWay(((Way) e).getNodes(), zoomToSimplify, settings.zoomWaySmoothness,
+                            simplifier);
                     if (isClockwiseBroken(tags, (Way) e, res)) {
                         res = null;
                     }
@@ -825,7 +1197,7 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     }
 
     public void writeBinaryMapIndex(BinaryMapIndexWriter writer, String regionName) throws IOException, SQLException {
-        closePreparedStatements(mapBinaryStat, mapLowLevelBinaryStat);
+        closePreparedStatements(mapBinaryStat);
         mapConnection.commit();
         try {
             writer.startWriteMapIndex(regionName);
@@ -1099,12 +1471,15 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     }
 
     public void createDatabaseStructure(Connection mapConnection, DBDialect dialect,
-            String rtreeMapIndexNonPackFileName)
+            String rtreeMapIndexNonPackFileName, String lowLevelWaysFileName)
             throws SQLException, IOException {
         createMapIndexStructure(mapConnection);
         this.mapConnection = mapConnection;
         mapBinaryStat = createStatementMapBinaryInsert(mapConnection);
-        mapLowLevelBinaryStat = createStatementLowLevelMapBinaryInsert(mapConnection);
+        lowLevelWaysSpill = new LowLevelWaysSpill(lowLevelWaysFileName, LOW_LEVEL_WAYS_CHUNK_SIZE);
+        if (settings.multipolygonThreads > 1) {
+            multipolygonPool = Executors.newFixedThreadPool(settings.multipolygonThreads);
+        }
         try {
             mapTree = new RTree[mapZooms.size()];
             for (int i = 0; i < mapZooms.size(); i++) {
@@ -1120,15 +1495,11 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             throw new IOException(e);
         }
         pStatements.put(mapBinaryStat, 0);
-        pStatements.put(mapLowLevelBinaryStat, 0);
     }
 
     public void createMapIndexTableIndexes(Connection conn) throws SQLException {
         Statement stat = conn.createStatement();
         stat.executeUpdate("create index binary_map_objects_ind on binary_map_objects (id)");
-        stat.executeUpdate("create index low_level_map_objects_ind on low_level_map_objects (id)");
-        stat.executeUpdate("create index low_level_map_objects_ind_st on low_level_map_objects (start_node, type)");
-        stat.executeUpdate("create index low_level_map_objects_ind_end on low_level_map_objects (end_node, type)");
         stat.close();
     }
 
@@ -1136,9 +1507,6 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         Statement stat = conn.createStatement();
         stat.executeUpdate("create table binary_map_objects (id bigint primary key, name varchar(4096), "
                 + "area smallint, types binary, additionalTypes binary, coordinates binary, innerPolygons binary, labelCoordinates binary)");
-
-        stat.executeUpdate("create table low_level_map_objects (id bigint primary key, start_node bigint, "
-                + "end_node bigint, name varchar(1024), nodes binary, type binary, addType binary, level smallint)");
         stat.close();
     }
 
@@ -1148,42 +1516,29 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
                         "insert into binary_map_objects(id, area, coordinates, innerPolygons, types, additionalTypes, name, labelCoordinates) values(?, ?, ?, ?, ?, ?, ?, ?)");
     }
 
-    private PreparedStatement createStatementLowLevelMapBinaryInsert(Connection conn) throws SQLException {
-        return conn
-                .prepareStatement(
-                        "insert into low_level_map_objects(id, start_node, end_node, name, nodes, type, addType, level) values(?, ?, ?, ?, ?, ?, ?, ?)");
-    }
-
     private void insertLowLevelMapBinaryObject(int level, int zoom, TIntArrayList types, TIntArrayList addTypes,
             long id, List<Node> in, TreeMap<MapRulType, String> namesUse)
             throws SQLException {
         lowLevelWays++;
-        List<Node> nodes = new ArrayList<Node>();
-        OsmMapUtils.simplifyDouglasPeucker(in, zoom + 8 + settings.zoomWaySmoothness, 3, nodes, false);
-        boolean first = true;
-        long firstId = -1;
-        long lastId = -1;
-        ByteArrayOutputStream bNodes = new ByteArrayOutputStream();
+        simplifier.clear();
+        simplifier.addNodes(in);
+        int size = simplifier.simplify(zoom + 8 + settings.zoomWaySmoothness, 3);
+        if (size == 0) {
+            return;
+        }
+        long firstId = simplifier.getResultId(0);
+        long lastId = simplifier.getResultId(size - 1);
+        ByteArrayOutputStream bNodes = new ByteArrayOutputStream(size * 8);
         ByteArrayOutputStream bTypes = new ByteArrayOutputStream();
         ByteArrayOutputStream bAddtTypes = new ByteArrayOutputStream();
         try {
-            for (Node n : nodes) {
-                if (n != null) {
-                    if (first) {
-                        firstId = n.getId();
-                        first = false;
-                    }
-                    lastId = n.getId();
-                    Algorithms.writeInt(bNodes, Float.floatToRawIntBits((float) n.getLatitude()));
-                    Algorithms.writeInt(bNodes, Float.floatToRawIntBits((float) n.getLongitude()));
-                }
+            for (int i = 0; i < size; i++) {
+                Algorithms.writeInt(bNodes, Float.floatToRawIntBits((float) simplifier.getResultLatitude(i)));
+                Algorithms.writeInt(bNodes, Float.floatToRawIntBits((float) simplifier.getResultLongitude(i)));
             }
         } catch (IOException e) {
             throw new IllegalStateException(e);
         }
-        if (firstId == -1) {
-            return;
-        }
         for (int j = 0; j < types.size(); j++) {
             try {
                 Algorithms.writeSmallInt(bTypes, types.get(j));
@@ -1196,55 +1551,77 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
             } catch (IOException e) {
             }
         }
-        mapLowLevelBinaryStat.setLong(1, id);
-        mapLowLevelBinaryStat.setLong(2, firstId);
-        mapLowLevelBinaryStat.setLong(3, lastId);
-        mapLowLevelBinaryStat.setString(4, encodeNames(namesUse));
-        mapLowLevelBinaryStat.setBytes(5, bNodes.toByteArray());
-        mapLowLevelBinaryStat.setBytes(6, bTypes.toByteArray());
-        mapLowLevelBinaryStat.setBytes(7, bAddtTypes.toByteArray());
-        mapLowLevelBinaryStat.setShort(8, (short) level);
-
-        addBatch(mapLowLevelBinaryStat);
+        LowLevelWayRecord r = new LowLevelWayRecord();
+        r.id = id;
+        r.startNode = firstId;
+        r.endNode = lastId;
+        r.name = encodeNames(namesUse);
+        r.nodes = bNodes.toByteArray();
+        r.types = bTypes.toByteArray();
+        r.addTypes = bAddtTypes.toByteArray();
+        r.level = level;
+        try {
+            lowLevelWaysSpill.add(r);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
     private void insertBinaryMapRenderObjectIndex(RTree mapTree, Collection<Node> nodes, List<List<Node>> innerWays,
             Map<MapRulType, String> names, long id, boolean area, TIntArrayList types, TIntArrayList addTypes,
             boolean commit, boolean cycle)
             throws SQLException {
-        boolean init = false;
-        int minX = Integer.MAX_VALUE;
-        int maxX = 0;
-        int minY = Integer.MAX_VALUE;
-        int maxY = 0;
+        MapObjectGeometry geometry = encodeGeometry(nodes, innerWays, cycle);
+        if (geometry != null) {
+            insertBinaryMapObject(mapTree, id, area, geometry, types, addTypes, names, commit);
+        }
+    }
+
+    /**
+     * Coordinates of map object as they are stored in binary_map_objects
+     */
+    private static class MapObjectGeometry {
+        private byte[] coordinates;
+        private byte[] innerPolygons;
+        private byte[] labelCoordinates;
+        private int minX = Integer.MAX_VALUE;
+        private int maxX = 0;
+        private int minY = Integer.MAX_VALUE;
+        private int maxY = 0;
+
+        private void addBounds(int x, int y) {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+    }
 
+    /**
+     * @return geometry or null if there are no nodes
+     */
+    private static MapObjectGeometry encodeGeometry(Collection<Node> nodes, List<List<Node>> innerWays,
+            boolean cycle) {
+        boolean init = false;
+        MapObjectGeometry geometry = new MapObjectGeometry();
         ByteArrayOutputStream bcoordinates = new ByteArrayOutputStream();
         ByteArrayOutputStream binnercoord = new ByteArrayOutputStream();
-        ByteArrayOutputStream btypes = new ByteArrayOutputStream();
-        ByteArrayOutputStream badditionalTypes = new ByteArrayOutputStream();
         ByteArrayOutputStream blabelCoordinates = new ByteArrayOutputStream();
 
         try {
-            for (int j = 0; j < types.size(); j++) {
-                Algorithms.writeSmallInt(btypes, types.get(j));
-            }
-            for (int j = 0; j < addTypes.size(); j++) {
-                Algorithms.writeSmallInt(badditionalTypes, addTypes.get(j));
-            }
-
             for (Node n : nodes) {
                 if (n != null) {
                     int y = MapUtils.get31TileNumberY(n.getLatitude());
                     int x = MapUtils.get31TileNumberX(n.getLongitude());
-                    minX = Math.min(minX, x);
-                    maxX = Math.max(maxX, x);
-                    minY = Math.min(minY, y);
-                    maxY = Math.max(maxY, y);
+                    geometry.addBounds(x, y);
                     init = true;
                     Algorithms.writeInt(bcoordinates, x);
                     Algorithms.writeInt(bcoordinates, y);
                 }
             }
+            if (!init) {
+                return null;
+            }
 
             if (cycle && !Algorithms.isEmpty(nodes)) {
                 LatLon labelll = OsmMapUtils.getComplexPolyCenter(nodes, innerWays);
@@ -1275,25 +1652,44 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
         } catch (IOException es) {
             throw new IllegalStateException(es);
         }
-        if (init) {
-            // conn.prepareStatement("insert into binary_map_objects(id, area, coordinates,
-            // innerPolygons, types, additionalTypes, name) values(?, ?, ?, ?, ?, ?, ?)");
-            mapBinaryStat.setLong(1, id);
-            mapBinaryStat.setBoolean(2, area);
-            mapBinaryStat.setBytes(3, bcoordinates.toByteArray());
-            mapBinaryStat.setBytes(4, binnercoord.toByteArray());
-            mapBinaryStat.setBytes(5, btypes.toByteArray());
-            mapBinaryStat.setBytes(6, badditionalTypes.toByteArray());
-            mapBinaryStat.setString(7, encodeNames(names));
-            mapBinaryStat.setBytes(8, blabelCoordinates.toByteArray());
-            addBatch(mapBinaryStat, commit);
-            try {
-                mapTree.insert(new LeafElement(new Rect(minX, minY, maxX, maxY), id));
-            } catch (RTreeInsertException e1) {
-                throw new IllegalArgumentException(e1);
-            } catch (IllegalValueException e1) {
-                throw new IllegalArgumentException(e1);
+        geometry.coordinates = bcoordinates.toByteArray();
+        geometry.innerPolygons = binnercoord.toByteArray();
+        geometry.labelCoordinates = blabelCoordinates.toByteArray();
+        return geometry;
+    }
+
+    private void insertBinaryMapObject(RTree mapTree, long id, boolean area, MapObjectGeometry geometry,
+            TIntArrayList types, TIntArrayList addTypes, Map<MapRulType, String> names, boolean commit)
+            throws SQLException {
+        ByteArrayOutputStream btypes = new ByteArrayOutputStream();
+        ByteArrayOutputStream badditionalTypes = new ByteArrayOutputStream();
+        try {
+            for (int j = 0; j < types.size(); j++) {
+                Algorithms.writeSmallInt(btypes, types.get(j));
             }
+            for (int j = 0; j < addTypes.size(); j++) {
+                Algorithms.writeSmallInt(badditionalTypes, addTypes.get(j));
+            }
+        } catch (IOException es) {
+            throw new IllegalStateException(es);
+        }
+        // conn.prepareStatement("insert into binary_map_objects(id, area, coordinates,
+        // innerPolygons, types, additionalTypes, name) values(?, ?, ?, ?, ?, ?, ?)");
+        mapBinaryStat.setLong(1, id);
+        mapBinaryStat.setBoolean(2, area);
+        mapBinaryStat.setBytes(3, geometry.coordinates);
+        mapBinaryStat.setBytes(4, geometry.innerPolygons);
+        mapBinaryStat.setBytes(5, btypes.toByteArray());
+        mapBinaryStat.setBytes(6, badditionalTypes.toByteArray());
+        mapBinaryStat.setString(7, encodeNames(names));
+        mapBinaryStat.setBytes(8, geometry.labelCoordinates);
+        addBatch(mapBinaryStat, commit);
+        try {
+            mapTree.insert(new LeafElement(new Rect(geometry.minX, geometry.minY, geometry.maxX, geometry.maxY), id));
+        } catch (RTreeInsertException e1) {
+            throw new IllegalArgumentException(e1);
+        } catch (IllegalValueException e1) {
+            throw new IllegalArgumentException(e1);
         }
     }
 
@@ -1315,12 +1711,22 @@ public class IndexVectorMapCreator extends AbstractIndexPartCreator {
     public void commitAndCloseFiles(String rTreeMapIndexNonPackFileName, String rTreeMapIndexPackFileName,
             boolean deleteDatabaseIndexes)
             throws IOException, SQLException {
+        if (multipolygonPool != null) {
+            multipolygonPool.shutdownNow();
+            multipolygonPool = null;
+        }
+        if (lowLevelWaysSpill != null) {
+            lowLevelWaysSpill.delete();
+        }
         // delete map rtree files
         if (mapTree != null) {
             for (int i = 0; i < mapTree.length; i++) {
                 if (mapTree[i] != null) {
-                    RandomAccessFile file = mapTree[i].getFileHdr().getFile();
-                    file.close();
+                    try {
+                        mapTree[i].close();
+                    } catch (RTreeException e) {
+                        throw new IOException(e);
+                    }
                 }
 
             }
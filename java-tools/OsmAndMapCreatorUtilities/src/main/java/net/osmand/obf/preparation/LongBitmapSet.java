@@ -0,0 +1,131 @@
+package net.osmand.obf.preparation;
+
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Compressed set of long ids (roaring bitmap layout): ids are grouped by the high 48 bits, inside of a group low 16
+ * bits are kept as sorted array of 16 bit values while group is sparse and as a 8 KB bitmap when it gets dense.
+ *
+ * Osm ids imported into nodes db are close to each other, so a set costs about 2 bytes per id (1 bit per id
+ * for dense ranges) instead of 16+ bytes of TLongHashSet. Ids are expected to come mostly in increasing order,
+ * that case is appended without search.
+ */
+public class LongBitmapSet {
+
+	private static final int ARRAY_MAX_SIZE = 4096;
+	private static final int BITMAP_WORDS = (1 << 16) / 64;
+
+	private final TLongObjectHashMap<Container> containers = new TLongObjectHashMap<Container>();
+	private long lastKey = Long.MIN_VALUE;
+	private Container lastContainer;
+	private long size;
+
+	/**
+	 * @return true if id was not in the set
+	 */
+	public boolean add(long id) {
+		long key = id >> 16;
+		Container c = getContainer(key);
+		if (c == null) {
+			c = new Container();
+			containers.put(key, c);
+			lastKey = key;
+			lastContainer = c;
+		}
+		if (c.add((int) (id & 0xffff))) {
+			size++;
+			return true;
+		}
+		return false;
+	}
+
+	public boolean contains(long id) {
+		Container c = getContainer(id >> 16);
+		return c != null && c.contains((int) (id & 0xffff));
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		containers.clear();
+		lastKey = Long.MIN_VALUE;
+		lastContainer = null;
+		size = 0;
+	}
+
+	private Container getContainer(long key) {
+		if (key == lastKey && lastContainer != null) {
+			return lastContainer;
+		}
+		Container c = containers.get(key);
+		if (c != null) {
+			lastKey = key;
+			lastContainer = c;
+		}
+		return c;
+	}
+
+	private static class Container {
+		// sorted unsigned low bits, null when bitmap is used
+		private char[] values = new char[4];
+		private int cardinality;
+		private long[] bitmap;
+
+		boolean contains(int low) {
+			if (bitmap != null) {
+				return (bitmap[low >>> 6] & (1L << low)) != 0;
+			}
+			return Arrays.binarySearch(values, 0, cardinality, (char) low) >= 0;
+		}
+
+		boolean add(int low) {
+			if (bitmap != null) {
+				long bit = 1L << low;
+				if ((bitmap[low >>> 6] & bit) != 0) {
+					return false;
+				}
+				bitmap[low >>> 6] |= bit;
+				cardinality++;
+				return true;
+			}
+			int ind;
+			if (cardinality == 0 || values[cardinality - 1] < low) {
+				ind = cardinality;
+			} else {
+				ind = Arrays.binarySearch(values, 0, cardinality, (char) low);
+				if (ind >= 0) {
+					return false;
+				}
+				ind = -ind - 1;
+			}
+			if (cardinality == ARRAY_MAX_SIZE) {
+				toBitmap();
+				return add(low);
+			}
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX_SIZE, cardinality * 2));
+			}
+			System.arraycopy(values, ind, values, ind + 1, cardinality - ind);
+			values[ind] = (char) low;
+			cardinality++;
+			return true;
+		}
+
+		private void toBitmap() {
+			bitmap = new long[BITMAP_WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				int v = values[i];
+				bitmap[v >>> 6] |= 1L << v;
+			}
+			values = null;
+		}
+	}
+}
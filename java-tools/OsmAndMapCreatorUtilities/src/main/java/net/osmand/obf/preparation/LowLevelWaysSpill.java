@@ -0,0 +1,616 @@
+package net.osmand.obf.preparation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Append only storage of low level map ways (external sort). Records are collected in memory chunk, chunk is sorted by
+ * (level, start node, end node) and spilled into temporary file when it is full. Chunks are read back by k-way merge,
+ * so ways of one level come together and are indexed by LevelIndex: in memory if level fits into chunk limit,
+ * otherwise in temporary files (records are read by offset, nodes are looked up in memory mapped files), so heap
+ * usage is bounded by chunk limit for any level size.
+ */
+class LowLevelWaysSpill {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// approximate size of record fields besides byte arrays
+	private static final int RECORD_OVERHEAD = 64;
+
+	static class LowLevelWayRecord {
+		public long id;
+		public long startNode;
+		public long endNode;
+		public int level;
+		public String name;
+		public byte[] nodes;
+		public byte[] types;
+		public byte[] addTypes;
+
+		private int memorySize() {
+			return RECORD_OVERHEAD + name.length() * 2 + nodes.length + types.length + addTypes.length;
+		}
+
+		/**
+		 * @return number of written bytes
+		 */
+		private int write(DataOutputStream out) throws IOException {
+			byte[] nm = name.getBytes(StandardCharsets.UTF_8);
+			out.writeLong(id);
+			out.writeLong(startNode);
+			out.writeLong(endNode);
+			out.writeShort(level);
+			writeBytes(out, nm);
+			writeBytes(out, nodes);
+			writeBytes(out, types);
+			writeBytes(out, addTypes);
+			return 8 * 3 + 2 + 4 * 4 + nm.length + nodes.length + types.length + addTypes.length;
+		}
+
+		private static LowLevelWayRecord read(DataInputStream in) throws IOException {
+			LowLevelWayRecord r = new LowLevelWayRecord();
+			try {
+				r.id = in.readLong();
+			} catch (EOFException e) {
+				return null;
+			}
+			r.startNode = in.readLong();
+			r.endNode = in.readLong();
+			r.level = in.readShort();
+			r.name = new String(readBytes(in), StandardCharsets.UTF_8);
+			r.nodes = readBytes(in);
+			r.types = readBytes(in);
+			r.addTypes = readBytes(in);
+			return r;
+		}
+
+		private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+			out.writeInt(b.length);
+			out.write(b);
+		}
+
+		private static byte[] readBytes(DataInputStream in) throws IOException {
+			byte[] b = new byte[in.readInt()];
+			in.readFully(b);
+			return b;
+		}
+	}
+
+	static final Comparator<LowLevelWayRecord> ORDER = new Comparator<LowLevelWayRecord>() {
+		@Override
+		public int compare(LowLevelWayRecord o1, LowLevelWayRecord o2) {
+			int c = Integer.compare(o1.level, o2.level);
+			if (c == 0) {
+				c = Long.compare(o1.startNode, o2.startNode);
+			}
+			if (c == 0) {
+				c = Long.compare(o1.endNode, o2.endNode);
+			}
+			if (c == 0) {
+				c = Long.compare(o1.id, o2.id);
+			}
+			return c;
+		}
+	};
+
+	/**
+	 * Ways of one level sorted by (start node, end node, id): looked up by start node and by end node. Found ways
+	 * keep sorted order.
+	 */
+	static abstract class LevelIndex {
+		private final int level;
+
+		private LevelIndex(int level) {
+			this.level = level;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public abstract int size();
+
+		public abstract LowLevelWayRecord get(int i);
+
+		public abstract List<LowLevelWayRecord> withStartNode(long node, List<LowLevelWayRecord> res);
+
+		public abstract List<LowLevelWayRecord> withEndNode(long node, List<LowLevelWayRecord> res);
+
+		/**
+		 * Deletes temporary files of level
+		 */
+		public void close() {
+		}
+	}
+
+	/**
+	 * Ways of level in memory: binary search by start node and hash by end node
+	 */
+	private static class MemoryLevelIndex extends LevelIndex {
+		private final List<LowLevelWayRecord> records;
+		private final long[] starts;
+		private final TLongObjectHashMap<TIntArrayList> ends = new TLongObjectHashMap<TIntArrayList>();
+
+		private MemoryLevelIndex(int level, List<LowLevelWayRecord> sortedRecords) {
+			super(level);
+			this.records = sortedRecords;
+			starts = new long[records.size()];
+			for (int i = 0; i < records.size(); i++) {
+				LowLevelWayRecord r = records.get(i);
+				starts[i] = r.startNode;
+				TIntArrayList l = ends.get(r.endNode);
+				if (l == null) {
+					l = new TIntArrayList(1);
+					ends.put(r.endNode, l);
+				}
+				l.add(i);
+			}
+		}
+
+		@Override
+		public int size() {
+			return records.size();
+		}
+
+		@Override
+		public LowLevelWayRecord get(int i) {
+			return records.get(i);
+		}
+
+		@Override
+		public List<LowLevelWayRecord> withStartNode(long node, List<LowLevelWayRecord> res) {
+			res.clear();
+			int lo = 0;
+			int hi = starts.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] < node) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			for (int i = lo; i < starts.length && starts[i] == node; i++) {
+				res.add(records.get(i));
+			}
+			return res;
+		}
+
+		@Override
+		public List<LowLevelWayRecord> withEndNode(long node, List<LowLevelWayRecord> res) {
+			res.clear();
+			TIntArrayList l = ends.get(node);
+			if (l != null) {
+				for (int i = 0; i < l.size(); i++) {
+					res.add(records.get(l.get(i)));
+				}
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * Ways of level in temporary files: records file (length prefixed records in sorted order), start nodes file
+	 * (sorted pairs of start node and record offset, binary search) and end nodes file (open addressing hash of end
+	 * node and record offset + 1). Lookup files are memory mapped, records are read by positional reads, so index
+	 * could be read by several threads.
+	 */
+	private static class FileLevelIndex extends LevelIndex {
+		private final File dataFile;
+		private final File startsFile;
+		private final File endsFile;
+		private final RandomAccessFile dataRaf;
+		private final FileChannel data;
+		private final int size;
+		private final LongPairsFile starts;
+		private final LongPairsFile ends;
+		private final long endsMask;
+
+		private FileLevelIndex(int level, String prefix, int size) throws IOException {
+			super(level);
+			this.size = size;
+			dataFile = new File(prefix + ".data");
+			startsFile = new File(prefix + ".starts");
+			endsFile = new File(prefix + ".ends");
+			dataRaf = new RandomAccessFile(dataFile, "r");
+			data = dataRaf.getChannel();
+			starts = new LongPairsFile(startsFile, size, false);
+			// load factor 0.5 or less keeps probe sequences short
+			long capacity = Long.highestOneBit(Math.max(size, 1)) * 4;
+			endsMask = capacity - 1;
+			ends = new LongPairsFile(endsFile, capacity, true);
+		}
+
+		private void buildEnds(File endsTmp) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(endsTmp), BUFFER_SIZE));
+			try {
+				for (int i = 0; i < size; i++) {
+					long node = in.readLong();
+					long offset = in.readLong();
+					// records of same node are probed in order of insertion (sorted order)
+					long slot = hash(node) & endsMask;
+					while (ends.value(slot) != 0) {
+						slot = (slot + 1) & endsMask;
+					}
+					ends.set(slot, node, offset + 1);
+				}
+			} finally {
+				in.close();
+			}
+		}
+
+		private static long hash(long node) {
+			return (node * 0x9E3779B97F4A7C15L) >>> 16;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public LowLevelWayRecord get(int i) {
+			return read(starts.value(i));
+		}
+
+		@Override
+		public List<LowLevelWayRecord> withStartNode(long node, List<LowLevelWayRecord> res) {
+			res.clear();
+			long lo = 0;
+			long hi = size;
+			while (lo < hi) {
+				long mid = (lo + hi) >>> 1;
+				if (starts.key(mid) < node) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			for (long i = lo; i < size && starts.key(i) == node; i++) {
+				res.add(read(starts.value(i)));
+			}
+			return res;
+		}
+
+		@Override
+		public List<LowLevelWayRecord> withEndNode(long node, List<LowLevelWayRecord> res) {
+			res.clear();
+			for (long slot = hash(node) & endsMask; ends.value(slot) != 0; slot = (slot + 1) & endsMask) {
+				if (ends.key(slot) == node) {
+					res.add(read(ends.value(slot) - 1));
+				}
+			}
+			return res;
+		}
+
+		private LowLevelWayRecord read(long offset) {
+			try {
+				ByteBuffer len = ByteBuffer.allocate(4);
+				readFully(len, offset);
+				ByteBuffer body = ByteBuffer.allocate(len.getInt(0));
+				readFully(body, offset + 4);
+				return LowLevelWayRecord.read(new DataInputStream(new ByteArrayInputStream(body.array())));
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private void readFully(ByteBuffer buf, long position) throws IOException {
+			while (buf.hasRemaining()) {
+				if (data.read(buf, position + buf.position()) < 0) {
+					throw new EOFException();
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				dataRaf.close();
+			} catch (IOException e) {
+				// file is deleted anyway
+			}
+			dataFile.delete();
+			startsFile.delete();
+			endsFile.delete();
+		}
+	}
+
+	/**
+	 * Writes ways of level into files of FileLevelIndex
+	 */
+	private static class FileLevelWriter {
+		private final int level;
+		private final String prefix;
+		private final DataOutputStream data;
+		private final DataOutputStream starts;
+		private final DataOutputStream endsTmp;
+		private final File endsTmpFile;
+		private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+		private final DataOutputStream recordOut = new DataOutputStream(record);
+		private long offset;
+		private int size;
+
+		private FileLevelWriter(int level, String prefix) throws IOException {
+			this.level = level;
+			this.prefix = prefix;
+			endsTmpFile = new File(prefix + ".ends.tmp");
+			data = open(new File(prefix + ".data"));
+			starts = open(new File(prefix + ".starts"));
+			endsTmp = open(endsTmpFile);
+		}
+
+		private static DataOutputStream open(File f) throws IOException {
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE));
+		}
+
+		private void add(LowLevelWayRecord r) throws IOException {
+			// records come sorted by start node, so start pairs are written sorted
+			starts.writeLong(r.startNode);
+			starts.writeLong(offset);
+			endsTmp.writeLong(r.endNode);
+			endsTmp.writeLong(offset);
+			record.reset();
+			int len = r.write(recordOut);
+			recordOut.flush();
+			data.writeInt(len);
+			record.writeTo(data);
+			size++;
+			offset += 4 + len;
+		}
+
+		private FileLevelIndex build() throws IOException {
+			data.close();
+			starts.close();
+			endsTmp.close();
+			FileLevelIndex index = new FileLevelIndex(level, prefix, size);
+			try {
+				index.buildEnds(endsTmpFile);
+			} catch (IOException e) {
+				index.close();
+				throw e;
+			} finally {
+				endsTmpFile.delete();
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Fixed size file of (long key, long value) entries mapped by segments, heap usage doesn't depend on file size
+	 */
+	private static class LongPairsFile {
+		// 1 GB segments
+		private static final int SEGMENT_BITS = 26;
+		private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+		private final MappedByteBuffer[] segments;
+
+		private LongPairsFile(File f, long entries, boolean create) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(f, create ? "rw" : "r");
+			try {
+				if (create) {
+					// new file is filled by zeros
+					raf.setLength(entries * 16);
+				}
+				FileChannel channel = raf.getChannel();
+				segments = new MappedByteBuffer[(int) ((entries + SEGMENT_MASK) >> SEGMENT_BITS)];
+				for (int i = 0; i < segments.length; i++) {
+					long start = ((long) i << SEGMENT_BITS) * 16;
+					long len = Math.min(entries * 16 - start, (SEGMENT_MASK + 1) * 16);
+					// mapping stays valid after channel is closed
+					segments[i] = channel.map(create ? MapMode.READ_WRITE : MapMode.READ_ONLY, start, len);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		private long key(long i) {
+			return segments[(int) (i >>> SEGMENT_BITS)].getLong((int) (i & SEGMENT_MASK) << 4);
+		}
+
+		private long value(long i) {
+			return segments[(int) (i >>> SEGMENT_BITS)].getLong(((int) (i & SEGMENT_MASK) << 4) + 8);
+		}
+
+		private void set(long i, long key, long value) {
+			MappedByteBuffer b = segments[(int) (i >>> SEGMENT_BITS)];
+			int p = (int) (i & SEGMENT_MASK) << 4;
+			b.putLong(p, key);
+			b.putLong(p + 8, value);
+		}
+	}
+
+	private final String filePrefix;
+	private final long chunkLimit;
+	private final List<File> chunkFiles = new ArrayList<File>();
+	private List<LowLevelWayRecord> chunk = new ArrayList<LowLevelWayRecord>();
+	private long chunkSize;
+	private int size;
+
+	LowLevelWaysSpill(String filePrefix, long chunkLimit) {
+		this.filePrefix = filePrefix;
+		this.chunkLimit = chunkLimit;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getChunkLimit() {
+		return chunkLimit;
+	}
+
+	public void add(LowLevelWayRecord r) throws IOException {
+		chunk.add(r);
+		chunkSize += r.memorySize();
+		size++;
+		if (chunkSize >= chunkLimit) {
+			spillChunk();
+		}
+	}
+
+	private void spillChunk() throws IOException {
+		Collections.sort(chunk, ORDER);
+		File f = new File(filePrefix + chunkFiles.size());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE));
+		try {
+			for (LowLevelWayRecord r : chunk) {
+				r.write(out);
+			}
+		} finally {
+			out.close();
+		}
+		chunkFiles.add(f);
+		chunk = new ArrayList<LowLevelWayRecord>();
+		chunkSize = 0;
+	}
+
+	/**
+	 * Merges sorted chunks, last chunk is not written to disk. Nothing could be added after.
+	 */
+	public SortedReader openSortedReader() throws IOException {
+		Collections.sort(chunk, ORDER);
+		return new SortedReader();
+	}
+
+	public void delete() {
+		for (File f : chunkFiles) {
+			f.delete();
+		}
+		chunkFiles.clear();
+		chunk = new ArrayList<LowLevelWayRecord>();
+		chunkSize = 0;
+	}
+
+	private static class Source {
+		private final DataInputStream in;
+		private final Iterator<LowLevelWayRecord> it;
+		private LowLevelWayRecord head;
+
+		private Source(DataInputStream in, Iterator<LowLevelWayRecord> it) {
+			this.in = in;
+			this.it = it;
+		}
+
+		private boolean next() throws IOException {
+			if (in != null) {
+				head = LowLevelWayRecord.read(in);
+			} else {
+				head = it.hasNext() ? it.next() : null;
+			}
+			return head != null;
+		}
+	}
+
+	class SortedReader {
+		private final PriorityQueue<Source> queue = new PriorityQueue<Source>(chunkFiles.size() + 1,
+				new Comparator<Source>() {
+					@Override
+					public int compare(Source o1, Source o2) {
+						return ORDER.compare(o1.head, o2.head);
+					}
+				});
+		private final List<Source> sources = new ArrayList<Source>();
+		private LowLevelWayRecord next;
+
+		private SortedReader() throws IOException {
+			for (File f : chunkFiles) {
+				sources.add(new Source(new DataInputStream(new BufferedInputStream(new FileInputStream(f), BUFFER_SIZE)),
+						null));
+			}
+			sources.add(new Source(null, chunk.iterator()));
+			for (Source s : sources) {
+				if (s.next()) {
+					queue.add(s);
+				}
+			}
+			next = pollNext();
+		}
+
+		private LowLevelWayRecord pollNext() throws IOException {
+			Source s = queue.poll();
+			if (s == null) {
+				return null;
+			}
+			LowLevelWayRecord r = s.head;
+			if (s.next()) {
+				queue.add(s);
+			}
+			return r;
+		}
+
+		/**
+		 * @return all ways of next level or null if there are no more ways. Index should be closed after use.
+		 */
+		public LevelIndex nextLevel() throws IOException {
+			return nextLevel(chunkLimit);
+		}
+
+		/**
+		 * Same as nextLevel(), level is kept in memory only if it is smaller than memoryLimit (several levels open
+		 * at the same time share the spill limit)
+		 */
+		public LevelIndex nextLevel(long memoryLimit) throws IOException {
+			if (next == null) {
+				return null;
+			}
+			List<LowLevelWayRecord> level = new ArrayList<LowLevelWayRecord>();
+			int l = next.level;
+			long levelSize = 0;
+			while (next != null && next.level == l) {
+				level.add(next);
+				levelSize += next.memorySize();
+				next = pollNext();
+				if (levelSize >= memoryLimit) {
+					return writeLevel(l, level);
+				}
+			}
+			return new MemoryLevelIndex(l, level);
+		}
+
+		private LevelIndex writeLevel(int l, List<LowLevelWayRecord> first) throws IOException {
+			FileLevelWriter w = new FileLevelWriter(l, filePrefix + "level" + l);
+			for (LowLevelWayRecord r : first) {
+				w.add(r);
+			}
+			first.clear();
+			while (next != null && next.level == l) {
+				w.add(next);
+				next = pollNext();
+			}
+			return w.build();
+		}
+
+		public void close() throws IOException {
+			for (Source s : sources) {
+				if (s.in != null) {
+					s.in.close();
+				}
+			}
+		}
+	}
+}
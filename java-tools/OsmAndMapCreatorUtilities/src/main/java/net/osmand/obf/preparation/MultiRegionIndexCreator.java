@@ -0,0 +1,239 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.xmlpull.v1.XmlPullParserException;
+
+import net.osmand.IndexConstants;
+import net.osmand.PlatformUtil;
+import net.osmand.binary.BinaryMapDataObject;
+import net.osmand.binary.BinaryMapIndexReader;
+import net.osmand.binary.BinaryMapIndexReader.MapIndex;
+import net.osmand.binary.MapZooms;
+import net.osmand.data.Multipolygon;
+import net.osmand.data.MultipolygonBuilder;
+import net.osmand.data.QuadRect;
+import net.osmand.impl.ConsoleProgressImplementation;
+import net.osmand.map.OsmandRegions;
+import net.osmand.osm.MapRenderingTypesEncoder;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+import net.osmand.util.Algorithms;
+import net.osmand.util.MapUtils;
+
+/**
+ * Generates obf files of many regions from one import of planet (continent) file. Osm files are imported once into
+ * nodes db, then every region is generated by own IndexCreator from shared read only nodes db, only entities inside
+ * of region boundary are iterated (see OsmDbAccessor.setRegionBoundary).
+ */
+public class MultiRegionIndexCreator {
+
+	private static final Log log = PlatformUtil.getLog(MultiRegionIndexCreator.class);
+	public static final String SHARED_NODES_DB = "regions.tmp.odb";
+
+	public static class RegionBoundary {
+		public final String name;
+		public final Multipolygon boundary;
+		public final QuadRect bbox;
+
+		public RegionBoundary(String name, Multipolygon boundary, QuadRect bbox) {
+			this.name = name;
+			this.boundary = boundary;
+			this.bbox = bbox;
+		}
+	}
+
+	private final File workDir;
+	private final IndexCreatorSettings settings;
+	private final List<RegionBoundary> regions = new ArrayList<RegionBoundary>();
+	private int threads = 1;
+
+	public MultiRegionIndexCreator(File workDir, IndexCreatorSettings settings) {
+		this.workDir = workDir;
+		this.settings = settings;
+	}
+
+	public void addRegion(RegionBoundary region) {
+		regions.add(region);
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: <osm file> <comma separated download names of regions> [--region-threads=1]");
+			return;
+		}
+		IndexCreatorSettings settings = new IndexCreatorSettings();
+		settings.indexMap = true;
+		settings.indexAddress = true;
+		settings.indexPOI = true;
+		settings.indexTransport = true;
+		settings.indexRouting = true;
+		generate(args, settings);
+	}
+
+	public static List<File> generate(String[] args, IndexCreatorSettings settings) throws IOException, SQLException,
+			InterruptedException, XmlPullParserException {
+		MultiRegionIndexCreator creator = new MultiRegionIndexCreator(new File("."), settings);
+		Set<String> names = new HashSet<String>();
+		for (String n : args[1].split(",")) {
+			names.add(n.trim().toLowerCase());
+		}
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith("--region-threads=")) {
+				creator.setThreads(Integer.parseInt(args[i].substring("--region-threads=".length())));
+			}
+		}
+		for (RegionBoundary r : loadRegionBoundaries(names)) {
+			creator.addRegion(r);
+		}
+		return creator.generate(new File[] { new File(args[0]) }, MapZooms.getDefault());
+	}
+
+	/**
+	 * Boundaries of regions by download names from regions.ocbf
+	 */
+	public static List<RegionBoundary> loadRegionBoundaries(Collection<String> downloadNames) throws IOException {
+		OsmandRegions or = new OsmandRegions();
+		BinaryMapIndexReader fl = or.prepareFile();
+		Map<String, LinkedList<BinaryMapDataObject>> allCountries = or.cacheAllCountries();
+		MapIndex mapIndex = fl.getMapIndexes().get(0);
+		int downloadName = mapIndex.getRule("download_name", null);
+		int boundary = mapIndex.getRule("osmand_region", "boundary");
+		List<RegionBoundary> res = new ArrayList<RegionBoundary>();
+		for (LinkedList<BinaryMapDataObject> lst : allCountries.values()) {
+			BinaryMapDataObject rc = null;
+			for (BinaryMapDataObject r : lst) {
+				if (!r.containsType(boundary)) {
+					rc = r;
+					break;
+				}
+			}
+			String dw = rc == null ? null : rc.getNameByType(downloadName);
+			if (dw == null || !downloadNames.contains(dw.toLowerCase())) {
+				continue;
+			}
+			QuadRect qr = new QuadRect(180, -90, -180, 90);
+			MultipolygonBuilder bld = new MultipolygonBuilder();
+			for (BinaryMapDataObject o : lst) {
+				Way w = new Way(-1);
+				for (int i = 0; i < o.getPointsLength(); i++) {
+					double lat = MapUtils.get31LatitudeY(o.getPoint31YTile(i));
+					double lon = MapUtils.get31LongitudeX(o.getPoint31XTile(i));
+					w.addNode(new Node(lat, lon, -1));
+					qr.left = Math.min(lon, qr.left);
+					qr.right = Math.max(lon, qr.right);
+					qr.top = Math.max(lat, qr.top);
+					qr.bottom = Math.min(lat, qr.bottom);
+				}
+				bld.addOuterWay(w);
+			}
+			res.add(new RegionBoundary(dw, bld.build(), qr));
+		}
+		if (res.size() != downloadNames.size()) {
+			log.warn("Found " + res.size() + " boundaries of " + downloadNames.size() + " regions");
+		}
+		return res;
+	}
+
+	public List<File> generate(File[] readFiles, final MapZooms mapZooms) throws IOException, SQLException,
+			InterruptedException, XmlPullParserException {
+		final File nodesDb = settings.nodesDbFile != null ? new File(settings.nodesDbFile)
+				: new File(workDir, SHARED_NODES_DB);
+		final long lastModified = readFiles[0].lastModified();
+		IndexCreatorSettings importSettings = settings.copy();
+		// plain ways table, ways of region are selected by node coordinates in sql (packed ways are scanned fully)
+		importSettings.nodeCoordinatesStore = false;
+		IndexCreator importer = new IndexCreator(workDir, importSettings);
+		importer.setDialects(DBDialect.SQLITE, DBDialect.SQLITE);
+		importer.setNodesDBFile(nodesDb);
+		long time = System.currentTimeMillis();
+		importer.importNodesDB(readFiles, new ConsoleProgressImplementation(),
+				new MapRenderingTypesEncoder(settings.renderingTypesFile, nodesDb.getName()));
+		log.info(String.format("Nodes db imported in %d s, generate %d regions in %d threads",
+				(System.currentTimeMillis() - time) / 1000, regions.size(), threads));
+
+		// each pool thread in own group, so profiler of region counts cpu and allocations of the region only
+		ExecutorService service = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger cnt = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				String name = "MultiRegion-" + cnt.incrementAndGet();
+				return new Thread(IndexCreationProfiler.newRunThreadGroup(name), r, name);
+			}
+		});
+		List<File> res = new ArrayList<File>();
+		List<String> failed = new ArrayList<String>();
+		try {
+			List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (final RegionBoundary region : regions) {
+				futures.add(service.submit(new Callable<File>() {
+					@Override
+					public File call() throws Exception {
+						return generateRegion(region, nodesDb, lastModified, mapZooms);
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					res.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					log.error("Failed to generate " + regions.get(i).name, e.getCause());
+					failed.add(regions.get(i).name);
+				}
+			}
+		} finally {
+			service.shutdown();
+			if (settings.nodesDbFile == null) {
+				DBDialect.SQLITE.removeDatabase(nodesDb);
+			}
+		}
+		if (!failed.isEmpty()) {
+			throw new IllegalStateException("Failed regions " + failed);
+		}
+		return res;
+	}
+
+	private File generateRegion(RegionBoundary region, File nodesDb, long lastModified, MapZooms mapZooms)
+			throws IOException, SQLException, InterruptedException, XmlPullParserException {
+		IndexCreatorSettings rs = settings.copy();
+		rs.boundary = region.boundary;
+		rs.boundaryBbox = region.bbox;
+		rs.nodesDbFile = null;
+		rs.nodeCoordinatesStore = false;
+		String regionName = Algorithms.capitalizeFirstLetterAndLowercase(region.name);
+		IndexCreator ic = new IndexCreator(workDir, rs);
+		DBDialect mapDialect = settings.processInRam ? DBDialect.SQLITE_IN_MEMORY : DBDialect.SQLITE;
+		ic.setDialects(DBDialect.SQLITE, mapDialect);
+		ic.setNodesDBFile(nodesDb);
+		ic.setReuseNodesDB(true);
+		ic.setDeleteOsmDB(false);
+		ic.setLastModifiedDate(lastModified);
+		ic.setRegionName(regionName);
+		ic.setMapFileName(regionName + "_" + IndexConstants.BINARY_MAP_VERSION + IndexConstants.BINARY_MAP_INDEX_EXT);
+		log.info("Generate region " + regionName);
+		return ic.generateIndexes(new File[] { nodesDb }, new ConsoleProgressImplementation(), null, mapZooms,
+				new MapRenderingTypesEncoder(settings.renderingTypesFile, regionName), null, false);
+	}
+}
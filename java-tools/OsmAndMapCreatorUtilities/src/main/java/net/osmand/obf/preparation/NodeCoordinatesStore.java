@@ -0,0 +1,272 @@
+package net.osmand.obf.preparation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+import gnu.trove.map.hash.TLongLongHashMap;
+import net.osmand.osm.edit.Node;
+
+/**
+ * Off-heap storage of node coordinates used instead of the sqlite node table for way geometry.
+ * Coordinates are stored as 2 ints (degrees * 10^7) in memory mapped files, the highest bit marks nodes with tags
+ * (these nodes are also present in the node table).
+ *
+ * Dense mode indexes coordinates directly by (id >> idShift) and suits planet / continent imports where node ids are
+ * dense. Sparse mode appends (id, coordinates) records, which are looked up with binary search as pbf files are
+ * sorted by id. Ids that don't fit (negative, out of order) are kept in a small heap map.
+ */
+public class NodeCoordinatesStore {
+
+	public static final String EXT = ".coords";
+
+	private static final double PRECISION = 1e7;
+	private static final long TAGGED_FLAG = 1L << 63;
+	private static final long MAX_DENSE_INDEX = 1L << 36;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final int idShift;
+	private final boolean dense;
+	private final MappedLongArray array;
+	private final TLongLongHashMap fallback = new TLongLongHashMap();
+	// sparse mode
+	private long sparseCount = 0;
+	private long sparseLastId = Long.MIN_VALUE;
+
+	public NodeCoordinatesStore(File file, int idShift, boolean dense) throws IOException {
+		this.file = file;
+		this.idShift = idShift;
+		this.dense = dense;
+		if (file.exists()) {
+			file.delete();
+		}
+		this.raf = new RandomAccessFile(file, "rw");
+		this.array = new MappedLongArray(raf.getChannel());
+	}
+
+	private NodeCoordinatesStore(File file, int idShift, boolean dense, long sparseCount, long sparseLastId)
+			throws IOException {
+		this.file = file;
+		this.idShift = idShift;
+		this.dense = dense;
+		this.sparseCount = sparseCount;
+		this.sparseLastId = sparseLastId;
+		this.raf = new RandomAccessFile(file, "r");
+		this.array = new MappedLongArray(raf.getChannel());
+		array.mapReadOnly();
+	}
+
+	/**
+	 * Opens store written before (read only), parameters are the ones stored by saveToDb
+	 */
+	public static NodeCoordinatesStore open(File file, int idShift, boolean dense, long sparseCount, long sparseLastId)
+			throws IOException {
+		return new NodeCoordinatesStore(file, idShift, dense, sparseCount, sparseLastId);
+	}
+
+	/**
+	 * Stores parameters and fallback map of store into nodes db, so store could be reopened with nodes db
+	 */
+	public void saveToDb(DBDialect dialect, Connection conn) throws SQLException {
+		Statement stat = conn.createStatement();
+		dialect.deleteTableIfExists("node_coordinates_store", stat);
+		dialect.deleteTableIfExists("node_coordinates_fallback", stat);
+		stat.executeUpdate("create table node_coordinates_store (id_shift int, dense smallint, sparse_count bigint, " + //$NON-NLS-1$
+				"sparse_last_id bigint)"); //$NON-NLS-1$
+		stat.executeUpdate("create table node_coordinates_fallback (id bigint primary key, coordinates bigint)"); //$NON-NLS-1$
+		stat.close();
+		PreparedStatement p = conn.prepareStatement("insert into node_coordinates_store(id_shift, dense, sparse_count, " + //$NON-NLS-1$
+				"sparse_last_id) values (?, ?, ?, ?)"); //$NON-NLS-1$
+		p.setInt(1, idShift);
+		p.setBoolean(2, dense);
+		p.setLong(3, sparseCount);
+		p.setLong(4, sparseLastId);
+		p.executeUpdate();
+		p.close();
+		p = conn.prepareStatement("insert into node_coordinates_fallback(id, coordinates) values (?, ?)"); //$NON-NLS-1$
+		for (long id : fallback.keys()) {
+			p.setLong(1, id);
+			p.setLong(2, fallback.get(id));
+			p.addBatch();
+		}
+		p.executeBatch();
+		p.close();
+	}
+
+	/**
+	 * @return store saved with nodes db or null if nodes db was created without store
+	 */
+	public static NodeCoordinatesStore loadFromDb(DBDialect dialect, Connection conn, File file)
+			throws SQLException, IOException {
+		Statement stat = conn.createStatement();
+		try {
+			if (!dialect.checkTableIfExists("node_coordinates_store", stat)) {
+				return null;
+			}
+			ResultSet rs = stat.executeQuery("select id_shift, dense, sparse_count, sparse_last_id " + //$NON-NLS-1$
+					"from node_coordinates_store"); //$NON-NLS-1$
+			if (!rs.next()) {
+				rs.close();
+				return null;
+			}
+			if (!file.exists()) {
+				rs.close();
+				throw new IOException("Node coordinates store of nodes db is missing: " + file.getAbsolutePath());
+			}
+			NodeCoordinatesStore store = new NodeCoordinatesStore(file, rs.getInt(1), rs.getBoolean(2), rs.getLong(3),
+					rs.getLong(4));
+			rs.close();
+			rs = stat.executeQuery("select id, coordinates from node_coordinates_fallback"); //$NON-NLS-1$
+			while (rs.next()) {
+				store.fallback.put(rs.getLong(1), rs.getLong(2));
+			}
+			rs.close();
+			return store;
+		} finally {
+			stat.close();
+		}
+	}
+
+	public void put(long id, double lat, double lon, boolean tagged) throws IOException {
+		long coordinates = encode(lat, lon);
+		if (tagged) {
+			coordinates |= TAGGED_FLAG;
+		}
+		if (dense) {
+			if (id >= 0 && (id >> idShift) < MAX_DENSE_INDEX) {
+				array.set(id >> idShift, coordinates);
+				return;
+			}
+		} else if (id > sparseLastId) {
+			array.set(sparseCount * 2, id);
+			array.set(sparseCount * 2 + 1, coordinates);
+			sparseCount++;
+			sparseLastId = id;
+			return;
+		}
+		fallback.put(id, coordinates);
+	}
+
+	/**
+	 * @return node without tags or null if coordinates are not stored
+	 */
+	public Node getNode(long id) {
+		long c = get(id);
+		if (c == 0) {
+			return null;
+		}
+		return new Node(decodeLat(c), decodeLon(c), id);
+	}
+
+	public long get(long id) {
+		if (dense) {
+			if (id >= 0 && (id >> idShift) < MAX_DENSE_INDEX) {
+				return array.get(id >> idShift);
+			}
+		} else if (sparseCount > 0 && id <= sparseLastId) {
+			long lo = 0;
+			long hi = sparseCount - 1;
+			while (lo <= hi) {
+				long mid = (lo + hi) >>> 1;
+				long midId = array.get(mid * 2);
+				if (midId < id) {
+					lo = mid + 1;
+				} else if (midId > id) {
+					hi = mid - 1;
+				} else {
+					return array.get(mid * 2 + 1);
+				}
+			}
+		}
+		return fallback.get(id);
+	}
+
+	public void close() throws IOException {
+		array.release();
+		raf.close();
+	}
+
+	public void delete() {
+		file.delete();
+	}
+
+	// latitude is shifted to be always positive so 0 means no coordinates
+	private static long encode(double lat, double lon) {
+		int ilat = (int) Math.round((lat + 90) * PRECISION) + 1;
+		int ilon = (int) Math.round(lon * PRECISION);
+		return (((long) ilat) << 32) | (ilon & 0xffffffffL);
+	}
+
+	public static double decodeLat(long coordinates) {
+		return ((int) ((coordinates & ~TAGGED_FLAG) >>> 32) - 1) / PRECISION - 90;
+	}
+
+	public static boolean isTagged(long coordinates) {
+		return (coordinates & TAGGED_FLAG) != 0;
+	}
+
+	public static double decodeLon(long coordinates) {
+		return ((int) coordinates) / PRECISION;
+	}
+
+	/**
+	 * Long array over a file mapped by segments of 256 MB, segments are mapped on first write.
+	 */
+	private static class MappedLongArray {
+		private static final int SEGMENT_BITS = 25;
+		private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+		private final FileChannel channel;
+		private MappedByteBuffer[] segments = new MappedByteBuffer[16];
+
+		MappedLongArray(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void mapReadOnly() throws IOException {
+			long size = 1L << (SEGMENT_BITS + 3);
+			long length = channel.size();
+			int count = (int) ((length + size - 1) / size);
+			segments = new MappedByteBuffer[Math.max(count, 1)];
+			for (int s = 0; s < count; s++) {
+				segments[s] = channel.map(MapMode.READ_ONLY, s * size, Math.min(size, length - s * size));
+			}
+		}
+
+		long get(long index) {
+			int s = (int) (index >>> SEGMENT_BITS);
+			MappedByteBuffer[] segments = this.segments;
+			if (s >= segments.length || segments[s] == null) {
+				return 0;
+			}
+			return segments[s].getLong(((int) (index & SEGMENT_MASK)) << 3);
+		}
+
+		void set(long index, long value) throws IOException {
+			int s = (int) (index >>> SEGMENT_BITS);
+			if (s >= segments.length) {
+				segments = Arrays.copyOf(segments, Math.max(s + 1, segments.length * 2));
+			}
+			if (segments[s] == null) {
+				long size = 1L << (SEGMENT_BITS + 3);
+				segments[s] = channel.map(MapMode.READ_WRITE, s * size, size);
+			}
+			segments[s].putLong(((int) (index & SEGMENT_MASK)) << 3, value);
+		}
+
+		void release() {
+			// mapped buffers are unmapped by gc
+			segments = new MappedByteBuffer[0];
+		}
+	}
+}
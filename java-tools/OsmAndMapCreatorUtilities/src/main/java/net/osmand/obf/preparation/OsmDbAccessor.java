@@ -1,10 +1,11 @@
 package net.osmand.obf.preparation;
 
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
@@ -16,6 +17,8 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 import net.osmand.IProgress;
+import net.osmand.data.Multipolygon;
+import net.osmand.data.QuadRect;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Entity.EntityType;
@@ -46,6 +49,25 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 	private PreparedStatement iterateRelations;
 	private PreparedStatement iterateWayBoundaries;
 
+	// optional storage of untagged node coordinates (not present in node table)
+	private NodeCoordinatesStore nodeStore;
+	// ways table has one row per way with packed node ids, see OsmDbCreator.encodeWayNodes
+	private boolean packedWays;
+	// used only by producer thread to read tags of way nodes
+	private PreparedStatement iterateSelectNode;
+	private TagDictionary tagDictionary;
+
+	// relation members are loaded with "id in (...)" queries by chunks of that size
+	private static final int MEMBERS_BATCH_SIZE = 256;
+	private PreparedStatement pselectNodes;
+	private PreparedStatement pselectWays;
+	// ways loaded as relation members, shared between relations (0 - disabled)
+	private int wayCacheSize = 0;
+	private Map<Long, Way> wayCache;
+	// only entities inside of region are iterated (null - all entities)
+	private Multipolygon regionBoundary;
+	private QuadRect regionBbox;
+
 	public interface OsmDbVisitor {
 		public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException;
 	}
@@ -53,20 +75,78 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 
 	public void initDatabase()
 			throws SQLException {
+		if (packedWays && nodeStore == null) {
+			throw new IllegalStateException("Packed ways require node coordinates store"); //$NON-NLS-1$
+		}
+		if (TagDictionary.existsInDb(dialect, dbConn)) {
+			tagDictionary = TagDictionary.loadFromDb(dbConn);
+		}
 		pselectNode = dbConn.prepareStatement("select n.latitude, n.longitude, n.tags from node n where n.id = ?"); //$NON-NLS-1$
-		pselectWay = dbConn.prepareStatement("select w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
-				"from ways w left join node n on w.node = n.id where w.id = ? order by w.ord"); //$NON-NLS-1$
+		if (packedWays) {
+			pselectWay = dbConn.prepareStatement("select w.nodes, w.tags from ways w where w.id = ?"); //$NON-NLS-1$
+			iterateSelectNode = dbConn.prepareStatement("select n.latitude, n.longitude, n.tags from node n where n.id = ?"); //$NON-NLS-1$
+		} else {
+			pselectWay = dbConn.prepareStatement("select w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+					"from ways w left join node n on w.node = n.id where w.id = ? order by w.ord"); //$NON-NLS-1$
+		}
 		pselectRelation = dbConn.prepareStatement("select r.member, r.type, r.role, r.ord, r.tags " + //$NON-NLS-1$
 				"from relations r where r.id = ? order by r.ord"); //$NON-NLS-1$
 
-		iterateNodes = dbConn
-				.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n where length(n.tags) > 0 or n.propagate = 1"); //$NON-NLS-1$
-		iterateWays = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
-				"from ways w left join node n on w.node = n.id order by w.id, w.ord"); //$NON-NLS-1$
-		iterateWayBoundaries = dbConn
-				.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
-						"from ways w left join node n on w.node = n.id  where w.boundary > 0 order by w.id, w.ord"); //$NON-NLS-1$
-		iterateRelations = dbConn.prepareStatement("select r.id, r.tags from relations r where length(r.tags) > 0"); //$NON-NLS-1$
+		if (regionBbox != null) {
+			// nodes are selected by coordinates index created by createRegionIndex
+			iterateNodes = dbConn.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n " //$NON-NLS-1$
+					+ "where (length(n.tags) > 0 or n.propagate = 1) and " + regionNodeCondition("n")); //$NON-NLS-1$
+			setRegionBbox(iterateNodes, 1);
+		} else {
+			iterateNodes = dbConn
+					.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n where length(n.tags) > 0 or n.propagate = 1"); //$NON-NLS-1$
+		}
+		if (regionBbox != null && !packedWays) {
+			// only ways and relations with node inside of bbox are selected (by indexes of createRegionIndex),
+			// packed ways have nodes in blob and are still scanned fully
+			iterateWays = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+					"from ways w left join node n on w.node = n.id where w.id in (" + REGION_WAYS + ") order by w.id, w.ord"); //$NON-NLS-1$
+			setRegionBbox(iterateWays, 1);
+			iterateWayBoundaries = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+					"from ways w left join node n on w.node = n.id where w.boundary > 0 and w.id in (" + REGION_WAYS //$NON-NLS-1$
+					+ ") order by w.id, w.ord"); //$NON-NLS-1$
+			setRegionBbox(iterateWayBoundaries, 1);
+		} else if (packedWays) {
+			iterateWays = dbConn.prepareStatement("select w.id, w.nodes, w.tags from ways w order by w.id"); //$NON-NLS-1$
+			iterateWayBoundaries = dbConn.prepareStatement("select w.id, w.nodes, w.tags from ways w " + //$NON-NLS-1$
+					"where w.boundary > 0 order by w.id"); //$NON-NLS-1$
+		} else {
+			iterateWays = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+					"from ways w left join node n on w.node = n.id order by w.id, w.ord"); //$NON-NLS-1$
+			iterateWayBoundaries = dbConn
+					.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+							"from ways w left join node n on w.node = n.id  where w.boundary > 0 order by w.id, w.ord"); //$NON-NLS-1$
+		}
+		if (regionBbox != null && !packedWays) {
+			iterateRelations = dbConn.prepareStatement("select r.id, r.tags from relations r where length(r.tags) > 0 " //$NON-NLS-1$
+					+ "and r.id in (select rm.id from relations rm where (rm.type = " + EntityType.NODE.ordinal() //$NON-NLS-1$
+					+ " and rm.member in (select nn.id from node nn where " + regionNodeCondition("nn") + ")) or (rm.type = " //$NON-NLS-1$
+					+ EntityType.WAY.ordinal() + " and rm.member in (" + REGION_WAYS + ")))"); //$NON-NLS-1$
+			setRegionBbox(iterateRelations, 1);
+			setRegionBbox(iterateRelations, 5);
+		} else {
+			iterateRelations = dbConn.prepareStatement("select r.id, r.tags from relations r where length(r.tags) > 0"); //$NON-NLS-1$
+		}
+	}
+
+	// ids of ways with node inside of region bbox (4 parameters)
+	private static final String REGION_WAYS = "select wn.id from node nn join ways wn on wn.node = nn.id where " //$NON-NLS-1$
+			+ regionNodeCondition("nn");
+
+	private static String regionNodeCondition(String node) {
+		return node + ".latitude between ? and ? and " + node + ".longitude between ? and ?"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void setRegionBbox(PreparedStatement ps, int start) throws SQLException {
+		ps.setDouble(start, regionBbox.bottom);
+		ps.setDouble(start + 1, regionBbox.top);
+		ps.setDouble(start + 2, regionBbox.left);
+		ps.setDouble(start + 3, regionBbox.right);
 	}
 
 	public void updateCounts(OsmDbCreator dbCreator) {
@@ -96,7 +176,15 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 
 	@Override
 	public void loadEntityWay(Way e) throws SQLException {
-		if (e.getEntityIds().isEmpty()) {
+		if (e.getEntityIds().isEmpty() && packedWays) {
+			pselectWay.setLong(1, e.getId());
+			ResultSet rs = pselectWay.executeQuery();
+			if (rs.next()) {
+				readTags(e, rs.getBytes(2));
+				readPackedWayNodes(e, rs.getBytes(1), pselectNode);
+			}
+			rs.close();
+		} else if (e.getEntityIds().isEmpty()) {
 			pselectWay.setLong(1, e.getId());
 			if (pselectWay.execute()) {
 				ResultSet rs = pselectWay.getResultSet();
@@ -110,7 +198,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 						((Way) e).addNode(n);
 						readTags(n, rs.getBytes(6));
 					} else {
-						((Way) e).addNode(rs.getLong(1));
+						addWayNode((Way) e, rs.getLong(1));
 					}
 				}
 				rs.close();
@@ -144,53 +232,195 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 		}
 		Collection<RelationMember> ids = e.getMembers() ;
 		if (level > 0) {
+			List<Long> nodeIds = new ArrayList<Long>();
+			List<Long> wayIds = new ArrayList<Long>();
 			for (RelationMember i : ids) {
-				if (i.getEntityId().getType() == EntityType.NODE) {
-					pselectNode.setLong(1, i.getEntityId().getId());
-					if (pselectNode.execute()) {
-						ResultSet rs = pselectNode.getResultSet();
-						Node n = null;
-						while (rs.next()) {
-							if (n == null) {
-								n = new Node(rs.getDouble(1), rs.getDouble(2), i.getEntityId().getId());
-								readTags(n, rs.getBytes(3));
-							}
+				EntityId eid = i.getEntityId();
+				if (!map.containsKey(eid)) {
+					if (eid.getType() == EntityType.NODE) {
+						nodeIds.add(eid.getId());
+						map.put(eid, null);
+					} else if (eid.getType() == EntityType.WAY) {
+						Way way = getCachedWay(eid.getId());
+						if (way == null) {
+							way = new Way(eid.getId());
+							wayIds.add(eid.getId());
 						}
-						map.put(i.getEntityId(), n);
-						rs.close();
+						map.put(eid, way);
+					} else if (eid.getType() == EntityType.RELATION) {
+						Relation rel = new Relation(eid.getId());
+						loadEntityRelation(rel, level - 1);
+						map.put(eid, rel);
 					}
-				} else if (i.getEntityId().getType() == EntityType.WAY) {
-					Way way = new Way(i.getEntityId().getId());
-					loadEntityWay(way);
-					map.put(i.getEntityId(), way);
-				} else if (i.getEntityId().getType() == EntityType.RELATION) {
-					Relation rel = new Relation(i.getEntityId().getId());
-					loadEntityRelation(rel, level - 1);
-					map.put(i.getEntityId(), rel);
 				}
 			}
-
+			loadNodes(nodeIds, map);
+			loadWays(wayIds, map);
 			e.initializeLinks(map);
 			e.entityDataLoaded();
 		}
 	}
 
-	public void readTags(Entity e, byte[] tags){
-		if (tags != null) {
-			try {
-				int prev = 0;
-				List<String> vs = new ArrayList<String>();
-				for (int i = 0; i < tags.length; i++) {
-					if (tags[i] == 0) {
-						vs.add(new String(tags, prev, i - prev, "UTF-8"));
-						prev = i + 1;
+	private void loadNodes(List<Long> nodeIds, Map<EntityId, Entity> map) throws SQLException {
+		for (int start = 0; start < nodeIds.size(); start += MEMBERS_BATCH_SIZE) {
+			if (pselectNodes == null) {
+				pselectNodes = dbConn.prepareStatement("select n.id, n.latitude, n.longitude, n.tags from node n where n.id in " //$NON-NLS-1$
+						+ membersParameters());
+			}
+			setMembersParameters(pselectNodes, nodeIds, start);
+			ResultSet rs = pselectNodes.executeQuery();
+			while (rs.next()) {
+				EntityId eid = new EntityId(EntityType.NODE, rs.getLong(1));
+				if (map.get(eid) == null) {
+					Node n = new Node(rs.getDouble(2), rs.getDouble(3), eid.getId());
+					readTags(n, rs.getBytes(4));
+					map.put(eid, n);
+				}
+			}
+			rs.close();
+		}
+		if (nodeStore != null) {
+			for (Long id : nodeIds) {
+				EntityId eid = new EntityId(EntityType.NODE, id);
+				if (map.get(eid) == null) {
+					map.put(eid, nodeStore.getNode(id));
+				}
+			}
+		}
+	}
+
+	private void loadWays(List<Long> wayIds, Map<EntityId, Entity> map) throws SQLException {
+		for (int start = 0; start < wayIds.size(); start += MEMBERS_BATCH_SIZE) {
+			if (pselectWays == null) {
+				if (packedWays) {
+					pselectWays = dbConn.prepareStatement("select w.id, w.nodes, w.tags from ways w where w.id in " //$NON-NLS-1$
+							+ membersParameters());
+				} else {
+					pselectWays = dbConn.prepareStatement("select w.id, w.node, w.ord, w.tags, n.latitude, n.longitude, n.tags " + //$NON-NLS-1$
+							"from ways w left join node n on w.node = n.id where w.id in " + membersParameters() //$NON-NLS-1$
+							+ " order by w.id, w.ord"); //$NON-NLS-1$
+				}
+			}
+			setMembersParameters(pselectWays, wayIds, start);
+			ResultSet rs = pselectWays.executeQuery();
+			Way w = null;
+			while (rs.next()) {
+				long id = rs.getLong(1);
+				if (w == null || w.getId() != id) {
+					w = (Way) map.get(new EntityId(EntityType.WAY, id));
+				}
+				if (packedWays) {
+					readTags(w, rs.getBytes(3));
+					readPackedWayNodes(w, rs.getBytes(2), pselectNode);
+				} else {
+					if (rs.getInt(3) == 0) {
+						readTags(w, rs.getBytes(4));
+					}
+					if (rs.getObject(6) != null) {
+						Node n = new Node(rs.getDouble(5), rs.getDouble(6), rs.getLong(2));
+						w.addNode(n);
+						readTags(n, rs.getBytes(7));
+					} else {
+						addWayNode(w, rs.getLong(2));
 					}
 				}
-				for(int i=0; i<vs.size(); i+=2) {
-					e.putTag(vs.get(i), vs.get(i+1));
+			}
+			rs.close();
+		}
+		if (wayCacheSize > 0) {
+			for (Long id : wayIds) {
+				Way w = (Way) map.get(new EntityId(EntityType.WAY, id));
+				wayCache.put(id, OsmEntityCopy.copyWay(w));
+			}
+		}
+	}
+
+	private Way getCachedWay(long id) {
+		if (wayCacheSize == 0) {
+			return null;
+		}
+		Way w = wayCache.get(id);
+		// relations could change member ways, so cached instance is never returned
+		return w == null ? null : OsmEntityCopy.copyWay(w);
+	}
+
+	private static String membersParameters() {
+		StringBuilder b = new StringBuilder("(");
+		for (int i = 0; i < MEMBERS_BATCH_SIZE; i++) {
+			b.append(i == 0 ? "?" : ", ?");
+		}
+		return b.append(")").toString();
+	}
+
+	// last chunk is padded with its first id to reuse the same statement (in matches it only once)
+	private static void setMembersParameters(PreparedStatement ps, List<Long> ids, int start) throws SQLException {
+		for (int i = 0; i < MEMBERS_BATCH_SIZE; i++) {
+			int ind = start + i < ids.size() ? start + i : start;
+			ps.setLong(i + 1, ids.get(ind));
+		}
+	}
+
+	private void readPackedWayNodes(Way w, byte[] nodes, PreparedStatement selectNode) throws SQLException {
+		long nodeId = 0;
+		int i = 0;
+		while (i < nodes.length) {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = nodes[i++];
+				v |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			nodeId += (v >>> 1) ^ -(v & 1);
+			long c = nodeStore == null ? 0 : nodeStore.get(nodeId);
+			if (c == 0) {
+				w.addNode(nodeId);
+				continue;
+			}
+			Node n = new Node(NodeCoordinatesStore.decodeLat(c), NodeCoordinatesStore.decodeLon(c), nodeId);
+			if (NodeCoordinatesStore.isTagged(c)) {
+				selectNode.setLong(1, nodeId);
+				ResultSet rs = selectNode.executeQuery();
+				if (rs.next()) {
+					readTags(n, rs.getBytes(3));
+				}
+				rs.close();
+			}
+			w.addNode(n);
+		}
+	}
+
+	private void addWayNode(Way w, long nodeId) {
+		Node n = nodeStore == null ? null : nodeStore.getNode(nodeId);
+		if (n != null) {
+			w.addNode(n);
+		} else {
+			w.addNode(nodeId);
+		}
+	}
+
+	public void readTags(Entity e, byte[] tags) {
+		if (tags == null) {
+			return;
+		}
+		if (tagDictionary != null) {
+			tagDictionary.decodeTags(tags, e);
+			return;
+		}
+		// db created without dictionary: NUL separated key, value pairs
+		int prev = 0;
+		String key = null;
+		for (int i = 0; i < tags.length; i++) {
+			if (tags[i] == 0) {
+				String s = new String(tags, prev, i - prev, StandardCharsets.UTF_8);
+				if (key == null) {
+					key = s;
+				} else {
+					e.putTag(key, s);
+					key = null;
 				}
-			} catch (UnsupportedEncodingException e1) {
-				throw new RuntimeException(e1);
+				prev = i + 1;
 			}
 		}
 	}
@@ -240,11 +470,51 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			if (progress != null) {
 				progress.progress(1);
 			}
+			if (regionBoundary != null && !isInsideRegion(entityToProcess)) {
+				continue;
+			}
 			visitor.iterateEntity(entityToProcess, this);
 		}
 		return count;
 	}
 
+	private boolean isInsideRegion(Entity e) throws SQLException {
+		if (e instanceof Node) {
+			return isInsideRegion((Node) e);
+		} else if (e instanceof Way) {
+			for (Node n : ((Way) e).getNodes()) {
+				if (isInsideRegion(n)) {
+					return true;
+				}
+			}
+			return false;
+		} else if (e instanceof Relation) {
+			// members are loaded once, visitors don't load relation again
+			loadEntityRelation((Relation) e);
+			for (RelationMember m : ((Relation) e).getMembers()) {
+				Entity me = m.getEntity();
+				if (me != null && !(me instanceof Relation) && isInsideRegion(me)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private boolean isInsideRegion(Node n) {
+		if (n == null) {
+			return false;
+		}
+		double lat = n.getLatitude();
+		double lon = n.getLongitude();
+		if (regionBbox != null && (lat < regionBbox.bottom || lat > regionBbox.top || lon < regionBbox.left
+				|| lon > regionBbox.right)) {
+			return false;
+		}
+		return regionBoundary.containsPoint(lat, lon);
+	}
+
 
 	private void computeRealCounts() throws SQLException {
 		if (!realCounts) {
@@ -252,9 +522,10 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 			realCounts = true;
 			// filter out all nodes without tags
 			allNodes = statement.executeQuery("select count(distinct n.id) from node n where length(n.tags) > 0").getInt(1); //$NON-NLS-1$
-			allWays = statement.executeQuery("select count(*) from ways w where w.ord = 0").getInt(1); //$NON-NLS-1$
+			String firstWayRow = packedWays ? "" : " and w.ord = 0";
+			allWays = statement.executeQuery("select count(*) from ways w where 1 = 1" + firstWayRow).getInt(1); //$NON-NLS-1$
 			allRelations = statement.executeQuery("select count(distinct r.id) from relations r").getInt(1); //$NON-NLS-1$
-			allBoundaries = statement.executeQuery("select count(*) from ways w where w.ord = 0 and w.boundary > 0").getInt(1); //$NON-NLS-1$
+			allBoundaries = statement.executeQuery("select count(*) from ways w where w.boundary > 0" + firstWayRow).getInt(1); //$NON-NLS-1$
 			statement.close();
 		}
 	}
@@ -283,6 +554,18 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 		if (iterateWayBoundaries != null) {
 			iterateWayBoundaries.close();
 		}
+		if (iterateSelectNode != null) {
+			iterateSelectNode.close();
+		}
+		if (pselectNodes != null) {
+			pselectNodes.close();
+		}
+		if (pselectWays != null) {
+			pselectWays.close();
+		}
+		if (wayCache != null) {
+			wayCache.clear();
+		}
 
 	}
 
@@ -331,6 +614,10 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 					if (type == EntityType.NODE) {
 						e = new Node(rs.getDouble(2), rs.getDouble(3), curId);
 						readTags(e, rs.getBytes(4));
+					} else if (packedWays && (type == EntityType.WAY || type == EntityType.WAY_BOUNDARY)) {
+						e = new Way(curId);
+						readTags(e, rs.getBytes(3));
+						readPackedWayNodes((Way) e, rs.getBytes(2), iterateSelectNode);
 					} else if (type == EntityType.WAY || type == EntityType.WAY_BOUNDARY) {
 						if (newEntity) {
 							e = new Way(curId);
@@ -340,7 +627,7 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 							readTags(e, rs.getBytes(4));
 						}
 						if (rs.getObject(6) == null) {
-							((Way) e).addNode(rs.getLong(2));
+							addWayNode((Way) e, rs.getLong(2));
 						} else {
 							Node n = new Node(rs.getDouble(5), rs.getDouble(6), rs.getLong(2));
 							readTags(n, rs.getBytes(7));
@@ -384,5 +671,73 @@ public class OsmDbAccessor implements OsmDbAccessorContext {
 		this.dialect = dialect;
 	}
 
+	public void setNodeCoordinatesStore(NodeCoordinatesStore nodeStore) {
+		this.nodeStore = nodeStore;
+	}
+
+	/**
+	 * Should be set before initDatabase, requires node coordinates store
+	 */
+	public void setPackedWays(boolean packedWays) {
+		this.packedWays = packedWays;
+	}
+
+	/**
+	 * Format of ways table of existing db: one row per way with packed nodes or one row per way node
+	 */
+	public static boolean hasPackedWays(Connection dbConn) throws SQLException {
+		Statement stat = dbConn.createStatement();
+		ResultSet rs = stat.executeQuery("select * from ways limit 0"); //$NON-NLS-1$
+		boolean packed = false;
+		ResultSetMetaData md = rs.getMetaData();
+		for (int i = 1; i <= md.getColumnCount(); i++) {
+			if ("nodes".equalsIgnoreCase(md.getColumnName(i))) { //$NON-NLS-1$
+				packed = true;
+			}
+		}
+		rs.close();
+		stat.close();
+		return packed;
+	}
+
+	/**
+	 * Iterate only entities inside of boundary: nodes inside, ways and relations with at least one node inside.
+	 * Should be set before initDatabase, nodes, ways and relations are preselected by bbox (if not null) in sql
+	 * queries using indexes of createRegionIndex.
+	 */
+	public void setRegionBoundary(Multipolygon boundary, QuadRect bbox) {
+		this.regionBoundary = boundary;
+		this.regionBbox = bbox;
+	}
+
+	/**
+	 * Index of nodes by coordinates and ways, relations by members, built once for nodes db shared by many regions.
+	 * Plain index (not partial by tags) as bundled sqlite-jdbc 3.7.2 doesn't support partial indexes.
+	 */
+	public void createRegionIndex() throws SQLException {
+		Statement stat = dbConn.createStatement();
+		stat.executeUpdate("create index if not exists node_region_ind on node (latitude, longitude)"); //$NON-NLS-1$
+		if (!packedWays) {
+			stat.executeUpdate("create index if not exists ways_node_ind on ways (node)"); //$NON-NLS-1$
+			stat.executeUpdate("create index if not exists relations_member_ind on relations (member, type)"); //$NON-NLS-1$
+		}
+		stat.close();
+	}
+
+	/**
+	 * Keep last loaded relation member ways in memory, useful for ways shared by many relations (routes, boundaries)
+	 */
+	public void setWayCacheSize(final int wayCacheSize) {
+		this.wayCacheSize = wayCacheSize;
+		this.wayCache = new LinkedHashMap<Long, Way>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Way> eldest) {
+				return size() > wayCacheSize;
+			}
+		};
+	}
+
 
 }
@@ -2,16 +2,16 @@ package net.osmand.obf.preparation;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import gnu.trove.list.array.TLongArrayList;
-import gnu.trove.map.hash.TLongObjectHashMap;
-import gnu.trove.set.TLongSet;
-import gnu.trove.set.hash.TLongHashSet;
+import gnu.trove.map.hash.TLongLongHashMap;
 import net.osmand.data.City.CityType;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Entity.EntityId;
@@ -52,23 +52,39 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 	int propagateCount = 0;
 	private PreparedStatement prepPropagateNode;
+	private PreparedStatement prepPropagateInsertNode;
+
+	// coordinates of all nodes, only tagged nodes are stored in db
+	private NodeCoordinatesStore nodeStore;
+	// one row per way with delta encoded node ids (requires nodeStore for geometry)
+	private boolean packedWays;
 
 	
-	// not used for now
+	// apply osm changes to existing db, see setApplyChanges
+	private boolean applyChanges;
+	private ChangedTiles changedTiles;
+	// type, start, end of id ranges of changed entities to collect their new tiles after loading
+	private TLongArrayList changedRanges = new TLongArrayList();
 	private PreparedStatement delNode;
 	private PreparedStatement delRelations;
 	private PreparedStatement delWays;
-	private TLongHashSet nodeIds = new TLongHashSet();
-	private TLongHashSet wayIds = new TLongHashSet();
-	private TLongHashSet relationIds = new TLongHashSet();;
+	private PreparedStatement selectNodeRange;
+	private PreparedStatement selectWayRange;
+	private PreparedStatement selectWayPoints;
+	private PreparedStatement selectRelationMembers;
+	// ids could be shared between several imported files, compressed to fit billions of ids
+	private LongBitmapSet nodeIds = new LongBitmapSet();
+	private LongBitmapSet wayIds = new LongBitmapSet();
+	private LongBitmapSet relationIds = new LongBitmapSet();
 
 	private Connection dbConn;
 
 	
 	private static boolean VALIDATE_DUPLICATES = false;
-	private TLongObjectHashMap<Long> generatedIds = new TLongObjectHashMap<Long>();
-	private TLongObjectHashMap<Long> hashes = new TLongObjectHashMap<Long>();
-	private TLongSet idSetToValidateDuplicates = new TLongHashSet();
+	private static final long NO_ID = Long.MIN_VALUE;
+	private TLongLongHashMap generatedIds = new TLongLongHashMap(10, 0.5f, NO_ID, NO_ID);
+	private TLongLongHashMap hashes = new TLongLongHashMap(10, 0.5f, NO_ID, NO_ID);
+	private LongBitmapSet idSetToValidateDuplicates = new LongBitmapSet();
 	
 
 	private final int shiftId;
@@ -80,6 +96,9 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 	private PropagateToNodes propagateToNodes;
 
+	// null for db created before tags dictionary (NUL separated key, value pairs)
+	private TagDictionary tagDictionary;
+
 
 	public OsmDbCreator(int additionId, int shiftId) {
 		this.additionId = additionId;
@@ -112,7 +131,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			if (!addGeoHash) {
 				return getSimpleConvertId(id, EntityType.NODE, true);
 			}
-			int hash = getNodeHash(e);
+			int hash = getNodeHash(((Node) e).getLatitude(), ((Node) e).getLongitude());
 			return getConvertId(id, ord, hash);
 		} else if (e instanceof Way) {
 			TLongArrayList lids = ((Way) e).getNodeIds();
@@ -164,7 +183,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	private long getSimpleConvertId(long id, EntityType type, boolean newId) {
 		if (generateNewIds) {
 			long key = (id << 2) + type.ordinal();
-			if (!generatedIds.contains(key) || newId) {
+			if (!generatedIds.containsKey(key) || newId) {
 				id = generatedId--;
 				generatedIds.put(key, id);
 			} else {
@@ -181,9 +200,9 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		
 	}
 
-	private int getNodeHash(Entity e) {
-		int y = MapUtils.get31TileNumberY(((Node) e).getLatitude());
-		int x = MapUtils.get31TileNumberX(((Node) e).getLongitude());
+	private int getNodeHash(double lat, double lon) {
+		int y = MapUtils.get31TileNumberY(lat);
+		int x = MapUtils.get31TileNumberX(lon);
 		int hash = (x + y) >> 10;
 		return hash;
 	}
@@ -193,18 +212,52 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		if(l < 0) {
 			long lid = (l << shiftId) + additionId;
 			long fid = (lid << 2) + ord;
-			return hashes.get(fid);
+			return boxId(hashes.get(fid));
 		}
-		return hashes.get((l << 2) + ord);
+		return boxId(hashes.get((l << 2) + ord));
 	}
 
 	private Long getGeneratedId(long l, int ord) {
 		if(l < 0) {
 			long lid = (l << shiftId) + additionId;
 			long fid = (lid << 2) + ord;
-			return generatedIds.get(fid);
+			return boxId(generatedIds.get(fid));
+		}
+		Long id = boxId(generatedIds.get((l << 2) + ord));
+		if (id == null && applyChanges) {
+			id = readGeneratedId(l, ord);
 		}
-		return generatedIds.get((l << 2) + ord);
+		return id;
+	}
+
+	// entities which are not in changes were converted by previous run, their ids are restored from db
+	private Long readGeneratedId(long l, int ord) {
+		if (ord != EntityType.NODE.ordinal() && ord != EntityType.WAY.ordinal()) {
+			return null;
+		}
+		try {
+			boolean node = ord == EntityType.NODE.ordinal();
+			PreparedStatement ps = node ? selectNodeRange : selectWayRange;
+			ps.setLong(1, l << SHIFT_ID);
+			ps.setLong(2, (l + 1) << SHIFT_ID);
+			ResultSet rs = ps.executeQuery();
+			Long id = null;
+			if (rs.next()) {
+				id = rs.getLong(1);
+				generatedIds.put((l << 2) + ord, id);
+				if (node) {
+					hashes.put((l << 2) + ord, getNodeHash(rs.getDouble(2), rs.getDouble(3)));
+				}
+			}
+			rs.close();
+			return id;
+		} catch (SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Long boxId(long v) {
+		return v == NO_ID ? null : v;
 	}
 
 	private long getConvertId(long id, int ord, long hash) {
@@ -215,9 +268,17 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			hashes.put(fid, hash);
 			return lid;
 		}
+		long fid = (id << 2) + ord;
+		if (applyChanges) {
+			// keep id of changed entity, it's referenced by unchanged ways and relations
+			Long existing = getGeneratedId(id, ord);
+			if (existing != null) {
+				hashes.put(fid, hash);
+				return existing;
+			}
+		}
 		int l = (int) (hash & ((1 << (SHIFT_ID - 1)) - 1));
 		long cid = (id << SHIFT_ID) + (ord % 2) + (l << 1);
-		long fid = (id << 2) + ord;
 		generatedIds.put(fid, cid);
 		hashes.put(fid, hash);
 		return cid;
@@ -235,13 +296,25 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			stat.executeUpdate("create table node (id bigint primary key, latitude double, longitude double, tags blob, propagate boolean)"); //$NON-NLS-1$
 			stat.executeUpdate("create index IdIndex ON node (id)"); //$NON-NLS-1$
 			dialect.deleteTableIfExists("ways", stat);
-			stat.executeUpdate("create table ways (id bigint, node bigint, ord smallint, tags blob, boundary smallint, primary key (id, ord))"); //$NON-NLS-1$
-			stat.executeUpdate("create index IdWIndex ON ways (id)"); //$NON-NLS-1$
+			if (packedWays) {
+				stat.executeUpdate("create table ways (id bigint primary key, nodes blob, tags blob, boundary smallint)"); //$NON-NLS-1$
+			} else {
+				stat.executeUpdate("create table ways (id bigint, node bigint, ord smallint, tags blob, boundary smallint, primary key (id, ord))"); //$NON-NLS-1$
+				stat.executeUpdate("create index IdWIndex ON ways (id)"); //$NON-NLS-1$
+			}
 			dialect.deleteTableIfExists("relations", stat);
 			stat.executeUpdate("create table relations (id bigint, member bigint, type smallint, role varchar(1024), ord smallint, tags blob, primary key (id, ord))"); //$NON-NLS-1$
 			stat.executeUpdate("create index IdRIndex ON relations (id)"); //$NON-NLS-1$
 			stat.close();
+			TagDictionary.createTable(dialect, dbConn);
+			tagDictionary = new TagDictionary();
 		} else {
+			if (TagDictionary.existsInDb(dialect, dbConn)) {
+				tagDictionary = previous != null ? previous.tagDictionary : TagDictionary.loadFromDb(dbConn);
+			} else {
+				// existing db in old format, new entities are written the same way (db is read by one format)
+				tagDictionary = null;
+			}
 			if (previous != null) {
 				nodeIds = previous.nodeIds;
 				wayIds = previous.wayIds;
@@ -254,13 +327,34 @@ public class OsmDbCreator implements IOsmStorageFilter {
 			}
 		}
 		prepNode = dbConn.prepareStatement("replace into node(id, latitude, longitude, tags, propagate) values (?, ?, ?, ?, ?)"); //$NON-NLS-1$
-		prepWays = dbConn.prepareStatement("replace into ways(id, node, ord, tags, boundary) values (?, ?, ?, ?, ?)"); //$NON-NLS-1$
+		if (packedWays) {
+			prepWays = dbConn.prepareStatement("replace into ways(id, nodes, tags, boundary) values (?, ?, ?, ?)"); //$NON-NLS-1$
+		} else {
+			prepWays = dbConn.prepareStatement("replace into ways(id, node, ord, tags, boundary) values (?, ?, ?, ?, ?)"); //$NON-NLS-1$
+		}
 		prepRelations = dbConn.prepareStatement("replace into relations(id, member, type, role, ord, tags) values (?, ?, ?, ?, ?, ?)"); //$NON-NLS-1$
 		prepPropagateNode = dbConn.prepareStatement("update node set propagate=1 where id=?");
+		if (nodeStore != null) {
+			// untagged nodes are not in db
+			prepPropagateInsertNode = dbConn.prepareStatement("insert or ignore into node(id, latitude, longitude, tags, propagate) values (?, ?, ?, ?, 1)"); //$NON-NLS-1$
+		}
+		if (applyChanges) {
+			if (nodeStore != null || packedWays) {
+				throw new UnsupportedOperationException("Changes could be applied only to db with all nodes and plain ways table");
+			}
+			delNode = dbConn.prepareStatement("delete from node where id >= ? and id < ?"); //$NON-NLS-1$
+			delWays = dbConn.prepareStatement("delete from ways where id >= ? and id < ?"); //$NON-NLS-1$
+			delRelations = dbConn.prepareStatement("delete from relations where id >= ? and id < ?"); //$NON-NLS-1$
+			selectNodeRange = dbConn.prepareStatement("select id, latitude, longitude from node where id >= ? and id < ?"); //$NON-NLS-1$
+			selectWayRange = dbConn.prepareStatement("select id from ways where id >= ? and id < ? limit 1"); //$NON-NLS-1$
+			selectWayPoints = dbConn.prepareStatement("select n.latitude, n.longitude from ways w join node n on w.node = n.id " + //$NON-NLS-1$
+					"where w.id >= ? and w.id < ?"); //$NON-NLS-1$
+			selectRelationMembers = dbConn.prepareStatement("select member, type from relations where id = ?"); //$NON-NLS-1$
+		}
 		dbConn.setAutoCommit(false);
 	}
 
-	protected void initIds(String table, TLongHashSet col) throws SQLException {
+	protected void initIds(String table, LongBitmapSet col) throws SQLException {
 		if(col.isEmpty()) {
 			Statement s = dbConn.createStatement();
 			ResultSet rs = s.executeQuery("select id from " + table);
@@ -286,13 +380,25 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				prepRelations.executeBatch();
 			}
 			if (propagateCount > 0) {
-				prepPropagateNode.executeBatch();
+				executePropagateBatch();
+			}
+			if (tagDictionary != null) {
+				tagDictionary.saveToDb(dbConn);
+			}
+			if (changedTiles != null) {
+				for (int i = 0; i < changedRanges.size(); i += 3) {
+					collectTiles(EntityType.values()[(int) changedRanges.get(i)], changedRanges.get(i + 1),
+							changedRanges.get(i + 2));
+				}
 			}
 		} catch (SQLException ex) {
 			log.error("TODO FIX: Could not save in db ", ex); //$NON-NLS-1$
 		}
 		prepRelations.close();
 		prepPropagateNode.close();
+		if (prepPropagateInsertNode != null) {
+			prepPropagateInsertNode.close();
+		}
 		if (delNode != null) {
 			delNode.close();
 		}
@@ -302,46 +408,95 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		if (delRelations != null) {
 			delRelations.close();
 		}
+		if (selectNodeRange != null) {
+			selectNodeRange.close();
+			selectWayRange.close();
+			selectWayPoints.close();
+			selectRelationMembers.close();
+		}
 	}
 	
 	
 	
-	protected void checkEntityExists(Entity e, long id) throws SQLException {
-		if (delNode == null) {
-			delNode = dbConn.prepareStatement("delete from node where id = ?"); //$NON-NLS-1$
-			delWays = dbConn.prepareStatement("delete from ways where id = ?"); //$NON-NLS-1$
-			delRelations = dbConn.prepareStatement("delete from relations where id = ? "); //$NON-NLS-1$
+	/**
+	 * Deletes previous version of entity from db (its converted id could differ when node moved),
+	 * @return true if entity is deleted by changes (osmand_change=delete)
+	 */
+	private boolean replaceExistingEntity(Entity e) throws SQLException {
+		EntityType type = EntityType.valueOf(e);
+		long start;
+		long end;
+		if (addGeoHash && e.getId() >= 0 && type != EntityType.RELATION) {
+			start = e.getId() << SHIFT_ID;
+			end = (e.getId() + 1) << SHIFT_ID;
+		} else {
+			start = addGeoHash ? (type == EntityType.RELATION ? e.getId() : (e.getId() << shiftId) + additionId)
+					: getSimpleConvertId(e.getId(), type, false);
+			end = start + 1;
 		}
-		boolean present = false;
-		if (e instanceof Node) {
-			present = !nodeIds.add(id);
-		} else if (e instanceof Way) {
-			present = !wayIds.add(id);
-		} else if (e instanceof Relation) {
-			present = !relationIds.add(id);
+		boolean present;
+		if (type == EntityType.NODE) {
+			present = !nodeIds.add(e.getId());
+		} else if (type == EntityType.WAY) {
+			present = !wayIds.add(e.getId());
+		} else {
+			present = !relationIds.add(e.getId());
 		}
-		if(!present) {
-			return;
+		if (present) {
+			// entity is changed twice, previous version could be still in batch
+			prepNode.executeBatch();
+			prepWays.executeBatch();
+			prepRelations.executeBatch();
+			executePropagateBatch();
+			currentWaysCount = 0;
+			currentCountNode = 0;
+			currentRelationsCount = 0;
+			propagateCount = 0;
 		}
-		prepNode.executeBatch();
-		prepWays.executeBatch();
-		prepRelations.executeBatch();
-		prepPropagateNode.executeBatch();
-		currentWaysCount = 0;
-		currentCountNode = 0;
-		currentRelationsCount = 0;
-		propagateCount = 0;
-		if (e instanceof Node) {
-			delNode.setLong(1, id);
-			delNode.execute();
-		} else if (e instanceof Way) {
-			delWays.setLong(1, id);
-			delWays.execute();
-		} else if (e instanceof Relation) {
-			delRelations.setLong(1, id);
-			delRelations.execute();
+		if (changedTiles != null) {
+			collectTiles(type, start, end);
+		}
+		PreparedStatement del = type == EntityType.NODE ? delNode : (type == EntityType.WAY ? delWays : delRelations);
+		del.setLong(1, start);
+		del.setLong(2, end);
+		del.execute();
+		boolean deleted = OSMAND_DELETE_VALUE.equals(e.getTag(OSMAND_DELETE_TAG));
+		if (!deleted) {
+			changedRanges.add(type.ordinal());
+			changedRanges.add(start);
+			changedRanges.add(end);
+		}
+		return deleted;
+	}
+
+	private void collectTiles(EntityType type, long start, long end) throws SQLException {
+		if (type == EntityType.NODE || type == EntityType.WAY) {
+			PreparedStatement ps = type == EntityType.NODE ? selectNodeRange : selectWayPoints;
+			int latColumn = type == EntityType.NODE ? 2 : 1;
+			ps.setLong(1, start);
+			ps.setLong(2, end);
+			ResultSet rs = ps.executeQuery();
+			while (rs.next()) {
+				changedTiles.addPoint(rs.getDouble(latColumn), rs.getDouble(latColumn + 1));
+			}
+			rs.close();
+		} else if (type == EntityType.RELATION) {
+			selectRelationMembers.setLong(1, start);
+			ResultSet rs = selectRelationMembers.executeQuery();
+			TLongArrayList members = new TLongArrayList();
+			while (rs.next()) {
+				members.add(rs.getLong(1));
+				members.add(rs.getInt(2));
+			}
+			rs.close();
+			// members are stored with converted ids, nested relations are not followed
+			for (int i = 0; i < members.size(); i += 2) {
+				EntityType mtype = EntityType.values()[(int) members.get(i + 1)];
+				if (mtype != EntityType.RELATION) {
+					collectTiles(mtype, members.get(i), members.get(i) + 1);
+				}
+			}
 		}
-		dbConn.commit(); // clear memory
 	}
 
 	@Override
@@ -355,44 +510,52 @@ public class OsmDbCreator implements IOsmStorageFilter {
 		}
 		try {
 			e.removeTags(tagsToIgnore);
-			ByteArrayOutputStream tags = new ByteArrayOutputStream();
-			try {
-				for (Entry<String, String> i : e.getTags().entrySet()) {
-					// UTF-8 default
-					tags.write(i.getKey().getBytes("UTF-8"));
-					tags.write(0);
-					tags.write(i.getValue().getBytes("UTF-8"));
-					tags.write(0);
-				}
-			} catch (IOException es) {
-				throw new RuntimeException(es);
-			}
 			long id = convertId(e);
+			if (applyChanges && replaceExistingEntity(e)) {
+				return false;
+			}
+			byte[] tags = tagDictionary != null ? tagDictionary.encodeTags(e.getTags()) : encodeLegacyTags(e.getTags());
 			if (propagateToNodes != null && e instanceof Way) {
 				TLongArrayList propagatedNodeIds = propagateToNodes.propagateTagsFromWays((Way) e);
 				if (propagatedNodeIds != null) {
 					for (int i = 0; i < propagatedNodeIds.size(); i++) {
 						long nodeId = propagatedNodeIds.get(i);
+						if (prepPropagateInsertNode != null) {
+							long c = nodeStore.get(nodeId);
+							if (c != 0) {
+								prepPropagateInsertNode.setLong(1, nodeId);
+								prepPropagateInsertNode.setDouble(2, NodeCoordinatesStore.decodeLat(c));
+								prepPropagateInsertNode.setDouble(3, NodeCoordinatesStore.decodeLon(c));
+								prepPropagateInsertNode.setBytes(4, new byte[0]);
+								prepPropagateInsertNode.addBatch();
+							}
+						}
 						prepPropagateNode.setLong(1, nodeId);
 						prepPropagateNode.addBatch();
 						propagateCount++;
 					}
 					if (propagateCount >= BATCH_SIZE_OSM) {
-						prepPropagateNode.executeBatch();
+						executePropagateBatch();
 						dbConn.commit(); // clear memory
 						propagateCount = 0;
 					}
 				}
 			}
 			if (e instanceof Node) {
-				currentCountNode++;
 				if (!e.getTags().isEmpty()) {
 					allNodes++;
 				}
+				if (nodeStore != null) {
+					nodeStore.put(id, ((Node) e).getLatitude(), ((Node) e).getLongitude(), !e.getTags().isEmpty());
+					if (e.getTags().isEmpty()) {
+						return false;
+					}
+				}
+				currentCountNode++;
 				prepNode.setLong(1, id);
 				prepNode.setDouble(2, ((Node) e).getLatitude());
 				prepNode.setDouble(3, ((Node) e).getLongitude());
-				prepNode.setBytes(4, tags.toByteArray());
+				prepNode.setBytes(4, tags);
 				prepNode.setBoolean(5, false);
 				prepNode.addBatch();
 				if (currentCountNode >= BATCH_SIZE_OSM) {
@@ -406,16 +569,25 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				TLongArrayList nodeIds = ((Way) e).getNodeIds();
 				boolean city = CityType.valueFromString(((Way) e).getTag(OSMTagKey.PLACE)) != null;
 				int boundary = ((Way) e).getTag(OSMTagKey.BOUNDARY) != null || city ? 1 : 0;
-				for (int j = 0; j < nodeIds.size(); j++) {
+				if (packedWays) {
 					currentWaysCount++;
-					if (ord == 0) {
-						prepWays.setBytes(4, tags.toByteArray());
-					}
 					prepWays.setLong(1, id);
-					prepWays.setLong(2, nodeIds.get(j));
-					prepWays.setLong(3, ord++);
-					prepWays.setInt(5, boundary);
+					prepWays.setBytes(2, encodeWayNodes(nodeIds));
+					prepWays.setBytes(3, tags);
+					prepWays.setInt(4, boundary);
 					prepWays.addBatch();
+				} else {
+					for (int j = 0; j < nodeIds.size(); j++) {
+						currentWaysCount++;
+						if (ord == 0) {
+							prepWays.setBytes(4, tags);
+						}
+						prepWays.setLong(1, id);
+						prepWays.setLong(2, nodeIds.get(j));
+						prepWays.setLong(3, ord++);
+						prepWays.setInt(5, boundary);
+						prepWays.addBatch();
+					}
 				}
 				if (currentWaysCount >= BATCH_SIZE_OSM) {
 					prepWays.executeBatch();
@@ -429,7 +601,7 @@ public class OsmDbCreator implements IOsmStorageFilter {
 				for (RelationMember i : ((Relation) e).getMembers()) {
 					currentRelationsCount++;
 					if (ord == 0) {
-						prepRelations.setBytes(6, tags.toByteArray());
+						prepRelations.setBytes(6, tags);
 					}
 					prepRelations.setLong(1, id);
 					prepRelations.setLong(2, i.getEntityId().getId());
@@ -448,6 +620,8 @@ public class OsmDbCreator implements IOsmStorageFilter {
 
 		} catch (SQLException ex) {
 			log.error("TODO FIX: Could not save in db (entity " + entityId + ") ", ex); //$NON-NLS-1$
+		} catch (IOException ex) {
+			log.error("Could not save node coordinates (entity " + entityId + ") ", ex); //$NON-NLS-1$
 		}
 		// do not add to storage
 		return false;
@@ -470,6 +644,72 @@ public class OsmDbCreator implements IOsmStorageFilter {
 	public void setPropagateToNodes(PropagateToNodes propagateToNodes) {
 		this.propagateToNodes = propagateToNodes;
 	}
+
+	/**
+	 * Should be set before initDatabase
+	 */
+	public void setNodeCoordinatesStore(NodeCoordinatesStore nodeStore) {
+		this.nodeStore = nodeStore;
+	}
+
+	/**
+	 * Should be set before initDatabase, OsmDbAccessor should use the same format
+	 */
+	public void setPackedWays(boolean packedWays) {
+		this.packedWays = packedWays;
+	}
+
+	/**
+	 * Load entities as changes to db created by previous run: previous versions are replaced, entities tagged
+	 * osmand_change=delete are removed. Tiles of old and new positions of changed entities are added to changedTiles
+	 * (could be null). Should be set before initDatabase.
+	 */
+	public void setApplyChanges(ChangedTiles changedTiles) {
+		this.applyChanges = true;
+		this.changedTiles = changedTiles;
+	}
+
+	/**
+	 * Tags of db without dictionary: NUL separated key, value pairs
+	 */
+	public static byte[] encodeLegacyTags(Map<String, String> tags) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Entry<String, String> i : tags.entrySet()) {
+			byte[] k = i.getKey().getBytes(StandardCharsets.UTF_8);
+			out.write(k, 0, k.length);
+			out.write(0);
+			byte[] v = i.getValue().getBytes(StandardCharsets.UTF_8);
+			out.write(v, 0, v.length);
+			out.write(0);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Node ids as zigzag varints of the difference to previous id
+	 */
+	public static byte[] encodeWayNodes(TLongArrayList nodeIds) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(nodeIds.size() * 3);
+		long prev = 0;
+		for (int i = 0; i < nodeIds.size(); i++) {
+			long delta = nodeIds.get(i) - prev;
+			prev = nodeIds.get(i);
+			long v = (delta << 1) ^ (delta >> 63);
+			while ((v & ~0x7FL) != 0) {
+				out.write((int) ((v & 0x7F) | 0x80));
+				v >>>= 7;
+			}
+			out.write((int) v);
+		}
+		return out.toByteArray();
+	}
+
+	private void executePropagateBatch() throws SQLException {
+		if (prepPropagateInsertNode != null) {
+			prepPropagateInsertNode.executeBatch();
+		}
+		prepPropagateNode.executeBatch();
+	}
 	
 
 }
@@ -0,0 +1,49 @@
+package net.osmand.obf.preparation;
+
+import java.util.List;
+
+import gnu.trove.list.array.TLongArrayList;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+
+/**
+ * Deep copies of nodes and ways (tags, node ids and loaded nodes), so entity could be modified or kept by one
+ * consumer without affecting others.
+ */
+class OsmEntityCopy {
+
+	private OsmEntityCopy() {
+	}
+
+	public static Entity copyEntity(Entity e) {
+		if (e instanceof Node) {
+			return copyNode((Node) e);
+		} else if (e instanceof Way) {
+			return copyWay((Way) e);
+		}
+		throw new IllegalArgumentException("Only nodes and ways could be copied " + e);
+	}
+
+	public static Way copyWay(Way w) {
+		Way copy = new Way(w.getId());
+		copy.copyTags(w);
+		TLongArrayList ids = w.getNodeIds();
+		List<Node> nodes = w.getNodes();
+		int j = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			if (j < nodes.size() && nodes.get(j) != null && nodes.get(j).getId() == ids.get(i)) {
+				copy.addNode(copyNode(nodes.get(j++)));
+			} else {
+				copy.addNode(ids.get(i));
+			}
+		}
+		return copy;
+	}
+
+	public static Node copyNode(Node n) {
+		Node copy = new Node(n.getLatitude(), n.getLongitude(), n.getId());
+		copy.copyTags(n);
+		return copy;
+	}
+}
@@ -0,0 +1,129 @@
+package net.osmand.obf.preparation;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.osmand.obf.preparation.OsmDbAccessor.OsmDbVisitor;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+
+/**
+ * Broadcasts entity stream to several visitors (index part creators) running each in own thread with own bounded
+ * queue, so the whole stream is processed as fast as the slowest visitor instead of the sum of all visitors.
+ *
+ * Visitors modify entities (load way nodes, propagate and transform tags), so every visitor except the last one
+ * receives its own copy of node / way. Db access through context is serialized. Visitors must not share other
+ * mutable state (e.g. MapRenderingTypesEncoder rules), such visitors should be combined into one consumer.
+ */
+public class ParallelEntityConsumers implements OsmDbVisitor {
+
+	private static final int QUEUE_SIZE = 10000;
+
+	private final Entity endEntity = new Node(0, 0, 0);
+	private final List<Consumer> consumers = new ArrayList<Consumer>();
+	private final OsmDbAccessorContext ctx;
+	private volatile Throwable error;
+
+	public ParallelEntityConsumers(final OsmDbAccessorContext accessor) {
+		this.ctx = new OsmDbAccessorContext() {
+
+			@Override
+			public void loadEntityWay(Way e) throws SQLException {
+				synchronized (accessor) {
+					accessor.loadEntityWay(e);
+				}
+			}
+
+			@Override
+			public void loadEntityRelation(Relation e) throws SQLException {
+				synchronized (accessor) {
+					accessor.loadEntityRelation(e);
+				}
+			}
+		};
+	}
+
+	public void addConsumer(String name, OsmDbVisitor visitor) {
+		consumers.add(new Consumer(name, visitor));
+	}
+
+	public void start() {
+		for (Consumer c : consumers) {
+			c.start();
+		}
+	}
+
+	@Override
+	public void iterateEntity(Entity e, OsmDbAccessorContext ctx) throws SQLException {
+		checkError();
+		try {
+			for (int i = 0; i < consumers.size(); i++) {
+				boolean last = i == consumers.size() - 1;
+				consumers.get(i).queue.put(last ? e : OsmEntityCopy.copyEntity(e));
+			}
+		} catch (InterruptedException ex) {
+			throw new SQLException(ex);
+		}
+	}
+
+	/**
+	 * Waits until all consumers processed queued entities
+	 */
+	public void finish() throws SQLException, InterruptedException {
+		for (Consumer c : consumers) {
+			c.queue.put(endEntity);
+		}
+		for (Consumer c : consumers) {
+			c.join();
+		}
+		checkError();
+	}
+
+	private void checkError() throws SQLException {
+		Throwable t = error;
+		if (t instanceof SQLException) {
+			throw (SQLException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new SQLException(t);
+		}
+	}
+
+	private class Consumer extends Thread {
+		private final BlockingQueue<Entity> queue = new ArrayBlockingQueue<Entity>(QUEUE_SIZE);
+		private final OsmDbVisitor visitor;
+
+		public Consumer(String name, OsmDbVisitor visitor) {
+			this.visitor = visitor;
+			setDaemon(true);
+			setName("EntityConsumer-" + name);
+		}
+
+		@Override
+		public void run() {
+			try {
+				Entity e;
+				while ((e = queue.take()) != endEntity) {
+					// after failure keep draining queue so producer is not blocked
+					if (error == null) {
+						try {
+							visitor.iterateEntity(e, ctx);
+						} catch (Throwable t) {
+							error = t;
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				error = e;
+			}
+		}
+	}
+}
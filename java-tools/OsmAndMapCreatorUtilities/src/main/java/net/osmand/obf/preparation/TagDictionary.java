@@ -0,0 +1,264 @@
+package net.osmand.obf.preparation;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+import net.osmand.osm.edit.Entity;
+
+/**
+ * Dictionary encoding of entity tags stored in nodes db.
+ *
+ * Every key gets an integer code, key=value pairs get a code once they were seen several times, so frequent
+ * combinations (building=yes, highway=residential) are stored as one varint and decoded without allocations into
+ * shared String instances. Rare values (names, refs) are stored as utf-8 literals after the key code.
+ *
+ * Blob is a sequence of varint tokens (code << 2 | kind):
+ * kind 0 - pair code, kind 1 - key code + literal value, kind 2 - literal key + literal value.
+ * Literal is varint length + utf-8 bytes. Dictionary is kept in table tags_dictionary of the same db.
+ */
+public class TagDictionary {
+
+	private static final int PAIR = 0;
+	private static final int KEY = 1;
+	private static final int LITERAL = 2;
+
+	private static final int MAX_KEYS = 1 << 20;
+	private static final int MAX_PAIRS = 1 << 20;
+	private static final int MAX_PAIR_VALUE_LENGTH = 48;
+	// pair gets code when it was seen that many times
+	private static final int PAIR_CANDIDATE_COUNT = 3;
+	private static final int MAX_PAIR_CANDIDATES = 1 << 20;
+
+	private static final int TYPE_KEY = 0;
+	private static final int TYPE_PAIR = 1;
+	// keys and values could contain '=', zero char is not used in tags
+	private static final char PAIR_SEPARATOR = '\u0000';
+
+	private final TObjectIntHashMap<String> keyCodes = new TObjectIntHashMap<String>(1024, 0.5f, -1);
+	private final TObjectIntHashMap<String> pairCodes = new TObjectIntHashMap<String>(1024, 0.5f, -1);
+	private final TObjectIntHashMap<String> pairCandidates = new TObjectIntHashMap<String>();
+	private String[] keys = new String[1024];
+	private String[] pairKeys = new String[1024];
+	private String[] pairValues = new String[1024];
+	private int keysSize = 0;
+	private int pairsSize = 0;
+	private int savedKeys = 0;
+	private int savedPairs = 0;
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+	public static boolean existsInDb(DBDialect dialect, Connection conn) throws SQLException {
+		Statement stat = conn.createStatement();
+		boolean exists = dialect.checkTableIfExists("tags_dictionary", stat);
+		stat.close();
+		return exists;
+	}
+
+	public static void createTable(DBDialect dialect, Connection conn) throws SQLException {
+		Statement stat = conn.createStatement();
+		dialect.deleteTableIfExists("tags_dictionary", stat);
+		stat.executeUpdate("create table tags_dictionary (type smallint, code int, tag varchar(1024), value varchar(1024), " + //$NON-NLS-1$
+				"primary key (type, code))"); //$NON-NLS-1$
+		stat.close();
+	}
+
+	public static TagDictionary loadFromDb(Connection conn) throws SQLException {
+		TagDictionary dict = new TagDictionary();
+		Statement stat = conn.createStatement();
+		ResultSet rs = stat.executeQuery("select type, code, tag, value from tags_dictionary order by type, code"); //$NON-NLS-1$
+		while (rs.next()) {
+			if (rs.getInt(1) == TYPE_KEY) {
+				dict.addKey(rs.getString(3));
+			} else {
+				dict.addPair(rs.getString(3), rs.getString(4));
+			}
+		}
+		rs.close();
+		stat.close();
+		dict.savedKeys = dict.keysSize;
+		dict.savedPairs = dict.pairsSize;
+		return dict;
+	}
+
+	/**
+	 * Stores entries added after last save
+	 */
+	public void saveToDb(Connection conn) throws SQLException {
+		PreparedStatement p = conn.prepareStatement("insert into tags_dictionary(type, code, tag, value) values (?, ?, ?, ?)"); //$NON-NLS-1$
+		for (int i = savedKeys; i < keysSize; i++) {
+			p.setInt(1, TYPE_KEY);
+			p.setInt(2, i);
+			p.setString(3, keys[i]);
+			p.setString(4, null);
+			p.addBatch();
+		}
+		for (int i = savedPairs; i < pairsSize; i++) {
+			p.setInt(1, TYPE_PAIR);
+			p.setInt(2, i);
+			p.setString(3, pairKeys[i]);
+			p.setString(4, pairValues[i]);
+			p.addBatch();
+		}
+		p.executeBatch();
+		p.close();
+		savedKeys = keysSize;
+		savedPairs = pairsSize;
+	}
+
+	public int getKeysSize() {
+		return keysSize;
+	}
+
+	public int getPairsSize() {
+		return pairsSize;
+	}
+
+	/**
+	 * Not thread safe, used by single db writer
+	 */
+	public byte[] encodeTags(Map<String, String> tags) {
+		out.reset();
+		for (Entry<String, String> e : tags.entrySet()) {
+			String key = e.getKey();
+			String value = e.getValue();
+			int pair = pairCode(key, value);
+			if (pair >= 0) {
+				writeVarint(((long) pair << 2) | PAIR);
+				continue;
+			}
+			int keyCode = keyCodes.get(key);
+			if (keyCode < 0 && keysSize < MAX_KEYS) {
+				keyCode = addKey(key);
+			}
+			if (keyCode >= 0) {
+				writeVarint(((long) keyCode << 2) | KEY);
+			} else {
+				writeVarint(LITERAL);
+				writeLiteral(key);
+			}
+			writeLiteral(value);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Puts tags directly to entity, dictionary strings are shared between entities.
+	 * Safe to call from several threads when nothing is encoded concurrently.
+	 */
+	public void decodeTags(byte[] tags, Entity e) {
+		int pos = 0;
+		while (pos < tags.length) {
+			long token = 0;
+			int shift = 0;
+			byte c;
+			do {
+				c = tags[pos++];
+				token |= (long) (c & 0x7F) << shift;
+				shift += 7;
+			} while ((c & 0x80) != 0);
+			int kind = (int) (token & 3);
+			int code = (int) (token >>> 2);
+			if (kind == PAIR) {
+				e.putTag(pairKeys[code], pairValues[code]);
+				continue;
+			}
+			String key;
+			if (kind == KEY) {
+				key = keys[code];
+			} else {
+				int len = readVarint(tags, pos);
+				pos = skipVarint(tags, pos);
+				key = new String(tags, pos, len, StandardCharsets.UTF_8);
+				pos += len;
+			}
+			int len = readVarint(tags, pos);
+			pos = skipVarint(tags, pos);
+			e.putTag(key, new String(tags, pos, len, StandardCharsets.UTF_8));
+			pos += len;
+		}
+	}
+
+	private int pairCode(String key, String value) {
+		if (value.length() > MAX_PAIR_VALUE_LENGTH) {
+			return -1;
+		}
+		String pair = key + PAIR_SEPARATOR + value;
+		int code = pairCodes.get(pair);
+		if (code >= 0 || pairsSize >= MAX_PAIRS) {
+			return code;
+		}
+		int cnt = pairCandidates.adjustOrPutValue(pair, 1, 1);
+		if (cnt >= PAIR_CANDIDATE_COUNT) {
+			pairCandidates.remove(pair);
+			code = addPair(key, value);
+		} else if (pairCandidates.size() > MAX_PAIR_CANDIDATES) {
+			// forget rare values
+			pairCandidates.clear();
+		}
+		return code;
+	}
+
+	private int addKey(String key) {
+		if (keysSize == keys.length) {
+			keys = Arrays.copyOf(keys, keysSize * 2);
+		}
+		keys[keysSize] = key;
+		keyCodes.put(key, keysSize);
+		return keysSize++;
+	}
+
+	private int addPair(String key, String value) {
+		if (pairsSize == pairKeys.length) {
+			pairKeys = Arrays.copyOf(pairKeys, pairsSize * 2);
+			pairValues = Arrays.copyOf(pairValues, pairsSize * 2);
+		}
+		int keyCode = keyCodes.get(key);
+		// share key instance with key dictionary
+		pairKeys[pairsSize] = keyCode >= 0 ? keys[keyCode] : key;
+		pairValues[pairsSize] = value;
+		pairCodes.put(key + PAIR_SEPARATOR + value, pairsSize);
+		return pairsSize++;
+	}
+
+	private void writeLiteral(String s) {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(b.length);
+		out.write(b, 0, b.length);
+	}
+
+	private void writeVarint(long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static int readVarint(byte[] b, int pos) {
+		int v = 0;
+		int shift = 0;
+		byte c;
+		do {
+			c = b[pos++];
+			v |= (c & 0x7F) << shift;
+			shift += 7;
+		} while ((c & 0x80) != 0);
+		return v;
+	}
+
+	private static int skipVarint(byte[] b, int pos) {
+		while ((b[pos++] & 0x80) != 0) {
+			// continuation byte
+		}
+		return pos;
+	}
+}
@@ -0,0 +1,226 @@
+package net.osmand.obf.preparation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.util.MapUtils;
+
+/**
+ * Douglas-Peucker simplification of way on primitive arrays. Tile coordinates of every point are calculated once
+ * and distances are measured in tile space of simplification zoom, scratch arrays are reused between ways. Instance
+ * is not thread safe, every thread (map creator, low level ways combiner) has own simplifier.
+ */
+public class WaySimplifier {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private int size;
+	private double[] lats = new double[INITIAL_CAPACITY];
+	private double[] lons = new double[INITIAL_CAPACITY];
+	private long[] ids = new long[INITIAL_CAPACITY];
+	// original nodes (null if point was added by coordinates)
+	private Node[] nodes = new Node[INITIAL_CAPACITY];
+	private double[] tileX = new double[INITIAL_CAPACITY];
+	private double[] tileY = new double[INITIAL_CAPACITY];
+	private boolean[] kept = new boolean[INITIAL_CAPACITY];
+	// start, end of segments to check (at most one pending segment per point)
+	private int[] stack = new int[INITIAL_CAPACITY * 2 + 4];
+
+	private int[] result = new int[INITIAL_CAPACITY + 1];
+	private int resultSize;
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			nodes[i] = null;
+		}
+		size = 0;
+		resultSize = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void addNode(Node n) {
+		if (n != null) {
+			add(n.getLatitude(), n.getLongitude(), n.getId(), n);
+		}
+	}
+
+	public void addNodes(List<Node> ns) {
+		for (int i = 0; i < ns.size(); i++) {
+			addNode(ns.get(i));
+		}
+	}
+
+	public void add(double lat, double lon, long id) {
+		add(lat, lon, id, null);
+	}
+
+	private void add(double lat, double lon, long id, Node n) {
+		if (size == lats.length) {
+			int l = size * 2;
+			lats = Arrays.copyOf(lats, l);
+			lons = Arrays.copyOf(lons, l);
+			ids = Arrays.copyOf(ids, l);
+			nodes = Arrays.copyOf(nodes, l);
+			tileX = new double[l];
+			tileY = new double[l];
+			kept = new boolean[l];
+			stack = new int[l * 2 + 4];
+			result = new int[l + 1];
+		}
+		lats[size] = lat;
+		lons[size] = lon;
+		ids[size] = id;
+		nodes[size] = n;
+		size++;
+	}
+
+	/**
+	 * Same as IndexVectorMapCreator.checkForSmallAreas: bbox of way is less than minz x maxz pixels at zoom
+	 */
+	public boolean isSmallArea(int zoom, int minz, int maxz) {
+		if (size < 2) {
+			return true;
+		}
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			int x = (int) (MapUtils.getTileNumberX(zoom, lons[i]) * 256.0d);
+			int y = (int) (MapUtils.getTileNumberY(zoom, lats[i]) * 256.0d);
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+		return ((maxX - minX) <= minz && (maxY - minY) <= maxz) || ((maxX - minX) <= maxz && (maxY - minY) <= minz);
+	}
+
+	/**
+	 * Keeps points which are further than epsilon tiles of zoom from simplified line, closing point of cycle is
+	 * replaced by first point (as OsmMapUtils.simplifyDouglasPeucker without nooses check).
+	 * @return number of points in result
+	 */
+	public int simplify(int zoom, int epsilon) {
+		resultSize = 0;
+		if (zoom > 31) {
+			zoom = 31;
+		}
+		if (size < 2) {
+			return 0;
+		}
+		for (int i = 0; i < size; i++) {
+			tileX[i] = MapUtils.getTileNumberX(zoom, lons[i]);
+			tileY[i] = MapUtils.getTileNumberY(zoom, lats[i]);
+			kept[i] = false;
+		}
+		int first = 0;
+		int last = size - 1;
+		boolean cycle = false;
+		while (last > first && Math.abs(tileX[first] - tileX[last]) + Math.abs(tileY[first] - tileY[last]) < 0.001) {
+			last--;
+			cycle = true;
+		}
+		if (last - first < 1) {
+			return 0;
+		}
+		int sp = 0;
+		stack[sp++] = first;
+		stack[sp++] = last;
+		while (sp > 0) {
+			int end = stack[--sp];
+			int start = stack[--sp];
+			double dmax = -1;
+			int index = -1;
+			for (int i = start + 1; i < end; i++) {
+				double d = distanceToSegment(i, start, end);
+				if (d > dmax) {
+					dmax = d;
+					index = i;
+				}
+			}
+			if (dmax >= epsilon) {
+				stack[sp++] = index;
+				stack[sp++] = end;
+				stack[sp++] = start;
+				stack[sp++] = index;
+			} else {
+				kept[start] = true;
+				kept[end] = true;
+			}
+		}
+		for (int i = first; i <= last; i++) {
+			if (kept[i]) {
+				result[resultSize++] = i;
+			}
+		}
+		if (cycle) {
+			result[resultSize++] = first;
+		}
+		return resultSize;
+	}
+
+	private double distanceToSegment(int p, int s, int e) {
+		double dx = tileX[e] - tileX[s];
+		double dy = tileY[e] - tileY[s];
+		double px = tileX[p] - tileX[s];
+		double py = tileY[p] - tileY[s];
+		double len = dx * dx + dy * dy;
+		if (len > 0) {
+			double t = (px * dx + py * dy) / len;
+			if (t >= 1) {
+				px = tileX[p] - tileX[e];
+				py = tileY[p] - tileY[e];
+			} else if (t > 0) {
+				px -= t * dx;
+				py -= t * dy;
+			}
+		}
+		return Math.sqrt(px * px + py * py);
+	}
+
+	public int getResultSize() {
+		return resultSize;
+	}
+
+	public double getResultLatitude(int i) {
+		return lats[result[i]];
+	}
+
+	public double getResultLongitude(int i) {
+		return lons[result[i]];
+	}
+
+	public long getResultId(int i) {
+		return ids[result[i]];
+	}
+
+	/**
+	 * @return x31, y31 pairs of simplified way
+	 */
+	public int[] getResultCoordinates31() {
+		int[] c = new int[resultSize * 2];
+		for (int i = 0; i < resultSize; i++) {
+			c[2 * i] = MapUtils.get31TileNumberX(lons[result[i]]);
+			c[2 * i + 1] = MapUtils.get31TileNumberY(lats[result[i]]);
+		}
+		return c;
+	}
+
+	/**
+	 * @return simplified way, original nodes are reused
+	 */
+	public List<Node> getResultNodes() {
+		List<Node> res = new ArrayList<Node>(resultSize);
+		for (int i = 0; i < resultSize; i++) {
+			int k = result[i];
+			res.add(nodes[k] != null ? nodes[k] : new Node(lats[k], lons[k], ids[k]));
+		}
+		return res;
+	}
+}
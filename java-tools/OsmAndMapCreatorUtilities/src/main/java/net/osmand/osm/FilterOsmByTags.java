@@ -20,12 +20,16 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import com.google.gson.Gson;
 
+import crosby.binary.PbfBlockIndex;
+import crosby.binary.PbfBlockIndex.BlockFilter;
+
 import net.osmand.PlatformUtil;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.osm.edit.Entity;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.io.IOsmStorageFilter;
 import net.osmand.osm.io.OsmBaseStorage;
+import net.osmand.osm.io.OsmBaseStoragePbf;
 import net.osmand.osm.io.OsmStorageWriter;
 import net.osmand.util.Algorithms;
 
@@ -41,7 +45,7 @@ public class FilterOsmByTags {
 //					"[{\"route_id\": [\"Q9259\",\"Q46\",\"Q49\",\"Q538\",\"Q15\",\"Q48\",\"Q18\"] }]" };
 //		}
 		if(args.length < 3) {
-			System.out.println("Synopsis: <input_osm_file> <output_osm_file> <json_filter>");
+			System.out.println("Synopsis: <input_osm_file> <output_osm_file> <json_filter> <optional --bbox=top,left,bottom,right (pbf only)>");
 			System.exit(1);
 			return;
 		}
@@ -50,18 +54,19 @@ public class FilterOsmByTags {
 		File output = new File(args[1]);
 		Gson gson = new Gson();
 		List<Map<String, Object>> arrayConditions = gson.fromJson(args[2], List.class);
-		process(input, output, arrayConditions);
+		BlockFilter blockFilter = null;
+		if (args.length > 3 && args[3].startsWith("--bbox=")) {
+			String[] bbox = args[3].substring("--bbox=".length()).split(",");
+			blockFilter = PbfBlockIndex.nodesInside(Double.parseDouble(bbox[0]), Double.parseDouble(bbox[1]),
+					Double.parseDouble(bbox[2]), Double.parseDouble(bbox[3]));
+		}
+		process(input, output, arrayConditions, blockFilter);
 	}
 
-	private static void process(File inputFile, File targetFile, List<Map<String, Object>> arrayConditions) throws IOException, XmlPullParserException, XMLStreamException {
-		FileInputStream original = new FileInputStream(inputFile);
-		InputStream fis = original ;
-		if (inputFile.getName().endsWith(".gz")) {
-			fis = new GZIPInputStream(fis);
-		} else if (inputFile.getName().endsWith(".bz2")) {
-			fis = new BZip2CompressorInputStream(fis);
-		}
-		OsmBaseStorage bs = new OsmBaseStorage();
+	private static void process(File inputFile, File targetFile, List<Map<String, Object>> arrayConditions,
+			BlockFilter blockFilter) throws IOException, XmlPullParserException, XMLStreamException {
+		boolean pbf = inputFile.getName().endsWith(".pbf");
+		OsmBaseStorage bs = pbf ? new OsmBaseStoragePbf() : new OsmBaseStorage();
 		bs.getFilters().add(new IOsmStorageFilter() {
 			@Override
 			public boolean acceptEntityToLoad(OsmBaseStorage storage, EntityId entityId, Entity entity) {
@@ -74,7 +79,20 @@ public class FilterOsmByTags {
 				return false;
 			}
 		});
-		bs.parseOSM(fis, new ConsoleProgressImplementation(), original, true);
+		if (pbf) {
+			// block index allows to skip node blocks outside of bbox without decompressing them
+			((OsmBaseStoragePbf) bs).parseOSMPbf(inputFile, new ConsoleProgressImplementation(), true, blockFilter);
+		} else {
+			FileInputStream original = new FileInputStream(inputFile);
+			InputStream fis = original;
+			if (inputFile.getName().endsWith(".gz")) {
+				fis = new GZIPInputStream(fis);
+			} else if (inputFile.getName().endsWith(".bz2")) {
+				fis = new BZip2CompressorInputStream(fis);
+			}
+			bs.parseOSM(fis, new ConsoleProgressImplementation(), original, true);
+			fis.close();
+		}
 		LOG.info("File was read");
 		OsmStorageWriter w = new OsmStorageWriter();
 		OutputStream outputStream = new FileOutputStream(targetFile);
@@ -86,7 +104,6 @@ public class FilterOsmByTags {
 		LOG.info("Entities processed. Saving file.");
 		w.saveStorage(outputStream, bs, null, true);
 		outputStream.close();
-		fis.close();
 		LOG.info("Completed.");
 		
 	}
@@ -5,6 +5,7 @@ import gnu.trove.list.array.TIntArrayList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,6 +17,8 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.osmand.PlatformUtil;
 import net.osmand.osm.edit.Entity;
@@ -37,8 +40,13 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 	// stored information to convert from osm tags to int type
 	private List<MapRouteTag> routeTags = new ArrayList<MapRouteTag>();
 	private Map<String, List<EntityConvert>> convertTags = new LinkedHashMap<String, List<EntityConvert>>();
+	// compiled convertTags: candidate converts by from tag, type and lower case from value (see getConvertCandidates)
+	private volatile Map<String, Map<EntityConvertType, ConvertCandidates>> convertIndex;
 	private MapRulType coastlineRuleType;
 	private String regionName;
+	// to create independent encoder with the same rules (see newInstance)
+	private final String fileName;
+	private final String originalRegionName;
 	public static final String OSMAND_REGION_NAME_TAG = "osmand_region_name";
 
 	private static final Collection<String> NODE_NETWORK_IDS = Arrays.asList("network:type", "expected_rcn_route_relations");
@@ -50,16 +58,58 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 
 	private Map<String, TIntArrayList> socketTypes;
 
+	// encoded types by node flag, zoom and tags (without names not encoded at zoom),
+	// entities with encoded names are not cached (values are unique)
+	private final Map<String, EncodedTypes> encodeCache = new ConcurrentHashMap<String, EncodedTypes>();
+	private int encodeCacheSize = 1 << 16;
+	private final AtomicLong encodeCacheHits = new AtomicLong();
+	private final AtomicLong encodeCacheMisses = new AtomicLong();
+
+	private static class EncodedTypes {
+		private final int[] types;
+		private final int[] addTypes;
+		// types to update frequency as if entity was encoded
+		private final MapRulType[] used;
+		private final boolean area;
+		// changes of tags of caller made by transforms (turn lanes), null if there are no changes
+		private final Map<String, String> changedTags;
+		private final String[] removedTags;
+
+		private EncodedTypes(int[] types, int[] addTypes, MapRulType[] used, boolean area,
+				Map<String, String> changedTags, String[] removedTags) {
+			this.types = types;
+			this.addTypes = addTypes;
+			this.used = used;
+			this.area = area;
+			this.changedTags = changedTags;
+			this.removedTags = removedTags;
+		}
+	}
+
 	public MapRenderingTypesEncoder(String fileName, String regionName) {
 		super(fileName != null && fileName.length() == 0 ? null : fileName);
+		this.fileName = fileName;
+		this.originalRegionName = regionName;
 		this.regionName = "$" + regionName.toLowerCase() + "^";
 	}
 
 	public MapRenderingTypesEncoder(String regionName) {
 		super(null);
+		this.fileName = null;
+		this.originalRegionName = regionName;
 		this.regionName = "$" + regionName.toLowerCase() + "^";
 	}
 
+	/**
+	 * Encoder reading the same rendering types but with own registered rules, so it could be used
+	 * from another thread
+	 */
+	public MapRenderingTypesEncoder newInstance() {
+		MapRenderingTypesEncoder e = new MapRenderingTypesEncoder(fileName, originalRegionName);
+		e.setEncodeCacheSize(encodeCacheSize);
+		return e;
+	}
+
 	private void initSocketTypes() {
 		socketTypes = Map.ofEntries(Map.entry("socket:type2:output", new TIntArrayList(new int[]{20, 35})),
 				Map.entry("socket:type2_combo:output", new TIntArrayList(new int[]{30, 70})),
@@ -164,6 +214,7 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 					convertTags.put(ec.fromTag.tag, new ArrayList<MapRenderingTypesEncoder.EntityConvert>());
 				}
 				convertTags.get(ec.fromTag.tag).add(ec);
+				convertIndex = null;
 			}
 			String appTo = mp.get("apply_to"); //$NON-NLS-1$
 			if (appTo != null) {
@@ -275,8 +326,112 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 				e.getModifiableTags(), zoom, outTypes, outAddTypes, namesToEncode, tempListNotUsed);
 	}
 
+	/**
+	 * Maximum number of cached encoded tag sets, 0 disables cache
+	 */
+	public void setEncodeCacheSize(int encodeCacheSize) {
+		this.encodeCacheSize = encodeCacheSize;
+		encodeCache.clear();
+	}
+
+	public long getEncodeCacheHits() {
+		return encodeCacheHits.get();
+	}
+
+	public long getEncodeCacheMisses() {
+		return encodeCacheMisses.get();
+	}
+
 	public boolean encodeEntityWithType(boolean node, Map<String, String> tags, int zoom, TIntArrayList outTypes,
 			TIntArrayList outAddTypes, TreeMap<MapRulType, String> namesToEncode, List<MapRulType> tempListNotUsed) {
+		if (encodeCacheSize <= 0) {
+			return encodeEntityTypes(node, tags, zoom, outTypes, outAddTypes, namesToEncode, null);
+		}
+		String key = getEncodeCacheKey(node, tags, zoom);
+		EncodedTypes cached = encodeCache.get(key);
+		if (cached != null) {
+			encodeCacheHits.incrementAndGet();
+			// modify tags of caller as transforms would do
+			if (cached.changedTags != null) {
+				tags.putAll(cached.changedTags);
+			}
+			if (cached.removedTags != null) {
+				for (String t : cached.removedTags) {
+					tags.remove(t);
+				}
+			}
+			outTypes.clear();
+			outTypes.add(cached.types);
+			outAddTypes.clear();
+			outAddTypes.add(cached.addTypes);
+			namesToEncode.clear();
+			for (MapRulType rType : cached.used) {
+				rType.updateFreq();
+			}
+			return cached.area;
+		}
+		encodeCacheMisses.incrementAndGet();
+		List<MapRulType> used = new ArrayList<MapRulType>();
+		Map<String, String> original = new LinkedHashMap<String, String>(tags);
+		boolean area = encodeEntityTypes(node, tags, zoom, outTypes, outAddTypes, namesToEncode, used);
+		if (namesToEncode.isEmpty()) {
+			Map<String, String> changedTags = null;
+			for (Entry<String, String> e : tags.entrySet()) {
+				if (!Algorithms.objectEquals(e.getValue(), original.get(e.getKey()))) {
+					if (changedTags == null) {
+						changedTags = new LinkedHashMap<String, String>();
+					}
+					changedTags.put(e.getKey(), e.getValue());
+				}
+			}
+			List<String> removedTags = null;
+			for (String t : original.keySet()) {
+				if (!tags.containsKey(t)) {
+					if (removedTags == null) {
+						removedTags = new ArrayList<String>();
+					}
+					removedTags.add(t);
+				}
+			}
+			if (encodeCache.size() >= encodeCacheSize) {
+				encodeCache.clear();
+			}
+			encodeCache.put(key, new EncodedTypes(outTypes.toArray(), outAddTypes.toArray(),
+					used.toArray(new MapRulType[used.size()]), area, changedTags,
+					removedTags == null ? null : removedTags.toArray(new String[removedTags.size()])));
+		}
+		return area;
+	}
+
+	private String getEncodeCacheKey(boolean node, Map<String, String> tags, int zoom) {
+		// tags are kept in original order, order of tags defines order of tag transforms
+		StringBuilder key = new StringBuilder(node ? "n" : "w").append(zoom);
+		boolean nameTransformed = tags.containsKey("highway") || tags.containsKey("route");
+		for (Entry<String, String> e : tags.entrySet()) {
+			if (isNameNotEncoded(e.getKey(), e.getValue(), zoom, nameTransformed)) {
+				continue;
+			}
+			key.append('\u0000').append(e.getKey()).append('\u0001').append(e.getValue());
+		}
+		return key.toString();
+	}
+
+	// names out of zoom range give no types, so they don't split cache entries of unnamed entities,
+	// name is kept for highways and routes: shield (tch) and osmc transforms read it
+	private boolean isNameNotEncoded(String tag, String val, int zoom, boolean nameTransformed) {
+		boolean name = tag.equals(OSMTagKey.NAME.getValue());
+		if (!name && !tag.startsWith("name:")) {
+			return false;
+		}
+		if (name && nameTransformed) {
+			return false;
+		}
+		MapRulType rType = getMapRuleType(tag, val);
+		return rType != null && rType.isText() && (!rType.isMap() || rType.minzoom > zoom || rType.maxzoom < zoom);
+	}
+
+	private boolean encodeEntityTypes(boolean node, Map<String, String> tags, int zoom, TIntArrayList outTypes,
+			TIntArrayList outAddTypes, TreeMap<MapRulType, String> namesToEncode, List<MapRulType> usedTypes) {
 		outTypes.clear();
 		outAddTypes.clear();
 		namesToEncode.clear();
@@ -302,6 +457,9 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 					continue;
 				}
 				rType.updateFreq();
+				if (usedTypes != null) {
+					usedTypes.add(rType);
+				}
 				if (rType.isMain()) {
 					outTypes.add(combineOrderAndId(rType));
 				}
@@ -796,7 +954,7 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 			EntityConvertType filterTransform, EntityConvertApplyType filterProcessingType) {
 		List<EntityConvert> listToConvert = null;
 		for (Map.Entry<String, String> e : tags.entrySet()) {
-			List<EntityConvert> list = convertTags.get(e.getKey());
+			List<EntityConvert> list = getConvertCandidates(e.getKey(), e.getValue(), filterTransform);
 			if (list != null) {
 				for (EntityConvert ec : list) {
 					String skipMsg = null;
@@ -869,6 +1027,77 @@ public class MapRenderingTypesEncoder extends MapRenderingTypes {
 	}
 
 
+	private static class ConvertCandidates {
+		// converts without from value (and verbose converts to log skipped ones)
+		private final List<EntityConvert> anyValue = new ArrayList<EntityConvert>();
+		// converts with from value merged with anyValue in original order
+		private final Map<String, List<EntityConvert>> byValue = new HashMap<String, List<EntityConvert>>();
+	}
+
+	/**
+	 * Converts of tag which could be applied to value, in order of rendering_types.xml. Other converts of the tag
+	 * fail on type or value check anyway, so only candidates are checked by if conditions.
+	 */
+	private List<EntityConvert> getConvertCandidates(String tag, String value, EntityConvertType type) {
+		Map<String, Map<EntityConvertType, ConvertCandidates>> index = convertIndex;
+		if (index == null) {
+			index = compileConvertIndex();
+		}
+		Map<EntityConvertType, ConvertCandidates> byType = index.get(tag);
+		ConvertCandidates c = byType == null ? null : byType.get(type);
+		if (c == null) {
+			return null;
+		}
+		List<EntityConvert> list = value == null || c.byValue.isEmpty() ? null : c.byValue.get(value.toLowerCase());
+		if (list == null) {
+			list = c.anyValue;
+		}
+		return list.isEmpty() ? null : list;
+	}
+
+	private synchronized Map<String, Map<EntityConvertType, ConvertCandidates>> compileConvertIndex() {
+		if (convertIndex != null) {
+			return convertIndex;
+		}
+		Map<String, Map<EntityConvertType, ConvertCandidates>> index = new HashMap<String, Map<EntityConvertType, ConvertCandidates>>();
+		for (Entry<String, List<EntityConvert>> e : convertTags.entrySet()) {
+			Map<EntityConvertType, ConvertCandidates> byType = new EnumMap<EntityConvertType, ConvertCandidates>(
+					EntityConvertType.class);
+			for (EntityConvertType type : EntityConvertType.values()) {
+				ConvertCandidates c = new ConvertCandidates();
+				Set<String> values = new LinkedHashSet<String>();
+				for (EntityConvert ec : e.getValue()) {
+					if (ec.type == type || ec.verbose) {
+						if (ec.fromTag.value == null || ec.verbose) {
+							c.anyValue.add(ec);
+						} else {
+							values.add(ec.fromTag.value.toLowerCase());
+						}
+					}
+				}
+				for (String v : values) {
+					List<EntityConvert> list = new ArrayList<EntityConvert>();
+					for (EntityConvert ec : e.getValue()) {
+						if (ec.type == type || ec.verbose) {
+							if (ec.fromTag.value == null || ec.verbose || v.equals(ec.fromTag.value.toLowerCase())) {
+								list.add(ec);
+							}
+						}
+					}
+					c.byValue.put(v, list);
+				}
+				if (!c.anyValue.isEmpty() || !c.byValue.isEmpty()) {
+					byType.put(type, c);
+				}
+			}
+			if (!byType.isEmpty()) {
+				index.put(e.getKey(), byType);
+			}
+		}
+		convertIndex = index;
+		return index;
+	}
+
 	private void applyTagTransforms(Map<String, String> resultTags, EntityConvert ec, Map<String, String> originalTags) {
 		applyTagTransforms(resultTags, ec, originalTags, "");
 		if (ec.lang) {
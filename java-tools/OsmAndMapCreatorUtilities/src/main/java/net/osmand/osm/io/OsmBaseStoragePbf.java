@@ -1,5 +1,7 @@
 package net.osmand.osm.io;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.DateFormat;
@@ -16,19 +18,105 @@ import net.osmand.osm.edit.Way;
 import net.osmand.osm.edit.Entity.EntityId;
 import net.osmand.osm.edit.Entity.EntityType;
 import crosby.binary.BinaryParser;
+import crosby.binary.PbfBlockIndex;
+import crosby.binary.PbfBlockIndex.BlockFilter;
 import crosby.binary.Osmformat.DenseNodes;
 import crosby.binary.Osmformat.HeaderBlock;
 import crosby.binary.Osmformat.Info;
 import crosby.binary.Osmformat.Relation.MemberType;
 import crosby.binary.file.BlockInputStream;
+import crosby.binary.file.BlockReaderAdapter;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+import crosby.binary.file.ParallelBlockInputStream;
+import crosby.binary.file.SeekableBlockInputStream;
 
 public class OsmBaseStoragePbf extends OsmBaseStorage {
 
 	public synchronized void parseOSMPbf(final InputStream stream, final IProgress progress, final boolean entityInfo) throws IOException {
-		BinaryParser parser = new BinaryParser() {
+		parseOSMPbf(stream, progress, entityInfo, 1);
+	}
+
+	/**
+	 * @param decodeThreads number of threads to inflate and parse blocks, entities are still registered
+	 *                      in file order on the calling thread
+	 */
+	public synchronized void parseOSMPbf(final InputStream stream, final IProgress progress, final boolean entityInfo,
+			int decodeThreads) throws IOException {
+		BinaryParser parser = createParser(stream, progress, entityInfo);
+		this.progressEntity = 0;
+		this.entities.clear();
+		this.entityInfo.clear();
+		if(progress != null){
+			progress.startWork(stream.available());
+		}
+
+		if (decodeThreads > 1) {
+			ParallelBlockInputStream bis = new ParallelBlockInputStream(stream, parser, decodeThreads);
+			bis.process();
+		} else {
+			BlockInputStream bis = new BlockInputStream(stream, parser);
+			bis.process();
+		}
+
+		if(progress != null){
+			progress.finishTask();
+		}
+		completeReading();
+	}
+
+	/**
+	 * Reads only blocks of the pbf file accepted by filter (null - all blocks), other blocks are not decompressed.
+	 * Uses block index stored next to the file or builds it on first access.
+	 */
+	public synchronized void parseOSMPbf(File file, final IProgress progress, boolean entityInfo, BlockFilter filter)
+			throws IOException {
+		PbfBlockIndex index = PbfBlockIndex.loadOrBuild(file);
+		List<FileBlockPosition> blocks = index.select(filter);
+		final BinaryParser parser = createParser(null, progress, entityInfo);
+		this.progressEntity = 0;
+		this.entities.clear();
+		this.entityInfo.clear();
+		if (progress != null) {
+			progress.startWork(blocks.size());
+		}
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			SeekableBlockInputStream sis = new SeekableBlockInputStream(fis.getChannel());
+			sis.process(blocks, new BlockReaderAdapter() {
+				@Override
+				public boolean skipBlock(FileBlockPosition block) {
+					// called once for every block
+					if (progress != null) {
+						progress.progress(1);
+					}
+					return parser.skipBlock(block);
+				}
+
+				@Override
+				public void handleBlock(FileBlock block) {
+					parser.handleBlock(block);
+				}
+
+				@Override
+				public void complete() {
+					parser.complete();
+				}
+			});
+		} finally {
+			fis.close();
+		}
+		if (progress != null) {
+			progress.finishTask();
+		}
+		completeReading();
+	}
+
+	private BinaryParser createParser(final InputStream stream, final IProgress progress, final boolean entityInfo) {
+		return new BinaryParser() {
 			public void updateProgress(int count) {
 				progressEntity += count;
-				if (progress != null && progressEntity > moduleProgress && !progress.isIndeterminate()) {
+				if (stream != null && progress != null && progressEntity > moduleProgress && !progress.isIndeterminate()) {
 					try {
 						progressEntity = 0;
 						progress.remaining(stream.available());
@@ -202,20 +290,5 @@ public class OsmBaseStoragePbf extends OsmBaseStorage {
 			}
 
 		};
-
-		this.progressEntity = 0;
-		this.entities.clear();
-		this.entityInfo.clear();
-		if(progress != null){
-			progress.startWork(stream.available());
-		}
-
-		BlockInputStream bis = new BlockInputStream(stream, parser);
-		bis.process();
-
-		if(progress != null){
-			progress.finishTask();
-		}
-		completeReading();
 	}
 }
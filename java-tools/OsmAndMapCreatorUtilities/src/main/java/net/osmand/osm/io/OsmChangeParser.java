@@ -0,0 +1,84 @@
+package net.osmand.osm.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import net.osmand.PlatformUtil;
+import net.osmand.obf.preparation.OsmDbCreator;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityId;
+import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Way;
+
+/**
+ * Streams entities of osmChange (.osc) file to the filter in file order. Entities of delete blocks are marked with
+ * osmand_change=delete tag as in osmand live osm files.
+ */
+public class OsmChangeParser {
+
+	private static final String ELEM_DELETE = "delete";
+	private static final String ELEM_NODE = "node";
+	private static final String ELEM_WAY = "way";
+	private static final String ELEM_RELATION = "relation";
+	private static final String ELEM_TAG = "tag";
+	private static final String ELEM_ND = "nd";
+	private static final String ELEM_MEMBER = "member";
+
+	public int parse(InputStream stream, IOsmStorageFilter filter) throws IOException, XmlPullParserException {
+		XmlPullParser parser = PlatformUtil.newXMLPullParser();
+		parser.setInput(stream, "UTF-8");
+		boolean delete = false;
+		Entity current = null;
+		int count = 0;
+		int tok;
+		while ((tok = parser.next()) != XmlPullParser.END_DOCUMENT) {
+			if (tok == XmlPullParser.START_TAG) {
+				String name = parser.getName();
+				if (ELEM_DELETE.equals(name)) {
+					delete = true;
+				} else if (ELEM_NODE.equals(name)) {
+					current = new Node(parseDouble(parser, "lat"), parseDouble(parser, "lon"), parseLong(parser, "id"));
+				} else if (ELEM_WAY.equals(name)) {
+					current = new Way(parseLong(parser, "id"));
+				} else if (ELEM_RELATION.equals(name)) {
+					current = new Relation(parseLong(parser, "id"));
+				} else if (current != null && ELEM_TAG.equals(name)) {
+					current.putTag(parser.getAttributeValue("", "k"), parser.getAttributeValue("", "v"));
+				} else if (current instanceof Way && ELEM_ND.equals(name)) {
+					((Way) current).addNode(parseLong(parser, "ref"));
+				} else if (current instanceof Relation && ELEM_MEMBER.equals(name)) {
+					EntityType type = EntityType.valueOf(parser.getAttributeValue("", "type").toUpperCase());
+					((Relation) current).addMember(parseLong(parser, "ref"), type, parser.getAttributeValue("", "role"));
+				}
+			} else if (tok == XmlPullParser.END_TAG) {
+				String name = parser.getName();
+				if (ELEM_DELETE.equals(name)) {
+					delete = false;
+				} else if (current != null && (ELEM_NODE.equals(name) || ELEM_WAY.equals(name) || ELEM_RELATION.equals(name))) {
+					if (delete) {
+						current.putTag(OsmDbCreator.OSMAND_DELETE_TAG, OsmDbCreator.OSMAND_DELETE_VALUE);
+					}
+					filter.acceptEntityToLoad(null, EntityId.valueOf(current), current);
+					current = null;
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	private static long parseLong(XmlPullParser parser, String name) {
+		return Long.parseLong(parser.getAttributeValue("", name));
+	}
+
+	// deleted nodes don't have coordinates
+	private static double parseDouble(XmlPullParser parser, String name) {
+		String value = parser.getAttributeValue("", name);
+		return value == null ? 0 : Double.parseDouble(value);
+	}
+}
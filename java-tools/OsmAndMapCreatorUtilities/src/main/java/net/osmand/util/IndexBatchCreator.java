@@ -56,6 +56,9 @@ import net.osmand.PlatformUtil;
 import net.osmand.binary.MapZooms;
 import net.osmand.impl.ConsoleProgressImplementation;
 import net.osmand.obf.preparation.DBDialect;
+import net.osmand.obf.preparation.IndexCreationProfiler;
+import net.osmand.obf.preparation.IndexCreationProfiler.BatchReport;
+import net.osmand.obf.preparation.IndexCreationProfiler.RunReport;
 import net.osmand.obf.preparation.IndexCreator;
 import net.osmand.obf.preparation.IndexCreatorSettings;
 import net.osmand.osm.MapRenderingTypesEncoder;
@@ -79,10 +82,13 @@ public class IndexBatchCreator {
 	private static final int INMEM_LIMIT = 2000;
 	private static final long TIMEOUT_TO_CHECK_AWS = 15000;
 	private static final long TIMEOUT_TO_CHECK_DOCKER = 15000;
+	private static final long MIN_LOCAL_JOB_MEMORY_MB = 512;
+	private static final int MAX_LOCAL_JOB_ATTEMPTS = 2;
 
 	protected static final Log log = PlatformUtil.getLog(IndexBatchCreator.class);
 
 	public static final String GEN_LOG_EXT = ".gen.log";
+	public static final String BATCH_REPORT_NAME = "batch" + IndexCreationProfiler.REPORT_EXT;
 
 
 
@@ -143,6 +149,9 @@ public class IndexBatchCreator {
 		public File file;
 		public String regionName;
 		public RegionSpecificData rdata;
+		public long estimatedMemoryMB;
+		public long estimatedDiskMB;
+		public int attempts;
 	}
 
 
@@ -158,6 +167,10 @@ public class IndexBatchCreator {
 	
 
 	List<LocalPendingGeneration> localPendingGenerations = new ArrayList<>();
+	List<RunReport> localReports = new ArrayList<>();
+	// local generations running at the same time, limited by estimated memory of jobs
+	int localParallelJobs = 1;
+	long localMemoryLimitMB = Runtime.getRuntime().maxMemory() / (1 << 20);
 	List<ExternalJobDefinition> externalJobQueues = new ArrayList<>();
 	
 	
@@ -412,6 +425,12 @@ public class IndexBatchCreator {
 		}
 		renderingTypesFile = process.getAttribute("renderingTypesFile");
 
+		if (!Algorithms.isEmpty(process.getAttribute("localParallelJobs"))) {
+			localParallelJobs = Math.max(1, Integer.parseInt(process.getAttribute("localParallelJobs")));
+		}
+		if (!Algorithms.isEmpty(process.getAttribute("localMemoryLimitMB"))) {
+			localMemoryLimitMB = Long.parseLong(process.getAttribute("localMemoryLimitMB"));
+		}
 		String osmDbDialect = process.getAttribute("osmDbDialect");
 		if(osmDbDialect != null && osmDbDialect.length() > 0){
 			try {
@@ -442,12 +461,11 @@ public class IndexBatchCreator {
 			}
 		}).start();
 		log.info("Generate local " + localPendingGenerations.size() + " maps");
-		for (LocalPendingGeneration lp : localPendingGenerations) {
-			generateLocalIndex(lp.file, lp.regionName, lp.mapFileName, lp.rdata, alreadyGeneratedFiles);
-		}
+		runLocalGenerations(alreadyGeneratedFiles);
 		waitAwsJobsToFinish(TIMEOUT_TO_CHECK_AWS);
 		waitDockerJobsToFinish(TIMEOUT_TO_CHECK_DOCKER);
 		log.info("GENERATING INDEXES FINISHED ");
+		writeBatchReport();
 		if (awsFailedGenerations.size() > 0) {
 			throw new IllegalStateException("There are " + awsFailedGenerations.size() + " aws failed generations");
 		}
@@ -457,6 +475,139 @@ public class IndexBatchCreator {
 	}
 
 
+	private void runLocalGenerations(final Set<String> alreadyGeneratedFiles) {
+		final List<LocalPendingGeneration> queue = new ArrayList<>(localPendingGenerations);
+		for (LocalPendingGeneration lp : queue) {
+			estimateLocalGeneration(lp);
+		}
+		// biggest first, so small jobs fill the memory left
+		queue.sort(new Comparator<LocalPendingGeneration>() {
+			@Override
+			public int compare(LocalPendingGeneration o1, LocalPendingGeneration o2) {
+				return Long.compare(o2.estimatedMemoryMB, o1.estimatedMemoryMB);
+			}
+		});
+		final Object lock = new Object();
+		final List<LocalPendingGeneration> running = new ArrayList<>();
+		final long[] usedMemoryMB = new long[1];
+		// disk estimated for running jobs, their temp files are still growing
+		final long[] usedDiskMB = new long[1];
+		synchronized (lock) {
+			while (!queue.isEmpty() || !running.isEmpty()) {
+				LocalPendingGeneration next = null;
+				if (running.size() < localParallelJobs) {
+					long usableDiskMB = workDir.getUsableSpace() / (1 << 20) - usedDiskMB[0];
+					for (LocalPendingGeneration lp : queue) {
+						boolean fits = running.isEmpty() || (usedMemoryMB[0] + lp.estimatedMemoryMB <= localMemoryLimitMB
+								&& lp.estimatedDiskMB <= usableDiskMB);
+						if (fits) {
+							next = lp;
+							break;
+						}
+					}
+				}
+				if (next == null) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					continue;
+				}
+				queue.remove(next);
+				if (running.isEmpty()) {
+					// concurrent jobs share the cache, every job removes its rtree files from it on close,
+					// cache is recreated only to drop anything left by failed jobs
+					RTree.clearCache();
+				}
+				running.add(next);
+				usedMemoryMB[0] += next.estimatedMemoryMB;
+				usedDiskMB[0] += next.estimatedDiskMB;
+				next.attempts++;
+				log.info(String.format("Start local generation %s (estimated %d MB heap, %d MB disk, attempt %d), running %d",
+						next.mapFileName, next.estimatedMemoryMB, next.estimatedDiskMB, next.attempts, running.size()));
+				final LocalPendingGeneration lp = next;
+				Runnable job = new Runnable() {
+					@Override
+					public void run() {
+						boolean ok = false;
+						try {
+							ok = generateLocalIndex(lp.file, lp.regionName, lp.mapFileName, lp.rdata,
+									alreadyGeneratedFiles, localParallelJobs > 1);
+						} finally {
+							synchronized (lock) {
+								running.remove(lp);
+								usedMemoryMB[0] -= lp.estimatedMemoryMB;
+								usedDiskMB[0] -= lp.estimatedDiskMB;
+								if (!ok && lp.attempts < MAX_LOCAL_JOB_ATTEMPTS) {
+									// retry alone with whole memory
+									log.warn("Local generation " + lp.mapFileName + " failed, retry exclusively");
+									lp.estimatedMemoryMB = localMemoryLimitMB;
+									queue.add(lp);
+								}
+								lock.notifyAll();
+							}
+						}
+					}
+				};
+				if (localParallelJobs > 1) {
+					// own thread group, so profiler counts cpu and allocations of this generation only
+					new Thread(IndexCreationProfiler.newRunThreadGroup("LocalGeneration-" + lp.mapFileName), job,
+							"LocalGeneration-" + lp.mapFileName).start();
+				} else {
+					job.run();
+				}
+			}
+		}
+	}
+
+	private void estimateLocalGeneration(LocalPendingGeneration lp) {
+		long sourceMB = Math.max(1, lp.file.length() / (1 << 20));
+		File reportFile = new File(indexDirFiles, lp.mapFileName + IndexCreationProfiler.REPORT_EXT);
+		RunReport prev = null;
+		if (reportFile.exists()) {
+			try {
+				prev = IndexCreationProfiler.readReport(reportFile);
+			} catch (Exception e) {
+				log.warn("Can't read previous report " + reportFile.getName() + ": " + e.getMessage());
+			}
+		}
+		String name = lp.file.getName();
+		// compressed sources expand several times in nodes db
+		int factor = name.endsWith(".pbf") ? 8 : (name.endsWith(".bz2") || name.endsWith(".gz") ? 6 : 2);
+		lp.estimatedMemoryMB = sourceMB * factor / 2;
+		lp.estimatedDiskMB = sourceMB * factor;
+		if (prev != null) {
+			// scale by growth of source file since previous generation
+			double scale = prev.sourceSize > 0 ? Math.max(1, (double) lp.file.length() / prev.sourceSize) : 1;
+			// heap is measured for whole process, reports of concurrent runs have -1 (not measured)
+			// and estimate by source size is kept for them
+			if (prev.concurrentRuns == 1 && prev.peakHeapMb != -1 && prev.peakHeapMb > 0) {
+				lp.estimatedMemoryMB = (long) (prev.peakHeapMb * scale);
+			}
+			// temp files are counted in working dir of generation, -1 if not measured
+			if (prev.peakTempDiskMb != -1 && prev.peakTempDiskMb > 0) {
+				lp.estimatedDiskMB = (long) (prev.peakTempDiskMb * scale);
+			}
+		}
+		lp.estimatedMemoryMB = Math.min(localMemoryLimitMB, Math.max(MIN_LOCAL_JOB_MEMORY_MB, lp.estimatedMemoryMB));
+	}
+
+	private void writeBatchReport() {
+		if (localReports.isEmpty()) {
+			return;
+		}
+		BatchReport report = IndexCreationProfiler.aggregate(localReports);
+		log.info(String.format("Generated %d maps locally in %d s (cpu %d s), max heap %d MB, max temp disk %d MB",
+				report.regions, report.wallMs / 1000, report.cpuMs / 1000, report.maxPeakHeapMb,
+				report.maxPeakTempDiskMb));
+		try {
+			IndexCreationProfiler.writeReport(report, new File(indexDirFiles, BATCH_REPORT_NAME));
+		} catch (IOException e) {
+			log.error("Error writing batch report", e);
+		}
+	}
+
 	private void waitDockerJobsToFinish(long timeout) {
 		while (true) {
 			int total = 0;
@@ -962,11 +1113,15 @@ public class IndexBatchCreator {
 		}
 	}
 
-	protected void generateLocalIndex(File file, String regionName, String mapFileName, RegionSpecificData rdata, Set<String> alreadyGeneratedFiles) {
+	/**
+	 * @param separateWorkDir generate in own subfolder of work dir (jobs running in parallel share work dir)
+	 * @return false if generation failed
+	 */
+	protected boolean generateLocalIndex(File file, String regionName, String mapFileName, RegionSpecificData rdata,
+			Set<String> alreadyGeneratedFiles, boolean separateWorkDir) {
+		File genDir = separateWorkDir ? new File(workDir, mapFileName + ".work") : workDir;
 		try {
-			// be independent of previous results
-			RTree.clearCache();
-
+			genDir.mkdirs();
 			DBDialect osmDb = this.osmDbDialect;
 			if (file.length() / 1024 / 1024 > INMEM_LIMIT && osmDb == DBDialect.SQLITE_IN_MEMORY) {
 				log.warn("Switching SQLITE in memory dialect to SQLITE");
@@ -980,7 +1135,7 @@ public class IndexBatchCreator {
             final boolean indByProximity = indexByProximity && (rdata == null || rdata.indexByProximity);
 			if(!indAddr && !indPoi && !indTransport && !indMap && !indRouting) {
 				log.warn("! Skip country " + file.getName() + " because nothing to index !");
-				return;
+				return true;
 			}
 			IndexCreatorSettings settings = new IndexCreatorSettings();
 			settings.indexMap = indMap;
@@ -989,13 +1144,14 @@ public class IndexBatchCreator {
 			settings.indexTransport = indTransport;
 			settings.indexRouting = indRouting;
             settings.indexByProximity = indByProximity;
+			settings.generateReport = true;
 			if(zoomWaySmoothness != null){
 				settings.zoomWaySmoothness = zoomWaySmoothness;
 			}
 			boolean worldMaps = regionName.toLowerCase().contains("world") ;
 			if (worldMaps) {
 				if (regionName.toLowerCase().contains("basemap")) {
-					return;
+					return true;
 				}
 				if (regionName.toLowerCase().contains("seamarks")) {
 					settings.keepOnlySeaObjects = true;
@@ -1007,16 +1163,18 @@ public class IndexBatchCreator {
 					settings.srtmDataFolderUrl = srtmDir;
 				}
 			}
-			IndexCreator indexCreator = new IndexCreator(workDir, settings);
+			IndexCreator indexCreator = new IndexCreator(genDir, settings);
 			
 			indexCreator.setDialects(osmDb, osmDb);
 			indexCreator.setLastModifiedDate(file.lastModified());
 			indexCreator.setRegionName(regionName);
 			indexCreator.setMapFileName(mapFileName);
 			try {
-				alreadyGeneratedFiles.add(file.getName());
+				synchronized (alreadyGeneratedFiles) {
+					alreadyGeneratedFiles.add(file.getName());
+				}
 				Log warningsAboutMapData = null;
-				File logFileName = new File(workDir, mapFileName + GEN_LOG_EXT);
+				File logFileName = new File(genDir, mapFileName + GEN_LOG_EXT);
 				FileHandler fh = null;
 				// configure log path
 				try {
@@ -1028,7 +1186,7 @@ public class IndexBatchCreator {
 					fh = new FileHandler(logFileName.getAbsolutePath(), 10*1000*1000, 1, true);
 					fh.setFormatter(new SimpleFormatter());
 					fh.setLevel(Level.ALL);
-					Jdk14Logger jdk14Logger = new Jdk14Logger("tempLogger");
+					Jdk14Logger jdk14Logger = new Jdk14Logger("tempLogger" + (separateWorkDir ? "-" + mapFileName : ""));
 					jdk14Logger.getLogger().setLevel(Level.ALL);
 					jdk14Logger.getLogger().setUseParentHandlers(false);
 					jdk14Logger.getLogger().addHandler(fh);
@@ -1038,7 +1196,8 @@ public class IndexBatchCreator {
 				} catch (IOException e1) {
 					e1.printStackTrace();
 				}
-				if (fh != null) {
+				// root logger is shared by jobs running in parallel
+				if (fh != null && !separateWorkDir) {
 					LogManager.getLogManager().getLogger("").addHandler(fh);
 				}
 				try {
@@ -1047,10 +1206,12 @@ public class IndexBatchCreator {
 				} finally {
 					if (fh != null) {
 						fh.close();
-						LogManager.getLogManager().getLogger("").removeHandler(fh);
+						if (!separateWorkDir) {
+							LogManager.getLogManager().getLogger("").removeHandler(fh);
+						}
 					}
 				}
-				File generated = new File(workDir, mapFileName);
+				File generated = new File(genDir, mapFileName);
 				File dest = new File(indexDirFiles, generated.getName());
 				if (!generated.renameTo(dest)) {
 					FileOutputStream fout = new FileOutputStream(dest);
@@ -1059,6 +1220,21 @@ public class IndexBatchCreator {
 					fin.close();
 					fout.close();
 				}
+				File reportFile = new File(genDir, mapFileName + IndexCreationProfiler.REPORT_EXT);
+				if (reportFile.exists()) {
+					RunReport report = IndexCreationProfiler.readReport(reportFile);
+					synchronized (localReports) {
+						localReports.add(report);
+					}
+					File copyReport = new File(indexDirFiles, reportFile.getName());
+					if (!reportFile.renameTo(copyReport)) {
+						FileOutputStream fout = new FileOutputStream(copyReport);
+						FileInputStream fin = new FileInputStream(reportFile);
+						Algorithms.streamCopy(fin, fout);
+						fin.close();
+						fout.close();
+					}
+				}
 				File copyLog = new File(indexDirFiles, logFileName.getName());
 				FileOutputStream fout = new FileOutputStream(copyLog);
 				FileInputStream fin = new FileInputStream(logFileName);
@@ -1066,16 +1242,20 @@ public class IndexBatchCreator {
 				fin.close();
 				fout.close();
 				//	logFileName.renameTo(new File(indexDirFiles, logFileName.getName()));
-
+				if (separateWorkDir) {
+					Algorithms.removeAllFiles(genDir);
+				}
 			} catch (Exception e) {
 				log.error("Exception generating indexes for " + file.getName(), e); //$NON-NLS-1$
+				return false;
 			}
 		} catch (OutOfMemoryError e) {
 			System.gc();
 			log.error("OutOfMemory", e);
-
+			return false;
 		}
 		System.gc();
+		return true;
 	}
 
 	protected File[] getSortedFiles(File dir){
@@ -57,6 +57,7 @@ import net.osmand.obf.BinaryMerger;
 import net.osmand.obf.preparation.AbstractIndexPartCreator;
 import net.osmand.obf.preparation.BinaryFileReference;
 import net.osmand.obf.preparation.BinaryMapIndexWriter;
+import net.osmand.obf.preparation.IndexCreationProfiler;
 import net.osmand.obf.preparation.IndexVectorMapCreator;
 import rtree.LeafElement;
 import rtree.RTree;
@@ -315,7 +316,8 @@ public class IndexUploader {
 		}
 
 		protected boolean fileCanBeUploaded(File f) {
-			if (!f.isFile() || f.getName().endsWith(IndexBatchCreator.GEN_LOG_EXT)) {
+			if (!f.isFile() || f.getName().endsWith(IndexBatchCreator.GEN_LOG_EXT)
+					|| f.getName().endsWith(IndexCreationProfiler.REPORT_EXT)) {
 				return false;
 			}
 			boolean matches = internalPatternMatches(f.getName(), matchers);
@@ -12,213 +12,231 @@
 package rtree;
 //package rtree;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import rtree.seeded.SdNode;
 /**
-   <b>A circular linked list of cached nodes using hashtable ?!!</b>
-   <p>This class will wrap a list of recently used nodes.
-   If the requested node is in <tt>Hashtable</tt> of the class then the node would
-   be returned from the <tt>Hashtable</tt>, else it would be read from the
-   disk.
-   <br>This will be a static object in the class RTree. Therefore no matter how
-   many RTree objects you create they all would have one cache for all the files
-   the object handles.
-   TODO : keep a set that keeps all the nodes that are dirty. With each node registering themselves
-   hara when thhey are dity, this is maageable.
+   <b>LRU list of cached nodes of one file.</b>
+   <p>Nodes are kept in slots of primitive arrays: a node index is mapped to its slot and the slots
+   are linked in a doubly linked list from the most recently used (<tt>head</tt>) to the least
+   recently used (<tt>tail</tt>) node, so no objects are created on access.
+   <br>Dirty nodes dropped from the list are not written at once, they are kept in a pending batch
+   that is written sorted by node index (i.e. by the file offset) when it is full, or on flush.
+   Pending nodes are returned to the list if they are requested again.
+   <br>All the methods must be called with the lock of the object held (see <code>CachedNodes</code>).
    @author Prachuryya Barua
 */
 class BufferHeader
 {
-  int recent;//the most recently inserted node
-  int last;//the least recently inserted node
-  int size;//max size of the link list
-  Hashtable cache;
-  BufferHeader(int size,Hashtable ch)
+  static final int WRITE_BATCH = 256;
+  private static final int INITIAL_CAPACITY = 64;
+  private final CachedNodes owner;
+  int capacity;//max size of the link list for this file (0 - only total size of cache is limited)
+  int size;
+  private int head = -1;//the most recently used slot
+  private int tail = -1;//the least recently used slot
+  private final TIntIntHashMap slots = new TIntIntHashMap(INITIAL_CAPACITY, 0.5f, -1, -1);
+  private Node[] nodes = new Node[INITIAL_CAPACITY];
+  private int[] keys = new int[INITIAL_CAPACITY];
+  private int[] next = new int[INITIAL_CAPACITY];
+  private int[] prev = new int[INITIAL_CAPACITY];
+  private int[] freeSlots = new int[INITIAL_CAPACITY];
+  private int freeCount;
+  private int usedSlots;
+  private final TIntObjectHashMap<Node> pending = new TIntObjectHashMap<Node>();
+
+  BufferHeader(CachedNodes owner, int capacity)
   {
-    this.cache = ch;
-    this.size = size;
+    this.owner = owner;
+    this.capacity = capacity;
   }
 
-  void flush()
+  Node get(int key)
     throws NodeWriteException
   {
-    //if(!RTree.writeThr){
-    for (Iterator it = cache.values().iterator(); it.hasNext();){
-      NodeValue node = (NodeValue)it.next();
-      node.node.flush();
-    } // end of for (Iterator  = .iterator(); .hasNext();)
-    //}
+    int slot = slots.get(key);
+    if(slot != -1){
+      moveToHead(slot);
+      return nodes[slot];
+    }
+    Node node = pending.remove(key);
+    if(node != null)//still dirty
+      put(key, node);
+    return node;
   }
-  /*for a fresh key when the array is not full.This will be called when the
-    buffer is not fully warm*/
+
   void put(int key, Node node)
+    throws NodeWriteException
   {
-    try{
-      //the following two conditions  happens in multithreaded programs
-      if(cache.containsKey(new Integer(key))){
-        update(key);
-        return;
-      }
-      if(cache.size() == size){
-        replace(key,node);
-        return;
-      }
-      if(cache.size() == 0){
-        last = key;
-        cache.put(new Integer(key), new NodeValue(node,key,key));
-      }else{
-        //remove recent
-        NodeValue tmpPrev = (NodeValue)(cache.remove(new Integer(recent)));
-        if(last == recent){//there is only one node in cache
-          cache.put(new Integer(key), new NodeValue(node,tmpPrev.next,tmpPrev.next));
-          cache.put(new Integer(recent), new NodeValue(tmpPrev.node,key,key));
-        }
-        else{
-          //remove next of previous
-          NodeValue tmpPNext = (NodeValue)(cache.remove(new Integer(tmpPrev.next)));
-          cache.put(new Integer(key), new NodeValue(node,tmpPrev.next,recent));
-          cache.put(new Integer(tmpPrev.next), new NodeValue(tmpPNext.node,tmpPNext.next,key));
-          cache.put(new Integer(recent), new NodeValue(tmpPrev.node,key,tmpPrev.prev));
-        }
-      }
-      recent = key;
-    }
-    catch(Exception e){
-      e.printStackTrace();
+    int slot = slots.get(key);
+    if(slot != -1){//new node with the index of an already deleted one
+      nodes[slot] = node;
+      moveToHead(slot);
+      return;
     }
+    pending.remove(key);
+    //at most two nodes per put, so a file over its share shrinks gradually
+    for(int i = 0; i < 2 && size > 0 && isFull(); i++)
+      evict();
+    slot = allocateSlot();
+    nodes[slot] = node;
+    keys[slot] = key;
+    slots.put(key, slot);
+    linkHead(slot);
+    size++;
+    owner.total.incrementAndGet();
   }
-  /*a new key in a filled array*/
-  void replace(int key,Node node)
+
+  void remove(int key)
     throws NodeWriteException
   {
-    try{
-      if(cache.containsKey(new Integer(key))){
-        update(key);
-        return;
-      }
-      if(cache.size() < size){
-        put(key,node);
-        return;
-      }
-      //remove the 'last' node
-      NodeValue lastNode = (NodeValue)(cache.remove(new Integer(last)));
-      lastNode.node.flush();
-      NodeValue pNode = (NodeValue)(cache.remove(new Integer(lastNode.prev)));
-      NodeValue nNode = (NodeValue)(cache.remove(new Integer(lastNode.next)));
-      //put back the three nodes
-      cache.put(new Integer(key), new NodeValue(node,lastNode.next, lastNode.prev));
-      cache.put(new Integer(lastNode.prev), new NodeValue(pNode.node,key,pNode.prev));
-      cache.put(new Integer(lastNode.next), new NodeValue(nNode.node,nNode.next,key));
-      recent = key;//this is the latest node
-      last = lastNode.next;//set the next in chain as the new 'last'
-
+    Node node = pending.remove(key);
+    if(node != null){
+      node.flush();
+      return;
     }
-    catch(Exception e){
-      e.printStackTrace();
+    int slot = slots.remove(key);
+    if(slot != -1){
+      node = nodes[slot];
+      freeSlot(slot);
+      node.flush();
     }
   }
-  /**make a node that is present as 'recent'*/
-  void update(int key)
+
+  void flush()
+    throws NodeWriteException
   {
-    try{
-      if(key != recent){
-        NodeValue node,nextNode,prevNode,rcntNode,lastNode;//temp variables
-        node = (NodeValue)(cache.remove(new Integer(key)));
-        if(node == null){//will not happen
-          System.out.println("CachedNodes.update: unlikely flow");
-          return;
-        }
-        if(key == last){
-          last = node.next;
-          cache.put(new Integer(key), new NodeValue(node.node, node.next, node.prev));
-        }
-        else{
-          //adjust next node and the recent node
-          nextNode = (NodeValue)(cache.remove(new Integer(node.next)));
-          if(recent != node.next){//if next node is not the recent node
-            rcntNode = (NodeValue)(cache.remove(new Integer(recent)));
-            rcntNode.next = key;
-            cache.put(new Integer(recent), new NodeValue(rcntNode.node, rcntNode.next,rcntNode.prev));
-          }
-          else{//next node is the recent node
-            nextNode.next = key;
-          }
-          cache.put(new Integer(node.next), new NodeValue(nextNode.node, nextNode.next,node.prev));
+    int[] ks = slots.keys();
+    Arrays.sort(ks);
+    for(int i = 0; i < ks.length; i++)
+      nodes[slots.get(ks[i])].flush();
+    writePending();
+  }
+
+  void reset()
+    throws NodeWriteException
+  {
+    flush();
+    owner.total.addAndGet(-size);
+    slots.clear();
+    Arrays.fill(nodes, null);
+    head = tail = -1;
+    size = usedSlots = freeCount = 0;
+  }
 
-          //adjust previous node and the last node - if unequal
-          prevNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          if(last != node.prev){//if last node is not the prev node
-            lastNode = (NodeValue)(cache.remove(new Integer(last)));
-            lastNode.prev = key;
-            cache.put(new Integer(last),new NodeValue(lastNode.node, lastNode.next,lastNode.prev));
-          }
-          else{//if the last node is the prev node.
-            prevNode.prev = key;
-          }
-          cache.put(new Integer(node.prev), new NodeValue(prevNode.node, node.next,prevNode.prev));
+  private boolean isFull()
+  {
+    if(capacity > 0 && size >= capacity)
+      return true;
+    //total limit: files that use more than their share give up their nodes
+    return owner.total.get() >= owner.size && size >= owner.size / Math.max(1, owner.getFilesCount());
+  }
 
-          //put the new node
-          cache.put(new Integer(key), new NodeValue(node.node,last,recent));
-        }
-        //update local variables
-      }
-      recent = key;
-    }
-    catch(Exception e){
-      e.printStackTrace();
+  private void evict()
+    throws NodeWriteException
+  {
+    int slot = tail;
+    int key = keys[slot];
+    Node node = nodes[slot];
+    slots.remove(key);
+    freeSlot(slot);
+    if(node.isDirty()){
+      pending.put(key, node);
+      if(pending.size() >= WRITE_BATCH)
+        writePending();
     }
   }
-  void remove(int key)
+
+  private void writePending()
     throws NodeWriteException
   {
-    try{
-      NodeValue node = (NodeValue)(cache.remove(new Integer(key)));
-      if((cache.size() != 0) && (node != null)){
-        //if(!RTree.writeThr)
-        node.node.flush();
-        if(cache.size() == 1){
-          NodeValue oNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          cache.put(new Integer(node.prev), new NodeValue(oNode.node, node.prev,node.prev));
-          recent = last = node.prev;
-        }
-        else{
-          //if(!RTree.writeThr)
-          node.node.flush();
-          NodeValue pNode = (NodeValue)(cache.remove(new Integer(node.prev)));
-          NodeValue nNode = (NodeValue)(cache.remove(new Integer(node.next)));
-          cache.put(new Integer(node.prev), new NodeValue(pNode.node, node.next,pNode.prev));
-          cache.put(new Integer(node.next), new NodeValue(nNode.node, nNode.next,node.prev));
-          if(key == recent)
-            recent = node.prev;
-          if(key == last)
-            last = node.next;
-        }
-      }
+    int[] ks = pending.keys();
+    Arrays.sort(ks);
+    for(int i = 0; i < ks.length; i++)
+      pending.get(ks[i]).flush();
+    pending.clear();
+  }
+
+  private int allocateSlot()
+  {
+    if(freeCount > 0)
+      return freeSlots[--freeCount];
+    if(usedSlots == nodes.length){
+      int l = nodes.length * 2;
+      nodes = Arrays.copyOf(nodes, l);
+      keys = Arrays.copyOf(keys, l);
+      next = Arrays.copyOf(next, l);
+      prev = Arrays.copyOf(prev, l);
+      freeSlots = Arrays.copyOf(freeSlots, l);
     }
-    catch(Exception e){
-      e.printStackTrace();
+    return usedSlots++;
+  }
+
+  private void freeSlot(int slot)
+  {
+    unlink(slot);
+    nodes[slot] = null;
+    freeSlots[freeCount++] = slot;
+    size--;
+    owner.total.decrementAndGet();
+  }
+
+  private void moveToHead(int slot)
+  {
+    if(slot != head){
+      unlink(slot);
+      linkHead(slot);
     }
   }
-  void reset()
-    throws NodeWriteException
+
+  private void linkHead(int slot)
   {
-    //if(!RTree.writeThr)
-    flush();
-    cache.clear();
+    prev[slot] = -1;
+    next[slot] = head;
+    if(head != -1)
+      prev[head] = slot;
+    head = slot;
+    if(tail == -1)
+      tail = slot;
+  }
+
+  private void unlink(int slot)
+  {
+    if(prev[slot] != -1)
+      next[prev[slot]] = next[slot];
+    else
+      head = next[slot];
+    if(next[slot] != -1)
+      prev[next[slot]] = prev[slot];
+    else
+      tail = prev[slot];
   }
 }
+/**
+   <b>Cache of recently used nodes of all the rtree files.</b>
+   <p>This will be a static object in the class RTree, but every file has its own LRU list and
+   lock (<code>BufferHeader</code>), so trees of different files are not serialized on one lock.
+   Nodes of a file are read and written through one <tt>RandomAccessFile</tt>, that is why one
+   file is not accessed concurrently.
+   <br>The total number of cached nodes is limited by <tt>size</tt>, a file could be limited
+   additionally by <code>setFileCacheSize</code>.
+*/
 public class CachedNodes
 {
   private static final int NODE = 0;
   private static final int SDNODE = 1;
-  Hashtable cache;
-  BufferHeader buffHeader;
+  private final Map<String, BufferHeader> buffHeaders = new ConcurrentHashMap<String, BufferHeader>();
+  final AtomicInteger total = new AtomicInteger();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
   int size = Node.CACHE_SIZE;
   CachedNodes()
   {
-    //System.out.println("CachedNodes : cache called");
-    cache = new Hashtable(Node.CACHE_SIZE+1,1);
-    buffHeader = new BufferHeader(Node.CACHE_SIZE,cache);
     size = Node.CACHE_SIZE;
   }
   /**
@@ -228,78 +246,105 @@ public class CachedNodes
   {
     if(size < 0)
       throw new IllegalArgumentException("CachedNodes:: size is less than zero");
-    cache = new Hashtable(size+1,1);
-    buffHeader = new BufferHeader(size, cache);
     this.size = size;
   }
-  public synchronized void setCacheSize(int size)
+  public void setCacheSize(int size)
     throws NodeWriteException
   {
     if(size < 0)
       throw new IllegalArgumentException("CachedNodes:: size is less than zero");
     removeAll();
-    cache = new Hashtable(size+1,1);
-    buffHeader = new BufferHeader(size, cache);
     this.size = size;
   }
-  public synchronized int getSize()
+  /**
+     Max number of cached nodes of the file (0 - only total size of the cache is limited).
+  */
+  public void setFileCacheSize(String fileName, int size)
   {
-    return cache.size();
+    if(size < 0)
+      throw new IllegalArgumentException("CachedNodes:: size is less than zero");
+    BufferHeader buffHeader = getBufferHeader(fileName);
+    synchronized(buffHeader){
+      buffHeader.capacity = size;
+    }
+  }
+  public int getSize()
+  {
+    return total.get();
+  }
+  public long getHits()
+  {
+    return hits.get();
+  }
+  public long getMisses()
+  {
+    return misses.get();
+  }
+  int getFilesCount()
+  {
+    return buffHeaders.size();
+  }
+  private BufferHeader getBufferHeader(String fileName)
+  {
+    if(fileName == null)
+      throw new IllegalArgumentException("CachedNodes:: file name is null");
+    BufferHeader buffHeader = buffHeaders.get(fileName);
+    if(buffHeader == null){
+      buffHeader = new BufferHeader(this, 0);
+      BufferHeader prev = buffHeaders.putIfAbsent(fileName, buffHeader);
+      if(prev != null)
+        buffHeader = prev;
+    }
+    return buffHeader;
   }
   private Node getNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr, int type)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
     int ndIndex = (int)lndIndex;
-    int key = calKey(fileName,ndIndex);
-    NodeValue node = (NodeValue)(cache.get(new Integer(key)));
-    Node nNode;
-    if(node == null){//Node not in cache
-      if(type == NODE){
-        nNode = new Node(file, fileName, ndIndex, flHdr);
-      }else{
-        nNode = new SdNode(file, fileName, ndIndex, flHdr);
+    BufferHeader buffHeader = getBufferHeader(fileName);
+    synchronized(buffHeader){
+      Node node = buffHeader.get(ndIndex);
+      if(node == null){//Node not in cache
+        misses.incrementAndGet();
+        if(type == NODE){
+          node = new Node(file, fileName, ndIndex, flHdr);
+        }else{
+          node = new SdNode(file, fileName, ndIndex, flHdr);
+        }
+        node.sweepSort();
+        //this is for the case where index is NOT_DEFINED
+        buffHeader.put((int)node.getNodeIndex(), node);
+        return node;
       }
-      key = calKey(fileName, (int)nNode.getNodeIndex());//this is for the case where index is NOT_DEFINED
-      nNode.sweepSort();
-      //cache not full
-      if(cache.size() < Node.CACHE_SIZE){
-        buffHeader.put(key,nNode);//(Node)nNode.clone());
-      }else if(cache.size() == Node.CACHE_SIZE){//cache Is full
-        buffHeader.replace(key,nNode);//(Node)nNode.clone());
+      else{//node found in the cache
+        hits.incrementAndGet();
+        node.sweepSort();
+        return node;
       }
-      return nNode;
-    }
-    else{//node found in the cache
-      buffHeader.update(key);
-      node.node.sweepSort();
-      return (node.node);
     }
   }
   private Node getNode(RandomAccessFile file,String fileName,long parentIndex, int elmtType, FileHdr flHdr,
                        int type)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
-    Node nNode;
-    if(type == NODE){
-      nNode = new Node(file,fileName,parentIndex, elmtType, flHdr);
-    }else{
-      nNode = new SdNode(file,fileName,parentIndex, elmtType, flHdr);
+    BufferHeader buffHeader = getBufferHeader(fileName);
+    synchronized(buffHeader){
+      Node nNode;
+      if(type == NODE){
+        nNode = new Node(file,fileName,parentIndex, elmtType, flHdr);
+      }else{
+        nNode = new SdNode(file,fileName,parentIndex, elmtType, flHdr);
+      }
+      nNode.sweepSort();
+      buffHeader.put((int)nNode.getNodeIndex(), nNode);
+      return nNode;
     }
-    int key = calKey(fileName, (int)nNode.getNodeIndex());
-    nNode.sweepSort();
-    //cache not full
-    if(cache.size() < Node.CACHE_SIZE)
-      buffHeader.put(key,nNode);
-    //cache Is full
-    else if(cache.size() == Node.CACHE_SIZE)
-      buffHeader.replace(key,nNode);
-    return nNode;
   }
   //-----------------------Methods for client to get Node they prefer------------
   /**
      This one returns an existing <code>SdNode</code>
   */
-  public synchronized SdNode getSdNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
+  public SdNode getSdNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
     return (SdNode)getNode(file,fileName,lndIndex,flHdr, SDNODE);
@@ -307,7 +352,7 @@ public class CachedNodes
   /**
      This one returns an existing <code>SdNode</code>.
   */
-  public synchronized SdNode getSdNode(RandomAccessFile file,String fileName,long parentIndex,
+  public SdNode getSdNode(RandomAccessFile file,String fileName,long parentIndex,
                                        int elmtType, FileHdr flHdr)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
@@ -316,7 +361,7 @@ public class CachedNodes
   /**
      This one returns an existing <code>Node</code>.
   */
-  public synchronized Node getNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
+  public Node getNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
     return getNode(file,fileName,lndIndex,flHdr, NODE);
@@ -324,7 +369,7 @@ public class CachedNodes
   /**
      This one returns an new <code>SdNode</code>.
   */
-  public synchronized Node getNode(RandomAccessFile file,String fileName,long parentIndex,
+  public Node getNode(RandomAccessFile file,String fileName,long parentIndex,
                                    int elmtType, FileHdr flHdr)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
@@ -333,7 +378,7 @@ public class CachedNodes
   /**
      This one returns an new <code>Node</code>.
   */
-  public synchronized Node getNode(RandomAccessFile file,String fileName,long parentIndex,
+  public Node getNode(RandomAccessFile file,String fileName,long parentIndex,
                                    int elmtType, FileHdr flHdr, Node type)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
@@ -348,75 +393,65 @@ public class CachedNodes
      return a clones ReadNode, so that concurrent reads can take place (because none of the methods
      of <code>Node</code> are <code>synchronized</code>.
   */
-  public synchronized ReadNode getReadNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
+  public ReadNode getReadNode(RandomAccessFile file,String fileName,long lndIndex,FileHdr flHdr)
     throws IllegalValueException, NodeReadException, FileNotFoundException, IOException, NodeWriteException
   {
-    return ReadNode.makeReadNode(getNode(file,fileName,lndIndex,flHdr));
+    BufferHeader buffHeader = getBufferHeader(fileName);
+    synchronized(buffHeader){
+      return ReadNode.makeReadNode(getNode(file,fileName,lndIndex,flHdr));
+    }
   }
   /**
      Write all the diry nodes to the disc.
   */
-  synchronized void flush()
+  void flush()
     throws NodeWriteException
   {
-    //if(!RTree.writeThr)
-    buffHeader.flush();
+    for (BufferHeader buffHeader : buffHeaders.values()){
+      synchronized(buffHeader){
+        buffHeader.flush();
+      }
+    }
   }
   /**
      This method would be called only by those threads that need to modify the
      tree. Hence this method is automatically synchronized.
   */
-  synchronized void remove(String fileName,long ndIndex)
+  void remove(String fileName,long ndIndex)
     throws NodeWriteException
   {
-    int key = calKey(fileName,(int)ndIndex);
-    buffHeader.remove(key);
+    BufferHeader buffHeader = getBufferHeader(fileName);
+    synchronized(buffHeader){
+      buffHeader.remove((int)ndIndex);
+    }
   }
 
 
-  synchronized void removeAll()
+  /**
+     Writes the dirty nodes of the file and removes the file from the cache, called when the file is closed.
+  */
+  void removeFile(String fileName)
     throws NodeWriteException
   {
-    buffHeader.reset();
-  }
-
-  static Map<String, Integer> fileNamesMap = new LinkedHashMap<String, Integer>();
-
-  static void clearFileNamesMap(){
-	  fileNamesMap.clear();
+    BufferHeader buffHeader = buffHeaders.get(fileName);
+    if(buffHeader != null){
+      synchronized(buffHeader){
+        buffHeader.reset();
+        buffHeaders.remove(fileName);
+      }
+    }
   }
 
-  int calKey(String fileName,int idx)
-  {
-    if(fileName != null) {
-    	Integer i = fileNamesMap.get(fileName);
-    	if(i == null){
-    		if(fileNamesMap.size() > 1023){
-    			throw new ArrayIndexOutOfBoundsException();
-    		}
-    		fileNamesMap.put(fileName, fileNamesMap.size());
-    		i = fileNamesMap.get(fileName);
-    	}
-//      System.out.println(idx + " " + fileName + " " + ((idx << 5)+ fileName.toLowerCase().hashCode() % 32));
-      return ((idx << 10)+ i);
-    } else{
-      System.out.println("CachedNodes.calKey: fileName null");
-      return 0;
+  void removeAll()
+    throws NodeWriteException
+  {
+    for (BufferHeader buffHeader : buffHeaders.values()){
+      synchronized(buffHeader){
+        buffHeader.reset();
+      }
     }
   }
 }
-class NodeValue
-{
-  Node node;
-  int next;//the next node's key
-  int prev;//the prev node's key
-  NodeValue(Node node,int n,int p)
-  {
-    this.node = node;
-    next = n;
-    prev = p;
-  }
-}
 /**
    TODO:
    2) A way to pin an node. Obviously the client must also unpinn the node.
@@ -94,9 +94,8 @@ public class Pack
       if(newFile.equalsIgnoreCase(rtree.getFileName())){//we need a write lock
         rtree.getFileHdr().lockWrite();
       }
-      /*the following is required as we may pack an existing tree.. until we find a way to remove nodes of
-        a particular rtree*/
-      RTree.chdNodes.removeAll();
+      //the following is required as we may pack into an existing tree, nodes of other trees are kept
+      RTree.removeFile(newFile);
       //rtree.getFileHdr().getFile().getFD().sync();
       if(elmts.length <= Node.MAX)//change this for the first method
         return(1);
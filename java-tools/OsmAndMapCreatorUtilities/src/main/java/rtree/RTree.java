@@ -71,7 +71,6 @@ public class RTree //the tree that would be made
   public static void clearCache(){
 	  chdNodes = new CachedNodes();
 	  fileList = new HashMap();
-	  CachedNodes.clearFileNamesMap();
   }
 
   public RTree(String fileName)
@@ -132,6 +131,41 @@ public class RTree //the tree that would be made
   {
     return fileHdr;
   }
+  /**
+     Flushes and closes the file. Header and cached nodes of the file are removed, so the file could be
+     opened again by a new <code>RTree</code> while the static cache is used by other trees.
+  */
+  public void close()
+    throws RTreeException
+  {
+    fileHdr.lockWrite();
+    try{
+      chdNodes.removeFile(fileName);
+      fileHdr.flush();
+      fileHdr.getFile().close();
+    }catch(Exception e){
+      throw new RTreeException(e.getMessage());
+    }finally{
+      fileHdr.unlock();
+    }
+    synchronized(fileList){
+      fileList.remove(fileName);
+    }
+  }
+  /**
+     Removes cached nodes and header of the file that is going to be overwritten.
+  */
+  static void removeFile(String fileName)
+    throws NodeWriteException
+  {
+    if(chdNodes != null)
+      chdNodes.removeFile(fileName);
+    if(fileList != null){
+      synchronized(fileList){
+        fileList.remove(fileName);
+      }
+    }
+  }
   public void flush()
     throws RTreeException
   {
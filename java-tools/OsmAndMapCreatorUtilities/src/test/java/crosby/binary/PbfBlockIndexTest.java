@@ -0,0 +1,189 @@
+package crosby.binary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.protobuf.ByteString;
+
+import crosby.binary.PbfBlockIndex.BlockEntry;
+import crosby.binary.PbfBlockIndex.BlockKind;
+import crosby.binary.file.BlockOutputStream;
+import crosby.binary.file.FileBlock;
+import crosby.binary.file.FileBlockPosition;
+
+public class PbfBlockIndexTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testBuild() throws IOException {
+		File pbf = writePbf(tmp.newFile("test.pbf"));
+		FileInputStream fis = new FileInputStream(pbf);
+		PbfBlockIndex index;
+		try {
+			index = PbfBlockIndex.build(fis.getChannel());
+		} finally {
+			fis.close();
+		}
+		checkIndex(index);
+	}
+
+	@Test
+	public void testLoadOrBuild() throws IOException {
+		File pbf = writePbf(tmp.newFile("test.pbf"));
+		File indexFile = new File(pbf.getParentFile(), pbf.getName() + PbfBlockIndex.INDEX_EXT);
+		PbfBlockIndex built = PbfBlockIndex.loadOrBuild(pbf);
+		assertTrue(indexFile.exists());
+		PbfBlockIndex loaded = PbfBlockIndex.loadOrBuild(pbf);
+		checkIndex(built);
+		checkIndex(loaded);
+		for (int i = 0; i < built.getBlocks().size(); i++) {
+			FileBlockPosition exp = built.getBlocks().get(i).getPosition();
+			FileBlockPosition act = loaded.getBlocks().get(i).getPosition();
+			assertEquals(exp.getType(), act.getType());
+			assertEquals(exp.getDataOffset(), act.getDataOffset());
+			assertEquals(exp.getDatasize(), act.getDatasize());
+		}
+	}
+
+	@Test
+	public void testStaleIndexIsRebuilt() throws IOException {
+		File pbf = writePbf(tmp.newFile("test.pbf"));
+		File indexFile = new File(pbf.getParentFile(), pbf.getName() + PbfBlockIndex.INDEX_EXT);
+		// index of other file with the same name
+		FileOutputStream out = new FileOutputStream(indexFile);
+		out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 1 });
+		out.close();
+		pbf.setLastModified(indexFile.lastModified());
+		checkIndex(PbfBlockIndex.loadOrBuild(pbf));
+	}
+
+	@Test
+	public void testSelect() throws IOException {
+		File pbf = writePbf(tmp.newFile("test.pbf"));
+		PbfBlockIndex index = PbfBlockIndex.loadOrBuild(pbf);
+		List<BlockEntry> blocks = index.getBlocks();
+
+		List<FileBlockPosition> all = index.select(null);
+		assertEquals(blocks.size(), all.size());
+
+		List<FileBlockPosition> ways = index.select(PbfBlockIndex.kinds(EnumSet.of(BlockKind.WAYS)));
+		assertEquals(3, ways.size());
+		assertTrue(ways.contains(blocks.get(0).getPosition()));
+		assertTrue(ways.contains(blocks.get(3).getPosition()));
+		assertTrue(ways.contains(blocks.get(5).getPosition()));
+
+		// only dense block is inside, relations and ways don't have bbox
+		List<FileBlockPosition> inside = index.select(PbfBlockIndex.nodesInside(51, 9, 49, 11));
+		assertEquals(5, inside.size());
+		assertTrue(inside.contains(blocks.get(1).getPosition()));
+		assertFalse(inside.contains(blocks.get(2).getPosition()));
+	}
+
+	private static void checkIndex(PbfBlockIndex index) {
+		List<BlockEntry> blocks = index.getBlocks();
+		assertEquals(6, blocks.size());
+		assertEquals(BlockKind.HEADER, blocks.get(0).getKind());
+		assertFalse(blocks.get(0).hasBBox());
+
+		BlockEntry dense = blocks.get(1);
+		assertEquals(BlockKind.NODES, dense.getKind());
+		assertEquals(10, dense.getMinId());
+		assertEquals(12, dense.getMaxId());
+		assertTrue(dense.hasBBox());
+		assertEquals(50.5, dense.getTop(), 1e-7);
+		assertEquals(49.5, dense.getBottom(), 1e-7);
+		assertEquals(9.5, dense.getLeft(), 1e-7);
+		assertEquals(10.5, dense.getRight(), 1e-7);
+		assertTrue(dense.containsId(11));
+		assertFalse(dense.containsId(13));
+
+		BlockEntry nodes = blocks.get(2);
+		assertEquals(BlockKind.NODES, nodes.getKind());
+		assertEquals(20, nodes.getMinId());
+		assertEquals(21, nodes.getMaxId());
+		assertEquals(-33.5, nodes.getBottom(), 1e-7);
+		assertEquals(-33, nodes.getTop(), 1e-7);
+		assertEquals(151, nodes.getLeft(), 1e-7);
+		assertEquals(151.25, nodes.getRight(), 1e-7);
+		assertFalse(nodes.intersects(51, 9, 49, 11));
+		assertTrue(nodes.intersects(-30, 150, -40, 152));
+
+		BlockEntry ways = blocks.get(3);
+		assertEquals(BlockKind.WAYS, ways.getKind());
+		assertEquals(100, ways.getMinId());
+		assertEquals(105, ways.getMaxId());
+		assertFalse(ways.hasBBox());
+
+		BlockEntry relations = blocks.get(4);
+		assertEquals(BlockKind.RELATIONS, relations.getKind());
+		assertEquals(7, relations.getMinId());
+		assertEquals(7, relations.getMaxId());
+
+		assertEquals(BlockKind.MIXED, blocks.get(5).getKind());
+		assertEquals(30, blocks.get(5).getMinId());
+		assertEquals(200, blocks.get(5).getMaxId());
+	}
+
+	private static File writePbf(File file) throws IOException {
+		BlockOutputStream out = new BlockOutputStream(new FileOutputStream(file));
+		try {
+			out.write(FileBlock.newInstance("OSMHeader", Osmformat.HeaderBlock.newBuilder().build().toByteString(),
+					null));
+
+			Osmformat.DenseNodes.Builder dense = Osmformat.DenseNodes.newBuilder();
+			// delta coded ids and coordinates
+			dense.addId(10).addLat(deg(50)).addLon(deg(10));
+			dense.addId(1).addLat(deg(0.5)).addLon(deg(0.5));
+			dense.addId(1).addLat(deg(-1)).addLon(deg(-1));
+			writeData(out, Osmformat.PrimitiveGroup.newBuilder().setDense(dense));
+
+			writeData(out, Osmformat.PrimitiveGroup.newBuilder()
+					.addNodes(node(20, -33, 151))
+					.addNodes(node(21, -33.5, 151.25)));
+
+			writeData(out, Osmformat.PrimitiveGroup.newBuilder()
+					.addWays(Osmformat.Way.newBuilder().setId(105))
+					.addWays(Osmformat.Way.newBuilder().setId(100)));
+
+			writeData(out, Osmformat.PrimitiveGroup.newBuilder()
+					.addRelations(Osmformat.Relation.newBuilder().setId(7)));
+
+			writeData(out, Osmformat.PrimitiveGroup.newBuilder()
+					.addNodes(node(30, 1, 1))
+					.addWays(Osmformat.Way.newBuilder().setId(200)));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static void writeData(BlockOutputStream out, Osmformat.PrimitiveGroup.Builder group) throws IOException {
+		Osmformat.PrimitiveBlock block = Osmformat.PrimitiveBlock.newBuilder()
+				.setStringtable(Osmformat.StringTable.newBuilder().addS(ByteString.EMPTY))
+				.addPrimitivegroup(group).build();
+		out.write(FileBlock.newInstance("OSMData", block.toByteString(), null));
+	}
+
+	private static Osmformat.Node.Builder node(long id, double lat, double lon) {
+		return Osmformat.Node.newBuilder().setId(id).setLat(deg(lat)).setLon(deg(lon));
+	}
+
+	// default granularity is 100 nanodegrees
+	private static long deg(double d) {
+		return Math.round(d * 10000000);
+	}
+}
@@ -0,0 +1,93 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BufferedRandomAccessOutputTest {
+
+	private static final int BUFFER_SIZE = 64;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testWritesAndPatches() throws IOException {
+		Random rnd = new Random(3);
+		File file = new File(tmp.getRoot(), "out.bin");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		BufferedRandomAccessOutput out = new BufferedRandomAccessOutput(raf, BUFFER_SIZE);
+		byte[] exp = new byte[1 << 20];
+		int size = 0;
+		for (int i = 0; i < 20000; i++) {
+			assertEquals(size, out.getPosition());
+			int op = rnd.nextInt(10);
+			if (op < 4) {
+				int b = rnd.nextInt(256);
+				out.write(b);
+				exp[size++] = (byte) b;
+			} else if (op < 8) {
+				// small writes fill the buffer, big ones bypass it
+				byte[] b = new byte[op == 7 ? BUFFER_SIZE + rnd.nextInt(100) : rnd.nextInt(BUFFER_SIZE / 2)];
+				rnd.nextBytes(b);
+				int off = b.length == 0 ? 0 : rnd.nextInt(b.length);
+				out.write(b, off, b.length - off);
+				System.arraycopy(b, off, exp, size, b.length - off);
+				size += b.length - off;
+			} else if (size >= 4) {
+				// patch recent positions (inside of the buffer) as well as old ones
+				int pos = op == 8 ? size - 4 - rnd.nextInt(Math.min(size - 3, BUFFER_SIZE)) : rnd.nextInt(size - 3);
+				int v = rnd.nextInt();
+				out.writeInt(pos, v);
+				exp[pos] = (byte) (v >>> 24);
+				exp[pos + 1] = (byte) (v >>> 16);
+				exp[pos + 2] = (byte) (v >>> 8);
+				exp[pos + 3] = (byte) v;
+			}
+		}
+		out.flush();
+		assertEquals(size, raf.length());
+		raf.close();
+		assertArrayEquals(Arrays.copyOf(exp, size), readFile(file));
+	}
+
+	@Test
+	public void testSeekAfterFlush() throws IOException {
+		File file = new File(tmp.getRoot(), "seek.bin");
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		BufferedRandomAccessOutput out = new BufferedRandomAccessOutput(raf, BUFFER_SIZE);
+		out.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+		out.flush();
+		// file is truncated and written at new position
+		raf.setLength(4);
+		raf.seek(2);
+		assertEquals(2, out.getPosition());
+		out.write(9);
+		out.write(new byte[] { 10, 11 });
+		assertEquals(5, out.getPosition());
+		out.writeInt(0, 0x0A0B0C0D);
+		out.flush();
+		raf.close();
+		assertArrayEquals(new byte[] { 10, 11, 12, 13, 11 }, readFile(file));
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			byte[] b = new byte[(int) raf.length()];
+			raf.readFully(b);
+			return b;
+		} finally {
+			raf.close();
+		}
+	}
+}
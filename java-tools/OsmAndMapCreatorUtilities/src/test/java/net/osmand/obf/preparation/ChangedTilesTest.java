@@ -0,0 +1,106 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Way;
+
+public class ChangedTilesTest {
+
+	// 31 bit coordinates of the first point of a zoom 14 tile
+	private static final int TILE = 1 << 17;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testTileBounds() {
+		ChangedTiles tiles = new ChangedTiles(ChangedTiles.DEFAULT_ZOOM);
+		assertTrue(tiles.isEmpty());
+		tiles.add31(100 * TILE + 10, 200 * TILE + 10);
+		assertEquals(1, tiles.size());
+		assertTrue(tiles.contains31(100 * TILE, 200 * TILE));
+		assertTrue(tiles.contains31(101 * TILE - 1, 201 * TILE - 1));
+		assertFalse(tiles.contains31(100 * TILE - 1, 200 * TILE));
+		assertFalse(tiles.contains31(100 * TILE, 201 * TILE));
+		// same tile is counted once
+		tiles.add31(100 * TILE + 20, 200 * TILE + 20);
+		assertEquals(1, tiles.size());
+	}
+
+	@Test
+	public void testPoints() {
+		ChangedTiles tiles = new ChangedTiles(ChangedTiles.DEFAULT_ZOOM);
+		tiles.addPoint(52.37, 4.89);
+		tiles.addPoint(-33.86, 151.2);
+		assertEquals(2, tiles.size());
+		// zoom 14 tile is about 2 km wide
+		assertTrue(tiles.containsPoint(52.3701, 4.8901));
+		assertTrue(tiles.containsPoint(-33.8601, 151.2001));
+		assertFalse(tiles.containsPoint(52.47, 4.89));
+		assertFalse(tiles.containsPoint(33.86, 151.2));
+	}
+
+	@Test
+	public void testIntersects() {
+		ChangedTiles tiles = new ChangedTiles(ChangedTiles.DEFAULT_ZOOM);
+		tiles.addPoint(52.37, 4.89);
+		assertTrue(tiles.intersects(new Node(52.3701, 4.8901, 1)));
+		assertFalse(tiles.intersects(new Node(50, 4.89, 2)));
+
+		Way outside = new Way(10);
+		outside.addNode(new Node(50, 4, 3));
+		outside.addNode(new Node(51, 5, 4));
+		assertFalse(tiles.intersects(outside));
+
+		Way crossing = new Way(11);
+		crossing.addNode(new Node(50, 4, 3));
+		// node without loaded coordinates is ignored
+		crossing.addNode(5);
+		crossing.addNode(new Node(52.3701, 4.8901, 6));
+		assertTrue(tiles.intersects(crossing));
+	}
+
+	@Test
+	public void testAddAll() {
+		ChangedTiles tiles = new ChangedTiles(12);
+		tiles.add31(0, 0);
+		ChangedTiles other = new ChangedTiles(12);
+		other.add31(0, 0);
+		other.add31(1 << 20, 0);
+		tiles.addAll(other);
+		assertEquals(2, tiles.size());
+		assertTrue(tiles.contains31(1 << 20, 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddAllDifferentZoom() {
+		new ChangedTiles(12).addAll(new ChangedTiles(14));
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		ChangedTiles tiles = new ChangedTiles(13);
+		for (int i = 0; i < 1000; i++) {
+			tiles.add31((i * 7919 % 8192) << 18, (1000 - i) << 18);
+		}
+		File file = new File(tmp.getRoot(), "tiles.bin");
+		tiles.save(file);
+		ChangedTiles loaded = ChangedTiles.load(file);
+		assertEquals(13, loaded.getZoom());
+		assertEquals(tiles.size(), loaded.size());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(loaded.contains31((i * 7919 % 8192) << 18, (1000 - i) << 18));
+		}
+		assertFalse(loaded.contains31(1 << 18, 0));
+	}
+}
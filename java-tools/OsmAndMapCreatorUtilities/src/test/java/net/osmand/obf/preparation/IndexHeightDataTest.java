@@ -0,0 +1,229 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferShort;
+import java.awt.image.WritableRaster;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexHeightDataTest {
+
+	private static final int TILE_SIZE = 121;
+	// lat, lon of tiles with data
+	private static final int[][] TILES = { { 46, 8 }, { 46, 9 }, { -1, -1 } };
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private File tifDir;
+	private File workDir;
+
+	@Before
+	public void setUp() throws IOException {
+		tifDir = tmp.newFolder("tif");
+		workDir = tmp.newFolder("work");
+		writeTif(new File(tifDir, "N46E008.tif"), 1);
+		writeTif(new File(tifDir, "N46E009.tif"), 2);
+		writeTif(new File(tifDir, "S01W001.tif"), 3);
+	}
+
+	@Test
+	public void testConvertTiffToRaw() throws IOException {
+		File tif = new File(tifDir, "N46E008.tif");
+		File raw = new File(workDir, "N46E008" + IndexHeightData.RAW_TILE_EXT);
+		IndexHeightData.convertTiffToRaw(tif, raw);
+		assertEquals(12 + 2L * TILE_SIZE * TILE_SIZE, raw.length());
+		DataInputStream in = new DataInputStream(new FileInputStream(raw));
+		try {
+			in.readInt();
+			assertEquals(TILE_SIZE, in.readInt());
+			assertEquals(TILE_SIZE, in.readInt());
+			for (int y = 0; y < TILE_SIZE; y++) {
+				for (int x = 0; x < TILE_SIZE; x++) {
+					assertEquals(height(1, x, y), in.readShort());
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		File rawDir = new File(workDir, "raw");
+		assertEquals(3, IndexHeightData.convertTiffTilesToRaw(tifDir, rawDir));
+		// converted tiles are not converted again
+		assertEquals(0, IndexHeightData.convertTiffTilesToRaw(tifDir, rawDir));
+	}
+
+	@Test
+	public void testRawTilesMatchTif() {
+		IndexHeightData tifData = newHeightData(null);
+		File rawDir = new File(workDir, "raw");
+		IndexHeightData rawData = newHeightData(rawDir);
+		for (int[] tile : TILES) {
+			for (double lat = tile[0]; lat < tile[0] + 1; lat += 0.0137) {
+				for (double lon = tile[1]; lon < tile[1] + 1; lon += 0.0173) {
+					double exp = tifData.getPointHeight(lat, lon);
+					assertTrue(exp != IndexHeightData.INEXISTENT_HEIGHT);
+					assertEquals(exp, rawData.getPointHeight(lat, lon), 0);
+				}
+			}
+		}
+		assertEquals(IndexHeightData.INEXISTENT_HEIGHT, rawData.getPointHeight(10.5, 10.5), 0);
+		// tiles are converted once on first access
+		assertTrue(new File(rawDir, "N46E008" + IndexHeightData.RAW_TILE_EXT).exists());
+		assertTrue(new File(rawDir, "S01W001" + IndexHeightData.RAW_TILE_EXT).exists());
+		tifData.close();
+		rawData.close();
+	}
+
+	@Test
+	public void testRawTileInSrtmDir() throws IOException {
+		IndexHeightData tifData = newHeightData(null);
+		double exp = tifData.getPointHeight(46.5, 8.5);
+		tifData.close();
+		// raw tile next to tif is used without raw dir
+		IndexHeightData.convertTiffToRaw(new File(tifDir, "N46E008.tif"),
+				new File(tifDir, "N46E008" + IndexHeightData.RAW_TILE_EXT));
+		new File(tifDir, "N46E008.tif").delete();
+		IndexHeightData rawData = newHeightData(null);
+		assertEquals(exp, rawData.getPointHeight(46.5, 8.5), 0);
+		rawData.close();
+	}
+
+	@Test
+	public void testInvalidRawTile() throws IOException {
+		File rawDir = tmp.newFolder("raw");
+		FileOutputStream out = new FileOutputStream(new File(rawDir, "N46E008" + IndexHeightData.RAW_TILE_EXT));
+		out.write(new byte[100]);
+		out.close();
+		IndexHeightData rawData = newHeightData(rawDir);
+		assertEquals(IndexHeightData.INEXISTENT_HEIGHT, rawData.getPointHeight(46.5, 8.5), 0);
+		assertTrue(rawData.getPointHeight(46.5, 9.5) != IndexHeightData.INEXISTENT_HEIGHT);
+		rawData.close();
+	}
+
+	@Test
+	public void testPointHeightsMatchPointHeight() {
+		checkPointHeights(newHeightData(null));
+		checkPointHeights(newHeightData(new File(workDir, "raw")));
+	}
+
+	@Test
+	public void testConcurrentReadersOfColdTile() throws Exception {
+		IndexHeightData single = newHeightData(null);
+		final double exp = single.getPointHeight(46.5, 8.5);
+		single.close();
+		assertTrue(exp != IndexHeightData.INEXISTENT_HEIGHT);
+		for (int k = 0; k < 10; k++) {
+			// every round starts with cold tile, half of readers convert it to raw
+			final IndexHeightData hd = newHeightData(k % 2 == 0 ? null : new File(workDir, "raw" + k));
+			final CountDownLatch start = new CountDownLatch(1);
+			final double[] heights = new double[16];
+			Thread[] threads = new Thread[heights.length];
+			for (int i = 0; i < threads.length; i++) {
+				final int ind = i;
+				threads[i] = new Thread() {
+					@Override
+					public void run() {
+						try {
+							start.await();
+							heights[ind] = hd.getPointHeight(46.5, 8.5);
+						} catch (InterruptedException e) {
+							heights[ind] = Double.NaN;
+						}
+					}
+				};
+				threads[i].start();
+			}
+			start.countDown();
+			for (Thread t : threads) {
+				t.join();
+			}
+			for (double h : heights) {
+				assertEquals(exp, h, 0);
+			}
+			hd.close();
+		}
+	}
+
+	private static void checkPointHeights(IndexHeightData hd) {
+		Random rnd = new Random(7);
+		int size = 5000;
+		double[] lats = new double[size];
+		double[] lons = new double[size];
+		// points of all tiles are mixed, some of them in tile without data
+		for (int i = 0; i < size; i++) {
+			int t = rnd.nextInt(TILES.length + 1);
+			int lt = t < TILES.length ? TILES[t][0] : 10;
+			int ln = t < TILES.length ? TILES[t][1] : 10;
+			lats[i] = lt + rnd.nextDouble();
+			lons[i] = ln + rnd.nextDouble();
+		}
+		lats[0] = 46;
+		lons[0] = 9;
+		lats[1] = -1e-9;
+		lons[1] = -1e-9;
+		double[] heights = new double[size];
+		File[] missing = new File[1];
+		hd.getPointHeights(lats, lons, size, heights, missing);
+		assertEquals("N10E010.tif", missing[0].getName());
+		int inexistent = 0;
+		for (int i = 0; i < size; i++) {
+			double exp = hd.getPointHeight(lats[i], lons[i]);
+			if (exp == IndexHeightData.INEXISTENT_HEIGHT) {
+				inexistent++;
+				assertEquals(exp, heights[i], 0);
+			} else {
+				assertEquals(exp, heights[i], 1e-6);
+			}
+		}
+		assertTrue(inexistent > 0 && inexistent < size / 2);
+		hd.close();
+	}
+
+	private IndexHeightData newHeightData(File rawDir) {
+		IndexHeightData hd = new IndexHeightData();
+		hd.setSrtmData(tifDir.getAbsolutePath(), workDir);
+		hd.setRawTilesDir(rawDir);
+		return hd;
+	}
+
+	// smooth relief with values below sea level
+	private static short height(int seed, int x, int y) {
+		return (short) (seed * 100 + 300 * Math.sin(x / 7.0 + seed) * Math.cos(y / 11.0) + (x * y) % 13 - 50);
+	}
+
+	// signed int16 single band tif as srtm tiles
+	private static void writeTif(File file, int seed) throws IOException {
+		ComponentColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+				new int[] { 16 }, false, false, Transparency.OPAQUE, DataBuffer.TYPE_SHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(TILE_SIZE, TILE_SIZE);
+		short[] data = ((DataBufferShort) raster.getDataBuffer()).getData();
+		for (int y = 0; y < TILE_SIZE; y++) {
+			for (int x = 0; x < TILE_SIZE; x++) {
+				data[x + y * TILE_SIZE] = height(seed, x, y);
+			}
+		}
+		if (!ImageIO.write(new BufferedImage(cm, raster, false, null), "tif", file)) {
+			throw new IOException("No tif writer");
+		}
+	}
+}
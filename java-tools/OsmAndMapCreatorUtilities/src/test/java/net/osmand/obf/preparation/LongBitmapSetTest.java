@@ -0,0 +1,96 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LongBitmapSetTest {
+
+	@Test
+	public void testIncreasingIds() {
+		LongBitmapSet set = new LongBitmapSet();
+		Set<Long> exp = new HashSet<Long>();
+		// dense range turns containers into bitmaps, gaps keep them as arrays
+		for (long id = 1; id < 300000; id += id < 100000 ? 1 : 37) {
+			add(set, exp, id);
+		}
+		check(set, exp, 0, 310000);
+	}
+
+	@Test
+	public void testRandomIds() {
+		Random rnd = new Random(5);
+		LongBitmapSet set = new LongBitmapSet();
+		Set<Long> exp = new HashSet<Long>();
+		for (int i = 0; i < 50000; i++) {
+			long id = rnd.nextInt(1 << 20) - (1 << 19);
+			add(set, exp, id);
+			// duplicates are not counted twice
+			add(set, exp, id);
+		}
+		check(set, exp, -(1 << 19) - 10, (1 << 19) + 10);
+	}
+
+	@Test
+	public void testArrayToBitmap() {
+		LongBitmapSet set = new LongBitmapSet();
+		Set<Long> exp = new HashSet<Long>();
+		long base = 7L << 16;
+		// decreasing low bits inside of one container, the last adds switch it to bitmap
+		for (int low = 0xffff; low >= 0; low -= 15) {
+			add(set, exp, base + low);
+		}
+		check(set, exp, base - 100, base + 0x10000 + 100);
+	}
+
+	@Test
+	public void testExtremeIds() {
+		LongBitmapSet set = new LongBitmapSet();
+		Set<Long> exp = new HashSet<Long>();
+		long[] ids = { Long.MIN_VALUE, Long.MAX_VALUE, -1, 0, 0xffff, 0x10000, 9000000000L };
+		for (long id : ids) {
+			add(set, exp, id);
+		}
+		for (long id : ids) {
+			assertTrue(set.contains(id));
+		}
+		assertFalse(set.contains(Long.MIN_VALUE + 1));
+		assertFalse(set.contains(Long.MAX_VALUE - 1));
+		assertFalse(set.contains(-2));
+		assertEquals(ids.length, set.size());
+	}
+
+	@Test
+	public void testClear() {
+		LongBitmapSet set = new LongBitmapSet();
+		assertTrue(set.isEmpty());
+		for (long id = 0; id < 10000; id++) {
+			set.add(id);
+		}
+		assertFalse(set.isEmpty());
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertEquals(0, set.size());
+		assertFalse(set.contains(5));
+		assertTrue(set.add(5));
+		assertTrue(set.contains(5));
+		assertEquals(1, set.size());
+	}
+
+	private static void add(LongBitmapSet set, Set<Long> exp, long id) {
+		assertEquals(exp.add(id), set.add(id));
+	}
+
+	private static void check(LongBitmapSet set, Set<Long> exp, long from, long to) {
+		assertEquals(exp.size(), set.size());
+		for (long id = from; id < to; id++) {
+			assertEquals(exp.contains(id), set.contains(id));
+		}
+	}
+}
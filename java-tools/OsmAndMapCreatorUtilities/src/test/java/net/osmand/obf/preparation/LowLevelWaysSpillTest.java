@@ -0,0 +1,157 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.osmand.obf.preparation.LowLevelWaysSpill.LevelIndex;
+import net.osmand.obf.preparation.LowLevelWaysSpill.LowLevelWayRecord;
+
+public class LowLevelWaysSpillTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testLevelsInMemory() throws IOException {
+		checkSpill(1 << 30);
+	}
+
+	@Test
+	public void testLevelsInFiles() throws IOException {
+		// every chunk and every level is spilled to disk
+		checkSpill(2048);
+	}
+
+	@Test
+	public void testLevelsOpenTogether() throws IOException {
+		LowLevelWaysSpill spill = new LowLevelWaysSpill(new File(tmp.getRoot(), "ways.").getAbsolutePath(), 1 << 30);
+		Random rnd = new Random(5);
+		List<LowLevelWayRecord> all = new ArrayList<LowLevelWayRecord>();
+		for (int i = 0; i < 1000; i++) {
+			LowLevelWayRecord r = new LowLevelWayRecord();
+			r.id = i;
+			r.level = rnd.nextInt(4);
+			r.startNode = rnd.nextInt(100);
+			r.endNode = rnd.nextInt(100);
+			r.name = "";
+			r.nodes = new byte[8];
+			r.types = new byte[] { 0, 1 };
+			r.addTypes = new byte[0];
+			all.add(r);
+			spill.add(r);
+		}
+		Collections.sort(all, LowLevelWaysSpill.ORDER);
+		LowLevelWaysSpill.SortedReader reader = spill.openSortedReader();
+		// small memory limit writes levels to own files, all of them stay readable
+		List<LevelIndex> levels = new ArrayList<LevelIndex>();
+		LevelIndex index;
+		while ((index = reader.nextLevel(1024)) != null) {
+			levels.add(index);
+		}
+		assertEquals(4, levels.size());
+		int pos = 0;
+		for (LevelIndex l : levels) {
+			for (int i = 0; i < l.size(); i++) {
+				assertRecord(all.get(pos++), l.get(i));
+			}
+		}
+		assertEquals(all.size(), pos);
+		for (LevelIndex l : levels) {
+			l.close();
+		}
+		reader.close();
+		spill.delete();
+		assertEquals(0, tmp.getRoot().list().length);
+	}
+
+	private void checkSpill(long chunkLimit) throws IOException {
+		Random rnd = new Random(17);
+		List<LowLevelWayRecord> all = new ArrayList<LowLevelWayRecord>();
+		LowLevelWaysSpill spill = new LowLevelWaysSpill(new File(tmp.getRoot(), "ways.").getAbsolutePath(),
+				chunkLimit);
+		for (int i = 0; i < 3000; i++) {
+			LowLevelWayRecord r = new LowLevelWayRecord();
+			r.id = i;
+			r.level = rnd.nextInt(3);
+			// few nodes, so many ways share start and end nodes
+			r.startNode = rnd.nextInt(200);
+			r.endNode = rnd.nextInt(200);
+			r.name = i % 3 == 0 ? "" : "name " + i;
+			r.nodes = new byte[rnd.nextInt(40)];
+			rnd.nextBytes(r.nodes);
+			r.types = new byte[] { 0, (byte) rnd.nextInt(5) };
+			r.addTypes = new byte[0];
+			all.add(r);
+			spill.add(r);
+		}
+		assertEquals(all.size(), spill.size());
+		Collections.sort(all, LowLevelWaysSpill.ORDER);
+
+		LowLevelWaysSpill.SortedReader reader = spill.openSortedReader();
+		int pos = 0;
+		LevelIndex index;
+		List<LowLevelWayRecord> found = new ArrayList<LowLevelWayRecord>();
+		while ((index = reader.nextLevel()) != null) {
+			try {
+				List<LowLevelWayRecord> level = new ArrayList<LowLevelWayRecord>();
+				for (int i = 0; i < index.size(); i++) {
+					LowLevelWayRecord r = index.get(i);
+					assertEquals(index.getLevel(), r.level);
+					assertRecord(all.get(pos++), r);
+					level.add(r);
+				}
+				for (long node = 0; node < 201; node++) {
+					List<LowLevelWayRecord> expStart = new ArrayList<LowLevelWayRecord>();
+					List<LowLevelWayRecord> expEnd = new ArrayList<LowLevelWayRecord>();
+					for (LowLevelWayRecord r : level) {
+						if (r.startNode == node) {
+							expStart.add(r);
+						}
+						if (r.endNode == node) {
+							expEnd.add(r);
+						}
+					}
+					assertRecords(expStart, index.withStartNode(node, found));
+					assertRecords(expEnd, index.withEndNode(node, found));
+				}
+			} finally {
+				index.close();
+			}
+		}
+		assertEquals(all.size(), pos);
+		assertNull(reader.nextLevel());
+		reader.close();
+		spill.delete();
+		assertEquals(0, tmp.getRoot().list().length);
+	}
+
+	private static void assertRecords(List<LowLevelWayRecord> exp, List<LowLevelWayRecord> act) {
+		assertEquals(exp.size(), act.size());
+		for (int i = 0; i < exp.size(); i++) {
+			assertRecord(exp.get(i), act.get(i));
+		}
+	}
+
+	private static void assertRecord(LowLevelWayRecord exp, LowLevelWayRecord act) {
+		assertEquals(exp.id, act.id);
+		assertEquals(exp.level, act.level);
+		assertEquals(exp.startNode, act.startNode);
+		assertEquals(exp.endNode, act.endNode);
+		assertEquals(exp.name, act.name);
+		assertArrayEquals(exp.nodes, act.nodes);
+		assertArrayEquals(exp.types, act.types);
+		assertArrayEquals(exp.addTypes, act.addTypes);
+	}
+}
@@ -0,0 +1,162 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.osmand.osm.edit.Node;
+
+public class NodeCoordinatesStoreTest {
+
+	private static final double DELTA = 1e-7;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Test
+	public void testDense() throws IOException {
+		checkStore(newStore(0, true));
+	}
+
+	@Test
+	public void testDenseShifted() throws IOException {
+		// ids are multiples of 4 so they still map to distinct slots
+		NodeCoordinatesStore store = newStore(2, true);
+		for (long id = 0; id < 4000; id += 4) {
+			store.put(id, lat(id), lon(id), false);
+		}
+		for (long id = 0; id < 4000; id += 4) {
+			long c = store.get(id);
+			assertEquals(lat(id), NodeCoordinatesStore.decodeLat(c), DELTA);
+			assertEquals(lon(id), NodeCoordinatesStore.decodeLon(c), DELTA);
+		}
+		store.close();
+		store.delete();
+	}
+
+	@Test
+	public void testSparse() throws IOException {
+		checkStore(newStore(0, false));
+	}
+
+	@Test
+	public void testSparseOutOfOrder() throws IOException {
+		NodeCoordinatesStore store = newStore(0, false);
+		store.put(100, 1, 2, false);
+		store.put(300, 3, 4, false);
+		// smaller than last id, kept in fallback map
+		store.put(200, 5, 6, true);
+		store.put(400, 7, 8, false);
+		assertNode(store.getNode(100), 100, 1, 2);
+		assertNode(store.getNode(200), 200, 5, 6);
+		assertTrue(NodeCoordinatesStore.isTagged(store.get(200)));
+		assertNode(store.getNode(300), 300, 3, 4);
+		assertNode(store.getNode(400), 400, 7, 8);
+		assertNull(store.getNode(250));
+		assertNull(store.getNode(500));
+		store.close();
+		store.delete();
+	}
+
+	@Test
+	public void testExtremeCoordinates() throws IOException {
+		NodeCoordinatesStore store = newStore(0, true);
+		store.put(1, -90, -180, false);
+		store.put(2, 90, 180, true);
+		store.put(3, 0, 0, false);
+		long c = store.get(1);
+		assertTrue(c != 0);
+		assertEquals(-90, NodeCoordinatesStore.decodeLat(c), DELTA);
+		assertEquals(-180, NodeCoordinatesStore.decodeLon(c), DELTA);
+		c = store.get(2);
+		assertEquals(90, NodeCoordinatesStore.decodeLat(c), DELTA);
+		assertEquals(180, NodeCoordinatesStore.decodeLon(c), DELTA);
+		assertTrue(NodeCoordinatesStore.isTagged(c));
+		c = store.get(3);
+		assertTrue(c != 0);
+		assertEquals(0, NodeCoordinatesStore.decodeLat(c), DELTA);
+		assertEquals(0, NodeCoordinatesStore.decodeLon(c), DELTA);
+		store.close();
+		store.delete();
+	}
+
+	@Test
+	public void testReopen() throws IOException {
+		File file = new File(tmp.getRoot(), "nodes" + NodeCoordinatesStore.EXT);
+		NodeCoordinatesStore store = newStore(2, true);
+		for (long id = 0; id < 4000; id += 4) {
+			store.put(id, lat(id), lon(id), id % 8 == 0);
+		}
+		store.close();
+		store = NodeCoordinatesStore.open(file, 2, true, 0, Long.MIN_VALUE);
+		for (long id = 0; id < 4000; id += 4) {
+			assertNode(store.getNode(id), id, lat(id), lon(id));
+			assertEquals(id % 8 == 0, NodeCoordinatesStore.isTagged(store.get(id)));
+		}
+		assertNull(store.getNode(1 << 30));
+		store.close();
+
+		store = newStore(0, false);
+		store.put(10, 1, 2, false);
+		store.put(20, 3, 4, true);
+		store.put(30, 5, 6, false);
+		store.close();
+		store = NodeCoordinatesStore.open(file, 0, false, 3, 30);
+		assertNode(store.getNode(10), 10, 1, 2);
+		assertNode(store.getNode(20), 20, 3, 4);
+		assertTrue(NodeCoordinatesStore.isTagged(store.get(20)));
+		assertNode(store.getNode(30), 30, 5, 6);
+		assertNull(store.getNode(15));
+		store.close();
+		store.delete();
+	}
+
+	private NodeCoordinatesStore newStore(int idShift, boolean dense) throws IOException {
+		return new NodeCoordinatesStore(new File(tmp.getRoot(), "nodes" + NodeCoordinatesStore.EXT), idShift,
+				dense);
+	}
+
+	private static void checkStore(NodeCoordinatesStore store) throws IOException {
+		// ids span several mapped segments
+		for (long id = 1; id < 100000000L; id = id * 3 + 1) {
+			store.put(id, lat(id), lon(id), id % 2 == 0);
+		}
+		store.put(-5, 10, 20, false);
+		for (long id = 1; id < 100000000L; id = id * 3 + 1) {
+			long c = store.get(id);
+			assertEquals(lat(id), NodeCoordinatesStore.decodeLat(c), DELTA);
+			assertEquals(lon(id), NodeCoordinatesStore.decodeLon(c), DELTA);
+			assertEquals(id % 2 == 0, NodeCoordinatesStore.isTagged(c));
+			assertNode(store.getNode(id), id, lat(id), lon(id));
+		}
+		assertNode(store.getNode(-5), -5, 10, 20);
+		assertFalse(NodeCoordinatesStore.isTagged(store.get(-5)));
+		assertEquals(0, store.get(2));
+		assertNull(store.getNode(3));
+		assertNull(store.getNode(-6));
+		store.close();
+		store.delete();
+	}
+
+	private static void assertNode(Node n, long id, double lat, double lon) {
+		assertEquals(id, n.getId());
+		assertEquals(lat, n.getLatitude(), DELTA);
+		assertEquals(lon, n.getLongitude(), DELTA);
+	}
+
+	private static double lat(long id) {
+		return (id % 1800000) / 10000.0 - 90;
+	}
+
+	private static double lon(long id) {
+		return 180 - (id % 3600000) / 10000.0;
+	}
+}
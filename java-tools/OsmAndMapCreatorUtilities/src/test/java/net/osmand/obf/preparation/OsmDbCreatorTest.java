@@ -0,0 +1,94 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import gnu.trove.list.array.TLongArrayList;
+
+public class OsmDbCreatorTest {
+
+	@Test
+	public void testEncodeWayNodesBytes() {
+		assertArrayEquals(new byte[0], OsmDbCreator.encodeWayNodes(new TLongArrayList()));
+		// deltas 1, 1, -1 are zigzag encoded to 2, 2, 1
+		assertArrayEquals(new byte[] { 2, 2, 1 }, OsmDbCreator.encodeWayNodes(ids(1, 2, 1)));
+		// 64 needs 2 bytes after zigzag encoding
+		assertArrayEquals(new byte[] { (byte) 0x80, 1, 0x7F }, OsmDbCreator.encodeWayNodes(ids(64, 0)));
+	}
+
+	@Test
+	public void testEncodeLegacyTags() {
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		assertArrayEquals(new byte[0], OsmDbCreator.encodeLegacyTags(tags));
+		tags.put("name", "Stra\u00dfe");
+		tags.put("highway", "");
+		assertArrayEquals("name\0Stra\u00dfe\0highway\0\0".getBytes(StandardCharsets.UTF_8),
+				OsmDbCreator.encodeLegacyTags(tags));
+	}
+
+	@Test
+	public void testEncodeWayNodesRoundTrip() {
+		Random rnd = new Random(11);
+		for (int k = 0; k < 1000; k++) {
+			TLongArrayList nodes = new TLongArrayList();
+			int size = rnd.nextInt(50);
+			for (int i = 0; i < size; i++) {
+				switch (rnd.nextInt(4)) {
+				case 0:
+					nodes.add(rnd.nextLong());
+					break;
+				case 1:
+					nodes.add(-rnd.nextInt(1000));
+					break;
+				default:
+					nodes.add(5000000000L + rnd.nextInt(100000));
+				}
+			}
+			assertEquals(nodes, decodeWayNodes(OsmDbCreator.encodeWayNodes(nodes)));
+		}
+		TLongArrayList extremes = ids(Long.MAX_VALUE, Long.MIN_VALUE, 0, Long.MIN_VALUE, Long.MAX_VALUE, -1);
+		assertEquals(extremes, decodeWayNodes(OsmDbCreator.encodeWayNodes(extremes)));
+	}
+
+	@Test
+	public void testEncodeWayNodesSize() {
+		// consecutive ids of new ways take about a byte per node
+		TLongArrayList nodes = new TLongArrayList();
+		for (long id = 9000000000L; id < 9000001000L; id++) {
+			nodes.add(id);
+		}
+		assertTrue(OsmDbCreator.encodeWayNodes(nodes).length < 1010);
+	}
+
+	private static TLongArrayList ids(long... ids) {
+		return new TLongArrayList(ids);
+	}
+
+	// same decoding as OsmDbAccessor uses for ways table
+	private static TLongArrayList decodeWayNodes(byte[] nodes) {
+		TLongArrayList res = new TLongArrayList();
+		long nodeId = 0;
+		int i = 0;
+		while (i < nodes.length) {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = nodes[i++];
+				v |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			nodeId += (v >>> 1) ^ -(v & 1);
+			res.add(nodeId);
+		}
+		return res;
+	}
+}
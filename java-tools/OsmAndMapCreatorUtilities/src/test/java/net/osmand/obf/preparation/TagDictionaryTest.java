@@ -0,0 +1,66 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import net.osmand.osm.edit.Node;
+
+public class TagDictionaryTest {
+
+	@Test
+	public void testRoundTrip() {
+		TagDictionary dict = new TagDictionary();
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		tags.put("highway", "residential");
+		tags.put("name", "Main street");
+		tags.put("name:ru", "Главная улица");
+		tags.put("", "");
+		for (int i = 0; i < 5; i++) {
+			assertEquals(tags, decode(dict, dict.encodeTags(tags)));
+		}
+		// highway=residential, name=Main street, name:ru=..., = are frequent enough to get pair codes
+		assertTrue(dict.getPairsSize() > 0);
+	}
+
+	@Test
+	public void testPairsWithSeparatorInTag() {
+		TagDictionary dict = new TagDictionary();
+		Map<String, String> first = new LinkedHashMap<String, String>();
+		first.put("a=b", "c");
+		Map<String, String> second = new LinkedHashMap<String, String>();
+		second.put("a", "b=c");
+		for (int i = 0; i < 5; i++) {
+			assertEquals(first, decode(dict, dict.encodeTags(first)));
+			assertEquals(second, decode(dict, dict.encodeTags(second)));
+		}
+		assertEquals(2, dict.getPairsSize());
+	}
+
+	@Test
+	public void testPairStringsShared() {
+		TagDictionary dict = new TagDictionary();
+		Map<String, String> tags = new LinkedHashMap<String, String>();
+		tags.put("building", "yes");
+		byte[] encoded = null;
+		for (int i = 0; i < 5; i++) {
+			encoded = dict.encodeTags(tags);
+		}
+		Node n1 = new Node(0, 0, 1);
+		Node n2 = new Node(0, 0, 2);
+		dict.decodeTags(encoded, n1);
+		dict.decodeTags(encoded, n2);
+		assertSame(n1.getTag("building"), n2.getTag("building"));
+	}
+
+	private static Map<String, String> decode(TagDictionary dict, byte[] encoded) {
+		Node n = new Node(0, 0, 1);
+		dict.decodeTags(encoded, n);
+		return new LinkedHashMap<String, String>(n.getTags());
+	}
+}
@@ -0,0 +1,164 @@
+package net.osmand.obf.preparation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.osmand.osm.edit.Node;
+import net.osmand.util.MapUtils;
+
+public class WaySimplifierTest {
+
+	private static final int ZOOM = 20;
+	private static final int EPSILON = 3;
+
+	@Test
+	public void testStraightLine() {
+		WaySimplifier s = new WaySimplifier();
+		for (int i = 0; i <= 100; i++) {
+			s.add(50 + i * 0.001, 10 + i * 0.001, i);
+		}
+		assertEquals(2, s.simplify(ZOOM, EPSILON));
+		assertEquals(0, s.getResultId(0));
+		assertEquals(100, s.getResultId(1));
+		assertEquals(50.1, s.getResultLatitude(1), 1e-9);
+		assertEquals(10.1, s.getResultLongitude(1), 1e-9);
+	}
+
+	@Test
+	public void testZigzagIsKept() {
+		WaySimplifier s = new WaySimplifier();
+		for (int i = 0; i < 20; i++) {
+			s.add(50 + (i % 2) * 0.01, 10 + i * 0.01, i);
+		}
+		assertEquals(20, s.simplify(ZOOM, EPSILON));
+		for (int i = 0; i < 20; i++) {
+			assertEquals(i, s.getResultId(i));
+		}
+		// at low zoom the whole zigzag is within epsilon
+		assertEquals(2, s.simplify(5, EPSILON));
+	}
+
+	@Test
+	public void testRandomWaysWithinEpsilon() {
+		Random rnd = new Random(13);
+		WaySimplifier s = new WaySimplifier();
+		for (int k = 0; k < 50; k++) {
+			s.clear();
+			// longer than initial capacity to grow arrays
+			int size = 2 + rnd.nextInt(1000);
+			double[] lats = new double[size];
+			double[] lons = new double[size];
+			double lat = 40 + rnd.nextDouble() * 20;
+			double lon = rnd.nextDouble() * 20;
+			for (int i = 0; i < size; i++) {
+				lat += (rnd.nextDouble() - 0.5) * 0.001;
+				lon += rnd.nextDouble() * 0.001;
+				lats[i] = lat;
+				lons[i] = lon;
+				s.add(lat, lon, i);
+			}
+			int zoom = 12 + rnd.nextInt(10);
+			int res = s.simplify(zoom, EPSILON);
+			assertTrue(res >= 2);
+			assertEquals(0, s.getResultId(0));
+			assertEquals(size - 1, s.getResultId(res - 1));
+			for (int r = 1; r < res; r++) {
+				int from = (int) s.getResultId(r - 1);
+				int to = (int) s.getResultId(r);
+				assertTrue(from < to);
+				// dropped points are close to simplified segment
+				for (int i = from + 1; i < to; i++) {
+					assertTrue(distance(zoom, lats, lons, i, from, to) < EPSILON);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCycle() {
+		WaySimplifier s = new WaySimplifier();
+		List<Node> ring = new ArrayList<Node>();
+		for (int i = 0; i < 360; i += 10) {
+			ring.add(new Node(50 + 0.01 * Math.sin(Math.toRadians(i)), 10 + 0.01 * Math.cos(Math.toRadians(i)), i));
+		}
+		ring.add(ring.get(0));
+		s.addNodes(ring);
+		assertEquals(37, s.size());
+		// small ring needs high zoom to keep all points
+		int res = s.simplify(28, EPSILON);
+		assertEquals(37, res);
+		List<Node> nodes = s.getResultNodes();
+		// closing point is replaced by first one, original nodes are reused
+		assertSame(ring.get(0), nodes.get(res - 1));
+		for (int i = 0; i < res - 1; i++) {
+			assertSame(ring.get(i), nodes.get(i));
+		}
+		// ring collapses at low zoom
+		assertEquals(0, s.simplify(1, EPSILON));
+	}
+
+	@Test
+	public void testDegenerate() {
+		WaySimplifier s = new WaySimplifier();
+		assertEquals(0, s.simplify(ZOOM, EPSILON));
+		s.add(50, 10, 1);
+		assertEquals(0, s.simplify(ZOOM, EPSILON));
+		s.add(50, 10, 2);
+		s.add(50, 10, 3);
+		assertEquals(0, s.simplify(ZOOM, EPSILON));
+		assertEquals(0, s.getResultSize());
+		s.addNode(null);
+		assertEquals(3, s.size());
+		s.clear();
+		assertEquals(0, s.size());
+	}
+
+	@Test
+	public void testResultCoordinates31() {
+		WaySimplifier s = new WaySimplifier();
+		s.add(50, 10, 1);
+		s.add(50.5, 10.5, 2);
+		s.add(51, 10, 3);
+		assertEquals(3, s.simplify(ZOOM, EPSILON));
+		int[] c = s.getResultCoordinates31();
+		assertEquals(6, c.length);
+		assertEquals(MapUtils.get31TileNumberX(10.5), c[2]);
+		assertEquals(MapUtils.get31TileNumberY(50.5), c[3]);
+		assertEquals(MapUtils.get31TileNumberY(51), c[5]);
+		// points added by coordinates get new nodes
+		Node n = s.getResultNodes().get(1);
+		assertEquals(2, n.getId());
+		assertEquals(50.5, n.getLatitude(), 1e-9);
+	}
+
+	@Test
+	public void testSmallArea() {
+		WaySimplifier s = new WaySimplifier();
+		s.add(50, 10, 1);
+		assertTrue(s.isSmallArea(10, 2, 4));
+		s.add(50.0001, 10.0001, 2);
+		assertTrue(s.isSmallArea(10, 2, 4));
+		assertFalse(s.isSmallArea(20, 2, 4));
+		s.add(51, 11, 3);
+		assertFalse(s.isSmallArea(10, 2, 4));
+	}
+
+	private static double distance(int zoom, double[] lats, double[] lons, int p, int s, int e) {
+		double sx = MapUtils.getTileNumberX(zoom, lons[s]);
+		double sy = MapUtils.getTileNumberY(zoom, lats[s]);
+		double dx = MapUtils.getTileNumberX(zoom, lons[e]) - sx;
+		double dy = MapUtils.getTileNumberY(zoom, lats[e]) - sy;
+		double px = MapUtils.getTileNumberX(zoom, lons[p]) - sx;
+		double py = MapUtils.getTileNumberY(zoom, lats[p]) - sy;
+		double t = Math.max(0, Math.min(1, (px * dx + py * dy) / (dx * dx + dy * dy)));
+		return Math.hypot(px - t * dx, py - t * dy);
+	}
+}
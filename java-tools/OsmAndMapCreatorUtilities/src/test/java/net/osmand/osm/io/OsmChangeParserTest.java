@@ -0,0 +1,121 @@
+package net.osmand.osm.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.osmand.obf.preparation.OsmDbCreator;
+import net.osmand.osm.edit.Entity;
+import net.osmand.osm.edit.Entity.EntityId;
+import net.osmand.osm.edit.Entity.EntityType;
+import net.osmand.osm.edit.Node;
+import net.osmand.osm.edit.Relation;
+import net.osmand.osm.edit.Relation.RelationMember;
+import net.osmand.osm.edit.Way;
+
+public class OsmChangeParserTest {
+
+	private static final String OSC = "<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<osmChange version=\"0.6\">\n"
+			+ " <create>\n"
+			+ "  <node id=\"1\" version=\"1\" lat=\"52.37\" lon=\"4.89\">\n"
+			+ "   <tag k=\"amenity\" v=\"cafe\"/>\n"
+			+ "   <tag k=\"name\" v=\"Café\"/>\n"
+			+ "  </node>\n"
+			+ "  <node id=\"2\" version=\"1\" lat=\"-33.86\" lon=\"151.2\"/>\n"
+			+ " </create>\n"
+			+ " <modify>\n"
+			+ "  <way id=\"10\" version=\"3\">\n"
+			+ "   <nd ref=\"1\"/>\n"
+			+ "   <nd ref=\"2\"/>\n"
+			+ "   <tag k=\"highway\" v=\"residential\"/>\n"
+			+ "  </way>\n"
+			+ "  <relation id=\"20\" version=\"2\">\n"
+			+ "   <member type=\"way\" ref=\"10\" role=\"outer\"/>\n"
+			+ "   <member type=\"node\" ref=\"1\" role=\"\"/>\n"
+			+ "   <tag k=\"type\" v=\"multipolygon\"/>\n"
+			+ "  </relation>\n"
+			+ " </modify>\n"
+			+ " <delete>\n"
+			+ "  <node id=\"3\" version=\"4\"/>\n"
+			+ "  <way id=\"11\" version=\"2\"/>\n"
+			+ " </delete>\n"
+			+ " <create>\n"
+			+ "  <node id=\"4\" version=\"1\" lat=\"1\" lon=\"2\"/>\n"
+			+ " </create>\n"
+			+ "</osmChange>\n";
+
+	@Test
+	public void testParse() throws Exception {
+		final List<Entity> entities = new ArrayList<Entity>();
+		int count = new OsmChangeParser().parse(new ByteArrayInputStream(OSC.getBytes("UTF-8")),
+				new IOsmStorageFilter() {
+					@Override
+					public boolean acceptEntityToLoad(OsmBaseStorage storage, EntityId entityId, Entity entity) {
+						assertEquals(EntityId.valueOf(entity), entityId);
+						entities.add(entity);
+						return true;
+					}
+				});
+		assertEquals(7, count);
+		assertEquals(7, entities.size());
+
+		Node cafe = (Node) entities.get(0);
+		assertEquals(1, cafe.getId());
+		assertEquals(52.37, cafe.getLatitude(), 1e-9);
+		assertEquals(4.89, cafe.getLongitude(), 1e-9);
+		assertEquals("cafe", cafe.getTag("amenity"));
+		assertEquals("Café", cafe.getTag("name"));
+		assertNotDeleted(cafe);
+
+		Node plain = (Node) entities.get(1);
+		assertEquals(2, plain.getId());
+		assertTrue(plain.getTags().isEmpty());
+
+		Way way = (Way) entities.get(2);
+		assertEquals(10, way.getId());
+		assertEquals(2, way.getNodeIds().size());
+		assertEquals(1, way.getNodeIds().get(0));
+		assertEquals(2, way.getNodeIds().get(1));
+		assertEquals("residential", way.getTag("highway"));
+		assertNotDeleted(way);
+
+		Relation relation = (Relation) entities.get(3);
+		assertEquals(20, relation.getId());
+		assertEquals("multipolygon", relation.getTag("type"));
+		Iterator<RelationMember> members = relation.getMembers().iterator();
+		RelationMember m = members.next();
+		assertEquals(new EntityId(EntityType.WAY, 10L), m.getEntityId());
+		assertEquals("outer", m.getRole());
+		m = members.next();
+		assertEquals(new EntityId(EntityType.NODE, 1L), m.getEntityId());
+		assertEquals("", m.getRole());
+
+		Node deletedNode = (Node) entities.get(4);
+		assertEquals(3, deletedNode.getId());
+		assertDeleted(deletedNode);
+		Way deletedWay = (Way) entities.get(5);
+		assertEquals(11, deletedWay.getId());
+		assertDeleted(deletedWay);
+
+		// delete block is closed
+		Node created = (Node) entities.get(6);
+		assertEquals(4, created.getId());
+		assertNotDeleted(created);
+	}
+
+	private static void assertDeleted(Entity e) {
+		assertEquals(OsmDbCreator.OSMAND_DELETE_VALUE, e.getTag(OsmDbCreator.OSMAND_DELETE_TAG));
+	}
+
+	private static void assertNotDeleted(Entity e) {
+		assertNull(e.getTag(OsmDbCreator.OSMAND_DELETE_TAG));
+	}
+}
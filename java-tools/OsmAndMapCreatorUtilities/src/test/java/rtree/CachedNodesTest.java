@@ -0,0 +1,140 @@
+package rtree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachedNodesTest {
+
+	private static final int CACHE_SIZE = 16;
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	@Before
+	public void setUp() throws Exception {
+		RTree.clearCache();
+		RTree.chdNodes.setCacheSize(CACHE_SIZE);
+	}
+
+	@After
+	public void tearDown() {
+		RTree.clearCache();
+	}
+
+	@Test
+	public void testTreeWithSmallCache() throws Exception {
+		RTree tree = new RTree(new File(tmp.getRoot(), "tree.rtree").getAbsolutePath());
+		List<Rect> rects = insertRandom(tree, new Random(3), 3000);
+		assertTrue(RTree.chdNodes.getSize() <= CACHE_SIZE);
+		tree.flush();
+		checkQueries(tree, rects, new Random(5));
+		assertTrue(RTree.chdNodes.getSize() <= CACHE_SIZE);
+		assertTrue(RTree.chdNodes.getHits() > 0);
+		assertTrue(RTree.chdNodes.getMisses() > 0);
+	}
+
+	@Test
+	public void testFilesShareCache() throws Exception {
+		RTree first = new RTree(new File(tmp.getRoot(), "first.rtree").getAbsolutePath());
+		RTree second = new RTree(new File(tmp.getRoot(), "second.rtree").getAbsolutePath());
+		Random rnd = new Random(7);
+		List<Rect> firstRects = new ArrayList<Rect>();
+		List<Rect> secondRects = new ArrayList<Rect>();
+		// interleaved inserts evict nodes of other file
+		for (int i = 0; i < 20; i++) {
+			firstRects.addAll(insertRandom(first, rnd, 100, firstRects.size()));
+			secondRects.addAll(insertRandom(second, rnd, 100, secondRects.size()));
+		}
+		assertTrue(RTree.chdNodes.getSize() <= CACHE_SIZE);
+		first.flush();
+		second.flush();
+		checkQueries(first, firstRects, new Random(11));
+		checkQueries(second, secondRects, new Random(13));
+	}
+
+	@Test
+	public void testFileCacheSize() throws Exception {
+		String fileName = new File(tmp.getRoot(), "limited.rtree").getAbsolutePath();
+		RTree tree = new RTree(fileName);
+		RTree.chdNodes.setFileCacheSize(fileName, 4);
+		List<Rect> rects = insertRandom(tree, new Random(17), 1000);
+		assertTrue(RTree.chdNodes.getSize() <= 4);
+		tree.flush();
+		checkQueries(tree, rects, new Random(19));
+	}
+
+	@Test
+	public void testCloseRemovesFile() throws Exception {
+		String firstName = new File(tmp.getRoot(), "first.rtree").getAbsolutePath();
+		RTree first = new RTree(firstName);
+		RTree second = new RTree(new File(tmp.getRoot(), "second.rtree").getAbsolutePath());
+		List<Rect> firstRects = insertRandom(first, new Random(23), 500);
+		insertRandom(second, new Random(29), 500);
+		assertEquals(2, RTree.chdNodes.getFilesCount());
+		int size = RTree.chdNodes.getSize();
+		first.close();
+		assertEquals(1, RTree.chdNodes.getFilesCount());
+		assertTrue(RTree.chdNodes.getSize() < size);
+		// closed file is read again with new header
+		RTree reopened = new RTree(firstName);
+		checkQueries(reopened, firstRects, new Random(31));
+		reopened.close();
+		second.close();
+		assertEquals(0, RTree.chdNodes.getFilesCount());
+		assertEquals(0, RTree.chdNodes.getSize());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullFileName() throws Exception {
+		RTree.chdNodes.setFileCacheSize(null, 4);
+	}
+
+	private static List<Rect> insertRandom(RTree tree, Random rnd, int count) throws Exception {
+		return insertRandom(tree, rnd, count, 0);
+	}
+
+	private static List<Rect> insertRandom(RTree tree, Random rnd, int count, int firstId) throws Exception {
+		List<Rect> rects = new ArrayList<Rect>();
+		for (int i = 0; i < count; i++) {
+			Rect r = randomRect(rnd, 100);
+			tree.insert(new LeafElement(r, firstId + i));
+			rects.add(r);
+		}
+		return rects;
+	}
+
+	private static Rect randomRect(Random rnd, int maxSize) throws Exception {
+		int x = rnd.nextInt(100000);
+		int y = rnd.nextInt(100000);
+		return new Rect(x, y, x + rnd.nextInt(maxSize), y + rnd.nextInt(maxSize));
+	}
+
+	private static void checkQueries(RTree tree, List<Rect> rects, Random rnd) throws Exception {
+		for (int q = 0; q < 200; q++) {
+			Rect query = randomRect(rnd, 5000);
+			TreeSet<Long> expected = new TreeSet<Long>();
+			for (int i = 0; i < rects.size(); i++) {
+				if (rects.get(i).overlaps(query)) {
+					expected.add((long) i);
+				}
+			}
+			TreeSet<Long> actual = new TreeSet<Long>();
+			for (Object o : tree.overlaps(query)) {
+				actual.add(((LeafElement) o).getPtr());
+			}
+			assertEquals(expected, actual);
+		}
+	}
+}
@@ -17,6 +17,8 @@ import org.springframework.util.MultiValueMap;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PreDestroy;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -35,6 +37,45 @@ public class GpxService {
     @Value("${osmand.srtm.location}")
     String srtmLocation;
     
+    @Value("${osmand.srtm.cache-mb:2048}")
+    long srtmCacheMb;
+
+    private IndexHeightData srtmHeightData;
+    
+    /**
+     * Thread safe height data of local srtm folder or null if srtm is not available or processed remotely
+     */
+    public IndexHeightData getSrtmHeightData() {
+        if (srtmLocation == null || srtmLocation.startsWith("http://") || srtmLocation.startsWith("https://")) {
+            return null;
+        }
+        File srtmFolder = new File(srtmLocation);
+        if (!srtmFolder.exists()) {
+            return null;
+        }
+        synchronized (this) {
+            // created once and kept for the life of service, cache limits apply to this instance only
+            if (srtmHeightData == null) {
+                IndexHeightData hd = new IndexHeightData();
+                hd.setSrtmData(srtmFolder.getAbsolutePath(), srtmFolder);
+                // tiles are kept by size, not by number of tiles
+                hd.setCacheLimits(-1, srtmCacheMb * 1024 * 1024);
+                srtmHeightData = hd;
+            }
+            return srtmHeightData;
+        }
+    }
+
+    @PreDestroy
+    public void releaseSrtmHeightData() {
+        synchronized (this) {
+            if (srtmHeightData != null) {
+                srtmHeightData.close();
+                srtmHeightData = null;
+            }
+        }
+    }
+    
     public WebGpxParser.TrackData getTrackDataByGpxFile(GPXFile gpxFile, File originalSourceGpx) {
         WebGpxParser.TrackData gpxData = new WebGpxParser.TrackData();
         
@@ -143,17 +184,25 @@ public class GpxService {
             }
             return null;
         } else {
-            File srtmFolder = new File(srtmLocation);
-            if (!srtmFolder.exists()) {
+            IndexHeightData hd = getSrtmHeightData();
+            if (hd == null) {
                 return null;
             }
-            IndexHeightData hd = new IndexHeightData();
-            hd.setSrtmData(srtmFolder.getAbsolutePath(), srtmFolder);
             for (GPXUtilities.Track tr : gpxFile.tracks) {
                 for (GPXUtilities.TrkSegment s : tr.segments) {
+                    // heights of segment are calculated by tiles at once
+                    int size = s.points.size();
+                    double[] lats = new double[size];
+                    double[] lons = new double[size];
+                    double[] heights = new double[size];
+                    for (int i = 0; i < size; i++) {
+                        lats[i] = s.points.get(i).lat;
+                        lons[i] = s.points.get(i).lon;
+                    }
+                    hd.getPointHeights(lats, lons, size, heights, missingFile);
                     for (int i = 0; i < s.points.size(); i++) {
                         GPXUtilities.WptPt wpt = s.points.get(i);
-                        double h = hd.getPointHeight(wpt.lat, wpt.lon, missingFile);
+                        double h = heights[i];
                         if (h != IndexHeightData.INEXISTENT_HEIGHT) {
                             wpt.ele = h;
                         } else if (i == 0) {